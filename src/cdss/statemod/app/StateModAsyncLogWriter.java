@@ -0,0 +1,180 @@
+// StateModAsyncLogWriter - bounded lock-free ring buffer of log messages written on a background thread
+
+/* NoticeStart
+
+StateMod Java
+StateMod Java is a part of Colorado's Decision Support Systems (CDSS)
+Copyright (C) 2019 Colorado Department of Natural Resources
+
+StateMod Java is free software:  you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+StateMod Java is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+    along with StateMod Java.  If not, see <https://www.gnu.org/licenses/>.
+
+NoticeEnd */
+
+package cdss.statemod.app;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+import RTi.Util.Message.Message;
+
+/**
+ * Bounded ring buffer of log messages that are written to RTi.Util.Message.Message on a background thread,
+ * so that threads that log do not wait for terminal and log file output.
+ * <p>
+ * Any number of threads add messages without locking: a thread claims the next sequence number with
+ * compare-and-set and then publishes the message in the slot for the sequence.  The writer thread writes the
+ * slots in sequence order, so messages from each thread are written in the order that they were logged.
+ * If the buffer is full, the logging thread waits for the writer rather than losing messages.
+ * Message formatting is done on the writer thread.
+ */
+public class StateModAsyncLogWriter {
+
+	/**
+	 * Slots for messages, null if the slot has not been published or has been written.
+	 */
+	private final AtomicReferenceArray<StateModLogger.LogEvent> slots;
+
+	/**
+	 * Number of slots, a power of 2.
+	 */
+	private final int capacity;
+
+	/**
+	 * Mask to convert a sequence to a slot index.
+	 */
+	private final int mask;
+
+	/**
+	 * Next sequence to be claimed by a logging thread.
+	 */
+	private final AtomicLong tail = new AtomicLong();
+
+	/**
+	 * Next sequence to be written by the writer thread.
+	 */
+	private final AtomicLong head = new AtomicLong();
+
+	/**
+	 * Writer thread.
+	 */
+	private final Thread writerThread;
+
+	/**
+	 * Whether the writer should stop once the buffer is empty.
+	 */
+	private volatile boolean stopping = false;
+
+	/**
+	 * Constructor, which starts the writer thread.
+	 * @param capacity minimum number of messages that can be buffered, rounded up to a power of 2
+	 */
+	public StateModAsyncLogWriter ( int capacity ) {
+		int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+		this.capacity = size;
+		this.mask = size - 1;
+		this.slots = new AtomicReferenceArray<>(size);
+		this.writerThread = new Thread(new Runnable() {
+			@Override
+			public void run () {
+				writeMessages();
+			}
+		}, "StateMod-log");
+		this.writerThread.setDaemon(true);
+		this.writerThread.start();
+	}
+
+	/**
+	 * Add a message to the buffer, waiting if the buffer is full.
+	 * @param event message to add
+	 * @return false if the writer has stopped and the message was not added
+	 */
+	public boolean add ( StateModLogger.LogEvent event ) {
+		long sequence;
+		while ( true ) {
+			if ( this.stopping ) {
+				return false;
+			}
+			sequence = this.tail.get();
+			if ( (sequence - this.head.get()) >= this.capacity ) {
+				// Buffer is full - wait for the writer
+				LockSupport.unpark(this.writerThread);
+				LockSupport.parkNanos(10000L);
+				continue;
+			}
+			if ( this.tail.compareAndSet(sequence, sequence + 1) ) {
+				break;
+			}
+		}
+		this.slots.set((int)(sequence & this.mask), event);
+		LockSupport.unpark(this.writerThread);
+		return true;
+	}
+
+	/**
+	 * Wait until all messages added before this call have been written.
+	 */
+	public void flush () {
+		long sequence = this.tail.get();
+		while ( (this.head.get() < sequence) && this.writerThread.isAlive() ) {
+			LockSupport.unpark(this.writerThread);
+			LockSupport.parkNanos(100000L);
+		}
+	}
+
+	/**
+	 * Write the messages that are in the buffer and stop the writer thread.
+	 * Messages added after this call are not written by the writer thread.
+	 */
+	public void shutdown () {
+		flush();
+		this.stopping = true;
+		LockSupport.unpark(this.writerThread);
+		try {
+			this.writerThread.join(5000);
+		}
+		catch ( InterruptedException e ) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Write messages in sequence order until stopped.
+	 */
+	private void writeMessages () {
+		while ( true ) {
+			long sequence = this.head.get();
+			int index = (int)(sequence & this.mask);
+			StateModLogger.LogEvent event = this.slots.get(index);
+			if ( event == null ) {
+				// Slot is not published yet, or the buffer is empty
+				if ( this.stopping && (sequence == this.tail.get()) ) {
+					return;
+				}
+				LockSupport.parkNanos(1000000L);
+				continue;
+			}
+			this.slots.set(index, null);
+			try {
+				event.write();
+			}
+			catch ( RuntimeException e ) {
+				// Do not stop logging because one message could not be written
+				Message.printWarning(3, "StateModAsyncLogWriter.writeMessages", e);
+			}
+			// Advance after writing so that flush() returns only once the message has been written
+			this.head.set(sequence + 1);
+		}
+	}
+}
@@ -0,0 +1,379 @@
+// StateModBaseflowCalculator - compute baseflows (natural flows) at every river node
+
+/* NoticeStart
+
+StateMod Java
+StateMod Java is a part of Colorado's Decision Support Systems (CDSS)
+Copyright (C) 2019 Colorado Department of Natural Resources
+
+StateMod Java is free software:  you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+StateMod Java is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+    along with StateMod Java.  If not, see <https://www.gnu.org/licenses/>.
+
+NoticeEnd */
+
+package cdss.statemod.app;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import DWR.StateMod.StateMod_DataSet;
+import DWR.StateMod.StateMod_Diversion;
+import RTi.Util.Time.DateTime;
+
+/**
+ * Compute baseflows (natural flows) at every river node from historical data.
+ * <p>
+ * For each time step the local impact of each node is the consumptive use of its historical diversion
+ * (diversion times efficiency), the change in historical reservoir content, and the historical well pumping.
+ * Impacts are accumulated from upstream to downstream in one pass using the compiled network order,
+ * so the cost of a time step is proportional to the number of nodes, not the depth of the network.
+ * The baseflow at a gaged node is the historical flow plus the accumulated upstream impacts.
+ * The baseflow at an ungaged node is the sum of the baseflows of the nearest upstream gaged nodes,
+ * which does not include gains between the gages and the node.
+ * <p>
+ * Return flow timing, monthly efficiencies, and stream estimate gain distribution are not yet included.
+ * If more than one thread is requested, the tributaries above each confluence are processed in parallel
+ * (see StateModSubBasinExecutor), since a node only depends on the nodes upstream of it.
+ * Results are passed to the writer as each time step completes so that output is not held in memory.
+ */
+public class StateModBaseflowCalculator implements StateModSubBasinExecutor.BasinWork {
+
+	/**
+	 * Upstream node start positions and upstream nodes from the compiled network.
+	 */
+	private final int [] upstreamStart;
+	private final int [] upstreamNodes;
+
+	/**
+	 * Reaches and independent sub-basins.
+	 */
+	private final StateModSubBasins subBasins;
+
+	/**
+	 * Historical streamflow column and position of each node (-1 if ungaged).
+	 */
+	private final StateModTimeSeriesColumn histColumn;
+	private final int [] nodeHistPos;
+
+	/**
+	 * Historical diversion column, position of each node, and efficiency fraction of each node.
+	 */
+	private final StateModTimeSeriesColumn divColumn;
+	private final int [] nodeDivPos;
+	private final double [] nodeDivEfficiency;
+
+	/**
+	 * Historical reservoir content column and position of each node.
+	 */
+	private final StateModTimeSeriesColumn resColumn;
+	private final int [] nodeResPos;
+
+	/**
+	 * Conversion from reservoir content change (ACFT) to the flow units of the interval.
+	 */
+	private final double resConversion;
+
+	/**
+	 * Historical well pumping column and position of each node.
+	 */
+	private final StateModTimeSeriesColumn wellColumn;
+	private final int [] nodeWellPos;
+
+	/**
+	 * Column blocks and offsets of the values for the current time step, set before reaches are processed
+	 * (and for reservoir content, also the previous time step).
+	 */
+	private double [] histBlock;
+	private int histOffset;
+	private double [] divBlock;
+	private int divOffset;
+	private double [] resBlock;
+	private int resOffset;
+	private double [] resPrevBlock;
+	private int resPrevOffset;
+	private double [] wellBlock;
+	private int wellOffset;
+
+	/**
+	 * Number of time steps and first date/time.
+	 */
+	private final int stepCount;
+	private final DateTime start;
+
+	/**
+	 * Whether the calculation is daily (true) or monthly (false).
+	 */
+	private final boolean daily;
+
+	/**
+	 * Accumulated upstream impacts for each node.
+	 */
+	private final double [] impact;
+
+	/**
+	 * Baseflow for each node for the current time step.
+	 */
+	private final double [] baseflow;
+
+	/**
+	 * Number of threads used to process tributary reaches.
+	 */
+	private int threads = 1;
+
+	/**
+	 * Cancellation and progress for the run, or null if the run cannot be cancelled.
+	 */
+	private StateModRunControl runControl = null;
+
+	/**
+	 * Constructor, which compiles all data needed by the time step loop.
+	 * @param dataset dataset that has been read, used for diversion efficiencies
+	 * @param store time series store for the dataset
+	 * @param network compiled river network
+	 * @param daily if true, compute daily baseflows, if false, monthly
+	 * @param metrics metrics for the run, used if monthly values are disaggregated to daily, or null to not record
+	 */
+	public StateModBaseflowCalculator ( StateMod_DataSet dataset, StateModTimeSeriesStore store,
+		StateModNetwork network, boolean daily, StateModMetrics metrics ) {
+		this.daily = daily;
+		this.upstreamStart = network.getUpstreamStart();
+		this.upstreamNodes = network.getUpstreamNodes();
+		this.subBasins = StateModSubBasins.analyze(network, null);
+		StateModStationIndex nodeIndex = network.getNodeIndex();
+		StateModTimeSeriesColumn histColumn = store.getColumn(daily ?
+			StateModTimeSeriesType.STREAMFLOW_HISTORICAL_DAILY : StateModTimeSeriesType.STREAMFLOW_HISTORICAL_MONTHLY);
+		this.histColumn = histColumn;
+		this.nodeHistPos = mapNodes(nodeIndex, histColumn);
+		StateModTimeSeriesColumn divColumn = store.getColumn(daily ?
+			StateModTimeSeriesType.DIVERSION_HISTORICAL_DAILY : StateModTimeSeriesType.DIVERSION_HISTORICAL_MONTHLY);
+		if ( daily && (divColumn == null) ) {
+			// Use monthly historical diversions disaggregated to daily
+			divColumn = store.getDisaggregatedColumn(StateModTimeSeriesType.DIVERSION_HISTORICAL_MONTHLY, metrics);
+		}
+		this.divColumn = divColumn;
+		this.nodeDivPos = mapNodes(nodeIndex, divColumn);
+		this.nodeDivEfficiency = new double[nodeIndex.size()];
+		Arrays.fill(this.nodeDivEfficiency, 1.0);
+		List<?> diversions = StateModDataSetLoader.getComponentData(dataset, StateMod_DataSet.COMP_DIVERSION_STATIONS);
+		if ( diversions != null ) {
+			for ( Object o : diversions ) {
+				StateMod_Diversion div = (StateMod_Diversion)o;
+				int node = nodeIndex.getIndex(div.getID());
+				double efficiency = div.getDivefc();
+				// Efficiency is a percent - a negative value indicates monthly efficiencies, which are not yet used
+				if ( (node >= 0) && (efficiency > 0.0) && (efficiency <= 100.0) ) {
+					this.nodeDivEfficiency[node] = efficiency/100.0;
+				}
+			}
+		}
+		StateModTimeSeriesColumn resColumn = store.getColumn(daily ?
+			StateModTimeSeriesType.RESERVOIR_CONTENT_DAILY : StateModTimeSeriesType.RESERVOIR_CONTENT_MONTHLY);
+		this.resColumn = resColumn;
+		this.nodeResPos = mapNodes(nodeIndex, resColumn);
+		// Daily flows are CFS, monthly flows are ACFT
+		this.resConversion = daily ? 1.0/StateModSimulator.CFS_DAY_TO_ACFT : 1.0;
+		StateModTimeSeriesColumn wellColumn = store.getColumn(daily ?
+			StateModTimeSeriesType.WELL_PUMPING_DAILY : StateModTimeSeriesType.WELL_PUMPING_MONTHLY);
+		if ( daily && (wellColumn == null) ) {
+			// Use monthly well pumping disaggregated to daily
+			wellColumn = store.getDisaggregatedColumn(StateModTimeSeriesType.WELL_PUMPING_MONTHLY, metrics);
+		}
+		this.wellColumn = wellColumn;
+		this.nodeWellPos = mapNodes(nodeIndex, wellColumn);
+		int intervalBase = (histColumn == null) ? 0 : histColumn.getType().getIntervalBase();
+		this.stepCount = (histColumn == null) ? 0 : store.getStepCount(intervalBase);
+		this.start = (histColumn == null) ? null : store.getStart(intervalBase);
+		this.impact = new double[nodeIndex.size()];
+		this.baseflow = new double[nodeIndex.size()];
+	}
+
+	/**
+	 * Return the baseflow for each node for the current time step, which is not copied.
+	 */
+	public double [] getBaseflow () {
+		return this.baseflow;
+	}
+
+	/**
+	 * Return the first date/time, or null if no historical streamflow is available.
+	 */
+	public DateTime getStart () {
+		return (this.start == null) ? null : new DateTime(this.start);
+	}
+
+	/**
+	 * Return the number of time steps.
+	 */
+	public int getStepCount () {
+		return this.stepCount;
+	}
+
+	/**
+	 * Return the block of a column that contains a time step, or an empty array if the column is null.
+	 */
+	private static double [] getBlock ( StateModTimeSeriesColumn column, int step ) {
+		return ((column == null) || (step < 0)) ? StateModTimeSeriesColumn.EMPTY_BLOCK : column.getBlock(step);
+	}
+
+	/**
+	 * Return the offset of a time step in the block of a column, or zero if the column is null.
+	 */
+	private static int getBlockOffset ( StateModTimeSeriesColumn column, int step ) {
+		return ((column == null) || (step < 0)) ? 0 : column.getBlockOffset(step);
+	}
+
+	/**
+	 * Return whether the calculation is daily.
+	 */
+	public boolean isDaily () {
+		return this.daily;
+	}
+
+	/**
+	 * Map each node to its position in a store column.
+	 * @return array with the column position for each node, -1 if the column does not have the node
+	 */
+	private static int [] mapNodes ( StateModStationIndex nodeIndex, StateModTimeSeriesColumn column ) {
+		return nodeIndex.mapPositions((column == null) ? null : column.getStationIndex());
+	}
+
+	/**
+	 * Compute baseflows for all time steps, passing each time step to the writer as it completes.
+	 * @param writer writer for the baseflow output, or null to only compute the baseflows (for example for benchmarks)
+	 * @exception IOException if there is an error writing output
+	 */
+	public void run ( StateModBaseflowWriter writer ) throws IOException {
+		String routine = getClass().getSimpleName() + ".run";
+		if ( this.stepCount == 0 ) {
+			StateModLogger.printWarning(2, routine, "No historical streamflow time series are available - cannot compute baseflows.");
+			return;
+		}
+		try ( StateModSubBasinExecutor executor = new StateModSubBasinExecutor(this.subBasins, this.threads, this) ) {
+			for ( int step = 0; step < this.stepCount; step++ ) {
+				prepareStep(step);
+				executor.runStep(step);
+				if ( writer != null ) {
+					writer.writeStep(step, this.baseflow);
+				}
+				if ( this.runControl != null ) {
+					// Stops the loop with CancellationException if cancelled
+					this.runControl.stepCompleted(step + 1);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Prepare a time step by getting the column blocks for the time step, which may read blocks from the cache.
+	 * @param step time step to compute
+	 */
+	private void prepareStep ( int step ) {
+		this.histBlock = getBlock(this.histColumn, step);
+		this.histOffset = getBlockOffset(this.histColumn, step);
+		this.divBlock = getBlock(this.divColumn, step);
+		this.divOffset = getBlockOffset(this.divColumn, step);
+		this.resBlock = getBlock(this.resColumn, step);
+		this.resOffset = getBlockOffset(this.resColumn, step);
+		this.resPrevBlock = getBlock(this.resColumn, step - 1);
+		this.resPrevOffset = getBlockOffset(this.resColumn, step - 1);
+		this.wellBlock = getBlock(this.wellColumn, step);
+		this.wellOffset = getBlockOffset(this.wellColumn, step);
+	}
+
+	/**
+	 * Nothing is done for a sub-basin since baseflows are computed for each reach.
+	 */
+	@Override
+	public void runBasinStep ( int step, int basin ) {
+	}
+
+	/**
+	 * Compute baseflows for one reach and time step, after the upstream reaches.
+	 */
+	@Override
+	public void runReachStep ( int step, int reach ) {
+		int [] reachNodes = this.subBasins.getReachNodes();
+		int nodeStart = this.subBasins.getReachNodeStart()[reach];
+		int nodeEnd = this.subBasins.getReachNodeStart()[reach + 1];
+		double [] histValues = this.histBlock;
+		double [] divValues = this.divBlock;
+		double [] resValues = this.resBlock;
+		double [] resPrevValues = this.resPrevBlock;
+		double [] wellValues = this.wellBlock;
+		int histOffset = this.histOffset;
+		int divOffset = this.divOffset;
+		int resOffset = this.resOffset;
+		int resPrevOffset = this.resPrevOffset;
+		int wellOffset = this.wellOffset;
+		// Nodes are in upstream to downstream order so upstream values are complete when a node is processed
+		for ( int i = nodeStart; i < nodeEnd; i++ ) {
+			int n = reachNodes[i];
+			// Local impact at the node
+			double local = 0.0;
+			int pos = this.nodeDivPos[n];
+			if ( pos >= 0 ) {
+				local += value(divValues[divOffset + pos])*this.nodeDivEfficiency[n];
+			}
+			pos = this.nodeResPos[n];
+			if ( (pos >= 0) && (step > 0) ) {
+				local += (value(resValues[resOffset + pos]) - value(resPrevValues[resPrevOffset + pos]))*this.resConversion;
+			}
+			pos = this.nodeWellPos[n];
+			if ( pos >= 0 ) {
+				local += value(wellValues[wellOffset + pos]);
+			}
+			// Accumulate upstream impacts and baseflows
+			double upstreamImpact = 0.0;
+			double upstreamBaseflow = 0.0;
+			for ( int k = this.upstreamStart[n]; k < this.upstreamStart[n + 1]; k++ ) {
+				int up = this.upstreamNodes[k];
+				upstreamImpact += this.impact[up];
+				upstreamBaseflow += this.baseflow[up];
+			}
+			this.impact[n] = local + upstreamImpact;
+			pos = this.nodeHistPos[n];
+			double hist = (pos >= 0) ? histValues[histOffset + pos] : Double.NaN;
+			if ( Double.isNaN(hist) ) {
+				// Ungaged node or missing data
+				this.baseflow[n] = upstreamBaseflow;
+			}
+			else {
+				this.baseflow[n] = hist + this.impact[n];
+			}
+		}
+	}
+
+	/**
+	 * Set the cancellation and progress control for the run, which is checked after each time step.
+	 * @param runControl run control, or null if the run cannot be cancelled
+	 */
+	public void setRunControl ( StateModRunControl runControl ) {
+		this.runControl = runControl;
+	}
+
+	/**
+	 * Set the number of threads used to process tributary reaches.
+	 * @param threads number of threads, 1 to run on the calling thread
+	 */
+	public void setThreads ( int threads ) {
+		this.threads = (threads < 1) ? 1 : threads;
+	}
+
+	/**
+	 * Return a value, treating missing (NaN) as zero.
+	 */
+	private static double value ( double v ) {
+		return Double.isNaN(v) ? 0.0 : v;
+	}
+}
@@ -0,0 +1,189 @@
+// StateModBaseflowWriter - write baseflow time series as each time step completes
+
+/* NoticeStart
+
+StateMod Java
+StateMod Java is a part of Colorado's Decision Support Systems (CDSS)
+Copyright (C) 2019 Colorado Department of Natural Resources
+
+StateMod Java is free software:  you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+StateMod Java is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+    along with StateMod Java.  If not, see <https://www.gnu.org/licenses/>.
+
+NoticeEnd */
+
+package cdss.statemod.app;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import RTi.Util.Time.DateTime;
+import RTi.Util.Time.TimeUtil;
+
+/**
+ * Write baseflow time series in StateMod time series format as the time steps are computed.
+ * Monthly files have one row per station per year and daily files have one row per station per month,
+ * so only the values for the current row period are held in memory and rows are written when the period completes.
+ */
+public class StateModBaseflowWriter implements AutoCloseable {
+
+	/**
+	 * Writer for the output file.
+	 */
+	private final Writer out;
+
+	/**
+	 * Station identifiers, in the order of the values passed to writeStep().
+	 */
+	private final String [] ids;
+
+	/**
+	 * Whether the output is daily (true) or monthly (false).
+	 */
+	private final boolean daily;
+
+	/**
+	 * Date/time of the next time step, used to determine row periods.
+	 */
+	private final DateTime next;
+
+	/**
+	 * Values for the current row period, [slot*stationCount + station], where slot is month or day in the row.
+	 */
+	private final double [] rowValues;
+
+	/**
+	 * Number of time steps in the current row.
+	 */
+	private int rowStepCount = 0;
+
+	/**
+	 * Constructor, which writes the file header.
+	 * @param file output file
+	 * @param ids station identifiers, in the order of values passed to writeStep()
+	 * @param start date/time of the first time step
+	 * @param end date/time of the last time step
+	 * @param daily true if daily values (CFS), false if monthly (ACFT)
+	 * @exception IOException if the file cannot be opened
+	 */
+	public StateModBaseflowWriter ( String file, String [] ids, DateTime start, DateTime end, boolean daily ) throws IOException {
+		this.out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8), 1 << 16);
+		this.ids = ids;
+		this.daily = daily;
+		this.next = new DateTime(start);
+		this.rowValues = new double[(daily ? 31 : 12)*ids.length];
+		Arrays.fill(this.rowValues, Double.NaN);
+		String nl = System.getProperty ( "line.separator" );
+		this.out.write("#" + nl);
+		this.out.write("# " + (daily ? "Daily" : "Monthly") + " baseflow (natural flow) time series computed by " +
+			StateModMain.PROGRAM_NAME + " " + StateModMain.PROGRAM_VERSION + nl);
+		this.out.write("#" + nl);
+		this.out.write(String.format("%5d/%04d  -  %5d/%04d %-5.5s %-4.4s", start.getMonth(), start.getYear(),
+			end.getMonth(), end.getYear(), (daily ? "CFS" : "ACFT"), "CYR") + nl);
+		if ( !daily ) {
+			// Rows start in the first month of the period
+			this.rowStepCount = 0;
+		}
+		else {
+			// Rows are calendar months, so skip to the starting day
+			this.rowStepCount = start.getDay() - 1;
+		}
+	}
+
+	/**
+	 * Write any remaining values and close the file.
+	 */
+	@Override
+	public void close () throws IOException {
+		try {
+			if ( this.rowStepCount > 0 ) {
+				writeRows();
+			}
+		}
+		finally {
+			this.out.close();
+		}
+	}
+
+	/**
+	 * Add the values for a time step, writing rows when the row period is complete.
+	 * @param step time step, used only for checking
+	 * @param values value for each station, in the order of the identifiers
+	 * @exception IOException if there is an error writing
+	 */
+	public void writeStep ( int step, double [] values ) throws IOException {
+		int stationCount = this.ids.length;
+		System.arraycopy(values, 0, this.rowValues, this.rowStepCount*stationCount, stationCount);
+		++this.rowStepCount;
+		boolean rowComplete;
+		if ( this.daily ) {
+			int day = this.next.getDay();
+			rowComplete = (day == TimeUtil.numDaysInMonth(this.next.getMonth(), this.next.getYear()));
+			this.next.addDay(1);
+		}
+		else {
+			rowComplete = (this.rowStepCount == 12);
+			this.next.addMonth(1);
+		}
+		if ( rowComplete ) {
+			writeRows();
+		}
+	}
+
+	/**
+	 * Write the rows for the current row period and reset the row values.
+	 */
+	private void writeRows () throws IOException {
+		String nl = System.getProperty ( "line.separator" );
+		int stationCount = this.ids.length;
+		int slotCount = this.daily ? 31 : 12;
+		// The row period ended at the previous time step
+		DateTime rowEnd = new DateTime(this.next);
+		if ( this.daily ) {
+			rowEnd.addDay(-1);
+		}
+		else {
+			rowEnd.addMonth(-1);
+		}
+		StringBuilder b = new StringBuilder();
+		for ( int station = 0; station < stationCount; station++ ) {
+			b.setLength(0);
+			if ( this.daily ) {
+				b.append(String.format("%4d%4d %-12.12s", rowEnd.getYear(), rowEnd.getMonth(), this.ids[station]));
+			}
+			else {
+				b.append(String.format("%4d %-12.12s", rowEnd.getYear(), this.ids[station]));
+			}
+			double total = 0.0;
+			for ( int slot = 0; slot < slotCount; slot++ ) {
+				double value = this.rowValues[slot*stationCount + station];
+				if ( Double.isNaN(value) ) {
+					b.append("        ");
+				}
+				else {
+					b.append(String.format(this.daily ? "%8.1f" : "%8.0f", value));
+					total += value;
+				}
+			}
+			b.append(String.format(this.daily ? "%10.1f" : "%10.0f", total));
+			b.append(nl);
+			this.out.write(b.toString());
+		}
+		Arrays.fill(this.rowValues, Double.NaN);
+		this.rowStepCount = 0;
+	}
+}
@@ -0,0 +1,198 @@
+// StateModBatchRunner - run scenarios concurrently from one shared base dataset
+
+/* NoticeStart
+
+StateMod Java
+StateMod Java is a part of Colorado's Decision Support Systems (CDSS)
+Copyright (C) 2019 Colorado Department of Natural Resources
+
+StateMod Java is free software:  you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+StateMod Java is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+    along with StateMod Java.  If not, see <https://www.gnu.org/licenses/>.
+
+NoticeEnd */
+
+package cdss.statemod.app;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+
+/**
+ * Run a batch of scenarios from one base dataset that is read once.
+ * The base dataset, time series store, network, and rights are created before any scenario is run and are
+ * then only read, so they can be shared by scenarios that run at the same time.
+ * Each scenario applies its changes as copies of only the changed data (see StateModScenario) and runs
+ * with its own StateModRunner, writing output files named with the scenario, for example
+ * "dataset_Scenario.chk.csv", and a scenario log file "dataset_Scenario.log" with the scenario changes,
+ * status, run time, and any error.  Program messages continue to be written to the main log file.
+ * If the base runner has a restart checkpoint, all scenarios warm-start from the shared checkpoint.
+ */
+public class StateModBatchRunner {
+
+	/**
+	 * Logger for run-time messages.
+	 */
+	private static final StateModLogger LOG = StateModLogger.getLogger(StateModBatchRunner.class);
+
+	/**
+	 * Base runner, which holds the shared store, network, and rights.
+	 */
+	private final StateModRunner baseRunner;
+
+	/**
+	 * Path and base name for output files, to which the scenario name is appended.
+	 */
+	private final String outputFileBase;
+
+	/**
+	 * Number of scenarios to run at the same time.
+	 */
+	private int batchThreads = 1;
+
+	/**
+	 * Number of threads used by each scenario to run tributary reaches and independent sub-basins.
+	 */
+	private int threads = 1;
+
+	/**
+	 * Constructor.
+	 * @param baseRunner runner for the base dataset, which will be used to create the shared data
+	 */
+	public StateModBatchRunner ( StateModRunner baseRunner ) {
+		this.baseRunner = baseRunner;
+		this.outputFileBase = baseRunner.getOutputFileBase();
+	}
+
+	/**
+	 * Run one scenario.
+	 * @return true if the scenario ran without error
+	 */
+	private boolean runScenario ( StateModScenario scenario, StateModRunModeType runMode ) throws IOException {
+		String scenarioBase = this.outputFileBase + "_" + scenario.getName();
+		String logFile = scenarioBase + ".log";
+		try ( PrintWriter log = new PrintWriter(logFile) ) {
+			log.println("# " + StateModMain.PROGRAM_NAME + " " + StateModMain.PROGRAM_VERSION + " batch scenario log");
+			log.println("Scenario:  " + scenario);
+			log.println("Run mode:  " + runMode);
+			log.println("Started:   " + new Date());
+			long start = System.currentTimeMillis();
+			StateModRunner runner = null;
+			try {
+				runner = this.baseRunner.createScenarioRunner(scenario, scenarioBase);
+				runner.setThreads(this.threads);
+				runner.run(runMode);
+				if ( runMode == StateModRunModeType.SIMULATE ) {
+					log.println("Summary:   " + runner.getSimulationSummary().format());
+				}
+				log.println("Completed: " + new Date() + " (" + (System.currentTimeMillis() - start) + " ms)");
+				return true;
+			}
+			catch ( RuntimeException e ) {
+				StringWriter trace = new StringWriter();
+				e.printStackTrace(new PrintWriter(trace));
+				log.println("Failed:    " + new Date() + " (" + (System.currentTimeMillis() - start) + " ms)");
+				log.print(trace);
+				return false;
+			}
+			finally {
+				if ( runner != null ) {
+					// Let later scenarios use the cache space of the scenario's columns
+					runner.releaseScenarioData();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Run the scenarios.
+	 * @param scenarios scenarios to run
+	 * @param runMode run mode for all scenarios
+	 * @return number of scenarios that failed
+	 */
+	public int run ( List<StateModScenario> scenarios, final StateModRunModeType runMode ) {
+		// Create the shared data before starting threads so that the runner does not create it more than once
+		StateModTimeSeriesStore store = this.baseRunner.getTimeSeriesStore();
+		if ( runMode == StateModRunModeType.BASEFLOWS ) {
+			// Daily values are disaggregated once and shared by scenarios that do not change the monthly data
+			store.disaggregate(this.baseRunner.getMetrics());
+		}
+		this.baseRunner.getNetwork();
+		this.baseRunner.getRightList();
+		LOG.info("Running {} scenarios using {} threads, each with {} threads.", scenarios.size(), this.batchThreads, this.threads);
+		List<Callable<Boolean>> tasks = new ArrayList<>(scenarios.size());
+		for ( final StateModScenario scenario : scenarios ) {
+			tasks.add(new Callable<Boolean>() {
+				@Override
+				public Boolean call () throws Exception {
+					return runScenario(scenario, runMode);
+				}
+			});
+		}
+		int failedCount = 0;
+		long start = System.currentTimeMillis();
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(this.batchThreads, Math.max(1, tasks.size())));
+		try {
+			List<Future<Boolean>> futures = executor.invokeAll(tasks);
+			for ( int i = 0; i < futures.size(); i++ ) {
+				String name = scenarios.get(i).getName();
+				try {
+					if ( futures.get(i).get() ) {
+						LOG.info("Scenario \"{}\" completed.", name);
+					}
+					else {
+						++failedCount;
+						LOG.warn("Scenario \"{}\" failed.  See the scenario log file.", name);
+					}
+				}
+				catch ( ExecutionException e ) {
+					++failedCount;
+					LOG.warn("Scenario \"" + name + "\" failed (" + e.getCause() + ").", e.getCause());
+				}
+			}
+		}
+		catch ( InterruptedException e ) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Batch run was interrupted.", e);
+		}
+		finally {
+			executor.shutdown();
+		}
+		LOG.info("Ran {} scenarios in {} ms, {} failed.", scenarios.size(), System.currentTimeMillis() - start, failedCount);
+		return failedCount;
+	}
+
+	/**
+	 * Set the number of scenarios to run at the same time.
+	 * @param batchThreads number of threads
+	 */
+	public void setBatchThreads ( int batchThreads ) {
+		this.batchThreads = (batchThreads < 1) ? 1 : batchThreads;
+	}
+
+	/**
+	 * Set the number of threads used by each scenario to run tributary reaches and independent sub-basins.
+	 * @param threads number of threads
+	 */
+	public void setThreads ( int threads ) {
+		this.threads = (threads < 1) ? 1 : threads;
+	}
+}
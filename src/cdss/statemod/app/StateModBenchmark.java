@@ -0,0 +1,428 @@
+// StateModBenchmark - headless benchmarks for dataset reading and run mode kernels
+
+/* NoticeStart
+
+StateMod Java
+StateMod Java is a part of Colorado's Decision Support Systems (CDSS)
+Copyright (C) 2019 Colorado Department of Natural Resources
+
+StateMod Java is free software:  you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+StateMod Java is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+    along with StateMod Java.  If not, see <https://www.gnu.org/licenses/>.
+
+NoticeEnd */
+
+package cdss.statemod.app;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import DWR.StateMod.StateMod_DataSet;
+import RTi.Util.IO.IOUtil;
+import RTi.Util.Message.Message;
+
+/**
+ * Headless benchmarks for the code paths that StateMod runs depend on:
+ * <ul>
+ * <li>	ReadDataSet - StateMod_DataSet.readStateModFile() for the full dataset</li>
+ * <li>	ReadDataSetParallel - StateModDataSetLoader with one thread per processor, without snapshot</li>
+ * <li>	ReadDataSetSnapshot - StateModDataSetLoader using the binary snapshot</li>
+ * <li>	ResolveResponseFile - StateModMain.resolveResponseFile()</li>
+ * <li>	Simulate - StateModSimulator for the full period, reported per time step</li>
+ * <li>	Baseflow - StateModBaseflowCalculator for the full monthly period, reported per time step</li>
+ * <li>	Check - StateModCheckEngine with the default rules, without the cache</li>
+ * </ul>
+ * Each benchmark is run for a number of warmup iterations, which are not measured, and then measured
+ * iterations.  The mean and minimum time, throughput (units per second, where a unit is one operation or
+ * one time step), and bytes allocated per operation are reported.  Allocation is measured for the calling
+ * thread using the HotSpot ThreadMXBean extension, so allocation by pool threads is not included.
+ * Kernels are run with one thread so that the allocation is complete.
+ * <p>
+ * Before the benchmarks are run, the datasets from the parallel, snapshot, and lazy reads are compared with
+ * the dataset from StateMod_DataSet.readStateModFile() using StateModDataSetComparator, including the time series
+ * connected to each station, so that a faster read that does not give the same dataset is reported.
+ * <p>
+ * Results are printed and written to a comma-separated file.  If a baseline results file is given,
+ * the mean times are compared.  The program exits with status 2 if any read gives a different dataset or any
+ * benchmark is slower than the baseline by more than the threshold, so that regressions are visible in automated runs.
+ * <p>
+ * Usage:
+ * <pre>
+ * java -cp ... cdss.statemod.app.StateModBenchmark [options] dataset.rsp
+ *   --warmup N           warmup iterations (default 3)
+ *   --iterations N       measured iterations (default 5)
+ *   --benchmarks A,B     benchmarks to run (default is all)
+ *   --output file        results file (default dataset.rsp.benchmark.csv)
+ *   --baseline file      results file from a previous run to compare with
+ *   --threshold percent  slowdown that is reported as a regression (default 10)
+ * </pre>
+ */
+public class StateModBenchmark {
+
+	/**
+	 * Operation to measure.
+	 */
+	private interface Operation {
+		/**
+		 * Run the operation once.
+		 * @return a result that is consumed so the operation is not optimized away
+		 */
+		public Object run () throws Exception;
+	}
+
+	/**
+	 * Benchmark definition.
+	 */
+	private static class Benchmark {
+		String name;
+		Operation operation;
+		long unitsPerOperation;
+		String units;
+
+		Benchmark ( String name, long unitsPerOperation, String units, Operation operation ) {
+			this.name = name;
+			this.unitsPerOperation = unitsPerOperation;
+			this.units = units;
+			this.operation = operation;
+		}
+	}
+
+	/**
+	 * Benchmark result.
+	 */
+	private static class Result {
+		String name;
+		int iterations;
+		double meanMs;
+		double minMs;
+		long unitsPerOperation;
+		String units;
+		double unitsPerSecond;
+		long allocatedBytesPerOperation;
+	}
+
+	/**
+	 * Sink for operation results, so that the JIT compiler cannot remove the operations.
+	 */
+	private static volatile int sink = 0;
+
+	/**
+	 * Return the bytes allocated by the current thread, or -1 if not supported.
+	 */
+	private static long getAllocatedBytes ( ThreadMXBean threadBean ) {
+		if ( threadBean instanceof com.sun.management.ThreadMXBean ) {
+			com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean)threadBean;
+			if ( sunBean.isThreadAllocatedMemorySupported() && sunBean.isThreadAllocatedMemoryEnabled() ) {
+				return sunBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Create the benchmarks for a dataset.
+	 * @param responseFile absolute path to the response file
+	 */
+	private static List<Benchmark> createBenchmarks ( final String responseFile ) throws Exception {
+		List<Benchmark> benchmarks = new ArrayList<>();
+		benchmarks.add(new Benchmark("ReadDataSet", 1, "operations", new Operation() {
+			@Override
+			public Object run () throws Exception {
+				StateMod_DataSet dataset = new StateMod_DataSet();
+				StateModDataSetLoader.readResponseFile(dataset, responseFile, true, true);
+				return dataset;
+			}
+		}));
+		benchmarks.add(new Benchmark("ReadDataSetParallel", 1, "operations", new Operation() {
+			@Override
+			public Object run () throws Exception {
+				StateModDataSetLoader loader = new StateModDataSetLoader(Runtime.getRuntime().availableProcessors());
+				loader.setUseSnapshot(false);
+				return loader.readDataSet(responseFile);
+			}
+		}));
+		benchmarks.add(new Benchmark("ReadDataSetSnapshot", 1, "operations", new Operation() {
+			@Override
+			public Object run () throws Exception {
+				// The first warmup iteration writes the snapshot if it does not exist
+				StateModDataSetLoader loader = new StateModDataSetLoader(1);
+				loader.setUseSnapshot(true);
+				return loader.readDataSet(responseFile);
+			}
+		}));
+		benchmarks.add(new Benchmark("ResolveResponseFile", 1, "operations", new Operation() {
+			@Override
+			public Object run () throws Exception {
+				return StateModMain.resolveResponseFile(responseFile);
+			}
+		}));
+		// Kernels share one dataset and compiled data, as in a run
+		StateModDataSetLoader loader = new StateModDataSetLoader(1);
+		loader.setUseSnapshot(false);
+		final StateMod_DataSet dataset = loader.readDataSet(responseFile);
+		final StateModRunner runner = new StateModRunner(dataset);
+		final StateModTimeSeriesStore store = runner.getTimeSeriesStore();
+		final StateModNetwork network = runner.getNetwork();
+		final StateModRightList rights = runner.getRightList();
+		StateModSimulator simulator = new StateModSimulator(dataset, store, network, rights);
+		benchmarks.add(new Benchmark("Simulate", simulator.getStepCount(), "steps", new Operation() {
+			@Override
+			public Object run () throws Exception {
+				StateModSimulator simulator = new StateModSimulator(dataset, store, network, rights);
+				simulator.run();
+				return simulator.getFlow();
+			}
+		}));
+		StateModBaseflowCalculator calculator = new StateModBaseflowCalculator(dataset, store, network, false, null);
+		benchmarks.add(new Benchmark("Baseflow", calculator.getStepCount(), "steps", new Operation() {
+			@Override
+			public Object run () throws Exception {
+				StateModBaseflowCalculator calculator = new StateModBaseflowCalculator(dataset, store, network, false, null);
+				calculator.run(null);
+				return calculator.getBaseflow();
+			}
+		}));
+		benchmarks.add(new Benchmark("Check", 1, "operations", new Operation() {
+			@Override
+			public Object run () throws Exception {
+				StateModCheckEngine engine = new StateModCheckEngine(dataset, store);
+				return engine.run(StateModCheckEngine.getDefaultRules());
+			}
+		}));
+		return benchmarks;
+	}
+
+	/**
+	 * Main program.
+	 * @param args command line arguments, see the class documentation
+	 */
+	public static void main ( String [] args ) {
+		String routine = StateModBenchmark.class.getSimpleName() + ".main";
+		System.setProperty("java.awt.headless", "true");
+		int warmup = 3;
+		int iterations = 5;
+		String benchmarkNames = null;
+		String outputFile = null;
+		String baselineFile = null;
+		double threshold = 10.0;
+		String responseFileReq = null;
+		try {
+			IOUtil.setProgramData(StateModMain.PROGRAM_NAME, StateModMain.PROGRAM_VERSION, args);
+			IOUtil.setProgramWorkingDir(System.getProperty("user.dir"));
+			for ( int i = 0; i < args.length; i++ ) {
+				String arg = args[i];
+				if ( arg.startsWith("-") && ((i + 1) == args.length) ) {
+					throw new IllegalArgumentException("No value specified for " + arg);
+				}
+				if ( arg.equalsIgnoreCase("--warmup") ) {
+					warmup = Integer.parseInt(args[++i]);
+				}
+				else if ( arg.equalsIgnoreCase("--iterations") ) {
+					iterations = Integer.parseInt(args[++i]);
+				}
+				else if ( arg.equalsIgnoreCase("--benchmarks") ) {
+					benchmarkNames = "," + args[++i].toUpperCase() + ",";
+				}
+				else if ( arg.equalsIgnoreCase("--output") ) {
+					outputFile = args[++i];
+				}
+				else if ( arg.equalsIgnoreCase("--baseline") ) {
+					baselineFile = args[++i];
+				}
+				else if ( arg.equalsIgnoreCase("--threshold") ) {
+					threshold = Double.parseDouble(args[++i]);
+				}
+				else if ( arg.startsWith("-") ) {
+					throw new IllegalArgumentException("Unrecognized option \"" + arg + "\"");
+				}
+				else {
+					responseFileReq = arg;
+				}
+			}
+			if ( responseFileReq == null ) {
+				throw new IllegalArgumentException("No response file was specified.");
+			}
+			if ( iterations < 1 ) {
+				throw new IllegalArgumentException("Number of iterations must be >= 1.");
+			}
+			String responseFile = StateModMain.resolveResponseFile(responseFileReq);
+			if ( responseFile == null ) {
+				throw new IllegalArgumentException("Response file \"" + responseFileReq + "\" does not exist.");
+			}
+			if ( outputFile == null ) {
+				outputFile = responseFile + ".benchmark.csv";
+			}
+			// Only print warnings so that messages do not affect timing
+			Message.setStatusLevel(Message.TERM_OUTPUT, 0);
+			Message.setWarningLevel(Message.TERM_OUTPUT, 1);
+			int differenceCount = verifyReads(responseFile);
+			List<Result> results = new ArrayList<>();
+			for ( Benchmark benchmark : createBenchmarks(responseFile) ) {
+				if ( (benchmarkNames != null) && !benchmarkNames.contains("," + benchmark.name.toUpperCase() + ",") ) {
+					continue;
+				}
+				Result result = runBenchmark(benchmark, warmup, iterations);
+				results.add(result);
+				System.out.println(String.format("%-22s %12.3f ms/op %12.3f ms min %14.1f %s/s %14d bytes/op",
+					result.name, result.meanMs, result.minMs, result.unitsPerSecond, result.units,
+					result.allocatedBytesPerOperation));
+			}
+			writeResults(outputFile, responseFile, warmup, iterations, results);
+			System.out.println("Wrote results to \"" + outputFile + "\".");
+			if ( (baselineFile != null) && (compareBaseline(baselineFile, results, threshold) > 0) ) {
+				System.exit(2);
+			}
+			if ( differenceCount > 0 ) {
+				System.exit(2);
+			}
+			System.exit(0);
+		}
+		catch ( Exception e ) {
+			System.out.println("Error running benchmarks (" + e + ").");
+			StateModLogger.printWarning(3, routine, e);
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Compare results with a baseline results file and print regressions.
+	 * @return the number of benchmarks that are slower than the baseline by more than the threshold
+	 */
+	private static int compareBaseline ( String baselineFile, List<Result> results, double threshold ) throws IOException {
+		Map<String,Double> baseline = new HashMap<>();
+		try ( BufferedReader in = new BufferedReader(new FileReader(baselineFile)) ) {
+			String line;
+			while ( (line = in.readLine()) != null ) {
+				if ( line.startsWith("#") || line.startsWith("\"Benchmark\"") || line.trim().isEmpty() ) {
+					continue;
+				}
+				String [] tokens = line.split(",");
+				baseline.put(tokens[0].replace("\"", ""), Double.parseDouble(tokens[2]));
+			}
+		}
+		int regressionCount = 0;
+		for ( Result result : results ) {
+			Double baselineMs = baseline.get(result.name);
+			if ( (baselineMs == null) || (baselineMs <= 0.0) ) {
+				System.out.println(String.format("%-22s no baseline", result.name));
+				continue;
+			}
+			double change = 100.0*(result.meanMs - baselineMs)/baselineMs;
+			boolean regression = change > threshold;
+			if ( regression ) {
+				++regressionCount;
+			}
+			System.out.println(String.format("%-22s %+8.1f%% vs baseline%s", result.name, change, regression ? "  REGRESSION" : ""));
+		}
+		return regressionCount;
+	}
+
+	/**
+	 * Run a benchmark.
+	 */
+	private static Result runBenchmark ( Benchmark benchmark, int warmup, int iterations ) throws Exception {
+		ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+		for ( int i = 0; i < warmup; i++ ) {
+			sink += System.identityHashCode(benchmark.operation.run());
+		}
+		double totalMs = 0.0;
+		double minMs = Double.MAX_VALUE;
+		long totalBytes = 0;
+		for ( int i = 0; i < iterations; i++ ) {
+			long bytes0 = getAllocatedBytes(threadBean);
+			long t0 = System.nanoTime();
+			sink += System.identityHashCode(benchmark.operation.run());
+			long t1 = System.nanoTime();
+			long bytes1 = getAllocatedBytes(threadBean);
+			double ms = (t1 - t0)/1.0e6;
+			totalMs += ms;
+			minMs = Math.min(minMs, ms);
+			totalBytes = ((bytes0 < 0) || (totalBytes < 0)) ? -1 : (totalBytes + (bytes1 - bytes0));
+		}
+		Result result = new Result();
+		result.name = benchmark.name;
+		result.iterations = iterations;
+		result.meanMs = totalMs/iterations;
+		result.minMs = minMs;
+		result.unitsPerOperation = benchmark.unitsPerOperation;
+		result.units = benchmark.units;
+		result.unitsPerSecond = (result.meanMs > 0.0) ? (1000.0*benchmark.unitsPerOperation/result.meanMs) : 0.0;
+		result.allocatedBytesPerOperation = (totalBytes < 0) ? -1 : (totalBytes/iterations);
+		return result;
+	}
+
+	/**
+	 * Compare the datasets from the parallel, snapshot, and lazy reads with the dataset from
+	 * StateMod_DataSet.readStateModFile() and print the differences.
+	 * @return the number of differences
+	 */
+	private static int verifyReads ( String responseFile ) throws Exception {
+		StateMod_DataSet expected = new StateMod_DataSet();
+		StateModDataSetLoader.readResponseFile(expected, responseFile, true, true);
+		Map<String,StateModDataSetLoader> loaders = new LinkedHashMap<>();
+		StateModDataSetLoader parallelLoader = new StateModDataSetLoader(Runtime.getRuntime().availableProcessors());
+		parallelLoader.setUseSnapshot(false);
+		loaders.put("ReadDataSetParallel", parallelLoader);
+		StateModDataSetLoader snapshotLoader = new StateModDataSetLoader(1);
+		snapshotLoader.setUseSnapshot(true);
+		// Write the snapshot if it does not exist so that the compared read uses it
+		snapshotLoader.readDataSet(responseFile);
+		loaders.put("ReadDataSetSnapshot", snapshotLoader);
+		StateModDataSetLoader lazyLoader = new StateModDataSetLoader(1);
+		lazyLoader.setLazy(true);
+		loaders.put("ReadDataSetLazy", lazyLoader);
+		int differenceCount = 0;
+		for ( Map.Entry<String,StateModDataSetLoader> entry : loaders.entrySet() ) {
+			List<String> differences = StateModDataSetComparator.compare(expected, entry.getValue().readDataSet(responseFile));
+			for ( String difference : differences ) {
+				System.out.println(String.format("%-22s DIFFERENT %s", entry.getKey(), difference));
+			}
+			if ( differences.isEmpty() ) {
+				System.out.println(String.format("%-22s same dataset as ReadDataSet", entry.getKey()));
+			}
+			differenceCount += differences.size();
+		}
+		return differenceCount;
+	}
+
+	/**
+	 * Write the results file.
+	 */
+	private static void writeResults ( String outputFile, String responseFile, int warmup, int iterations,
+		List<Result> results ) throws IOException {
+		try ( PrintWriter out = new PrintWriter(outputFile) ) {
+			out.println("# StateMod benchmark results");
+			out.println("# Program: " + StateModMain.PROGRAM_NAME + " " + StateModMain.PROGRAM_VERSION);
+			out.println("# Java: " + System.getProperty("java.vendor") + " " + System.getProperty("java.version"));
+			out.println("# Processors: " + Runtime.getRuntime().availableProcessors());
+			out.println("# Dataset: " + responseFile);
+			out.println("# Date: " + new Date());
+			out.println("# Warmup iterations: " + warmup + ", measured iterations: " + iterations);
+			out.println("\"Benchmark\",\"Iterations\",\"MeanMs\",\"MinMs\",\"UnitsPerOperation\",\"Units\",\"UnitsPerSecond\",\"AllocatedBytesPerOperation\"");
+			for ( Result result : results ) {
+				out.println(String.format("\"%s\",%d,%.4f,%.4f,%d,\"%s\",%.3f,%d", result.name, result.iterations,
+					result.meanMs, result.minMs, result.unitsPerOperation, result.units, result.unitsPerSecond,
+					result.allocatedBytesPerOperation));
+			}
+		}
+	}
+}
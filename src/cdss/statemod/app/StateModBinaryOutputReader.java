@@ -0,0 +1,291 @@
+// StateModBinaryOutputReader - read results from a binary output file
+
+/* NoticeStart
+
+StateMod Java
+StateMod Java is a part of Colorado's Decision Support Systems (CDSS)
+Copyright (C) 2019 Colorado Department of Natural Resources
+
+StateMod Java is free software:  you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+StateMod Java is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+    along with StateMod Java.  If not, see <https://www.gnu.org/licenses/>.
+
+NoticeEnd */
+
+package cdss.statemod.app;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Read results from a binary output file written by StateModBinaryOutputWriter (*.jb43, *.jb44),
+ * which has a different layout than the Fortran StateMod binary output files (*.b43, *.b44).
+ * The header is read when the file is opened.  Values for one station are read by seeking directly
+ * to the station's record in each time step, so the whole file does not need to be read.
+ * Values for all stations can be streamed a block of time steps at a time with readSteps().
+ */
+public class StateModBinaryOutputReader implements StateModOutputReader {
+
+	/**
+	 * Input file.
+	 */
+	private final RandomAccessFile raf;
+
+	/**
+	 * Channel for the input file.
+	 */
+	private final FileChannel channel;
+
+	/**
+	 * Byte position of the first record.
+	 */
+	private final int dataOffset;
+
+	/**
+	 * Number of time steps.
+	 */
+	private final int stepCount;
+
+	/**
+	 * Interval base, TimeInterval.MONTH or TimeInterval.DAY.
+	 */
+	private final int intervalBase;
+
+	/**
+	 * Year, month, and day of the first time step.
+	 */
+	private final int startYear;
+	private final int startMonth;
+	private final int startDay;
+
+	/**
+	 * Station identifiers.
+	 */
+	private final StateModStationIndex stationIndex = new StateModStationIndex();
+
+	/**
+	 * Variable names.
+	 */
+	private final String [] variableNames;
+
+	/**
+	 * Buffer used by readSteps(), allocated when first used.
+	 */
+	private ByteBuffer stepBuffer = null;
+
+	/**
+	 * Constructor, which reads the header.
+	 * @param file path to the binary output file
+	 * @exception IOException if the file cannot be read or is not a binary output file
+	 */
+	public StateModBinaryOutputReader ( String file ) throws IOException {
+		this.raf = new RandomAccessFile(file, "r");
+		this.channel = this.raf.getChannel();
+		try {
+			ByteBuffer header = read(0, StateModBinaryOutputWriter.HEADER_SIZE);
+			if ( (header.getInt() != StateModBinaryOutputWriter.MAGIC) ||
+				(header.getInt() != StateModBinaryOutputWriter.FORMAT_VERSION) ) {
+				throw new IOException("File \"" + file + "\" is not a supported binary output file " +
+					"(Fortran StateMod .b43/.b44 files have a different layout).");
+			}
+			this.dataOffset = header.getInt();
+			this.stepCount = header.getInt();
+			int stationCount = header.getInt();
+			int variableCount = header.getInt();
+			this.intervalBase = header.getInt();
+			this.startYear = header.getInt();
+			this.startMonth = header.getInt();
+			this.startDay = header.getInt();
+			ByteBuffer names = read(StateModBinaryOutputWriter.HEADER_SIZE,
+				this.dataOffset - StateModBinaryOutputWriter.HEADER_SIZE);
+			this.variableNames = new String[variableCount];
+			for ( int i = 0; i < variableCount; i++ ) {
+				this.variableNames[i] = getName(names);
+			}
+			for ( int i = 0; i < stationCount; i++ ) {
+				this.stationIndex.add(getName(names));
+			}
+		}
+		catch ( IOException | RuntimeException e ) {
+			this.raf.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Close the file.
+	 */
+	@Override
+	public void close () throws IOException {
+		this.raf.close();
+	}
+
+	/**
+	 * Return a name from the header, with padding removed.
+	 */
+	private static String getName ( ByteBuffer names ) {
+		byte [] bytes = new byte[StateModBinaryOutputWriter.NAME_LENGTH];
+		names.get(bytes);
+		return new String(bytes, StandardCharsets.US_ASCII).trim();
+	}
+
+	/**
+	 * Return the interval base, TimeInterval.MONTH or TimeInterval.DAY.
+	 */
+	@Override
+	public int getIntervalBase () {
+		return this.intervalBase;
+	}
+
+	/**
+	 * Return the day of the first time step.
+	 */
+	@Override
+	public int getStartDay () {
+		return this.startDay;
+	}
+
+	/**
+	 * Return the month of the first time step.
+	 */
+	@Override
+	public int getStartMonth () {
+		return this.startMonth;
+	}
+
+	/**
+	 * Return the year of the first time step.
+	 */
+	@Override
+	public int getStartYear () {
+		return this.startYear;
+	}
+
+	/**
+	 * Return the station index for the file.
+	 */
+	@Override
+	public StateModStationIndex getStationIndex () {
+		return this.stationIndex;
+	}
+
+	/**
+	 * Return the number of time steps.
+	 */
+	@Override
+	public int getStepCount () {
+		return this.stepCount;
+	}
+
+	/**
+	 * Return the variable names, which are not copied.
+	 */
+	@Override
+	public String [] getVariableNames () {
+		return this.variableNames;
+	}
+
+	/**
+	 * Return whether a file is a binary output file written by StateModBinaryOutputWriter,
+	 * determined from the magic number at the start of the file.
+	 * @param file path to the file
+	 * @exception IOException if the file cannot be read
+	 */
+	public static boolean isBinaryOutputFile ( String file ) throws IOException {
+		try ( RandomAccessFile raf = new RandomAccessFile(file, "r") ) {
+			return (raf.length() >= 4) && (raf.readInt() == StateModBinaryOutputWriter.MAGIC);
+		}
+	}
+
+	/**
+	 * Read bytes from the file.
+	 */
+	private ByteBuffer read ( long position, int length ) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		while ( buffer.hasRemaining() ) {
+			if ( this.channel.read(buffer, position + buffer.position()) < 0 ) {
+				throw new IOException("Unexpected end of file.");
+			}
+		}
+		buffer.flip();
+		return buffer;
+	}
+
+	/**
+	 * Read all variables for one station.
+	 * @param stationId station identifier
+	 * @return values indexed by [variable][step]
+	 * @exception IOException if the file cannot be read
+	 * @exception IllegalArgumentException if the station is not in the file
+	 */
+	public double [][] readStation ( String stationId ) throws IOException {
+		int station = this.stationIndex.getIndex(stationId);
+		if ( station < 0 ) {
+			throw new IllegalArgumentException("Station \"" + stationId + "\" is not in the file.");
+		}
+		int variableCount = this.variableNames.length;
+		int recordBytes = 4*variableCount;
+		long stepBytes = (long)recordBytes*this.stationIndex.size();
+		double [][] values = new double[variableCount][this.stepCount];
+		ByteBuffer record = ByteBuffer.allocate(recordBytes);
+		for ( int step = 0; step < this.stepCount; step++ ) {
+			long position = this.dataOffset + step*stepBytes + (long)station*recordBytes;
+			record.clear();
+			while ( record.hasRemaining() ) {
+				if ( this.channel.read(record, position + record.position()) < 0 ) {
+					throw new IOException("Unexpected end of file.");
+				}
+			}
+			record.flip();
+			for ( int variable = 0; variable < variableCount; variable++ ) {
+				values[variable][step] = record.getFloat();
+			}
+		}
+		return values;
+	}
+
+	/**
+	 * Read all values for consecutive time steps, for streaming through the file with bounded memory.
+	 * The reader is not thread-safe when reading steps because a buffer is reused between calls.
+	 * @param firstStep first time step to read
+	 * @param stepCount number of time steps to read
+	 * @param values array to fill, indexed by ((step - firstStep)*stationCount + station)*variableCount + variable,
+	 * which must have room for the values
+	 * @exception IOException if the file cannot be read
+	 */
+	@Override
+	public void readSteps ( int firstStep, int stepCount, float [] values ) throws IOException {
+		if ( (firstStep < 0) || (stepCount < 0) || ((firstStep + stepCount) > this.stepCount) ) {
+			throw new IllegalArgumentException("Time steps " + firstStep + " to " + (firstStep + stepCount - 1) +
+				" are not in the file, which has " + this.stepCount + " time steps.");
+		}
+		int stepValueCount = this.variableNames.length*this.stationIndex.size();
+		int length = stepCount*stepValueCount*4;
+		if ( (this.stepBuffer == null) || (this.stepBuffer.capacity() < length) ) {
+			this.stepBuffer = ByteBuffer.allocateDirect(length);
+		}
+		ByteBuffer buffer = this.stepBuffer;
+		buffer.clear();
+		buffer.limit(length);
+		long position = this.dataOffset + (long)firstStep*stepValueCount*4;
+		while ( buffer.hasRemaining() ) {
+			if ( this.channel.read(buffer, position + buffer.position()) < 0 ) {
+				throw new IOException("Unexpected end of file.");
+			}
+		}
+		buffer.flip();
+		buffer.asFloatBuffer().get(values, 0, stepCount*stepValueCount);
+	}
+}
@@ -0,0 +1,371 @@
+// StateModBinaryOutputWriter - write time step results to a binary file using a background writer thread
+
+/* NoticeStart
+
+StateMod Java
+StateMod Java is a part of Colorado's Decision Support Systems (CDSS)
+Copyright (C) 2019 Colorado Department of Natural Resources
+
+StateMod Java is free software:  you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+StateMod Java is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+    along with StateMod Java.  If not, see <https://www.gnu.org/licenses/>.
+
+NoticeEnd */
+
+package cdss.statemod.app;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Write time step results for a list of stations to a binary file, similar in content to the Fortran StateMod
+ * binary output files (*.b43, *.b44) but with a different layout.
+ * The Fortran files have fixed-length records with the station and parameter tables that are read by
+ * StateMod_BTS, and values for all parameters of a station.  These files instead have a header that
+ * names the stations and variables that were written, followed by float values, and use the extensions
+ * NODE_EXTENSION and RESERVOIR_EXTENSION (".jb43" and ".jb44") so that they are not confused with Fortran files.
+ * These files cannot be read with StateMod_BTS.  They start with a magic number,
+ * so StateModBinaryOutputReader rejects a Fortran file.
+ * <p>
+ * Two buffers are used.  The simulation thread fills one buffer with time step records while a
+ * writer thread writes the other buffer to the file channel, so the simulation only waits for the
+ * disk if it fills a buffer before the previous buffer has been written.
+ * <p>
+ * The file format is big-endian:
+ * <pre>
+ * int      magic number ("SMBO")
+ * int      format version
+ * int      data offset, the byte position of the first record
+ * int      number of time steps written
+ * int      number of stations
+ * int      number of variables
+ * int      interval base (TimeInterval.MONTH or TimeInterval.DAY)
+ * int      year, month, and day of the first time step
+ * byte[24] variable names, one per variable, ASCII padded with spaces
+ * byte[24] station identifiers, one per station, ASCII padded with spaces
+ * float[]  records, time step major:  for each time step, for each station, one value per variable
+ * </pre>
+ * The header is the index for the records:  the values for a station and time step start at
+ * <code>dataOffset + ((step*stationCount) + station)*variableCount*4</code>,
+ * where station is the position of the station identifier in the header.
+ * Missing values are written as NaN.
+ * See StateModBinaryOutputReader.
+ */
+public class StateModBinaryOutputWriter implements AutoCloseable {
+
+	/**
+	 * Extension for river node output files, used rather than the Fortran ".b43" because the layout is different.
+	 */
+	public static final String NODE_EXTENSION = ".jb43";
+
+	/**
+	 * Extension for reservoir output files, used rather than the Fortran ".b44" because the layout is different.
+	 */
+	public static final String RESERVOIR_EXTENSION = ".jb44";
+
+	/**
+	 * Magic number at the start of the file ("SMBO").
+	 */
+	public static final int MAGIC = 0x534D424F;
+
+	/**
+	 * File format version.
+	 */
+	public static final int FORMAT_VERSION = 1;
+
+	/**
+	 * Size of the fixed part of the header, bytes.
+	 */
+	public static final int HEADER_SIZE = 40;
+
+	/**
+	 * Byte position of the time step count in the header.
+	 */
+	public static final int STEP_COUNT_POSITION = 12;
+
+	/**
+	 * Length of variable names and station identifiers in the header, bytes.
+	 */
+	public static final int NAME_LENGTH = 24;
+
+	/**
+	 * Target size of each buffer, bytes.
+	 */
+	private static final int BUFFER_SIZE = 1 << 20;
+
+	/**
+	 * Empty buffer put in the queue to tell the writer thread to stop.
+	 */
+	private static final ByteBuffer END = ByteBuffer.allocate(0);
+
+	/**
+	 * Output file path.
+	 */
+	private final String file;
+
+	/**
+	 * Output file.
+	 */
+	private final RandomAccessFile raf;
+
+	/**
+	 * Channel for the output file, used only by the writer thread after the header is written.
+	 */
+	private final FileChannel channel;
+
+	/**
+	 * Number of stations.
+	 */
+	private final int stationCount;
+
+	/**
+	 * Number of variables.
+	 */
+	private final int variableCount;
+
+	/**
+	 * Buffers that have been filled and are waiting to be written.
+	 */
+	private final BlockingQueue<ByteBuffer> fullBuffers = new ArrayBlockingQueue<>(3);
+
+	/**
+	 * Buffers that have been written and can be filled.
+	 */
+	private final BlockingQueue<ByteBuffer> freeBuffers = new ArrayBlockingQueue<>(2);
+
+	/**
+	 * Buffer being filled by the simulation thread.
+	 */
+	private ByteBuffer buffer;
+
+	/**
+	 * Next time step to write.
+	 */
+	private int nextStep = 0;
+
+	/**
+	 * Writer thread.
+	 */
+	private final Thread writerThread;
+
+	/**
+	 * Error from the writer thread, or null if no error.
+	 */
+	private volatile IOException writeError = null;
+
+	/**
+	 * Whether the writer has been closed.
+	 */
+	private boolean closed = false;
+
+	/**
+	 * Constructor, which writes the header and starts the writer thread.
+	 * @param file path to the output file, which is replaced if it exists
+	 * @param stationIds station identifiers, in the order that values are passed to writeStep()
+	 * @param variableNames variable names, in the order that values are passed to writeStep()
+	 * @param intervalBase TimeInterval.MONTH or TimeInterval.DAY
+	 * @param year year of the first time step
+	 * @param month month of the first time step
+	 * @param day day of the first time step (1 for monthly)
+	 * @exception IOException if the file cannot be created
+	 */
+	public StateModBinaryOutputWriter ( String file, String [] stationIds, String [] variableNames,
+		int intervalBase, int year, int month, int day ) throws IOException {
+		this.file = file;
+		this.stationCount = stationIds.length;
+		this.variableCount = variableNames.length;
+		this.raf = new RandomAccessFile(file, "rw");
+		this.raf.setLength(0);
+		this.channel = this.raf.getChannel();
+		// Write the header
+		int dataOffset = HEADER_SIZE + NAME_LENGTH*(this.variableCount + this.stationCount);
+		ByteBuffer header = ByteBuffer.allocate(dataOffset);
+		header.putInt(MAGIC);
+		header.putInt(FORMAT_VERSION);
+		header.putInt(dataOffset);
+		header.putInt(0);
+		header.putInt(this.stationCount);
+		header.putInt(this.variableCount);
+		header.putInt(intervalBase);
+		header.putInt(year);
+		header.putInt(month);
+		header.putInt(day);
+		for ( String name : variableNames ) {
+			putName(header, name);
+		}
+		for ( String id : stationIds ) {
+			putName(header, id);
+		}
+		header.flip();
+		while ( header.hasRemaining() ) {
+			this.channel.write(header);
+		}
+		// Allocate the buffers to hold a whole number of time steps
+		int stepBytes = Math.max(1, 4*this.stationCount*this.variableCount);
+		int bufferSteps = Math.max(1, BUFFER_SIZE/stepBytes);
+		this.buffer = ByteBuffer.allocateDirect(bufferSteps*stepBytes);
+		this.freeBuffers.add(ByteBuffer.allocateDirect(bufferSteps*stepBytes));
+		this.writerThread = new Thread(new Runnable() {
+			@Override
+			public void run () {
+				writeBuffers();
+			}
+		}, "StateMod-output-" + new java.io.File(file).getName());
+		this.writerThread.setDaemon(true);
+		this.writerThread.start();
+	}
+
+	/**
+	 * Throw the writer thread error, if any.
+	 */
+	private void checkWriteError () throws IOException {
+		if ( this.writeError != null ) {
+			throw new IOException("Error writing \"" + this.file + "\".", this.writeError);
+		}
+	}
+
+	/**
+	 * Write the remaining buffered records, stop the writer thread, update the header with the
+	 * number of time steps written, and close the file.
+	 * @exception IOException if there is an error writing
+	 */
+	@Override
+	public void close () throws IOException {
+		if ( this.closed ) {
+			return;
+		}
+		this.closed = true;
+		try {
+			try {
+				if ( this.buffer.position() > 0 ) {
+					handOff();
+				}
+			}
+			finally {
+				// Stop the writer thread even if the last buffer could not be handed off.
+				// The queue has room for END because at most two buffers are queued.
+				this.fullBuffers.offer(END);
+				this.writerThread.join();
+			}
+			checkWriteError();
+			ByteBuffer stepCount = ByteBuffer.allocate(4);
+			stepCount.putInt(this.nextStep);
+			stepCount.flip();
+			this.channel.write(stepCount, STEP_COUNT_POSITION);
+		}
+		catch ( InterruptedException e ) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted closing \"" + this.file + "\".", e);
+		}
+		finally {
+			this.raf.close();
+		}
+	}
+
+	/**
+	 * Return the output file path.
+	 */
+	public String getFile () {
+		return this.file;
+	}
+
+	/**
+	 * Queue the current buffer to be written and switch to the free buffer,
+	 * waiting for the writer thread if the free buffer is still being written.
+	 */
+	private void handOff () throws IOException, InterruptedException {
+		this.buffer.flip();
+		this.fullBuffers.put(this.buffer);
+		this.buffer = this.freeBuffers.take();
+		checkWriteError();
+	}
+
+	/**
+	 * Put a name in the header, ASCII padded with spaces.
+	 */
+	private static void putName ( ByteBuffer header, String name ) {
+		byte [] bytes = new byte[NAME_LENGTH];
+		Arrays.fill(bytes, (byte)' ');
+		if ( name != null ) {
+			byte [] nameBytes = name.getBytes(StandardCharsets.US_ASCII);
+			System.arraycopy(nameBytes, 0, bytes, 0, Math.min(nameBytes.length, NAME_LENGTH));
+		}
+		header.put(bytes);
+	}
+
+	/**
+	 * Write buffers as they are filled, run on the writer thread.
+	 */
+	private void writeBuffers () {
+		try {
+			while ( true ) {
+				ByteBuffer full = this.fullBuffers.take();
+				if ( full == END ) {
+					break;
+				}
+				if ( this.writeError == null ) {
+					try {
+						while ( full.hasRemaining() ) {
+							this.channel.write(full);
+						}
+					}
+					catch ( IOException e ) {
+						// Keep taking buffers so that the simulation thread does not wait, but do not write
+						this.writeError = e;
+					}
+				}
+				full.clear();
+				this.freeBuffers.put(full);
+			}
+		}
+		catch ( InterruptedException e ) {
+			this.writeError = new IOException("Writer thread was interrupted.", e);
+		}
+	}
+
+	/**
+	 * Write the values for the next time step.
+	 * @param step time step, which must be the next time step
+	 * @param values one array per variable, in the order of the variable names, each with one value per station
+	 * @exception IOException if there was an error writing previous time steps
+	 */
+	public void writeStep ( int step, double [] ... values ) throws IOException {
+		if ( step != this.nextStep ) {
+			throw new IllegalStateException("Time step " + step + " is written but the next time step is " + this.nextStep + ".");
+		}
+		if ( values.length != this.variableCount ) {
+			throw new IllegalArgumentException("Expecting " + this.variableCount + " variables, have " + values.length + ".");
+		}
+		ByteBuffer b = this.buffer;
+		for ( int station = 0; station < this.stationCount; station++ ) {
+			for ( int variable = 0; variable < this.variableCount; variable++ ) {
+				b.putFloat((float)values[variable][station]);
+			}
+		}
+		++this.nextStep;
+		if ( !b.hasRemaining() ) {
+			try {
+				handOff();
+			}
+			catch ( InterruptedException e ) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted writing \"" + this.file + "\".", e);
+			}
+		}
+	}
+}
@@ -0,0 +1,471 @@
+// StateModCheckEngine - run data check rules in parallel, reusing cached results
+
+/* NoticeStart
+
+StateMod Java
+StateMod Java is a part of Colorado's Decision Support Systems (CDSS)
+Copyright (C) 2019 Colorado Department of Natural Resources
+
+StateMod Java is free software:  you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+StateMod Java is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+    along with StateMod Java.  If not, see <https://www.gnu.org/licenses/>.
+
+NoticeEnd */
+
+package cdss.statemod.app;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import DWR.StateMod.StateMod_DataSet;
+import RTi.Util.IO.DataSetComponent;
+import RTi.Util.Message.Message;
+
+/**
+ * Run data check rules on a dataset.
+ * Rules are independent and only read the dataset, so they are run at the same time on a thread pool.
+ * The results of each rule are cached in a file with the fingerprints of the files for the components
+ * that the rule reads.  When the check is run again and none of those files have changed,
+ * the cached messages are used and the rule is not run, so editing one file only re-checks the rules
+ * that depend on that file.
+ * The fingerprints are those that the loader took before the files were read (StateModDataSetLoader.getFingerprints()),
+ * so a file that was edited after it was fingerprinted does not match and its rules are run again.
+ * The results of a rule that reads a file that was not fingerprinted before it was read are not cached.
+ * <p>
+ * The cache file format is big-endian:
+ * <pre>
+ * int     magic number
+ * int     format version
+ * UTF     program version
+ * int     number of rules, then for each rule:
+ *         UTF rule name, int number of files, then for each file: UTF path, long size, long modified time, long CRC-32
+ *         int number of messages, then for each message: UTF severity, UTF component, UTF identifier, UTF message
+ * </pre>
+ */
+public class StateModCheckEngine {
+
+	/**
+	 * Magic number at the start of the cache file ("SMCK").
+	 */
+	private static final int MAGIC = 0x534D434B;
+
+	/**
+	 * Cache format version, incremented when the format or the rules change.
+	 */
+	private static final int FORMAT_VERSION = 1;
+
+	/**
+	 * Path used in the cache for a component that has no file.
+	 */
+	private static final String NO_FILE = "";
+
+	/**
+	 * Dataset to check.
+	 */
+	private final StateMod_DataSet dataset;
+
+	/**
+	 * Time series store for the dataset.
+	 */
+	private final StateModTimeSeriesStore store;
+
+	/**
+	 * Cache file, or null to not cache results.
+	 */
+	private String cacheFile = null;
+
+	/**
+	 * Number of threads used to run rules.
+	 */
+	private int threads = 1;
+
+	/**
+	 * Number of rules whose results were reused from the cache in the last run.
+	 */
+	private int cachedRuleCount = 0;
+
+	/**
+	 * Fingerprints of the dataset files taken before they were read, by path, set at the start of each run.
+	 */
+	private final Map<String,StateModFileFingerprint> fingerprints = new HashMap<>();
+
+	/**
+	 * Constructor.
+	 * @param dataset dataset to check
+	 * @param store time series store for the dataset
+	 */
+	public StateModCheckEngine ( StateMod_DataSet dataset, StateModTimeSeriesStore store ) {
+		this.dataset = dataset;
+		this.store = store;
+	}
+
+	/**
+	 * Return the number of rules whose results were reused from the cache in the last run.
+	 */
+	public int getCachedRuleCount () {
+		return this.cachedRuleCount;
+	}
+
+	/**
+	 * Return the name of a component for messages.
+	 * @param dataset dataset containing the component
+	 * @param compType component type, StateMod_DataSet.COMP_*
+	 */
+	public static String getComponentName ( StateMod_DataSet dataset, int compType ) {
+		DataSetComponent comp = dataset.getComponentForComponentType(compType);
+		if ( comp == null ) {
+			return "" + compType;
+		}
+		return comp.getComponentName();
+	}
+
+	/**
+	 * Return the default rules.
+	 */
+	public static List<StateModCheckRule> getDefaultRules () {
+		List<StateModCheckRule> rules = new ArrayList<>();
+		rules.add(new StateModNetworkCheckRule());
+		rules.add(new StateModStationNetworkCheckRule("StreamGageStationNetwork", StateMod_DataSet.COMP_STREAMGAGE_STATIONS));
+		rules.add(new StateModStationNetworkCheckRule("StreamEstimateStationNetwork", StateMod_DataSet.COMP_STREAMESTIMATE_STATIONS));
+		rules.add(new StateModStationNetworkCheckRule("DiversionStationNetwork", StateMod_DataSet.COMP_DIVERSION_STATIONS));
+		rules.add(new StateModStationNetworkCheckRule("ReservoirStationNetwork", StateMod_DataSet.COMP_RESERVOIR_STATIONS));
+		rules.add(new StateModStationNetworkCheckRule("InstreamStationNetwork", StateMod_DataSet.COMP_INSTREAM_STATIONS));
+		rules.add(new StateModStationNetworkCheckRule("WellStationNetwork", StateMod_DataSet.COMP_WELL_STATIONS));
+		rules.add(new StateModRightCheckRule("DiversionRights",
+			StateMod_DataSet.COMP_DIVERSION_RIGHTS, StateMod_DataSet.COMP_DIVERSION_STATIONS));
+		rules.add(new StateModRightCheckRule("ReservoirRights",
+			StateMod_DataSet.COMP_RESERVOIR_RIGHTS, StateMod_DataSet.COMP_RESERVOIR_STATIONS));
+		rules.add(new StateModRightCheckRule("InstreamRights",
+			StateMod_DataSet.COMP_INSTREAM_RIGHTS, StateMod_DataSet.COMP_INSTREAM_STATIONS));
+		rules.add(new StateModRightCheckRule("WellRights",
+			StateMod_DataSet.COMP_WELL_RIGHTS, StateMod_DataSet.COMP_WELL_STATIONS));
+		rules.add(new StateModTimeSeriesCoverageCheckRule("StreamGageBaseflowCoverage",
+			StateModTimeSeriesType.BASEFLOW_MONTHLY, StateMod_DataSet.COMP_STREAMGAGE_STATIONS, StateModCheckMessage.SEVERITY_WARNING));
+		rules.add(new StateModTimeSeriesCoverageCheckRule("DiversionDemandCoverage",
+			StateModTimeSeriesType.DEMAND_MONTHLY, StateMod_DataSet.COMP_DIVERSION_STATIONS, StateModCheckMessage.SEVERITY_ERROR));
+		rules.add(new StateModTimeSeriesCoverageCheckRule("InstreamDemandCoverage",
+			StateModTimeSeriesType.INSTREAM_DEMAND_MONTHLY, StateMod_DataSet.COMP_INSTREAM_STATIONS, StateModCheckMessage.SEVERITY_WARNING));
+		rules.add(new StateModTimeSeriesCoverageCheckRule("WellDemandCoverage",
+			StateModTimeSeriesType.WELL_DEMAND_MONTHLY, StateMod_DataSet.COMP_WELL_STATIONS, StateModCheckMessage.SEVERITY_WARNING));
+		return rules;
+	}
+
+	/**
+	 * Return the fingerprint that was taken for a file before it was read.
+	 * @return the fingerprint, or null if the file was not fingerprinted before it was read
+	 */
+	private StateModFileFingerprint getFingerprint ( String path ) {
+		return this.fingerprints.get(path);
+	}
+
+	/**
+	 * Return the files for the components read by a rule, NO_FILE for components without a file.
+	 */
+	private List<String> getRuleFiles ( StateModCheckRule rule ) {
+		List<String> files = new ArrayList<>();
+		for ( int compType : rule.getComponentTypes() ) {
+			String file = StateModDataSetLoader.getComponentFile(this.dataset, compType);
+			files.add((file == null) ? NO_FILE : file);
+		}
+		return files;
+	}
+
+	/**
+	 * Determine whether a cached result can be used for a rule.
+	 */
+	private boolean isCacheValid ( CachedResult cached, List<String> files ) throws IOException {
+		if ( (cached == null) || (cached.fingerprints.size() != files.size()) ) {
+			return false;
+		}
+		for ( int i = 0; i < files.size(); i++ ) {
+			StateModFileFingerprint fingerprint = cached.fingerprints.get(i);
+			if ( !fingerprint.getPath().equals(files.get(i)) ) {
+				return false;
+			}
+			if ( !NO_FILE.equals(fingerprint.getPath()) && !fingerprint.matchesFile() ) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Read the cache file.
+	 * @return cached results by rule name, empty if the cache does not exist or cannot be used
+	 */
+	private Map<String,CachedResult> readCache () {
+		String routine = getClass().getSimpleName() + ".readCache";
+		Map<String,CachedResult> cache = new HashMap<>();
+		if ( (this.cacheFile == null) || !new File(this.cacheFile).exists() ) {
+			return cache;
+		}
+		try ( DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(this.cacheFile))) ) {
+			if ( (in.readInt() != MAGIC) || (in.readInt() != FORMAT_VERSION) ||
+				!StateModMain.PROGRAM_VERSION.equals(in.readUTF()) ) {
+				StateModLogger.printStatus(2, routine, "Check cache \"" + this.cacheFile + "\" is from a different version - ignoring.");
+				return cache;
+			}
+			int ruleCount = in.readInt();
+			for ( int irule = 0; irule < ruleCount; irule++ ) {
+				CachedResult cached = new CachedResult();
+				String name = in.readUTF();
+				int fileCount = in.readInt();
+				for ( int ifile = 0; ifile < fileCount; ifile++ ) {
+					cached.fingerprints.add(new StateModFileFingerprint(in.readUTF(), in.readLong(), in.readLong(), in.readLong()));
+				}
+				int messageCount = in.readInt();
+				for ( int imessage = 0; imessage < messageCount; imessage++ ) {
+					cached.messages.add(new StateModCheckMessage(name, in.readUTF(), in.readUTF(), in.readUTF(), in.readUTF()));
+				}
+				cache.put(name, cached);
+			}
+		}
+		catch ( IOException e ) {
+			StateModLogger.printWarning(3, routine, "Error reading check cache \"" + this.cacheFile + "\" - ignoring.");
+			StateModLogger.printWarning(3, routine, e);
+			cache.clear();
+		}
+		return cache;
+	}
+
+	/**
+	 * Run the rules.  Results for rules whose files have not changed are reused from the cache.
+	 * @param rules rules to run
+	 * @return messages from all rules, in the order of the rules
+	 */
+	public List<StateModCheckMessage> run ( List<StateModCheckRule> rules ) {
+		String routine = getClass().getSimpleName() + ".run";
+		this.fingerprints.clear();
+		List<StateModFileFingerprint> dataSetFingerprints = StateModDataSetLoader.getFingerprints(this.dataset);
+		if ( dataSetFingerprints != null ) {
+			for ( StateModFileFingerprint fingerprint : dataSetFingerprints ) {
+				this.fingerprints.put(fingerprint.getPath(), fingerprint);
+			}
+		}
+		final Map<String,CachedResult> cache = readCache();
+		List<Callable<CachedResult>> tasks = new ArrayList<>(rules.size());
+		for ( final StateModCheckRule rule : rules ) {
+			tasks.add(new Callable<CachedResult>() {
+				@Override
+				public CachedResult call () throws Exception {
+					List<String> files = getRuleFiles(rule);
+					CachedResult cached = cache.get(rule.getName());
+					if ( isCacheValid(cached, files) ) {
+						cached.fromCache = true;
+						return cached;
+					}
+					CachedResult result = new CachedResult();
+					for ( String file : files ) {
+						StateModFileFingerprint fingerprint = NO_FILE.equals(file) ? new StateModFileFingerprint(NO_FILE, -1, 0, 0) : getFingerprint(file);
+						if ( fingerprint == null ) {
+							// Fingerprinting the file now could match an edit made after the file was read
+							result.cacheable = false;
+						}
+						result.fingerprints.add(fingerprint);
+					}
+					result.messages.addAll(rule.check(dataset, store));
+					return result;
+				}
+			});
+		}
+		List<StateModCheckMessage> messages = new ArrayList<>();
+		Map<String,CachedResult> newCache = new HashMap<>();
+		this.cachedRuleCount = 0;
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(this.threads, Math.max(1, tasks.size())));
+		try {
+			List<Future<CachedResult>> futures = executor.invokeAll(tasks);
+			for ( int i = 0; i < futures.size(); i++ ) {
+				StateModCheckRule rule = rules.get(i);
+				try {
+					CachedResult result = futures.get(i).get();
+					if ( result.fromCache ) {
+						++this.cachedRuleCount;
+					}
+					messages.addAll(result.messages);
+					if ( result.cacheable ) {
+						newCache.put(rule.getName(), result);
+					}
+				}
+				catch ( ExecutionException e ) {
+					// A rule that fails is reported but does not stop other rules - do not cache
+					messages.add(new StateModCheckMessage(rule.getName(), StateModCheckMessage.SEVERITY_ERROR, "", "",
+						"Rule failed to run (" + e.getCause() + ")."));
+					StateModLogger.printWarning(3, routine, e.getCause());
+				}
+			}
+		}
+		catch ( InterruptedException e ) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Check was interrupted.", e);
+		}
+		finally {
+			executor.shutdown();
+		}
+		StateModLogger.printStatus(2, routine, "Ran " + rules.size() + " check rules (" + this.cachedRuleCount +
+			" from cache), " + messages.size() + " messages.");
+		writeCache(rules, newCache);
+		return messages;
+	}
+
+	/**
+	 * Set the cache file.
+	 * @param cacheFile cache file, or null to not cache results
+	 */
+	public void setCacheFile ( String cacheFile ) {
+		this.cacheFile = cacheFile;
+	}
+
+	/**
+	 * Set the number of threads used to run rules.
+	 * @param threads number of threads
+	 */
+	public void setThreads ( int threads ) {
+		this.threads = (threads < 1) ? 1 : threads;
+	}
+
+	/**
+	 * Write the cache file.  The cache is written to a unique temporary file in the same folder and then moved
+	 * to the cache file in one step, so that runs at the same time do not write the same file and a partial
+	 * cache is never read.
+	 */
+	private void writeCache ( List<StateModCheckRule> rules, Map<String,CachedResult> cache ) {
+		String routine = getClass().getSimpleName() + ".writeCache";
+		if ( this.cacheFile == null ) {
+			return;
+		}
+		File file = new File(this.cacheFile).getAbsoluteFile();
+		File tempFile = null;
+		try {
+			tempFile = File.createTempFile(file.getName() + ".", ".tmp", file.getParentFile());
+			try ( DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile))) ) {
+				out.writeInt(MAGIC);
+				out.writeInt(FORMAT_VERSION);
+				out.writeUTF(StateModMain.PROGRAM_VERSION);
+				List<String> names = new ArrayList<>();
+				for ( StateModCheckRule rule : rules ) {
+					if ( cache.containsKey(rule.getName()) ) {
+						names.add(rule.getName());
+					}
+				}
+				out.writeInt(names.size());
+				for ( String name : names ) {
+					CachedResult result = cache.get(name);
+					out.writeUTF(name);
+					out.writeInt(result.fingerprints.size());
+					for ( StateModFileFingerprint fingerprint : result.fingerprints ) {
+						out.writeUTF(fingerprint.getPath());
+						out.writeLong(fingerprint.getSize());
+						out.writeLong(fingerprint.getLastModified());
+						out.writeLong(fingerprint.getContentHash());
+					}
+					out.writeInt(result.messages.size());
+					for ( StateModCheckMessage message : result.messages ) {
+						out.writeUTF(message.getSeverity());
+						out.writeUTF(message.getComponent());
+						out.writeUTF(message.getId() == null ? "" : message.getId());
+						out.writeUTF(message.getMessage());
+					}
+				}
+			}
+			Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			tempFile = null;
+		}
+		catch ( IOException e ) {
+			StateModLogger.printWarning(3, routine, "Error writing check cache \"" + this.cacheFile + "\".");
+			StateModLogger.printWarning(3, routine, e);
+		}
+		finally {
+			if ( (tempFile != null) && tempFile.exists() && !tempFile.delete() ) {
+				StateModLogger.printWarning(3, routine, "Unable to delete \"" + tempFile + "\".");
+			}
+		}
+	}
+
+	/**
+	 * Write the check report as a comma-separated file, one line per message, with # comments at the top.
+	 * @param reportFile path to the report file
+	 * @param messages messages from run()
+	 * @exception IOException if the report cannot be written
+	 */
+	public void writeReport ( String reportFile, List<StateModCheckMessage> messages ) throws IOException {
+		int errorCount = 0;
+		for ( StateModCheckMessage message : messages ) {
+			if ( StateModCheckMessage.SEVERITY_ERROR.equals(message.getSeverity()) ) {
+				++errorCount;
+			}
+		}
+		try ( PrintWriter out = new PrintWriter(reportFile) ) {
+			out.println("# StateMod data check report");
+			out.println("# Program: " + StateModMain.PROGRAM_NAME + " " + StateModMain.PROGRAM_VERSION);
+			out.println("# Errors: " + errorCount);
+			out.println("# Warnings: " + (messages.size() - errorCount));
+			out.println("\"Rule\",\"Severity\",\"Component\",\"ID\",\"Message\"");
+			for ( StateModCheckMessage message : messages ) {
+				out.println(quote(message.getRuleName()) + "," + quote(message.getSeverity()) + "," +
+					quote(message.getComponent()) + "," + quote(message.getId()) + "," + quote(message.getMessage()));
+			}
+		}
+	}
+
+	/**
+	 * Quote a string for the report, doubling embedded quotes.
+	 */
+	private static String quote ( String s ) {
+		if ( s == null ) {
+			return "\"\"";
+		}
+		return "\"" + s.replace("\"", "\"\"") + "\"";
+	}
+
+	/**
+	 * Results for one rule, with the fingerprints of the files that were checked.
+	 */
+	private static class CachedResult {
+		/**
+		 * Whether the result can be cached, which is the case if all files were fingerprinted before they were read.
+		 */
+		private boolean cacheable = true;
+
+		/**
+		 * Fingerprints of the component files read by the rule.
+		 */
+		private final List<StateModFileFingerprint> fingerprints = new ArrayList<>();
+
+		/**
+		 * Messages from the rule.
+		 */
+		private final List<StateModCheckMessage> messages = new ArrayList<>();
+
+		/**
+		 * Whether the result was read from the cache.
+		 */
+		private boolean fromCache = false;
+	}
+}
@@ -0,0 +1,116 @@
+// StateModCheckMessage - message produced by a data check rule
+
+/* NoticeStart
+
+StateMod Java
+StateMod Java is a part of Colorado's Decision Support Systems (CDSS)
+Copyright (C) 2019 Colorado Department of Natural Resources
+
+StateMod Java is free software:  you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+StateMod Java is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+    along with StateMod Java.  If not, see <https://www.gnu.org/licenses/>.
+
+NoticeEnd */
+
+package cdss.statemod.app;
+
+/**
+ * Message produced by a data check rule, indicating a problem with one dataset object.
+ */
+public class StateModCheckMessage {
+
+	/**
+	 * Severity for problems that will cause incorrect results.
+	 */
+	public static final String SEVERITY_ERROR = "Error";
+
+	/**
+	 * Severity for problems that should be reviewed.
+	 */
+	public static final String SEVERITY_WARNING = "Warning";
+
+	/**
+	 * Name of the rule that produced the message.
+	 */
+	private final String ruleName;
+
+	/**
+	 * Severity, SEVERITY_*.
+	 */
+	private final String severity;
+
+	/**
+	 * Name of the dataset component containing the object.
+	 */
+	private final String component;
+
+	/**
+	 * Identifier of the object with the problem.
+	 */
+	private final String id;
+
+	/**
+	 * Description of the problem.
+	 */
+	private final String message;
+
+	/**
+	 * Constructor.
+	 * @param ruleName name of the rule that produced the message
+	 * @param severity severity, SEVERITY_*
+	 * @param component name of the dataset component containing the object
+	 * @param id identifier of the object with the problem
+	 * @param message description of the problem
+	 */
+	public StateModCheckMessage ( String ruleName, String severity, String component, String id, String message ) {
+		this.ruleName = ruleName;
+		this.severity = severity;
+		this.component = component;
+		this.id = id;
+		this.message = message;
+	}
+
+	/**
+	 * Return the component name.
+	 */
+	public String getComponent () {
+		return this.component;
+	}
+
+	/**
+	 * Return the object identifier.
+	 */
+	public String getId () {
+		return this.id;
+	}
+
+	/**
+	 * Return the message.
+	 */
+	public String getMessage () {
+		return this.message;
+	}
+
+	/**
+	 * Return the rule name.
+	 */
+	public String getRuleName () {
+		return this.ruleName;
+	}
+
+	/**
+	 * Return the severity.
+	 */
+	public String getSeverity () {
+		return this.severity;
+	}
+}
@@ -0,0 +1,54 @@
+// StateModCheckRule - interface for data check rules
+
+/* NoticeStart
+
+StateMod Java
+StateMod Java is a part of Colorado's Decision Support Systems (CDSS)
+Copyright (C) 2019 Colorado Department of Natural Resources
+
+StateMod Java is free software:  you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+StateMod Java is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+    along with StateMod Java.  If not, see <https://www.gnu.org/licenses/>.
+
+NoticeEnd */
+
+package cdss.statemod.app;
+
+import java.util.List;
+
+import DWR.StateMod.StateMod_DataSet;
+
+/**
+ * Interface for a data check rule.
+ * Rules only read the dataset and store and must not modify them, so that rules can be run at the same time.
+ * The component types that a rule reads are used to reuse cached results when the component files have not changed.
+ */
+public interface StateModCheckRule {
+
+	/**
+	 * Check the dataset.
+	 * @param dataset dataset to check
+	 * @param store time series store for the dataset
+	 * @return messages for problems that were found, guaranteed to be non-null
+	 */
+	public List<StateModCheckMessage> check ( StateMod_DataSet dataset, StateModTimeSeriesStore store );
+
+	/**
+	 * Return the StateMod_DataSet.COMP_* component types whose data the rule reads.
+	 */
+	public int [] getComponentTypes ();
+
+	/**
+	 * Return the rule name, which must be unique.
+	 */
+	public String getName ();
+}
@@ -0,0 +1,249 @@
+// StateModCheckpoint - simulation state that can be saved and used to restart a simulation
+
+/* NoticeStart
+
+StateMod Java
+StateMod Java is a part of Colorado's Decision Support Systems (CDSS)
+Copyright (C) 2019 Colorado Department of Natural Resources
+
+StateMod Java is free software:  you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+StateMod Java is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+    along with StateMod Java.  If not, see <https://www.gnu.org/licenses/>.
+
+NoticeEnd */
+
+package cdss.statemod.app;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Simulation state that is carried from one time step to the next, which can be written to a checkpoint file
+ * and used to restart the simulation at the next time step.
+ * The state is the position in the time step loop, the reservoir contents, and the remaining annual decree of
+ * each right (the reservoir right accounting).  All other simulation arrays are recomputed each time step.
+ * <p>
+ * A checkpoint can be used to restart the same dataset after an interruption, or to warm-start runs
+ * that share the dataset structure, such as batch scenarios, so that each run does not repeat the
+ * spin-up period.  The reservoir and right identifiers are saved and must match the simulation
+ * that is restarted.  Scenario changes to demands or right switches do not prevent a restart.
+ * <p>
+ * The file format is big-endian:
+ * <pre>
+ * int     magic number ("SMCP")
+ * int     format version
+ * UTF     program version
+ * int     number of time steps in the period, year and month of the first time step
+ * int     next time step to simulate
+ * int     number of reservoirs, then for each reservoir: UTF identifier, double content
+ * int     number of rights, then for each right in priority order: UTF identifier, double remaining decree
+ * </pre>
+ */
+public class StateModCheckpoint {
+
+	/**
+	 * Magic number at the start of the file ("SMCP").
+	 */
+	private static final int MAGIC = 0x534D4350;
+
+	/**
+	 * File format version.
+	 */
+	private static final int FORMAT_VERSION = 1;
+
+	/**
+	 * Number of time steps in the period.
+	 */
+	private final int stepCount;
+
+	/**
+	 * Year and month of the first time step.
+	 */
+	private final int startYear;
+	private final int startMonth;
+
+	/**
+	 * Next time step to simulate.
+	 */
+	private final int nextStep;
+
+	/**
+	 * Reservoir identifiers and contents.
+	 */
+	private final String [] reservoirIds;
+	private final double [] reservoirContent;
+
+	/**
+	 * Right identifiers and remaining annual decrees, in priority order.
+	 */
+	private final String [] rightIds;
+	private final double [] rightRemaining;
+
+	/**
+	 * Constructor.
+	 */
+	private StateModCheckpoint ( int stepCount, int startYear, int startMonth, int nextStep,
+		String [] reservoirIds, double [] reservoirContent, String [] rightIds, double [] rightRemaining ) {
+		this.stepCount = stepCount;
+		this.startYear = startYear;
+		this.startMonth = startMonth;
+		this.nextStep = nextStep;
+		this.reservoirIds = reservoirIds;
+		this.reservoirContent = reservoirContent;
+		this.rightIds = rightIds;
+		this.rightRemaining = rightRemaining;
+	}
+
+	/**
+	 * Restore the checkpoint state in a simulator.  The checkpoint is not modified and can be applied
+	 * to more than one simulator.
+	 * @param simulator simulator to restore, which has not been run
+	 * @param rights rights used by the simulator
+	 * @exception IllegalArgumentException if the checkpoint does not match the simulation
+	 */
+	public void apply ( StateModSimulator simulator, StateModRightList rights ) {
+		if ( (simulator.getStepCount() != this.stepCount) ||
+			((this.stepCount > 0) && ((simulator.getStepYear(0) != this.startYear) || (simulator.getStepMonth(0) != this.startMonth))) ) {
+			throw new IllegalArgumentException("Checkpoint period (" + this.startYear + "-" + this.startMonth + ", " +
+				this.stepCount + " time steps) does not match the simulation period.");
+		}
+		StateModStationIndex reservoirIndex = rights.getStationIndex(StateModRightList.TYPE_RESERVOIR);
+		if ( reservoirIndex.size() != this.reservoirIds.length ) {
+			throw new IllegalArgumentException("Checkpoint has " + this.reservoirIds.length + " reservoirs, simulation has " +
+				reservoirIndex.size() + ".");
+		}
+		for ( int i = 0; i < this.reservoirIds.length; i++ ) {
+			if ( !this.reservoirIds[i].equals(reservoirIndex.getId(i)) ) {
+				throw new IllegalArgumentException("Checkpoint reservoir \"" + this.reservoirIds[i] +
+					"\" does not match simulation reservoir \"" + reservoirIndex.getId(i) + "\".");
+			}
+		}
+		String [] ids = rights.getIds();
+		if ( ids.length != this.rightIds.length ) {
+			throw new IllegalArgumentException("Checkpoint has " + this.rightIds.length + " rights, simulation has " + ids.length + ".");
+		}
+		for ( int i = 0; i < ids.length; i++ ) {
+			if ( !this.rightIds[i].equals(ids[i]) ) {
+				throw new IllegalArgumentException("Checkpoint right \"" + this.rightIds[i] +
+					"\" does not match simulation right \"" + ids[i] + "\".");
+			}
+		}
+		simulator.restoreState(this.nextStep, this.reservoirContent, this.rightRemaining);
+	}
+
+	/**
+	 * Create a checkpoint from the current simulator state.
+	 * @param simulator simulator, which will continue at its next time step when restarted
+	 * @param rights rights used by the simulator
+	 * @return checkpoint with copies of the state
+	 */
+	public static StateModCheckpoint create ( StateModSimulator simulator, StateModRightList rights ) {
+		StateModStationIndex reservoirIndex = rights.getStationIndex(StateModRightList.TYPE_RESERVOIR);
+		String [] reservoirIds = new String[reservoirIndex.size()];
+		for ( int i = 0; i < reservoirIds.length; i++ ) {
+			reservoirIds[i] = reservoirIndex.getId(i);
+		}
+		int stepCount = simulator.getStepCount();
+		return new StateModCheckpoint(stepCount,
+			(stepCount > 0) ? simulator.getStepYear(0) : 0, (stepCount > 0) ? simulator.getStepMonth(0) : 0,
+			simulator.getNextStep(), reservoirIds, simulator.getReservoirContent().clone(),
+			rights.getIds().clone(), simulator.getReservoirRightRemaining().clone());
+	}
+
+	/**
+	 * Return the next time step to simulate.
+	 */
+	public int getNextStep () {
+		return this.nextStep;
+	}
+
+	/**
+	 * Read a checkpoint file.
+	 * @param file path to the checkpoint file
+	 * @return the checkpoint
+	 * @exception IOException if the file cannot be read or is not a checkpoint for this version
+	 */
+	public static StateModCheckpoint read ( String file ) throws IOException {
+		try ( DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file))) ) {
+			if ( (in.readInt() != MAGIC) || (in.readInt() != FORMAT_VERSION) ) {
+				throw new IOException("File \"" + file + "\" is not a supported checkpoint file.");
+			}
+			String version = in.readUTF();
+			if ( !StateModMain.PROGRAM_VERSION.equals(version) ) {
+				throw new IOException("Checkpoint \"" + file + "\" was written by version " + version +
+					" and cannot be used with version " + StateModMain.PROGRAM_VERSION + ".");
+			}
+			int stepCount = in.readInt();
+			int startYear = in.readInt();
+			int startMonth = in.readInt();
+			int nextStep = in.readInt();
+			int reservoirCount = in.readInt();
+			String [] reservoirIds = new String[reservoirCount];
+			double [] reservoirContent = new double[reservoirCount];
+			for ( int i = 0; i < reservoirCount; i++ ) {
+				reservoirIds[i] = in.readUTF();
+				reservoirContent[i] = in.readDouble();
+			}
+			int rightCount = in.readInt();
+			String [] rightIds = new String[rightCount];
+			double [] rightRemaining = new double[rightCount];
+			for ( int i = 0; i < rightCount; i++ ) {
+				rightIds[i] = in.readUTF();
+				rightRemaining[i] = in.readDouble();
+			}
+			return new StateModCheckpoint(stepCount, startYear, startMonth, nextStep,
+				reservoirIds, reservoirContent, rightIds, rightRemaining);
+		}
+	}
+
+	/**
+	 * Write the checkpoint file.  The file is written to a temporary file and then renamed,
+	 * so that an interrupted write does not replace the previous checkpoint.
+	 * @param file path to the checkpoint file
+	 * @exception IOException if the file cannot be written
+	 */
+	public void write ( String file ) throws IOException {
+		File checkpointFile = new File(file);
+		File tempFile = new File(file + ".tmp");
+		try ( DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile))) ) {
+			out.writeInt(MAGIC);
+			out.writeInt(FORMAT_VERSION);
+			out.writeUTF(StateModMain.PROGRAM_VERSION);
+			out.writeInt(this.stepCount);
+			out.writeInt(this.startYear);
+			out.writeInt(this.startMonth);
+			out.writeInt(this.nextStep);
+			out.writeInt(this.reservoirIds.length);
+			for ( int i = 0; i < this.reservoirIds.length; i++ ) {
+				out.writeUTF(this.reservoirIds[i]);
+				out.writeDouble(this.reservoirContent[i]);
+			}
+			out.writeInt(this.rightIds.length);
+			for ( int i = 0; i < this.rightIds.length; i++ ) {
+				out.writeUTF(this.rightIds[i]);
+				out.writeDouble(this.rightRemaining[i]);
+			}
+		}
+		if ( checkpointFile.exists() && !checkpointFile.delete() ) {
+			throw new IOException("Unable to replace checkpoint \"" + checkpointFile + "\".");
+		}
+		if ( !tempFile.renameTo(checkpointFile) ) {
+			throw new IOException("Unable to rename \"" + tempFile + "\" to \"" + checkpointFile + "\".");
+		}
+	}
+}
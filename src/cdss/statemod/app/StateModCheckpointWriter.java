@@ -0,0 +1,97 @@
+// StateModCheckpointWriter - simulation listener that writes checkpoints at an interval
+
+/* NoticeStart
+
+StateMod Java
+StateMod Java is a part of Colorado's Decision Support Systems (CDSS)
+Copyright (C) 2019 Colorado Department of Natural Resources
+
+StateMod Java is free software:  you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+StateMod Java is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+    along with StateMod Java.  If not, see <https://www.gnu.org/licenses/>.
+
+NoticeEnd */
+
+package cdss.statemod.app;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+
+/**
+ * Simulation listener that writes a checkpoint file every N time steps and at the end of the simulation.
+ * The same file is replaced each time so that it always contains the latest state.
+ */
+public class StateModCheckpointWriter implements StateModSimulationListener {
+
+	/**
+	 * Logger for run-time messages.
+	 */
+	private static final StateModLogger LOG = StateModLogger.getLogger(StateModCheckpointWriter.class);
+
+	/**
+	 * Checkpoint file.
+	 */
+	private final String file;
+
+	/**
+	 * Number of time steps between checkpoints.
+	 */
+	private final int interval;
+
+	/**
+	 * Rights used by the simulator.
+	 */
+	private final StateModRightList rights;
+
+	/**
+	 * Metrics for the run, or null to not record.
+	 */
+	private final StateModMetrics metrics;
+
+	/**
+	 * Constructor.
+	 * @param file path to the checkpoint file
+	 * @param interval number of time steps between checkpoints, for example 12 for yearly with a monthly time step
+	 * @param rights rights used by the simulator
+	 * @param metrics metrics for the run, or null to not record the time to write checkpoints
+	 */
+	public StateModCheckpointWriter ( String file, int interval, StateModRightList rights, StateModMetrics metrics ) {
+		if ( interval < 1 ) {
+			throw new IllegalArgumentException("Checkpoint interval (" + interval + ") must be >= 1.");
+		}
+		this.file = file;
+		this.interval = interval;
+		this.rights = rights;
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Write a checkpoint if the interval has been reached or the simulation is complete.
+	 * @exception UncheckedIOException if the checkpoint cannot be written, which stops the simulation
+	 */
+	@Override
+	@SuppressWarnings("try")
+	public void timeStepCompleted ( StateModSimulator simulator, int step ) {
+		int nextStep = step + 1;
+		if ( ((nextStep % this.interval) != 0) && (nextStep != simulator.getStepCount()) ) {
+			return;
+		}
+		try ( StateModMetrics.Timer timer = StateModMetrics.startPhase(this.metrics, "WriteCheckpoint") ) {
+			StateModCheckpoint.create(simulator, this.rights).write(this.file);
+			LOG.info("Wrote checkpoint for time step {} to \"{}\".", nextStep, this.file);
+		}
+		catch ( IOException e ) {
+			throw new UncheckedIOException(e);
+		}
+	}
+}
@@ -0,0 +1,385 @@
+// StateModDataSetArchive - read a dataset from a zip archive
+
+
+/* NoticeStart
+
+StateMod Java
+StateMod Java is a part of Colorado's Decision Support Systems (CDSS)
+Copyright (C) 2019 Colorado Department of Natural Resources
+
+StateMod Java is free software:  you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+StateMod Java is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+    along with StateMod Java.  If not, see <https://www.gnu.org/licenses/>.
+
+NoticeEnd */
+
+package cdss.statemod.app;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Dataset that is read from a zip archive, specified as "dataset.zip!/path/dataset.rsp",
+ * where the path after "!/" is the response file entry in the archive.
+ * <p>
+ * The dataset readers read files, so the response file and the archive entries that it lists are
+ * decompressed into a scratch directory, and the dataset is read from there.  Only the listed entries are
+ * decompressed, each streamed from the archive to its file without reading the entry into memory,
+ * and entries are decompressed in parallel.  The scratch directory is in the Java temporary directory
+ * (java.io.tmpdir), which can be set to a memory file system such as /dev/shm to avoid disk I/O.
+ * <p>
+ * Output files are written next to the archive, using the response file name, so that output does not
+ * depend on the scratch directory.
+ */
+public class StateModDataSetArchive {
+
+	/**
+	 * Separator between the archive file and the response file entry.
+	 */
+	public static final String ENTRY_SEPARATOR = "!/";
+
+	/**
+	 * Logger for run-time messages.
+	 */
+	private static final StateModLogger LOG = StateModLogger.getLogger(StateModDataSetArchive.class);
+
+	/**
+	 * Absolute path to the archive file.
+	 */
+	private final String archiveFile;
+
+	/**
+	 * Response file entry in the archive, with "/" separators.
+	 */
+	private final String responseEntry;
+
+	/**
+	 * Scratch directory that the dataset was extracted to, or null if not extracted.
+	 */
+	private File directory = null;
+
+	/**
+	 * Extracted response file, or null if not extracted.
+	 */
+	private String extractedResponseFile = null;
+
+	/**
+	 * Constructor.
+	 * @param archiveFile absolute path to the archive file
+	 * @param responseEntry response file entry in the archive, with or without ".rsp"
+	 * @exception IOException if the archive cannot be read or does not contain the response file
+	 */
+	public StateModDataSetArchive ( String archiveFile, String responseEntry ) throws IOException {
+		this.archiveFile = archiveFile;
+		String entry = normalizeEntry(responseEntry);
+		if ( entry == null ) {
+			throw new IOException("Response file \"" + responseEntry + "\" is not a valid archive entry.");
+		}
+		try ( ZipFile zip = new ZipFile(archiveFile) ) {
+			if ( (zip.getEntry(entry) == null) && !entry.endsWith(".rsp") && (zip.getEntry(entry + ".rsp") != null) ) {
+				// Allow the extension to be omitted, consistent with response files on disk
+				entry = entry + ".rsp";
+			}
+			if ( zip.getEntry(entry) == null ) {
+				throw new IOException("Archive \"" + archiveFile + "\" does not contain \"" + entry + "\".");
+			}
+		}
+		this.responseEntry = entry;
+	}
+
+	/**
+	 * Delete the scratch directory, if the dataset was extracted.
+	 * Errors are logged but are not fatal.
+	 */
+	public void deleteExtracted () {
+		if ( this.directory == null ) {
+			return;
+		}
+		try {
+			deleteRecursive(this.directory);
+		}
+		catch ( IOException e ) {
+			LOG.warn("Error deleting archive scratch directory \"" + this.directory + "\".", e);
+		}
+		this.directory = null;
+		this.extractedResponseFile = null;
+	}
+
+	/**
+	 * Delete a file or directory, including directory contents.
+	 */
+	private static void deleteRecursive ( File file ) throws IOException {
+		File [] children = file.listFiles();
+		if ( children != null ) {
+			for ( File child : children ) {
+				deleteRecursive(child);
+			}
+		}
+		Files.deleteIfExists(file.toPath());
+	}
+
+	/**
+	 * Extract an archive entry to the scratch directory, streaming the decompressed bytes to the file.
+	 * @return number of bytes extracted
+	 */
+	private long extractEntry ( ZipFile zip, ZipEntry entry ) throws IOException {
+		File file = new File(this.directory, entry.getName().replace('/', File.separatorChar));
+		File parent = file.getParentFile();
+		if ( !parent.isDirectory() && !parent.mkdirs() && !parent.isDirectory() ) {
+			throw new IOException("Unable to create directory \"" + parent + "\".");
+		}
+		long count = 0;
+		byte [] buffer = new byte[64*1024];
+		try ( InputStream in = zip.getInputStream(entry); OutputStream out = Files.newOutputStream(file.toPath()) ) {
+			int n;
+			while ( (n = in.read(buffer)) > 0 ) {
+				out.write(buffer, 0, n);
+				count += n;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Extract the response file and the archive entries that it lists to a new scratch directory.
+	 * Files listed in the response file that are not in the archive are read from their location on disk.
+	 * The dataset is extracted only once, and later calls return the same response file.
+	 * @param threads number of threads used to decompress entries
+	 * @return absolute path to the extracted response file
+	 * @exception IOException if the archive cannot be read or the files cannot be written
+	 */
+	public synchronized String extract ( int threads ) throws IOException {
+		if ( this.extractedResponseFile != null ) {
+			return this.extractedResponseFile;
+		}
+		long start = System.currentTimeMillis();
+		this.directory = Files.createTempDirectory("statemod-dataset").toFile();
+		try ( ZipFile zip = new ZipFile(this.archiveFile) ) {
+			ZipEntry rspEntry = zip.getEntry(this.responseEntry);
+			long byteCount = extractEntry(zip, rspEntry);
+			List<ZipEntry> entries = getListedEntries(zip, rspEntry);
+			byteCount += extractEntries(zip, entries, threads);
+			String message = "Extracted response file and " + entries.size() + " files (" + byteCount + " bytes) from \"" +
+				this.archiveFile + "\" to \"" + this.directory + "\" in " + (System.currentTimeMillis() - start) + " ms.";
+			LOG.info(message);
+			StateModMetrics.getInstance().addCount("ArchiveEntriesExtracted", entries.size() + 1);
+			StateModMetrics.getInstance().addCount("ArchiveBytesExtracted", byteCount);
+		}
+		catch ( IOException | RuntimeException e ) {
+			deleteExtracted();
+			throw e;
+		}
+		this.extractedResponseFile = new File(this.directory,
+			this.responseEntry.replace('/', File.separatorChar)).getAbsolutePath();
+		return this.extractedResponseFile;
+	}
+
+	/**
+	 * Extract entries, in parallel if more than one thread is used.
+	 * @return number of bytes extracted
+	 */
+	private long extractEntries ( final ZipFile zip, List<ZipEntry> entries, int threads ) throws IOException {
+		long byteCount = 0;
+		if ( (threads <= 1) || (entries.size() <= 1) ) {
+			for ( ZipEntry entry : entries ) {
+				byteCount += extractEntry(zip, entry);
+			}
+			return byteCount;
+		}
+		List<Callable<Long>> tasks = new ArrayList<>(entries.size());
+		for ( final ZipEntry entry : entries ) {
+			tasks.add(new Callable<Long>() {
+				@Override
+				public Long call () throws IOException {
+					return extractEntry(zip, entry);
+				}
+			});
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, entries.size()));
+		try {
+			for ( Future<Long> future : executor.invokeAll(tasks) ) {
+				byteCount += future.get();
+			}
+		}
+		catch ( InterruptedException e ) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Extracting archive \"" + this.archiveFile + "\" was interrupted.", e);
+		}
+		catch ( ExecutionException e ) {
+			if ( e.getCause() instanceof IOException ) {
+				throw (IOException)e.getCause();
+			}
+			throw new RuntimeException("Error extracting archive \"" + this.archiveFile + "\".", e.getCause());
+		}
+		finally {
+			executor.shutdown();
+		}
+		return byteCount;
+	}
+
+	/**
+	 * Return the absolute path to the archive file.
+	 */
+	public String getArchiveFile () {
+		return this.archiveFile;
+	}
+
+	/**
+	 * Return the archive entries listed in the response file.
+	 * Each response file line is "Key = file" or only a file name, and '#' starts a comment.
+	 * File names are relative to the response file, as for response files on disk.
+	 */
+	private List<ZipEntry> getListedEntries ( ZipFile zip, ZipEntry rspEntry ) throws IOException {
+		String rspDir = "";
+		int pos = this.responseEntry.lastIndexOf('/');
+		if ( pos >= 0 ) {
+			rspDir = this.responseEntry.substring(0, pos + 1);
+		}
+		Set<String> names = new LinkedHashSet<>();
+		try ( BufferedReader in = new BufferedReader(new InputStreamReader(zip.getInputStream(rspEntry), StandardCharsets.ISO_8859_1)) ) {
+			String line;
+			while ( (line = in.readLine()) != null ) {
+				int commentPos = line.indexOf('#');
+				if ( commentPos >= 0 ) {
+					line = line.substring(0, commentPos);
+				}
+				int equalsPos = line.indexOf('=');
+				String file = ((equalsPos >= 0) ? line.substring(equalsPos + 1) : line).trim();
+				if ( file.isEmpty() || new File(file).isAbsolute() || file.startsWith("/") || file.startsWith("\\") ) {
+					continue;
+				}
+				String name = normalizeEntry(rspDir + file);
+				if ( name != null ) {
+					names.add(name);
+				}
+			}
+		}
+		List<ZipEntry> entries = new ArrayList<>();
+		for ( String name : names ) {
+			ZipEntry entry = zip.getEntry(name);
+			if ( (entry != null) && !entry.isDirectory() && !name.equals(this.responseEntry) ) {
+				entries.add(entry);
+			}
+		}
+		return entries;
+	}
+
+	/**
+	 * Return the path and base name for output files, which is the response file name without ".rsp"
+	 * in the folder containing the archive.
+	 */
+	public String getOutputFileBase () {
+		String name = this.responseEntry.substring(this.responseEntry.lastIndexOf('/') + 1);
+		return StateModRunner.getOutputFileBase(new File(new File(this.archiveFile).getParentFile(), name).getPath());
+	}
+
+	/**
+	 * Return the path of the dataset as "archive!/entry".
+	 */
+	public String getPath () {
+		return this.archiveFile + ENTRY_SEPARATOR + this.responseEntry;
+	}
+
+	/**
+	 * Return the response file entry in the archive.
+	 */
+	public String getResponseEntry () {
+		return this.responseEntry;
+	}
+
+	/**
+	 * Return whether a path is an archive path, "archive!/entry".
+	 * @param path path to check
+	 */
+	public static boolean isArchivePath ( String path ) {
+		return (path != null) && (path.indexOf(ENTRY_SEPARATOR) > 0);
+	}
+
+	/**
+	 * Normalize an archive entry name, using "/" separators and resolving "." and "..".
+	 * @return the normalized name, or null if the name is outside of the archive
+	 */
+	private static String normalizeEntry ( String name ) {
+		List<String> parts = new ArrayList<>();
+		for ( String part : name.replace('\\', '/').split("/") ) {
+			if ( part.isEmpty() || part.equals(".") ) {
+				continue;
+			}
+			else if ( part.equals("..") ) {
+				if ( parts.isEmpty() ) {
+					return null;
+				}
+				parts.remove(parts.size() - 1);
+			}
+			else {
+				parts.add(part);
+			}
+		}
+		if ( parts.isEmpty() ) {
+			return null;
+		}
+		StringBuilder b = new StringBuilder();
+		for ( String part : parts ) {
+			if ( b.length() > 0 ) {
+				b.append('/');
+			}
+			b.append(part);
+		}
+		return b.toString();
+	}
+
+	/**
+	 * Create an archive dataset from an archive path.
+	 * @param path archive path "archive!/entry", where a relative archive file is relative to the working directory
+	 * @param workingDir directory for a relative archive file
+	 * @exception IOException if the archive cannot be read or does not contain the response file
+	 */
+	public static StateModDataSetArchive parse ( String path, String workingDir ) throws IOException {
+		int pos = path.indexOf(ENTRY_SEPARATOR);
+		if ( pos <= 0 ) {
+			throw new IllegalArgumentException("Path \"" + path + "\" is not an archive path, \"archive" + ENTRY_SEPARATOR + "entry\".");
+		}
+		File archive = new File(path.substring(0, pos));
+		if ( !archive.isAbsolute() ) {
+			archive = new File(workingDir, archive.getPath());
+		}
+		if ( !archive.isFile() ) {
+			throw new IOException("Archive \"" + archive + "\" does not exist.");
+		}
+		return new StateModDataSetArchive(archive.getAbsolutePath(), path.substring(pos + ENTRY_SEPARATOR.length()));
+	}
+
+	/**
+	 * Return the path of the dataset as "archive!/entry".
+	 */
+	@Override
+	public String toString () {
+		return getPath();
+	}
+}
@@ -0,0 +1,234 @@
+// StateModDataSetComparator - compare datasets read from the same response file in different ways
+
+/* NoticeStart
+
+StateMod Java
+StateMod Java is a part of Colorado's Decision Support Systems (CDSS)
+Copyright (C) 2019 Colorado Department of Natural Resources
+
+StateMod Java is free software:  you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+StateMod Java is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+    along with StateMod Java.  If not, see <https://www.gnu.org/licenses/>.
+
+NoticeEnd */
+
+package cdss.statemod.app;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import DWR.StateMod.StateMod_Data;
+import DWR.StateMod.StateMod_DataSet;
+import RTi.TS.TS;
+import RTi.Util.IO.DataSetComponent;
+import RTi.Util.Time.DateTime;
+
+/**
+ * Compare two datasets that were read from the same response file in different ways, for example with
+ * StateMod_DataSet.readStateModFile() and with the parallel, snapshot, or lazy reads of StateModDataSetLoader,
+ * to check that the faster reads give the same dataset.
+ * <p>
+ * For each component that has a file, the number of objects is compared.  For each station of a station component
+ * (see StateModDataSetLoader.getStationGroup()), the time series that the station is connected to are compared
+ * by identifier, so a read that sets the time series components but does not connect them to the stations is a difference.
+ * The connected time series are found with the public methods of the station class that have no parameters and
+ * return a time series, for example getDemandMonthTS(), so that all of a station's time series are compared
+ * without listing them here.
+ * For each time series component, the time series are compared in order by identifier, units, description,
+ * missing value, period, original period, and values, with all missing values being equal.
+ */
+public class StateModDataSetComparator {
+
+	/**
+	 * Time series getter methods by station class, sorted by name.
+	 */
+	private static final Map<Class<?>,List<Method>> timeSeriesGetters = new HashMap<>();
+
+	/**
+	 * Compare two datasets.  Components of a StateModLazyDataSet are read if they have not been read.
+	 * @param expected dataset read with StateMod_DataSet.readStateModFile()
+	 * @param actual dataset read in another way
+	 * @return list of differences, empty if the datasets are the same
+	 */
+	public static List<String> compare ( StateMod_DataSet expected, StateMod_DataSet actual ) {
+		List<String> differences = new ArrayList<>();
+		// Read all components before comparing so that a lazy dataset has connected all of its groups
+		List<DataSetComponent> comps = StateModDataSetLoader.getFileComponents(expected);
+		for ( DataSetComponent comp : comps ) {
+			StateModDataSetLoader.getComponentData(expected, comp.getComponentType());
+			StateModDataSetLoader.getComponentData(actual, comp.getComponentType());
+		}
+		for ( DataSetComponent comp : comps ) {
+			int compType = comp.getComponentType();
+			List<?> expectedData = StateModDataSetLoader.getComponentData(expected, compType);
+			List<?> actualData = StateModDataSetLoader.getComponentData(actual, compType);
+			int expectedSize = (expectedData == null) ? 0 : expectedData.size();
+			int actualSize = (actualData == null) ? 0 : actualData.size();
+			if ( expectedSize != actualSize ) {
+				differences.add("Component \"" + comp.getComponentName() + "\" has " + actualSize +
+					" objects, expected " + expectedSize + ".");
+				continue;
+			}
+			if ( StateModDataSetLoader.isTimeSeriesComponent(compType) ) {
+				compareTimeSeries(comp.getComponentName(), expectedData, actualData, differences);
+			}
+			int [] group = StateModDataSetLoader.getStationGroup(compType);
+			if ( (group != null) && (group[0] == compType) ) {
+				compareStationTimeSeries(comp.getComponentName(), expectedData, actualData, differences);
+			}
+		}
+		return differences;
+	}
+
+	/**
+	 * Compare the time series that the stations of a component are connected to.
+	 * @param compName component name, for messages
+	 * @param expectedStations expected stations
+	 * @param actualStations actual stations, in the same order
+	 * @param differences list to add differences to
+	 */
+	private static void compareStationTimeSeries ( String compName, List<?> expectedStations, List<?> actualStations,
+		List<String> differences ) {
+		for ( int i = 0; i < expectedStations.size(); i++ ) {
+			Object expectedStation = expectedStations.get(i);
+			Object actualStation = actualStations.get(i);
+			String id = getId(expectedStation);
+			if ( !id.equals(getId(actualStation)) ) {
+				differences.add("Component \"" + compName + "\" station " + (i + 1) + " is \"" + getId(actualStation) +
+					"\", expected \"" + id + "\".");
+				continue;
+			}
+			for ( Method getter : getTimeSeriesGetters(expectedStation.getClass()) ) {
+				String expectedTs = getTimeSeriesId(getter, expectedStation);
+				String actualTs = getTimeSeriesId(getter, actualStation);
+				if ( (expectedTs == null) ? (actualTs != null) : !expectedTs.equals(actualTs) ) {
+					differences.add("Station \"" + id + "\" " + getter.getName() + "() is " + actualTs + ", expected " + expectedTs + ".");
+				}
+			}
+		}
+	}
+
+	/**
+	 * Compare the time series of a time series component.
+	 * @param compName component name, for messages
+	 * @param expectedTimeSeries expected time series
+	 * @param actualTimeSeries actual time series, in the same order
+	 * @param differences list to add differences to
+	 */
+	private static void compareTimeSeries ( String compName, List<?> expectedTimeSeries, List<?> actualTimeSeries,
+		List<String> differences ) {
+		for ( int i = 0; i < expectedTimeSeries.size(); i++ ) {
+			TS expected = (TS)expectedTimeSeries.get(i);
+			TS actual = (TS)actualTimeSeries.get(i);
+			String id = expected.getIdentifierString();
+			if ( !id.equals(actual.getIdentifierString()) ) {
+				differences.add("Component \"" + compName + "\" time series " + (i + 1) + " is \"" +
+					actual.getIdentifierString() + "\", expected \"" + id + "\".");
+				continue;
+			}
+			compareValue(id, "units", expected.getDataUnits(), actual.getDataUnits(), differences);
+			compareValue(id, "description", expected.getDescription(), actual.getDescription(), differences);
+			compareValue(id, "missing value", Double.valueOf(expected.getMissing()), Double.valueOf(actual.getMissing()), differences);
+			compareValue(id, "start", toString(expected.getDate1()), toString(actual.getDate1()), differences);
+			compareValue(id, "end", toString(expected.getDate2()), toString(actual.getDate2()), differences);
+			compareValue(id, "original start", toString(expected.getDate1Original()), toString(actual.getDate1Original()), differences);
+			compareValue(id, "original end", toString(expected.getDate2Original()), toString(actual.getDate2Original()), differences);
+			int intervalBase = expected.getDataIntervalBase();
+			if ( (actual.getDataIntervalBase() != intervalBase) || (expected.getDate1() == null) ||
+				!toString(expected.getDate1()).equals(toString(actual.getDate1())) ||
+				!toString(expected.getDate2()).equals(toString(actual.getDate2())) ) {
+				// Values can only be compared for the same period
+				continue;
+			}
+			DateTime dt = new DateTime(expected.getDate1());
+			int count = StateModTimeSeriesUtil.countSteps(expected.getDate1(), expected.getDate2(), intervalBase);
+			for ( int step = 0; step < count; step++, StateModTimeSeriesUtil.addStep(dt, intervalBase) ) {
+				double expectedValue = expected.getDataValue(dt);
+				double actualValue = actual.getDataValue(dt);
+				boolean expectedMissing = expected.isDataMissing(expectedValue);
+				if ( (expectedMissing != actual.isDataMissing(actualValue)) ||
+					(!expectedMissing && (Double.compare(expectedValue, actualValue) != 0)) ) {
+					// Only the first difference is listed for a time series
+					differences.add("Time series \"" + id + "\" value for " + dt + " is " + actualValue +
+						", expected " + expectedValue + ".");
+					break;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Add a difference if a time series property is different.
+	 */
+	private static void compareValue ( String id, String name, Object expected, Object actual, List<String> differences ) {
+		if ( (expected == null) ? (actual != null) : !expected.equals(actual) ) {
+			differences.add("Time series \"" + id + "\" " + name + " is " + actual + ", expected " + expected + ".");
+		}
+	}
+
+	/**
+	 * Return the identifier of a station.
+	 */
+	private static String getId ( Object station ) {
+		return (station instanceof StateMod_Data) ? String.valueOf(((StateMod_Data)station).getID()) : String.valueOf(station);
+	}
+
+	/**
+	 * Return the identifier of the time series that a station is connected to, or null if not connected.
+	 */
+	private static String getTimeSeriesId ( Method getter, Object station ) {
+		try {
+			TS ts = (TS)getter.invoke(station);
+			return (ts == null) ? null : ("\"" + ts.getIdentifierString() + "\"");
+		}
+		catch ( ReflectiveOperationException e ) {
+			throw new IllegalStateException("Unable to call " + getter + ".", e);
+		}
+	}
+
+	/**
+	 * Return a date/time as a string, or null if null, to compare dates.
+	 */
+	private static String toString ( DateTime date ) {
+		return (date == null) ? null : date.toString();
+	}
+
+	/**
+	 * Return the time series getter methods of a station class.
+	 */
+	private static synchronized List<Method> getTimeSeriesGetters ( Class<?> stationClass ) {
+		List<Method> getters = timeSeriesGetters.get(stationClass);
+		if ( getters == null ) {
+			getters = new ArrayList<>();
+			for ( Method method : stationClass.getMethods() ) {
+				if ( method.getName().startsWith("get") && (method.getParameterTypes().length == 0) &&
+					!Modifier.isStatic(method.getModifiers()) && TS.class.isAssignableFrom(method.getReturnType()) ) {
+					getters.add(method);
+				}
+			}
+			Collections.sort(getters, new Comparator<Method>() {
+				@Override
+				public int compare ( Method m1, Method m2 ) {
+					return m1.getName().compareTo(m2.getName());
+				}
+			});
+			timeSeriesGetters.put(stationClass, getters);
+		}
+		return getters;
+	}
+}
@@ -0,0 +1,1060 @@
+// StateModDataSetLoader - read a StateMod dataset sequentially or with parallel component reads
+
+/* NoticeStart
+
+StateMod Java
+StateMod Java is a part of Colorado's Decision Support Systems (CDSS)
+Copyright (C) 2019 Colorado Department of Natural Resources
+
+StateMod Java is free software:  you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+StateMod Java is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+    along with StateMod Java.  If not, see <https://www.gnu.org/licenses/>.
+
+NoticeEnd */
+
+package cdss.statemod.app;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import DWR.StateMod.StateMod_DataSet;
+import DWR.StateMod.StateMod_Diversion;
+import DWR.StateMod.StateMod_DiversionRight;
+import DWR.StateMod.StateMod_InstreamFlow;
+import DWR.StateMod.StateMod_InstreamFlowRight;
+import DWR.StateMod.StateMod_Reservoir;
+import DWR.StateMod.StateMod_ReservoirRight;
+import DWR.StateMod.StateMod_RiverNetworkNode;
+import DWR.StateMod.StateMod_StreamEstimate;
+import DWR.StateMod.StateMod_StreamGage;
+import DWR.StateMod.StateMod_TS;
+import DWR.StateMod.StateMod_Well;
+import DWR.StateMod.StateMod_WellRight;
+import RTi.Util.IO.DataSetComponent;
+import RTi.Util.Time.DateTime;
+import RTi.Util.Time.YearType;
+
+/**
+ * Read a StateMod dataset from a response file.
+ * If one load thread is requested, the dataset is read with StateMod_DataSet.readStateModFile(),
+ * which reads each file in the response file in sequence.
+ * If more than one load thread is requested, the response file is read once to determine the file names and period,
+ * and then each station, right, network, and time series component (see readComponentData()) is read on its own task,
+ * using a bounded pool of threads.
+ * The data are placed in the same StateMod_DataSet components as a sequential read, in component order,
+ * after all reads have completed, so that the dataset is only modified by one thread at a time,
+ * and the stations are then connected to their rights and time series as StateMod_DataSet.readStateModFile() does.
+ * As for lazy loading, other components, for example operational rights, which are not used by the simulation
+ * and can only be read with StateMod_DataSet.readStateModFile(), have only the information from the response file.
+ * If lazy loading is requested, only the response file is read and a StateModLazyDataSet is returned,
+ * which reads each component the first time it is requested with getComponentData().
+ */
+public class StateModDataSetLoader {
+
+	/**
+	 * Time series components, in component order.
+	 */
+	private static final int [] TIME_SERIES_COMPONENTS = {
+		StateMod_DataSet.COMP_STREAMGAGE_HISTORICAL_TS_MONTHLY,
+		StateMod_DataSet.COMP_STREAMGAGE_HISTORICAL_TS_DAILY,
+		StateMod_DataSet.COMP_STREAMGAGE_NATURAL_FLOW_TS_MONTHLY,
+		StateMod_DataSet.COMP_STREAMGAGE_NATURAL_FLOW_TS_DAILY,
+		StateMod_DataSet.COMP_DIVERSION_TS_MONTHLY,
+		StateMod_DataSet.COMP_DIVERSION_TS_DAILY,
+		StateMod_DataSet.COMP_DEMAND_TS_MONTHLY,
+		StateMod_DataSet.COMP_DEMAND_TS_OVERRIDE_MONTHLY,
+		StateMod_DataSet.COMP_DEMAND_TS_AVERAGE_MONTHLY,
+		StateMod_DataSet.COMP_DEMAND_TS_DAILY,
+		StateMod_DataSet.COMP_RESERVOIR_CONTENT_TS_MONTHLY,
+		StateMod_DataSet.COMP_RESERVOIR_CONTENT_TS_DAILY,
+		StateMod_DataSet.COMP_RESERVOIR_TARGET_TS_MONTHLY,
+		StateMod_DataSet.COMP_RESERVOIR_TARGET_TS_DAILY,
+		StateMod_DataSet.COMP_INSTREAM_DEMAND_TS_MONTHLY,
+		StateMod_DataSet.COMP_INSTREAM_DEMAND_TS_AVERAGE_MONTHLY,
+		StateMod_DataSet.COMP_INSTREAM_DEMAND_TS_DAILY,
+		StateMod_DataSet.COMP_WELL_PUMPING_TS_MONTHLY,
+		StateMod_DataSet.COMP_WELL_PUMPING_TS_DAILY,
+		StateMod_DataSet.COMP_WELL_DEMAND_TS_MONTHLY,
+		StateMod_DataSet.COMP_WELL_DEMAND_TS_DAILY,
+		StateMod_DataSet.COMP_STREAMESTIMATE_NATURAL_FLOW_TS_MONTHLY,
+		StateMod_DataSet.COMP_STREAMESTIMATE_NATURAL_FLOW_TS_DAILY
+	};
+
+	/**
+	 * Station components, each followed by the rights and time series components that are connected to the stations
+	 * when StateMod_DataSet.readStateModFile() reads the whole dataset.
+	 */
+	private static final int [][] STATION_GROUPS = {
+		{ StateMod_DataSet.COMP_STREAMGAGE_STATIONS,
+			StateMod_DataSet.COMP_STREAMGAGE_HISTORICAL_TS_MONTHLY,
+			StateMod_DataSet.COMP_STREAMGAGE_HISTORICAL_TS_DAILY,
+			StateMod_DataSet.COMP_STREAMGAGE_NATURAL_FLOW_TS_MONTHLY,
+			StateMod_DataSet.COMP_STREAMGAGE_NATURAL_FLOW_TS_DAILY },
+		{ StateMod_DataSet.COMP_DIVERSION_STATIONS,
+			StateMod_DataSet.COMP_DIVERSION_RIGHTS,
+			StateMod_DataSet.COMP_DIVERSION_TS_MONTHLY,
+			StateMod_DataSet.COMP_DIVERSION_TS_DAILY,
+			StateMod_DataSet.COMP_DEMAND_TS_MONTHLY,
+			StateMod_DataSet.COMP_DEMAND_TS_OVERRIDE_MONTHLY,
+			StateMod_DataSet.COMP_DEMAND_TS_AVERAGE_MONTHLY,
+			StateMod_DataSet.COMP_DEMAND_TS_DAILY },
+		{ StateMod_DataSet.COMP_RESERVOIR_STATIONS,
+			StateMod_DataSet.COMP_RESERVOIR_RIGHTS,
+			StateMod_DataSet.COMP_RESERVOIR_CONTENT_TS_MONTHLY,
+			StateMod_DataSet.COMP_RESERVOIR_CONTENT_TS_DAILY,
+			StateMod_DataSet.COMP_RESERVOIR_TARGET_TS_MONTHLY,
+			StateMod_DataSet.COMP_RESERVOIR_TARGET_TS_DAILY },
+		{ StateMod_DataSet.COMP_INSTREAM_STATIONS,
+			StateMod_DataSet.COMP_INSTREAM_RIGHTS,
+			StateMod_DataSet.COMP_INSTREAM_DEMAND_TS_MONTHLY,
+			StateMod_DataSet.COMP_INSTREAM_DEMAND_TS_AVERAGE_MONTHLY,
+			StateMod_DataSet.COMP_INSTREAM_DEMAND_TS_DAILY },
+		{ StateMod_DataSet.COMP_WELL_STATIONS,
+			StateMod_DataSet.COMP_WELL_RIGHTS,
+			StateMod_DataSet.COMP_WELL_PUMPING_TS_MONTHLY,
+			StateMod_DataSet.COMP_WELL_PUMPING_TS_DAILY,
+			StateMod_DataSet.COMP_WELL_DEMAND_TS_MONTHLY,
+			StateMod_DataSet.COMP_WELL_DEMAND_TS_DAILY },
+		{ StateMod_DataSet.COMP_STREAMESTIMATE_STATIONS,
+			StateMod_DataSet.COMP_STREAMESTIMATE_NATURAL_FLOW_TS_MONTHLY,
+			StateMod_DataSet.COMP_STREAMESTIMATE_NATURAL_FLOW_TS_DAILY }
+	};
+
+	/**
+	 * Fingerprints of the files of datasets that have been read, taken before the files were read, by dataset.
+	 * The keys are weak so that datasets that are no longer used are released.
+	 */
+	private static final Map<StateMod_DataSet,List<StateModFileFingerprint>> dataSetFingerprints =
+		Collections.synchronizedMap(new WeakHashMap<StateMod_DataSet,List<StateModFileFingerprint>>());
+
+	/**
+	 * Number of threads used to read dataset components.
+	 * A value of 1 reads the dataset sequentially.
+	 */
+	private int loadThreads = 1;
+
+	/**
+	 * Whether to fingerprint the files before reading them even if the snapshot is not used, for example for the check cache.
+	 */
+	private boolean fingerprintFiles = false;
+
+	/**
+	 * Whether to use the binary snapshot next to the response file, if up to date, and write it after reading.
+	 */
+	private boolean useSnapshot = false;
+
+	/**
+	 * Whether to read only the response file and read each component when it is first used.
+	 */
+	private boolean lazy = false;
+
+	/**
+	 * Metrics for the run that reads the dataset, or null to not record.
+	 */
+	private StateModMetrics metrics = null;
+
+	/**
+	 * Constructor.
+	 * @param loadThreads number of threads used to read dataset components, 1 to read sequentially
+	 */
+	public StateModDataSetLoader ( int loadThreads ) {
+		if ( loadThreads < 1 ) {
+			loadThreads = 1;
+		}
+		this.loadThreads = loadThreads;
+	}
+
+	/**
+	 * Return the fingerprints of the response file and dataset files that were taken before a dataset was read, so that results
+	 * computed from the dataset can be saved with fingerprints that do not match a file that was edited while it was read.
+	 * @param dataset dataset read by readDataSet() or StateModIncrementalLoader
+	 * @return fingerprints, response file first, or null if the files were not fingerprinted
+	 * (see setFingerprintFiles() and setUseSnapshot())
+	 */
+	public static List<StateModFileFingerprint> getFingerprints ( StateMod_DataSet dataset ) {
+		return dataSetFingerprints.get(dataset);
+	}
+
+	/**
+	 * Return whether the files are fingerprinted before they are read.
+	 */
+	public boolean getFingerprintFiles () {
+		return this.fingerprintFiles;
+	}
+
+	/**
+	 * Return the number of threads used to read dataset components.
+	 */
+	public int getLoadThreads () {
+		return this.loadThreads;
+	}
+
+	/**
+	 * Return the station group that a component belongs to: the station component followed by the
+	 * rights and time series components that are connected to the stations.
+	 * @param compType StateMod_DataSet.COMP_* component type
+	 * @return the component types of the group, station component first, or null if the component is not in a group
+	 */
+	public static int [] getStationGroup ( int compType ) {
+		for ( int [] group : STATION_GROUPS ) {
+			for ( int groupCompType : group ) {
+				if ( groupCompType == compType ) {
+					return group.clone();
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Return the time series component types, in component order.
+	 */
+	public static int [] getTimeSeriesComponents () {
+		return TIME_SERIES_COMPONENTS.clone();
+	}
+
+	/**
+	 * Return whether components are read when first used.
+	 */
+	public boolean getLazy () {
+		return this.lazy;
+	}
+
+	/**
+	 * Return the metrics that read phases are recorded in, or null if not recorded.
+	 */
+	public StateModMetrics getMetrics () {
+		return this.metrics;
+	}
+
+	/**
+	 * Return whether the binary snapshot is used.
+	 */
+	public boolean getUseSnapshot () {
+		return this.useSnapshot;
+	}
+
+	/**
+	 * Return whether a component type can be read with readComponentData().
+	 * @param compType StateMod_DataSet.COMP_* component type
+	 */
+	public static boolean isReadableComponent ( int compType ) {
+		if ( isTimeSeriesComponent(compType) ) {
+			return true;
+		}
+		switch ( compType ) {
+			case StateMod_DataSet.COMP_RIVER_NETWORK:
+			case StateMod_DataSet.COMP_STREAMGAGE_STATIONS:
+			case StateMod_DataSet.COMP_DIVERSION_STATIONS:
+			case StateMod_DataSet.COMP_DIVERSION_RIGHTS:
+			case StateMod_DataSet.COMP_RESERVOIR_STATIONS:
+			case StateMod_DataSet.COMP_RESERVOIR_RIGHTS:
+			case StateMod_DataSet.COMP_INSTREAM_STATIONS:
+			case StateMod_DataSet.COMP_INSTREAM_RIGHTS:
+			case StateMod_DataSet.COMP_WELL_STATIONS:
+			case StateMod_DataSet.COMP_WELL_RIGHTS:
+			case StateMod_DataSet.COMP_STREAMESTIMATE_STATIONS:
+				return true;
+			default:
+				return false;
+		}
+	}
+
+	/**
+	 * Return whether a component type contains time series.
+	 * @param compType StateMod_DataSet.COMP_* component type
+	 */
+	public static boolean isTimeSeriesComponent ( int compType ) {
+		switch ( compType ) {
+			case StateMod_DataSet.COMP_STREAMGAGE_HISTORICAL_TS_MONTHLY:
+			case StateMod_DataSet.COMP_STREAMGAGE_HISTORICAL_TS_DAILY:
+			case StateMod_DataSet.COMP_STREAMGAGE_NATURAL_FLOW_TS_MONTHLY:
+			case StateMod_DataSet.COMP_STREAMGAGE_NATURAL_FLOW_TS_DAILY:
+			case StateMod_DataSet.COMP_DIVERSION_TS_MONTHLY:
+			case StateMod_DataSet.COMP_DIVERSION_TS_DAILY:
+			case StateMod_DataSet.COMP_DEMAND_TS_MONTHLY:
+			case StateMod_DataSet.COMP_DEMAND_TS_OVERRIDE_MONTHLY:
+			case StateMod_DataSet.COMP_DEMAND_TS_AVERAGE_MONTHLY:
+			case StateMod_DataSet.COMP_DEMAND_TS_DAILY:
+			case StateMod_DataSet.COMP_RESERVOIR_CONTENT_TS_MONTHLY:
+			case StateMod_DataSet.COMP_RESERVOIR_CONTENT_TS_DAILY:
+			case StateMod_DataSet.COMP_RESERVOIR_TARGET_TS_MONTHLY:
+			case StateMod_DataSet.COMP_RESERVOIR_TARGET_TS_DAILY:
+			case StateMod_DataSet.COMP_INSTREAM_DEMAND_TS_MONTHLY:
+			case StateMod_DataSet.COMP_INSTREAM_DEMAND_TS_AVERAGE_MONTHLY:
+			case StateMod_DataSet.COMP_INSTREAM_DEMAND_TS_DAILY:
+			case StateMod_DataSet.COMP_WELL_PUMPING_TS_MONTHLY:
+			case StateMod_DataSet.COMP_WELL_PUMPING_TS_DAILY:
+			case StateMod_DataSet.COMP_WELL_DEMAND_TS_MONTHLY:
+			case StateMod_DataSet.COMP_WELL_DEMAND_TS_DAILY:
+			case StateMod_DataSet.COMP_STREAMESTIMATE_NATURAL_FLOW_TS_MONTHLY:
+			case StateMod_DataSet.COMP_STREAMESTIMATE_NATURAL_FLOW_TS_DAILY:
+				return true;
+			default:
+				return false;
+		}
+	}
+
+	/**
+	 * Return whether a time series component contains daily time series.
+	 * @param compType StateMod_DataSet.COMP_* component type
+	 */
+	public static boolean isDailyComponent ( int compType ) {
+		switch ( compType ) {
+			case StateMod_DataSet.COMP_STREAMGAGE_HISTORICAL_TS_DAILY:
+			case StateMod_DataSet.COMP_STREAMGAGE_NATURAL_FLOW_TS_DAILY:
+			case StateMod_DataSet.COMP_DIVERSION_TS_DAILY:
+			case StateMod_DataSet.COMP_DEMAND_TS_DAILY:
+			case StateMod_DataSet.COMP_RESERVOIR_CONTENT_TS_DAILY:
+			case StateMod_DataSet.COMP_RESERVOIR_TARGET_TS_DAILY:
+			case StateMod_DataSet.COMP_INSTREAM_DEMAND_TS_DAILY:
+			case StateMod_DataSet.COMP_WELL_PUMPING_TS_DAILY:
+			case StateMod_DataSet.COMP_WELL_DEMAND_TS_DAILY:
+			case StateMod_DataSet.COMP_STREAMESTIMATE_NATURAL_FLOW_TS_DAILY:
+				return true;
+			default:
+				return false;
+		}
+	}
+
+	/**
+	 * Return the data list for a component, or null if the component is not in the dataset.
+	 * If the dataset is a StateModLazyDataSet, the component is read if it has not been read.
+	 * @param dataset dataset to process
+	 * @param compType StateMod_DataSet.COMP_* component type
+	 */
+	public static List<?> getComponentData ( StateMod_DataSet dataset, int compType ) {
+		if ( dataset instanceof StateModLazyDataSet ) {
+			((StateModLazyDataSet)dataset).loadComponent(compType);
+		}
+		DataSetComponent comp = dataset.getComponentForComponentType(compType);
+		if ( comp == null ) {
+			return null;
+		}
+		Object data = comp.getData();
+		if ( data instanceof List ) {
+			return (List<?>)data;
+		}
+		return null;
+	}
+
+	/**
+	 * Return the absolute path to the file for a component, or null if the component does not have a file.
+	 * @param dataset dataset to process
+	 * @param compType StateMod_DataSet.COMP_* component type
+	 */
+	public static String getComponentFile ( StateMod_DataSet dataset, int compType ) {
+		DataSetComponent comp = dataset.getComponentForComponentType(compType);
+		if ( comp == null ) {
+			return null;
+		}
+		String dataFileName = comp.getDataFileName();
+		if ( (dataFileName == null) || dataFileName.trim().isEmpty() ) {
+			return null;
+		}
+		return dataset.getDataFilePathAbsolute(comp);
+	}
+
+	/**
+	 * Connect the stations of a component's group to the rights and time series of the group, as
+	 * StateMod_DataSet.readStateModFile() does after reading the whole dataset, for a component that was set separately,
+	 * for example when a lazy dataset reads the component when it is first used.
+	 * Only components that have data are connected, so this must be called as each component of a group is set,
+	 * and the rights are connected once, when the later of the stations and rights is set.
+	 * The dataset is locked while connecting so that components can be set from more than one thread.
+	 * @param dataset dataset to process
+	 * @param compType StateMod_DataSet.COMP_* component type that was set: for stations, the rights and time series
+	 * are connected, for rights, the rights are connected, and for time series, the time series are connected;
+	 * other components are ignored
+	 */
+	public static void connectComponent ( StateMod_DataSet dataset, int compType ) {
+		int [] group = getStationGroup(compType);
+		if ( group == null ) {
+			return;
+		}
+		int stationCompType = group[0];
+		synchronized ( dataset ) {
+			if ( (compType == stationCompType) || !isTimeSeriesComponent(compType) ) {
+				connectRights(dataset, stationCompType);
+			}
+			if ( (compType == stationCompType) || isTimeSeriesComponent(compType) ) {
+				connectTimeSeries(dataset, stationCompType);
+			}
+		}
+	}
+
+	/**
+	 * Connect the stations of a group to their rights, if both have been set.
+	 * Rights that were connected before are disconnected first, so that stations that are shared with a previous dataset
+	 * (see StateModIncrementalLoader) are connected only to the rights of this dataset.
+	 * @param dataset dataset to process
+	 * @param stationCompType StateMod_DataSet.COMP_* station component type
+	 */
+	private static void connectRights ( StateMod_DataSet dataset, int stationCompType ) {
+		switch ( stationCompType ) {
+			case StateMod_DataSet.COMP_DIVERSION_STATIONS:
+				List<StateMod_Diversion> diversions = getConnectData(dataset, stationCompType);
+				List<StateMod_DiversionRight> diversionRights = getConnectData(dataset, StateMod_DataSet.COMP_DIVERSION_RIGHTS);
+				if ( (diversions != null) && (diversionRights != null) ) {
+					for ( StateMod_Diversion diversion : diversions ) {
+						diversion.disconnectRights();
+					}
+					StateMod_Diversion.connectAllRights(diversions, diversionRights);
+				}
+				break;
+			case StateMod_DataSet.COMP_RESERVOIR_STATIONS:
+				List<StateMod_Reservoir> reservoirs = getConnectData(dataset, stationCompType);
+				List<StateMod_ReservoirRight> reservoirRights = getConnectData(dataset, StateMod_DataSet.COMP_RESERVOIR_RIGHTS);
+				if ( (reservoirs != null) && (reservoirRights != null) ) {
+					for ( StateMod_Reservoir reservoir : reservoirs ) {
+						reservoir.disconnectRights();
+					}
+					StateMod_Reservoir.connectAllRights(reservoirs, reservoirRights);
+				}
+				break;
+			case StateMod_DataSet.COMP_INSTREAM_STATIONS:
+				List<StateMod_InstreamFlow> instreams = getConnectData(dataset, stationCompType);
+				List<StateMod_InstreamFlowRight> instreamRights = getConnectData(dataset, StateMod_DataSet.COMP_INSTREAM_RIGHTS);
+				if ( (instreams != null) && (instreamRights != null) ) {
+					for ( StateMod_InstreamFlow instream : instreams ) {
+						instream.disconnectRights();
+					}
+					StateMod_InstreamFlow.connectAllRights(instreams, instreamRights);
+				}
+				break;
+			case StateMod_DataSet.COMP_WELL_STATIONS:
+				List<StateMod_Well> wells = getConnectData(dataset, stationCompType);
+				List<StateMod_WellRight> wellRights = getConnectData(dataset, StateMod_DataSet.COMP_WELL_RIGHTS);
+				if ( (wells != null) && (wellRights != null) ) {
+					for ( StateMod_Well well : wells ) {
+						well.disconnectRights();
+					}
+					StateMod_Well.connectAllRights(wells, wellRights);
+				}
+				break;
+			default:
+				break;
+		}
+	}
+
+	/**
+	 * Connect the stations of all groups to their time series, as StateMod_DataSet.readStateModFile() does after
+	 * reading the whole dataset, for a dataset whose time series components were set separately
+	 * (for example restored from the snapshot).  Rights are not connected.
+	 * @param dataset dataset to process
+	 */
+	public static void connectTimeSeries ( StateMod_DataSet dataset ) {
+		synchronized ( dataset ) {
+			for ( int [] group : STATION_GROUPS ) {
+				connectTimeSeries(dataset, group[0]);
+			}
+		}
+	}
+
+	/**
+	 * Connect the stations of a group to the time series of the group that have been set.
+	 * Irrigation practice and consumptive water requirement time series are not read by this program and are not connected.
+	 * @param dataset dataset to process
+	 * @param stationCompType StateMod_DataSet.COMP_* station component type
+	 */
+	private static void connectTimeSeries ( StateMod_DataSet dataset, int stationCompType ) {
+		switch ( stationCompType ) {
+			case StateMod_DataSet.COMP_STREAMGAGE_STATIONS:
+				List<StateMod_StreamGage> gages = getConnectData(dataset, stationCompType);
+				if ( gages != null ) {
+					StateMod_StreamGage.connectAllTS(gages,
+						getConnectData(dataset, StateMod_DataSet.COMP_STREAMGAGE_HISTORICAL_TS_MONTHLY),
+						getConnectData(dataset, StateMod_DataSet.COMP_STREAMGAGE_HISTORICAL_TS_DAILY),
+						getConnectData(dataset, StateMod_DataSet.COMP_STREAMGAGE_NATURAL_FLOW_TS_MONTHLY),
+						getConnectData(dataset, StateMod_DataSet.COMP_STREAMGAGE_NATURAL_FLOW_TS_DAILY));
+				}
+				break;
+			case StateMod_DataSet.COMP_DIVERSION_STATIONS:
+				List<StateMod_Diversion> diversions = getConnectData(dataset, stationCompType);
+				if ( diversions != null ) {
+					StateMod_Diversion.connectAllTS(diversions,
+						getConnectData(dataset, StateMod_DataSet.COMP_DIVERSION_TS_MONTHLY),
+						getConnectData(dataset, StateMod_DataSet.COMP_DIVERSION_TS_DAILY),
+						getConnectData(dataset, StateMod_DataSet.COMP_DEMAND_TS_MONTHLY),
+						getConnectData(dataset, StateMod_DataSet.COMP_DEMAND_TS_OVERRIDE_MONTHLY),
+						getConnectData(dataset, StateMod_DataSet.COMP_DEMAND_TS_AVERAGE_MONTHLY),
+						getConnectData(dataset, StateMod_DataSet.COMP_DEMAND_TS_DAILY),
+						null, null, null);
+				}
+				break;
+			case StateMod_DataSet.COMP_RESERVOIR_STATIONS:
+				List<StateMod_Reservoir> reservoirs = getConnectData(dataset, stationCompType);
+				if ( reservoirs != null ) {
+					StateMod_Reservoir.connectAllTS(reservoirs,
+						getConnectData(dataset, StateMod_DataSet.COMP_RESERVOIR_CONTENT_TS_MONTHLY),
+						getConnectData(dataset, StateMod_DataSet.COMP_RESERVOIR_CONTENT_TS_DAILY),
+						getConnectData(dataset, StateMod_DataSet.COMP_RESERVOIR_TARGET_TS_MONTHLY),
+						getConnectData(dataset, StateMod_DataSet.COMP_RESERVOIR_TARGET_TS_DAILY));
+				}
+				break;
+			case StateMod_DataSet.COMP_INSTREAM_STATIONS:
+				List<StateMod_InstreamFlow> instreams = getConnectData(dataset, stationCompType);
+				if ( instreams != null ) {
+					StateMod_InstreamFlow.connectAllTS(instreams,
+						getConnectData(dataset, StateMod_DataSet.COMP_INSTREAM_DEMAND_TS_MONTHLY),
+						getConnectData(dataset, StateMod_DataSet.COMP_INSTREAM_DEMAND_TS_AVERAGE_MONTHLY),
+						getConnectData(dataset, StateMod_DataSet.COMP_INSTREAM_DEMAND_TS_DAILY));
+				}
+				break;
+			case StateMod_DataSet.COMP_WELL_STATIONS:
+				List<StateMod_Well> wells = getConnectData(dataset, stationCompType);
+				if ( wells != null ) {
+					StateMod_Well.connectAllTS(wells,
+						getConnectData(dataset, StateMod_DataSet.COMP_WELL_PUMPING_TS_MONTHLY),
+						getConnectData(dataset, StateMod_DataSet.COMP_WELL_PUMPING_TS_DAILY),
+						getConnectData(dataset, StateMod_DataSet.COMP_WELL_DEMAND_TS_MONTHLY),
+						getConnectData(dataset, StateMod_DataSet.COMP_WELL_DEMAND_TS_DAILY),
+						null, null, null);
+				}
+				break;
+			case StateMod_DataSet.COMP_STREAMESTIMATE_STATIONS:
+				List<StateMod_StreamEstimate> estimates = getConnectData(dataset, stationCompType);
+				if ( estimates != null ) {
+					StateMod_StreamEstimate.connectAllTS(estimates,
+						getConnectData(dataset, StateMod_DataSet.COMP_STREAMESTIMATE_NATURAL_FLOW_TS_MONTHLY),
+						getConnectData(dataset, StateMod_DataSet.COMP_STREAMESTIMATE_NATURAL_FLOW_TS_DAILY));
+				}
+				break;
+			default:
+				break;
+		}
+	}
+
+	/**
+	 * Disconnect the stations of a time series component's group from the component's time series,
+	 * so that the time series objects can be reclaimed once the component data are released,
+	 * for example when the time series have been moved into StateModTimeSeriesStore.
+	 * Station components that have not been read are not read.
+	 * @param dataset dataset to process
+	 * @param compType StateMod_DataSet.COMP_* time series component type; other components are ignored
+	 */
+	public static void disconnectTimeSeries ( StateMod_DataSet dataset, int compType ) {
+		int [] group = getStationGroup(compType);
+		if ( (group == null) || !isTimeSeriesComponent(compType) ) {
+			return;
+		}
+		synchronized ( dataset ) {
+			List<?> stations = getConnectData(dataset, group[0]);
+			if ( stations == null ) {
+				return;
+			}
+			for ( Object station : stations ) {
+				switch ( compType ) {
+					case StateMod_DataSet.COMP_STREAMGAGE_HISTORICAL_TS_MONTHLY:
+						((StateMod_StreamGage)station).setHistoricalMonthTS(null);
+						break;
+					case StateMod_DataSet.COMP_STREAMGAGE_HISTORICAL_TS_DAILY:
+						((StateMod_StreamGage)station).setHistoricalDayTS(null);
+						break;
+					case StateMod_DataSet.COMP_STREAMGAGE_NATURAL_FLOW_TS_MONTHLY:
+						((StateMod_StreamGage)station).setBaseflowMonthTS(null);
+						break;
+					case StateMod_DataSet.COMP_STREAMGAGE_NATURAL_FLOW_TS_DAILY:
+						((StateMod_StreamGage)station).setBaseflowDayTS(null);
+						break;
+					case StateMod_DataSet.COMP_DIVERSION_TS_MONTHLY:
+						((StateMod_Diversion)station).setDiversionMonthTS(null);
+						break;
+					case StateMod_DataSet.COMP_DIVERSION_TS_DAILY:
+						((StateMod_Diversion)station).setDiversionDayTS(null);
+						break;
+					case StateMod_DataSet.COMP_DEMAND_TS_MONTHLY:
+						((StateMod_Diversion)station).setDemandMonthTS(null);
+						break;
+					case StateMod_DataSet.COMP_DEMAND_TS_OVERRIDE_MONTHLY:
+						((StateMod_Diversion)station).setDemandMonthOverrideTS(null);
+						break;
+					case StateMod_DataSet.COMP_DEMAND_TS_AVERAGE_MONTHLY:
+						((StateMod_Diversion)station).setDemandAverageMonthTS(null);
+						break;
+					case StateMod_DataSet.COMP_DEMAND_TS_DAILY:
+						((StateMod_Diversion)station).setDemandDayTS(null);
+						break;
+					case StateMod_DataSet.COMP_RESERVOIR_CONTENT_TS_MONTHLY:
+						((StateMod_Reservoir)station).setContentMonthTS(null);
+						break;
+					case StateMod_DataSet.COMP_RESERVOIR_CONTENT_TS_DAILY:
+						((StateMod_Reservoir)station).setContentDayTS(null);
+						break;
+					case StateMod_DataSet.COMP_RESERVOIR_TARGET_TS_MONTHLY:
+						((StateMod_Reservoir)station).setMinTargetMonthTS(null);
+						((StateMod_Reservoir)station).setMaxTargetMonthTS(null);
+						break;
+					case StateMod_DataSet.COMP_RESERVOIR_TARGET_TS_DAILY:
+						((StateMod_Reservoir)station).setMinTargetDayTS(null);
+						((StateMod_Reservoir)station).setMaxTargetDayTS(null);
+						break;
+					case StateMod_DataSet.COMP_INSTREAM_DEMAND_TS_MONTHLY:
+						((StateMod_InstreamFlow)station).setDemandMonthTS(null);
+						break;
+					case StateMod_DataSet.COMP_INSTREAM_DEMAND_TS_AVERAGE_MONTHLY:
+						((StateMod_InstreamFlow)station).setDemandAverageMonthTS(null);
+						break;
+					case StateMod_DataSet.COMP_INSTREAM_DEMAND_TS_DAILY:
+						((StateMod_InstreamFlow)station).setDemandDayTS(null);
+						break;
+					case StateMod_DataSet.COMP_WELL_PUMPING_TS_MONTHLY:
+						((StateMod_Well)station).setPumpingMonthTS(null);
+						break;
+					case StateMod_DataSet.COMP_WELL_PUMPING_TS_DAILY:
+						((StateMod_Well)station).setPumpingDayTS(null);
+						break;
+					case StateMod_DataSet.COMP_WELL_DEMAND_TS_MONTHLY:
+						((StateMod_Well)station).setDemandMonthTS(null);
+						break;
+					case StateMod_DataSet.COMP_WELL_DEMAND_TS_DAILY:
+						((StateMod_Well)station).setDemandDayTS(null);
+						break;
+					case StateMod_DataSet.COMP_STREAMESTIMATE_NATURAL_FLOW_TS_MONTHLY:
+						((StateMod_StreamEstimate)station).setBaseflowMonthTS(null);
+						break;
+					case StateMod_DataSet.COMP_STREAMESTIMATE_NATURAL_FLOW_TS_DAILY:
+						((StateMod_StreamEstimate)station).setBaseflowDayTS(null);
+						break;
+					default:
+						break;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Fingerprint the response file and the files listed in it, which should be done before the files are read
+	 * so that a file that is edited while the dataset is being read does not match its fingerprint.
+	 * Only the response file is read to determine the files.
+	 * @param responseFile absolute path to the response file
+	 * @return fingerprints for the response file and each file listed in it, response file first
+	 * @exception Exception if the response file cannot be read
+	 */
+	public static List<StateModFileFingerprint> createFingerprints ( String responseFile ) throws Exception {
+		List<StateModFileFingerprint> fingerprints = new ArrayList<>();
+		fingerprints.add(StateModFileFingerprint.create(responseFile));
+		StateMod_DataSet catalog = new StateMod_DataSet();
+		boolean readData = false;
+		boolean readTimeSeries = false;
+		readResponseFile(catalog, responseFile, readData, readTimeSeries);
+		for ( String file : getDataFiles(catalog) ) {
+			if ( !file.equals(responseFile) ) {
+				fingerprints.add(StateModFileFingerprint.create(file));
+			}
+		}
+		return fingerprints;
+	}
+
+	/**
+	 * Return the data list of a component for connecting, without reading a lazy component.
+	 * @param dataset dataset to process
+	 * @param compType StateMod_DataSet.COMP_* component type
+	 * @return the data list, or null if the component is not in the dataset or has no data
+	 */
+	@SuppressWarnings("unchecked")
+	private static <T> List<T> getConnectData ( StateMod_DataSet dataset, int compType ) {
+		DataSetComponent comp = dataset.getComponentForComponentType(compType);
+		if ( comp == null ) {
+			return null;
+		}
+		Object data = comp.getData();
+		if ( !(data instanceof List) || ((List<?>)data).isEmpty() ) {
+			return null;
+		}
+		return (List<T>)data;
+	}
+
+	/**
+	 * Return the absolute paths of all files listed in the response file, in component order.
+	 * @param dataset dataset that has had the response file read
+	 * @return list of absolute paths, which may include files that do not exist
+	 */
+	public static List<String> getDataFiles ( StateMod_DataSet dataset ) {
+		List<String> files = new ArrayList<>();
+		for ( DataSetComponent comp : getFileComponents(dataset) ) {
+			String path = dataset.getDataFilePathAbsolute(comp);
+			if ( !files.contains(path) ) {
+				files.add(path);
+			}
+		}
+		return files;
+	}
+
+	/**
+	 * Return the components that have a file in the response file, in component order, not including groups.
+	 * @param dataset dataset that has had the response file read
+	 * @return list of components
+	 */
+	public static List<DataSetComponent> getFileComponents ( StateMod_DataSet dataset ) {
+		List<DataSetComponent> fileComps = new ArrayList<>();
+		addFileComponents ( dataset.getComponents(), fileComps );
+		return fileComps;
+	}
+
+	/**
+	 * Add the components that have a file, recursing into component groups.
+	 * @param comps components to process
+	 * @param fileComps list of components to add to
+	 */
+	private static void addFileComponents ( List<DataSetComponent> comps, List<DataSetComponent> fileComps ) {
+		if ( comps == null ) {
+			return;
+		}
+		for ( DataSetComponent comp : comps ) {
+			if ( comp.isGroup() ) {
+				Object data = comp.getData();
+				if ( data instanceof List ) {
+					@SuppressWarnings("unchecked")
+					List<DataSetComponent> subComps = (List<DataSetComponent>)data;
+					addFileComponents ( subComps, fileComps );
+				}
+				continue;
+			}
+			String dataFileName = comp.getDataFileName();
+			if ( (dataFileName != null) && !dataFileName.trim().isEmpty() ) {
+				fileComps.add(comp);
+			}
+		}
+	}
+
+	/**
+	 * Return the period to read time series, consistent with the control file,
+	 * or null if the control file period has not been set, in which case the full period is read.
+	 * @param dataset dataset that has had the response file read
+	 * @param precision DateTime.PRECISION_MONTH or DateTime.PRECISION_DAY
+	 * @return array of start and end date/time or null
+	 */
+	public static DateTime [] getReadPeriod ( StateMod_DataSet dataset, int precision ) {
+		int iystr = dataset.getIystr();
+		int iyend = dataset.getIyend();
+		if ( (iystr <= 0) || (iyend <= 0) ) {
+			return null;
+		}
+		YearType yearType = dataset.getCyrl();
+		if ( yearType == null ) {
+			yearType = YearType.CALENDAR;
+		}
+		DateTime date1 = new DateTime(precision);
+		date1.setYear(iystr + yearType.getStartYearOffset());
+		date1.setMonth(yearType.getStartMonth());
+		date1.setDay(1);
+		DateTime date2 = new DateTime(precision);
+		date2.setYear(iyend);
+		date2.setMonth(yearType.getEndMonth());
+		date2.setDay(1);
+		if ( precision == DateTime.PRECISION_DAY ) {
+			// Last day of the last month
+			date2.addMonth(1);
+			date2.addDay(-1);
+		}
+		return new DateTime[] { date1, date2 };
+	}
+
+	/**
+	 * Read the dataset.
+	 * @param responseFile absolute path to the response file
+	 * @return the dataset that was read
+	 * @exception Exception if there is an error reading the dataset
+	 */
+	@SuppressWarnings("try")
+	public StateMod_DataSet readDataSet ( String responseFile ) throws Exception {
+		String routine = getClass().getSimpleName() + ".readDataSet";
+		StateMod_DataSet dataset = null;
+		StateModMetrics metrics = this.metrics;
+		if ( this.lazy ) {
+			// The snapshot is not used because it contains all components
+			List<StateModFileFingerprint> fingerprints = null;
+			if ( this.fingerprintFiles ) {
+				try ( StateModMetrics.Timer timer = StateModMetrics.startPhase(metrics, "FingerprintFiles") ) {
+					fingerprints = createFingerprints(responseFile);
+				}
+			}
+			try ( StateModMetrics.Timer timer = StateModMetrics.startPhase(metrics, "ReadDataSet") ) {
+				StateModLogger.printStatus(2, routine, "Reading response file - components will be read when first used.");
+				dataset = StateModLazyDataSet.readCatalog(responseFile, metrics);
+			}
+			setFingerprints(dataset, fingerprints);
+			return dataset;
+		}
+		if ( this.useSnapshot ) {
+			try ( StateModMetrics.Timer timer = StateModMetrics.startPhase(metrics, "ReadSnapshot") ) {
+				dataset = StateModDataSetSnapshot.readSnapshot(responseFile);
+			}
+			catch ( Exception e ) {
+				StateModLogger.printWarning(3, routine, "Error reading snapshot - reading text files.");
+				StateModLogger.printWarning(3, routine, e);
+				dataset = null;
+			}
+			if ( dataset != null ) {
+				return dataset;
+			}
+		}
+		// Fingerprint before reading so that a file that is edited while reading does not match the snapshot
+		List<StateModFileFingerprint> fingerprints = null;
+		if ( this.useSnapshot || this.fingerprintFiles ) {
+			try ( StateModMetrics.Timer timer = StateModMetrics.startPhase(metrics, "FingerprintFiles") ) {
+				fingerprints = createFingerprints(responseFile);
+			}
+		}
+		try ( StateModMetrics.Timer timer = StateModMetrics.startPhase(metrics, "ReadDataSet") ) {
+			if ( this.loadThreads == 1 ) {
+				dataset = readDataSetSequential ( responseFile );
+			}
+			else {
+				dataset = readDataSetParallel ( responseFile );
+			}
+		}
+		setFingerprints(dataset, fingerprints);
+		if ( this.useSnapshot ) {
+			// A snapshot that cannot be written is not fatal since the dataset was read.
+			try ( StateModMetrics.Timer timer = StateModMetrics.startPhase(metrics, "WriteSnapshot") ) {
+				StateModDataSetSnapshot.writeSnapshot(responseFile, dataset, fingerprints);
+			}
+			catch ( Exception e ) {
+				StateModLogger.printWarning(3, routine, "Error writing snapshot (" + e + ").");
+			}
+		}
+		return dataset;
+	}
+
+	/**
+	 * Read a single component's data file.
+	 * This does not modify the dataset so it can be called from any thread.
+	 * @param dataset dataset that has had the response file read
+	 * @param compType StateMod_DataSet.COMP_* component type
+	 * @param path absolute path to the component file
+	 * @return list of objects for the component
+	 * @exception Exception if there is an error reading the file
+	 */
+	public static List<?> readComponentData ( StateMod_DataSet dataset, int compType, String path ) throws Exception {
+		if ( isTimeSeriesComponent(compType) ) {
+			int precision = DateTime.PRECISION_MONTH;
+			if ( isDailyComponent(compType) ) {
+				precision = DateTime.PRECISION_DAY;
+			}
+			DateTime [] period = getReadPeriod ( dataset, precision );
+			DateTime date1 = null;
+			DateTime date2 = null;
+			if ( period != null ) {
+				date1 = period[0];
+				date2 = period[1];
+			}
+			boolean readData = true;
+			return StateMod_TS.readTimeSeriesList(path, date1, date2, null, readData);
+		}
+		switch ( compType ) {
+			case StateMod_DataSet.COMP_RIVER_NETWORK:
+				return StateMod_RiverNetworkNode.readStateModFile(path);
+			case StateMod_DataSet.COMP_STREAMGAGE_STATIONS:
+				return StateMod_StreamGage.readStateModFile(path);
+			case StateMod_DataSet.COMP_DIVERSION_STATIONS:
+				return StateMod_Diversion.readStateModFile(path);
+			case StateMod_DataSet.COMP_DIVERSION_RIGHTS:
+				return StateMod_DiversionRight.readStateModFile(path);
+			case StateMod_DataSet.COMP_RESERVOIR_STATIONS:
+				return StateMod_Reservoir.readStateModFile(path);
+			case StateMod_DataSet.COMP_RESERVOIR_RIGHTS:
+				return StateMod_ReservoirRight.readStateModFile(path);
+			case StateMod_DataSet.COMP_INSTREAM_STATIONS:
+				return StateMod_InstreamFlow.readStateModFile(path);
+			case StateMod_DataSet.COMP_INSTREAM_RIGHTS:
+				return StateMod_InstreamFlowRight.readStateModFile(path);
+			case StateMod_DataSet.COMP_WELL_STATIONS:
+				return StateMod_Well.readStateModFile(path);
+			case StateMod_DataSet.COMP_WELL_RIGHTS:
+				return StateMod_WellRight.readStateModFile(path);
+			case StateMod_DataSet.COMP_STREAMESTIMATE_STATIONS:
+				return StateMod_StreamEstimate.readStateModFile(path);
+			default:
+				throw new IllegalArgumentException("Component type " + compType + " cannot be read separately.");
+		}
+	}
+
+	/**
+	 * Read the dataset using parallel threads for independent components.
+	 * @param responseFile absolute path to the response file
+	 * @return the dataset that was read
+	 * @exception Exception if there is an error reading the dataset
+	 */
+	private StateMod_DataSet readDataSetParallel ( String responseFile ) throws Exception {
+		String routine = getClass().getSimpleName() + ".readDataSetParallel";
+		StateModLogger.printStatus(2, routine, "Reading dataset using " + this.loadThreads + " threads.");
+		// Read the response file once to determine the component files and period - the components are then read into the same dataset
+		final StateMod_DataSet dataset = new StateMod_DataSet();
+		boolean readData = false;
+		boolean readTimeSeries = false;
+		readResponseFile(dataset, responseFile, readData, readTimeSeries);
+
+		final StateModMetrics metrics = this.metrics;
+		List<DataSetComponent> comps = new ArrayList<>();
+		List<Future<List<?>>> futures = new ArrayList<>();
+		List<String> notRead = new ArrayList<>();
+		ExecutorService executor = Executors.newFixedThreadPool(this.loadThreads, new LoaderThreadFactory());
+		try {
+			// Submit a read task for each component that has a file, in component order
+			for ( DataSetComponent comp : getFileComponents(dataset) ) {
+				final int compType = comp.getComponentType();
+				final String path = getComponentFile ( dataset, compType );
+				if ( (compType == StateMod_DataSet.COMP_CONTROL) || (path == null) || !new File(path).exists() ) {
+					continue;
+				}
+				if ( !isReadableComponent(compType) ) {
+					notRead.add(comp.getComponentName());
+					continue;
+				}
+				comps.add(comp);
+				final String phase = "ReadComponent " + comp.getComponentName();
+				futures.add(executor.submit(new Callable<List<?>>() {
+					@Override
+					@SuppressWarnings("try")
+					public List<?> call() throws Exception {
+						try ( StateModMetrics.Timer timer = StateModMetrics.startPhase(metrics, phase) ) {
+							return readComponentData ( dataset, compType, path );
+						}
+					}
+				}));
+			}
+			// Wait for the reads in component order and then set the data in the dataset on this thread.
+			for ( int i = 0; i < futures.size(); i++ ) {
+				DataSetComponent comp = comps.get(i);
+				List<?> data = null;
+				try {
+					data = futures.get(i).get();
+				}
+				catch ( ExecutionException e ) {
+					throw new Exception("Error reading component \"" + comp.getComponentName() + "\" from \"" +
+						comp.getDataFileName() + "\".", e.getCause());
+				}
+				comp.setData((data == null) ? new ArrayList<Object>() : data);
+				comp.setDirty(false);
+			}
+			// Connect the stations to the rights and time series as readStateModFile() does
+			for ( int [] group : STATION_GROUPS ) {
+				connectComponent(dataset, group[0]);
+			}
+		}
+		finally {
+			executor.shutdownNow();
+		}
+		if ( !notRead.isEmpty() ) {
+			StateModLogger.printStatus(2, routine, "Components that are not used by the simulation are not read: " + notRead);
+		}
+		StateModLogger.printStatus(2, routine, "Read " + futures.size() + " components in parallel.");
+		return dataset;
+	}
+
+	/**
+	 * Read the dataset sequentially using StateMod_DataSet.readStateModFile().
+	 * @param responseFile absolute path to the response file
+	 * @return the dataset that was read
+	 * @exception Exception if there is an error reading the dataset
+	 */
+	private StateMod_DataSet readDataSetSequential ( String responseFile ) throws Exception {
+		boolean readData = true; // Read the data files (except for time series)
+		boolean readTimeSeries = true; // Read the time series files
+		StateMod_DataSet dataset = new StateMod_DataSet();
+		readResponseFile(dataset, responseFile, readData, readTimeSeries);
+		return dataset;
+	}
+
+	/**
+	 * Read the response file, and optionally the component files, using StateMod_DataSet.readStateModFile()
+	 * without a user interface.
+	 * The parent frame is passed as an untyped null so that the program does not reference Swing classes,
+	 * which keeps AWT and Swing out of headless startup.
+	 * @param dataset dataset to read into
+	 * @param responseFile absolute path to the response file
+	 * @param readData whether to read the data (non-time series) components
+	 * @param readTimeSeries whether to read the time series components
+	 * @exception Exception if there is an error reading the dataset
+	 */
+	public static void readResponseFile ( StateMod_DataSet dataset, String responseFile, boolean readData,
+		boolean readTimeSeries ) throws Exception {
+		boolean useGUI = false;
+		dataset.readStateModFile(responseFile, readData, readTimeSeries, useGUI, null);
+	}
+
+	/**
+	 * Set whether to fingerprint the response file and dataset files before they are read, so that getFingerprints()
+	 * returns them for the dataset, for example for the check cache.  The files are always fingerprinted if the snapshot is used.
+	 * @param fingerprintFiles if true, fingerprint the files before reading them
+	 */
+	public void setFingerprintFiles ( boolean fingerprintFiles ) {
+		this.fingerprintFiles = fingerprintFiles;
+	}
+
+	/**
+	 * Save the fingerprints of a dataset's files, taken before the files were read, for getFingerprints().
+	 * @param dataset dataset that was read
+	 * @param fingerprints fingerprints of the response file and dataset files, or null if the files were not fingerprinted
+	 */
+	public static void setFingerprints ( StateMod_DataSet dataset, List<StateModFileFingerprint> fingerprints ) {
+		if ( fingerprints == null ) {
+			dataSetFingerprints.remove(dataset);
+		}
+		else {
+			dataSetFingerprints.put(dataset, Collections.unmodifiableList(new ArrayList<>(fingerprints)));
+		}
+	}
+
+	/**
+	 * Set whether to read only the response file and read each component when it is first used.
+	 * The snapshot is not used for lazy loading.
+	 * @param lazy if true, return a StateModLazyDataSet from readDataSet()
+	 */
+	public void setLazy ( boolean lazy ) {
+		this.lazy = lazy;
+	}
+
+	/**
+	 * Set the metrics that read phases are recorded in, for example the metrics of the run that reads the dataset.
+	 * A lazy dataset records the components that it reads later in the same metrics.
+	 * @param metrics metrics for the run, or null to not record
+	 */
+	public void setMetrics ( StateModMetrics metrics ) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Set whether to use the binary snapshot next to the response file.
+	 * @param useSnapshot if true, read the snapshot if up to date and write the snapshot after reading text files
+	 */
+	public void setUseSnapshot ( boolean useSnapshot ) {
+		this.useSnapshot = useSnapshot;
+	}
+
+	/**
+	 * Thread factory for loader threads, which are daemon threads so that a failed read does not keep the program running.
+	 */
+	private static class LoaderThreadFactory implements ThreadFactory {
+		private final AtomicInteger count = new AtomicInteger(0);
+
+		@Override
+		public Thread newThread ( Runnable r ) {
+			Thread t = new Thread(r, "StateMod-load-" + this.count.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		}
+	}
+}
@@ -0,0 +1,350 @@
+// StateModDataSetSnapshot - binary snapshot of dataset time series, used to avoid re-parsing text files
+
+/* NoticeStart
+
+StateMod Java
+StateMod Java is a part of Colorado's Decision Support Systems (CDSS)
+Copyright (C) 2019 Colorado Department of Natural Resources
+
+StateMod Java is free software:  you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+StateMod Java is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+    along with StateMod Java.  If not, see <https://www.gnu.org/licenses/>.
+
+NoticeEnd */
+
+package cdss.statemod.app;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import DWR.StateMod.StateMod_DataSet;
+import RTi.TS.TS;
+import RTi.Util.IO.DataSetComponent;
+import RTi.Util.Time.DateTime;
+
+/**
+ * Binary snapshot of a loaded dataset, written next to the response file as "dataset.rsp.snapshot".
+ * The snapshot contains a fingerprint of every file listed in the response file and the data for the
+ * time series components, which are by far the largest files to parse.
+ * When a snapshot is read, the fingerprints are checked and, if all files are unchanged,
+ * the data components are read with StateMod_DataSet.readStateModFile() without time series and
+ * the time series are restored from the memory-mapped snapshot rather than parsing the text files.
+ * If any file has changed, the snapshot is ignored and is replaced after the dataset is read.
+ * <p>
+ * The file format is big-endian:
+ * <pre>
+ * int     magic number
+ * int     format version
+ * string  program version
+ * int     number of files, then for each file: string path, long size, long modified time, long CRC-32
+ * int     number of components, then for each component:
+ *         int component type, int number of time series, then for each time series:
+ *         int interval base, string identifier, string units, string description, double missing value,
+ *         date first value, date last value, date original first value, date original last value,
+ *         int number of values, double [] values
+ * </pre>
+ * Strings are written as an int byte count (-1 for null) followed by UTF-8 bytes.
+ * Dates are written as int year (-1 for null), int month, int day.
+ * The values include missing values, so that the restored time series are the same as those that were read,
+ * and are restored by allocating each time series with its missing value and setting the other values.
+ */
+public class StateModDataSetSnapshot {
+
+	/**
+	 * Magic number at the start of the file ("SMSN").
+	 */
+	private static final int MAGIC = 0x534D534E;
+
+	/**
+	 * Snapshot format version, incremented when the format changes.
+	 */
+	private static final int FORMAT_VERSION = 2;
+
+	/**
+	 * Return the snapshot file for a response file.
+	 * @param responseFile absolute path to the response file
+	 */
+	public static String getSnapshotFile ( String responseFile ) {
+		return responseFile + ".snapshot";
+	}
+
+	/**
+	 * Read a string written by writeString().
+	 */
+	private static String readString ( ByteBuffer buffer ) {
+		int length = buffer.getInt();
+		if ( length < 0 ) {
+			return null;
+		}
+		byte [] bytes = new byte[length];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Read the dataset using the snapshot, if the snapshot exists and all dataset files are unchanged.
+	 * @param responseFile absolute path to the response file
+	 * @return the dataset, or null if the snapshot does not exist or is out of date
+	 * @exception Exception if there is an error reading the dataset
+	 */
+	public static StateMod_DataSet readSnapshot ( String responseFile ) throws Exception {
+		String routine = StateModDataSetSnapshot.class.getSimpleName() + ".readSnapshot";
+		File snapshotFile = new File(getSnapshotFile(responseFile));
+		if ( !snapshotFile.exists() ) {
+			StateModLogger.printStatus(2, routine, "Snapshot \"" + snapshotFile + "\" does not exist.  Reading text files.");
+			return null;
+		}
+		if ( snapshotFile.length() > Integer.MAX_VALUE ) {
+			StateModLogger.printStatus(2, routine, "Snapshot \"" + snapshotFile + "\" is too large to map.  Reading text files.");
+			return null;
+		}
+		try ( RandomAccessFile raf = new RandomAccessFile(snapshotFile, "r");
+			FileChannel channel = raf.getChannel() ) {
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if ( (buffer.getInt() != MAGIC) || (buffer.getInt() != FORMAT_VERSION) ||
+				!StateModMain.PROGRAM_VERSION.equals(readString(buffer)) ) {
+				StateModLogger.printStatus(2, routine, "Snapshot \"" + snapshotFile + "\" is from a different version.  Reading text files.");
+				return null;
+			}
+			// Check that no files have changed
+			int fileCount = buffer.getInt();
+			List<StateModFileFingerprint> fingerprints = new ArrayList<>(fileCount);
+			for ( int i = 0; i < fileCount; i++ ) {
+				StateModFileFingerprint fingerprint = new StateModFileFingerprint(
+					readString(buffer), buffer.getLong(), buffer.getLong(), buffer.getLong());
+				fingerprints.add(fingerprint);
+				if ( !fingerprint.matchesFile() ) {
+					StateModLogger.printStatus(2, routine, "File \"" + fingerprint.getPath() +
+						"\" has changed since the snapshot was written.  Reading text files.");
+					return null;
+				}
+			}
+			// Read the data components without time series
+			boolean readData = true;
+			boolean readTimeSeries = false;
+			StateMod_DataSet dataset = new StateMod_DataSet();
+			StateModDataSetLoader.readResponseFile(dataset, responseFile, readData, readTimeSeries);
+			// Restore the time series components from the snapshot
+			int compCount = readComponents(buffer, dataset);
+			// The files matched the fingerprints before they were read
+			StateModDataSetLoader.setFingerprints(dataset, fingerprints);
+			StateModLogger.printStatus(2, routine, "Read time series for " + compCount + " components from snapshot \"" + snapshotFile + "\".");
+			return dataset;
+		}
+	}
+
+	/**
+	 * Read the time series components written by writeComponents(), set them in the dataset,
+	 * and connect the stations to the time series as readStateModFile() does.
+	 * @param buffer buffer positioned at the number of components
+	 * @param dataset dataset that has had the response file read
+	 * @return the number of components that were read
+	 */
+	static int readComponents ( ByteBuffer buffer, StateMod_DataSet dataset ) throws Exception {
+		int compCount = buffer.getInt();
+		for ( int icomp = 0; icomp < compCount; icomp++ ) {
+			int compType = buffer.getInt();
+			int tsCount = buffer.getInt();
+			List<TS> tslist = new ArrayList<>(tsCount);
+			for ( int its = 0; its < tsCount; its++ ) {
+				tslist.add(readTimeSeries(buffer));
+			}
+			DataSetComponent comp = dataset.getComponentForComponentType(compType);
+			if ( comp != null ) {
+				comp.setData(tslist);
+				comp.setDirty(false);
+			}
+		}
+		StateModDataSetLoader.connectTimeSeries(dataset);
+		return compCount;
+	}
+
+	/**
+	 * Read a date written by writeDate().
+	 * @return the date, or null if not set
+	 */
+	private static DateTime readDate ( ByteBuffer buffer, int precision ) {
+		int year = buffer.getInt();
+		int month = buffer.getInt();
+		int day = buffer.getInt();
+		if ( year < 0 ) {
+			return null;
+		}
+		DateTime date = new DateTime(precision);
+		date.setYear(year);
+		date.setMonth(month);
+		date.setDay(day);
+		return date;
+	}
+
+	/**
+	 * Read a time series written by writeTimeSeries().
+	 */
+	private static TS readTimeSeries ( ByteBuffer buffer ) throws Exception {
+		int intervalBase = buffer.getInt();
+		TS ts = StateModTimeSeriesUtil.newTimeSeries(intervalBase);
+		ts.setIdentifier(readString(buffer));
+		ts.setDataUnits(readString(buffer));
+		ts.setDescription(readString(buffer));
+		ts.setMissing(buffer.getDouble());
+		int precision = StateModTimeSeriesUtil.getPrecision(intervalBase);
+		DateTime date1 = readDate(buffer, precision);
+		DateTime date2 = readDate(buffer, precision);
+		DateTime date1Original = readDate(buffer, precision);
+		DateTime date2Original = readDate(buffer, precision);
+		if ( (date1 != null) && (date2 != null) ) {
+			ts.setDate1(date1);
+			ts.setDate2(date2);
+		}
+		if ( date1Original != null ) {
+			ts.setDate1Original(date1Original);
+		}
+		if ( date2Original != null ) {
+			ts.setDate2Original(date2Original);
+		}
+		int count = buffer.getInt();
+		// Fill directly from the mapped values
+		DoubleBuffer values = buffer.asDoubleBuffer();
+		values.limit(count);
+		StateModTimeSeriesUtil.fillFromBuffer(values, ts);
+		buffer.position(buffer.position() + count*8);
+		return ts;
+	}
+
+	/**
+	 * Write the snapshot for a dataset that has been fully read.
+	 * The snapshot is written to a temporary file and then renamed so that a partial snapshot is never used.
+	 * @param responseFile absolute path to the response file
+	 * @param dataset dataset that was read from the response file
+	 * @param fingerprints fingerprints of the response file and dataset files, from
+	 * StateModDataSetLoader.createFingerprints() before the files were read, so that a file that was edited
+	 * while it was being read does not match the snapshot
+	 * @exception IOException if there is an error writing the snapshot
+	 */
+	public static void writeSnapshot ( String responseFile, StateMod_DataSet dataset, List<StateModFileFingerprint> fingerprints )
+		throws IOException {
+		String routine = StateModDataSetSnapshot.class.getSimpleName() + ".writeSnapshot";
+		File snapshotFile = new File(getSnapshotFile(responseFile));
+		File tempFile = new File(snapshotFile.getPath() + ".tmp");
+		try ( DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile), 1 << 20)) ) {
+			out.writeInt(MAGIC);
+			out.writeInt(FORMAT_VERSION);
+			writeString(out, StateModMain.PROGRAM_VERSION);
+			out.writeInt(fingerprints.size());
+			for ( StateModFileFingerprint fingerprint : fingerprints ) {
+				writeString(out, fingerprint.getPath());
+				out.writeLong(fingerprint.getSize());
+				out.writeLong(fingerprint.getLastModified());
+				out.writeLong(fingerprint.getContentHash());
+			}
+			writeComponents(out, dataset);
+		}
+		if ( snapshotFile.exists() && !snapshotFile.delete() ) {
+			throw new IOException("Unable to replace snapshot \"" + snapshotFile + "\".");
+		}
+		if ( !tempFile.renameTo(snapshotFile) ) {
+			throw new IOException("Unable to rename \"" + tempFile + "\" to \"" + snapshotFile + "\".");
+		}
+		StateModLogger.printStatus(2, routine, "Wrote snapshot \"" + snapshotFile + "\" for " + fingerprints.size() + " files.");
+	}
+
+	/**
+	 * Write the time series components of a dataset.
+	 * @param out stream to write to
+	 * @param dataset dataset that was read from the response file
+	 */
+	static void writeComponents ( DataOutputStream out, StateMod_DataSet dataset ) throws IOException {
+		List<Integer> compTypes = new ArrayList<>();
+		for ( int compType : StateModDataSetLoader.getTimeSeriesComponents() ) {
+			if ( StateModDataSetLoader.getComponentData(dataset, compType) != null ) {
+				compTypes.add(compType);
+			}
+		}
+		out.writeInt(compTypes.size());
+		for ( int compType : compTypes ) {
+			List<?> tslist = StateModDataSetLoader.getComponentData(dataset, compType);
+			out.writeInt(compType);
+			out.writeInt(tslist.size());
+			for ( Object o : tslist ) {
+				writeTimeSeries(out, (TS)o);
+			}
+		}
+	}
+
+	/**
+	 * Write a date as year, month, and day, with year -1 if the date is null.
+	 */
+	private static void writeDate ( DataOutputStream out, DateTime date ) throws IOException {
+		if ( date == null ) {
+			out.writeInt(-1);
+			out.writeInt(1);
+			out.writeInt(1);
+		}
+		else {
+			out.writeInt(date.getYear());
+			out.writeInt(date.getMonth());
+			out.writeInt(date.getDay());
+		}
+	}
+
+	/**
+	 * Write a string as byte count and UTF-8 bytes.
+	 */
+	private static void writeString ( DataOutputStream out, String s ) throws IOException {
+		if ( s == null ) {
+			out.writeInt(-1);
+			return;
+		}
+		byte [] bytes = s.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	/**
+	 * Write a time series.
+	 */
+	private static void writeTimeSeries ( DataOutputStream out, TS ts ) throws IOException {
+		int intervalBase = ts.getDataIntervalBase();
+		out.writeInt(intervalBase);
+		writeString(out, ts.getIdentifierString());
+		writeString(out, ts.getDataUnits());
+		writeString(out, ts.getDescription());
+		out.writeDouble(ts.getMissing());
+		DateTime date1 = ts.getDate1();
+		DateTime date2 = ts.getDate2();
+		int count = StateModTimeSeriesUtil.countSteps(date1, date2, intervalBase);
+		writeDate(out, (count == 0) ? null : date1);
+		writeDate(out, (count == 0) ? null : date2);
+		writeDate(out, ts.getDate1Original());
+		writeDate(out, ts.getDate2Original());
+		out.writeInt(count);
+		double [] values = new double[count];
+		if ( count > 0 ) {
+			StateModTimeSeriesUtil.copyToArray(ts, date1, values, 0, count);
+		}
+		// Bulk write of the values
+		ByteBuffer bytes = ByteBuffer.allocate(count*8);
+		bytes.asDoubleBuffer().put(values);
+		out.write(bytes.array());
+	}
+}
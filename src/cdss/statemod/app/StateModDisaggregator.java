@@ -0,0 +1,208 @@
+// StateModDisaggregator - disaggregate monthly time series store columns to daily
+
+
+/* NoticeStart
+
+StateMod Java
+StateMod Java is a part of Colorado's Decision Support Systems (CDSS)
+Copyright (C) 2019 Colorado Department of Natural Resources
+
+StateMod Java is free software:  you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+StateMod Java is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+    along with StateMod Java.  If not, see <https://www.gnu.org/licenses/>.
+
+NoticeEnd */
+
+package cdss.statemod.app;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Set;
+
+import RTi.Util.Time.DateTime;
+import RTi.Util.Time.TimeUtil;
+
+/**
+ * Disaggregate a monthly time series store column (ACFT per month) to daily values (CFS) for all stations in one pass.
+ * The daily pattern for a station is the daily column value for the station with the same identifier:
+ * each day's value is the monthly volume times the day's fraction of the pattern's monthly total.
+ * If a station has no pattern, or the pattern is missing or zero for any day of the month,
+ * or the daily period covers only part of the month, the monthly volume is distributed evenly over the days of the month.
+ * Missing monthly values result in missing daily values.
+ * <p>
+ * Each month is processed for all stations together, using loops over primitive arrays that do not make calls or
+ * allocate, so that the JIT compiler can vectorize them.
+ * The pattern values for the month are gathered into a month buffer, summed, converted to per-station factors,
+ * and then applied to all days of the month.
+ */
+public class StateModDisaggregator {
+
+	/**
+	 * Daily data type for each monthly data type that can be disaggregated.
+	 * The daily type is both the type of the result and the type of the daily pattern.
+	 */
+	private static final Map<StateModTimeSeriesType,StateModTimeSeriesType> DAILY_TYPES;
+	static {
+		EnumMap<StateModTimeSeriesType,StateModTimeSeriesType> dailyTypes = new EnumMap<>(StateModTimeSeriesType.class);
+		dailyTypes.put(StateModTimeSeriesType.BASEFLOW_MONTHLY, StateModTimeSeriesType.BASEFLOW_DAILY);
+		dailyTypes.put(StateModTimeSeriesType.DEMAND_MONTHLY, StateModTimeSeriesType.DEMAND_DAILY);
+		dailyTypes.put(StateModTimeSeriesType.DIVERSION_HISTORICAL_MONTHLY, StateModTimeSeriesType.DIVERSION_HISTORICAL_DAILY);
+		dailyTypes.put(StateModTimeSeriesType.INSTREAM_DEMAND_MONTHLY, StateModTimeSeriesType.INSTREAM_DEMAND_DAILY);
+		dailyTypes.put(StateModTimeSeriesType.WELL_DEMAND_MONTHLY, StateModTimeSeriesType.WELL_DEMAND_DAILY);
+		dailyTypes.put(StateModTimeSeriesType.WELL_PUMPING_MONTHLY, StateModTimeSeriesType.WELL_PUMPING_DAILY);
+		DAILY_TYPES = Collections.unmodifiableMap(dailyTypes);
+	}
+
+	/**
+	 * Constructor, not used because all methods are static.
+	 */
+	private StateModDisaggregator () {
+	}
+
+	/**
+	 * Disaggregate a monthly column to daily values.
+	 * @param monthlyColumn monthly column to disaggregate, ACFT per month
+	 * @param monthlyStart first month of the monthly column
+	 * @param patternColumn daily pattern column for the same period as the result, or null to distribute evenly
+	 * @param dailyStart first day of the result
+	 * @param dailyStepCount number of days in the result
+	 * @param cache cache for the result values, or null to keep the result in memory
+	 * @return daily column, CFS, with the same stations as the monthly column
+	 */
+	public static StateModTimeSeriesColumn disaggregate ( StateModTimeSeriesColumn monthlyColumn, DateTime monthlyStart,
+		StateModTimeSeriesColumn patternColumn, DateTime dailyStart, int dailyStepCount, StateModTimeSeriesCache cache ) {
+		StateModTimeSeriesType dailyType = getDailyType(monthlyColumn.getType());
+		if ( dailyType == null ) {
+			throw new IllegalArgumentException("Data type " + monthlyColumn.getType() + " cannot be disaggregated.");
+		}
+		StateModStationIndex stationIndex = monthlyColumn.getStationIndex();
+		StateModTimeSeriesColumn dailyColumn = new StateModTimeSeriesColumn(dailyType, stationIndex, dailyStepCount, cache);
+		if ( dailyStepCount == 0 ) {
+			return dailyColumn;
+		}
+		int n = stationIndex.size();
+		int [] patternPos = stationIndex.mapPositions((patternColumn == null) ? null : patternColumn.getStationIndex());
+		// Work arrays, one value per station, or per day and station for the month buffers
+		double [] monthValues = new double[n];
+		double [] patternSum = new double[n];
+		double [] factor = new double[n];
+		double [] uniform = new double[n];
+		double [] monthPattern = new double[31*n];
+		double [] monthDaily = new double[31*n];
+		int blockSteps = dailyColumn.getBlockSteps();
+		int block = 0;
+		double [] blockValues = dailyColumn.createBlock(block);
+		DateTime dt = new DateTime(dailyStart);
+		for ( int step = 0; step < dailyStepCount; ) {
+			int year = dt.getYear();
+			int month = dt.getMonth();
+			int daysInMonth = TimeUtil.numDaysInMonth(month, year);
+			int firstDay = dt.getDay();
+			int days = Math.min(daysInMonth - firstDay + 1, dailyStepCount - step);
+			boolean fullMonth = (firstDay == 1) && (days == daysInMonth);
+
+			// Monthly values for the month
+			int monthStep = (year - monthlyStart.getYear())*12 + (month - monthlyStart.getMonth());
+			if ( (monthStep >= 0) && (monthStep < monthlyColumn.getStepCount()) ) {
+				System.arraycopy(monthlyColumn.getBlock(monthStep), monthlyColumn.getBlockOffset(monthStep), monthValues, 0, n);
+			}
+			else {
+				Arrays.fill(monthValues, Double.NaN);
+			}
+
+			// Gather the pattern for the days of the month
+			for ( int d = 0; d < days; d++ ) {
+				gatherPattern(patternColumn, step + d, patternPos, monthPattern, d*n);
+			}
+
+			// Sum the pattern, with missing values resulting in NaN
+			Arrays.fill(patternSum, 0.0);
+			for ( int d = 0; d < days; d++ ) {
+				int offset = d*n;
+				for ( int s = 0; s < n; s++ ) {
+					patternSum[s] += monthPattern[offset + s];
+				}
+			}
+
+			// Factor to apply to the pattern (0 to use the uniform value) and uniform daily value, CFS
+			double uniformScale = 1.0/(daysInMonth*StateModSimulator.CFS_DAY_TO_ACFT);
+			for ( int s = 0; s < n; s++ ) {
+				uniform[s] = monthValues[s]*uniformScale;
+				// NaN sum compares false so the uniform value is used
+				factor[s] = (fullMonth && (patternSum[s] > 0.0)) ?
+					monthValues[s]/(patternSum[s]*StateModSimulator.CFS_DAY_TO_ACFT) : 0.0;
+			}
+
+			// Daily values for the month
+			for ( int d = 0; d < days; d++ ) {
+				int offset = d*n;
+				for ( int s = 0; s < n; s++ ) {
+					monthDaily[offset + s] = (factor[s] != 0.0) ? monthPattern[offset + s]*factor[s] : uniform[s];
+				}
+			}
+
+			// Copy the days to the result blocks
+			for ( int d = 0; d < days; d++ ) {
+				int dailyStep = step + d;
+				if ( dailyStep/blockSteps != block ) {
+					dailyColumn.setBlock(block, blockValues);
+					block = dailyStep/blockSteps;
+					blockValues = dailyColumn.createBlock(block);
+				}
+				System.arraycopy(monthDaily, d*n, blockValues, dailyColumn.getBlockOffset(dailyStep), n);
+			}
+			step += days;
+			dt.addDay(days);
+		}
+		dailyColumn.setBlock(block, blockValues);
+		return dailyColumn;
+	}
+
+	/**
+	 * Gather the pattern values of a day into the month buffer, in station order of the result.
+	 * @param patternColumn pattern column, or null if no pattern
+	 * @param step daily time step
+	 * @param patternPos position of each result station in the pattern column, -1 if no pattern
+	 * @param monthPattern month buffer
+	 * @param offset offset of the day in the month buffer
+	 */
+	private static void gatherPattern ( StateModTimeSeriesColumn patternColumn, int step, int [] patternPos,
+		double [] monthPattern, int offset ) {
+		if ( (patternColumn == null) || (step >= patternColumn.getStepCount()) ) {
+			Arrays.fill(monthPattern, offset, offset + patternPos.length, Double.NaN);
+			return;
+		}
+		double [] values = patternColumn.getBlock(step);
+		int valuesOffset = patternColumn.getBlockOffset(step);
+		for ( int s = 0; s < patternPos.length; s++ ) {
+			int pos = patternPos[s];
+			monthPattern[offset + s] = (pos < 0) ? Double.NaN : values[valuesOffset + pos];
+		}
+	}
+
+	/**
+	 * Return the daily data type for a monthly data type, or null if the type cannot be disaggregated.
+	 * @param monthlyType monthly data type
+	 */
+	public static StateModTimeSeriesType getDailyType ( StateModTimeSeriesType monthlyType ) {
+		return DAILY_TYPES.get(monthlyType);
+	}
+
+	/**
+	 * Return the monthly data types that can be disaggregated.
+	 */
+	public static Set<StateModTimeSeriesType> getMonthlyTypes () {
+		return DAILY_TYPES.keySet();
+	}
+}
@@ -0,0 +1,509 @@
+// StateModEnsembleRunner - run hydrology traces as ensemble members and summarize the results
+
+/* NoticeStart
+
+StateMod Java
+StateMod Java is a part of Colorado's Decision Support Systems (CDSS)
+Copyright (C) 2019 Colorado Department of Natural Resources
+
+StateMod Java is free software:  you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+StateMod Java is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+    along with StateMod Java.  If not, see <https://www.gnu.org/licenses/>.
+
+NoticeEnd */
+
+package cdss.statemod.app;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import RTi.Util.Time.TimeInterval;
+
+/**
+ * Run an ensemble of hydrology traces through one dataset and write only summary statistics.
+ * Each member simulates the dataset with its trace in place of the monthly baseflows, sharing the dataset,
+ * network, rights, and other time series of the base runner.  Members run at the same time on a thread pool,
+ * each on one thread.  Each member adds its results to the StateModEnsembleStatistics as each time step completes,
+ * so memory does not depend on the number of members and a member's output is not kept.
+ * Members are added to each time step in trace order, a member waiting for the earlier members to add the time step,
+ * so that the statistics are the same for any number of threads.  Members start in trace order, so the member
+ * that is waited for is always running.
+ * <p>
+ * The statistics are written to binary output files that can be read with StateModBinaryOutputReader:
+ * <ul>
+ * <li>	"base.ens.jb43" - river nodes, with river flow and, for diversion nodes, diverted and shortage</li>
+ * <li>	"base.ens.jb44" - reservoirs, with end of time step content and amount stored</li>
+ * </ul>
+ * Demands do not depend on the hydrology and are not summarized.
+ * Quantile estimates keep the lower quantiles of river flow, diverted, and content accurate, for dry conditions,
+ * and the upper quantiles of shortage and stored (see StateModQuantileSketch).
+ * If the base runner has a restart checkpoint, all members warm-start from the checkpoint.
+ */
+public class StateModEnsembleRunner {
+
+	/**
+	 * Logger for run-time messages.
+	 */
+	private static final StateModLogger LOG = StateModLogger.getLogger(StateModEnsembleRunner.class);
+
+	/**
+	 * Node variables that are summarized.
+	 */
+	private static final String [] NODE_VARIABLES = { "RiverFlow", "Diverted", "Shortage" };
+
+	/**
+	 * Reservoir variables that are summarized.
+	 */
+	private static final String [] RESERVOIR_VARIABLES = { "Content", "Stored" };
+
+	/**
+	 * Variables for which lower quantiles are kept accurate, for dry conditions, rather than upper quantiles.
+	 */
+	private static final String [] LOW_QUANTILE_VARIABLES = { "RiverFlow", "Diverted", "Content" };
+
+	/**
+	 * Base runner, which holds the shared dataset, store, network, and rights.
+	 */
+	private final StateModRunner baseRunner;
+
+	/**
+	 * Hydrology traces to run as members.
+	 */
+	private final StateModEnsembleTraces traces;
+
+	/**
+	 * Number of members to run at the same time.
+	 */
+	private int threads = 1;
+
+	/**
+	 * Quantiles to write to the summary files.
+	 */
+	private double [] quantiles = StateModEnsembleStatistics.DEFAULT_QUANTILES;
+
+	/**
+	 * River node identifiers, set when the ensemble is run.
+	 */
+	private String [] nodeIds = null;
+
+	/**
+	 * Reservoir identifiers, set when the ensemble is run.
+	 */
+	private String [] reservoirIds = null;
+
+	/**
+	 * Statistics for river nodes, created when the first member adds a time step.
+	 */
+	private StateModEnsembleStatistics nodeStatistics = null;
+
+	/**
+	 * Statistics for reservoirs, created when the first member adds a time step.
+	 */
+	private StateModEnsembleStatistics reservoirStatistics = null;
+
+	/**
+	 * Year of the first simulated time step, set when the statistics are created.
+	 */
+	private int summaryYear = 0;
+
+	/**
+	 * Month of the first simulated time step, set when the statistics are created.
+	 */
+	private int summaryMonth = 1;
+
+	/**
+	 * Set when the run fails or is cancelled so that members that are running stop at the next time step.
+	 */
+	private volatile boolean stopped = false;
+
+	/**
+	 * Number of members that have added each time step, which is the trace number of the member to add next,
+	 * or null before the first time step is added.  Guarded by synchronizing on stepLock, which is notified
+	 * when a member adds a time step.
+	 */
+	private int [] stepMemberCounts = null;
+
+	/**
+	 * Lock for adding time steps to the statistics in trace order.
+	 */
+	private final Object stepLock = new Object();
+
+	/**
+	 * Results of one member, which are added to the statistics as each time step completes.
+	 */
+	private class MemberResults implements StateModSimulationListener {
+
+		/**
+		 * Trace number of the member.
+		 */
+		private final int trace;
+
+		/**
+		 * First simulated time step.
+		 */
+		private final int firstStep;
+
+		/**
+		 * Year of the first simulated time step.
+		 */
+		private final int year;
+
+		/**
+		 * Month of the first simulated time step.
+		 */
+		private final int month;
+
+		/**
+		 * Number of simulated time steps.
+		 */
+		private final int stepCount;
+
+		/**
+		 * Diversion station position for each node, -1 if the node is not a diversion.
+		 */
+		private final int [] nodeDiversion;
+
+		/**
+		 * Node values of the time step in StateModEnsembleStatistics order.
+		 */
+		private final float [] nodeValues;
+
+		/**
+		 * Reservoir values of the time step in StateModEnsembleStatistics order.
+		 */
+		private final float [] reservoirValues;
+
+		/**
+		 * Number of reservoirs.
+		 */
+		private final int reservoirCount;
+
+		/**
+		 * Constructor.
+		 * @param trace trace number of the member
+		 * @param simulator simulator for the member, which has not been run
+		 * @param nodeDiversion diversion station position for each node
+		 * @param reservoirCount number of reservoirs
+		 */
+		private MemberResults ( int trace, StateModSimulator simulator, int [] nodeDiversion, int reservoirCount ) {
+			this.trace = trace;
+			this.firstStep = simulator.getNextStep();
+			this.stepCount = simulator.getStepCount() - this.firstStep;
+			this.year = (this.stepCount > 0) ? simulator.getStepYear(this.firstStep) : 0;
+			this.month = (this.stepCount > 0) ? simulator.getStepMonth(this.firstStep) : 1;
+			this.nodeDiversion = nodeDiversion;
+			this.reservoirCount = reservoirCount;
+			this.nodeValues = new float[nodeDiversion.length*NODE_VARIABLES.length];
+			this.reservoirValues = new float[reservoirCount*RESERVOIR_VARIABLES.length];
+		}
+
+		/**
+		 * Add the time step results to the statistics.
+		 * @exception CancellationException if the ensemble run was stopped
+		 */
+		@Override
+		public void timeStepCompleted ( StateModSimulator simulator, int step ) {
+			checkStopped();
+			double [] flow = simulator.getFlow();
+			double [] demand = simulator.getDiversionDemand();
+			double [] diverted = simulator.getDiverted();
+			int nodeCount = this.nodeDiversion.length;
+			int pos = 0;
+			for ( int node = 0; node < nodeCount; node++ ) {
+				int div = this.nodeDiversion[node];
+				this.nodeValues[pos++] = (float)flow[node];
+				this.nodeValues[pos++] = (div >= 0) ? (float)diverted[div] : 0.0F;
+				this.nodeValues[pos++] = (div >= 0) ? (float)(demand[div] - diverted[div]) : 0.0F;
+			}
+			double [] content = simulator.getReservoirContent();
+			double [] stored = simulator.getReservoirStored();
+			pos = 0;
+			for ( int res = 0; res < this.reservoirCount; res++ ) {
+				this.reservoirValues[pos++] = (float)content[res];
+				this.reservoirValues[pos++] = (float)stored[res];
+			}
+			addStep(this, step - this.firstStep);
+		}
+	}
+
+	/**
+	 * Constructor.
+	 * @param baseRunner runner for the base dataset, which will be used to create the shared data
+	 * @param traces hydrology traces to run as members
+	 */
+	public StateModEnsembleRunner ( StateModRunner baseRunner, StateModEnsembleTraces traces ) {
+		this.baseRunner = baseRunner;
+		this.traces = traces;
+	}
+
+	/**
+	 * Add a member's time step to the statistics, after the members with lower trace numbers have added it.
+	 * @param results member results with the values of the time step
+	 * @param stepIndex time step, 0 for the first simulated time step
+	 * @exception CancellationException if the run was stopped while waiting
+	 */
+	private void addStep ( MemberResults results, int stepIndex ) {
+		synchronized ( this.stepLock ) {
+			createStatistics(results);
+			while ( this.stepMemberCounts[stepIndex] != results.trace ) {
+				checkStopped();
+				try {
+					// Wait is limited so that cancellation of the run control is noticed
+					this.stepLock.wait(100L);
+				}
+				catch ( InterruptedException e ) {
+					Thread.currentThread().interrupt();
+					throw new CancellationException("Ensemble member was interrupted.");
+				}
+			}
+			this.nodeStatistics.addStep(stepIndex, results.nodeValues);
+			this.reservoirStatistics.addStep(stepIndex, results.reservoirValues);
+			++this.stepMemberCounts[stepIndex];
+			this.stepLock.notifyAll();
+		}
+	}
+
+	/**
+	 * Create the statistics from the first member's results if they have not been created.
+	 * Must be called while synchronized on stepLock.
+	 */
+	private void createStatistics ( MemberResults results ) {
+		if ( this.nodeStatistics != null ) {
+			return;
+		}
+		this.nodeStatistics = new StateModEnsembleStatistics(this.nodeIds, NODE_VARIABLES, LOW_QUANTILE_VARIABLES,
+			results.stepCount);
+		this.reservoirStatistics = new StateModEnsembleStatistics(this.reservoirIds, RESERVOIR_VARIABLES, LOW_QUANTILE_VARIABLES,
+			results.stepCount);
+		this.stepMemberCounts = new int[results.stepCount];
+		this.summaryYear = results.year;
+		this.summaryMonth = results.month;
+	}
+
+	/**
+	 * Throw CancellationException if the run has been stopped or the run control has been cancelled.
+	 */
+	private void checkStopped () {
+		if ( this.stopped ) {
+			throw new CancellationException("Ensemble run was stopped.");
+		}
+		StateModRunControl runControl = this.baseRunner.getRunControl();
+		if ( runControl != null ) {
+			runControl.checkCancelled();
+		}
+	}
+
+	/**
+	 * Return the identifiers in a station index as an array.
+	 */
+	private static String [] getIds ( StateModStationIndex index ) {
+		String [] ids = new String[index.size()];
+		for ( int i = 0; i < ids.length; i++ ) {
+			ids[i] = index.getId(i);
+		}
+		return ids;
+	}
+
+	/**
+	 * Return the statistics for river nodes, or null if the ensemble has not been run.
+	 */
+	public StateModEnsembleStatistics getNodeStatistics () {
+		return this.nodeStatistics;
+	}
+
+	/**
+	 * Return the statistics for reservoirs, or null if the ensemble has not been run.
+	 */
+	public StateModEnsembleStatistics getReservoirStatistics () {
+		return this.reservoirStatistics;
+	}
+
+	/**
+	 * Run the ensemble and write the summary files.
+	 * @return summary files that were written
+	 * @exception CancellationException if the run control was cancelled
+	 * @exception UncheckedIOException if a trace cannot be read or the summary files cannot be written
+	 */
+	@SuppressWarnings("try")
+	public List<String> run () {
+		// Create the shared data before starting threads so that the runner does not create it more than once
+		final StateModTimeSeriesStore store = this.baseRunner.getTimeSeriesStore();
+		StateModNetwork network = this.baseRunner.getNetwork();
+		StateModRightList rights = this.baseRunner.getRightList();
+		this.nodeIds = getIds(network.getNodeIndex());
+		StateModStationIndex diversionIndex = rights.getStationIndex(StateModRightList.TYPE_DIVERSION);
+		final int [] nodeDiversion = new int[this.nodeIds.length];
+		for ( int node = 0; node < this.nodeIds.length; node++ ) {
+			nodeDiversion[node] = diversionIndex.getIndex(this.nodeIds[node]);
+		}
+		this.reservoirIds = getIds(rights.getStationIndex(StateModRightList.TYPE_RESERVOIR));
+		int memberCount = this.traces.getTraceCount();
+		StateModRunControl runControl = this.baseRunner.getRunControl();
+		if ( runControl != null ) {
+			runControl.startPhase("Ensemble", memberCount);
+		}
+		LOG.info("Running ensemble of {} using {} threads.", this.traces, this.threads);
+		StateModMetrics metrics = this.baseRunner.getMetrics();
+		this.stopped = false;
+		synchronized ( this.stepLock ) {
+			this.nodeStatistics = null;
+			this.reservoirStatistics = null;
+			this.stepMemberCounts = null;
+		}
+		long start = System.currentTimeMillis();
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(this.threads, memberCount));
+		Deque<Future<MemberResults>> pending = new ArrayDeque<>();
+		try ( StateModMetrics.Timer timer = metrics.startPhase("Ensemble") ) {
+			int nextMember = 0;
+			for ( int member = 0; member < memberCount; member++ ) {
+				// Start members ahead of the member to count, in trace order so that the members they wait for are running
+				while ( (nextMember < memberCount) && (pending.size() < 2*this.threads) ) {
+					final int trace = nextMember++;
+					pending.add(executor.submit(new Callable<MemberResults>() {
+						@Override
+						public MemberResults call () throws Exception {
+							return runMember(trace, store, nodeDiversion);
+						}
+					}));
+				}
+				MemberResults results;
+				try {
+					results = pending.removeFirst().get();
+				}
+				catch ( ExecutionException e ) {
+					Throwable cause = e.getCause();
+					if ( cause instanceof CancellationException ) {
+						throw (CancellationException)cause;
+					}
+					else if ( cause instanceof IOException ) {
+						throw new UncheckedIOException("Error running ensemble member " + (member + 1) + " (" + cause + ").",
+							(IOException)cause);
+					}
+					else if ( cause instanceof RuntimeException ) {
+						throw (RuntimeException)cause;
+					}
+					throw new RuntimeException("Error running ensemble member " + (member + 1) + ".", cause);
+				}
+				synchronized ( this.stepLock ) {
+					// The time steps were added as the member ran
+					createStatistics(results);
+					this.nodeStatistics.addMember();
+					this.reservoirStatistics.addMember();
+				}
+				if ( runControl != null ) {
+					runControl.stepCompleted(member + 1);
+				}
+				metrics.addCount("EnsembleMembers", 1);
+				metrics.addCount("SimulationTimeSteps", results.stepCount);
+			}
+		}
+		catch ( InterruptedException e ) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Ensemble run was interrupted.", e);
+		}
+		finally {
+			// Members that are running or waiting to add a time step stop if the run did not complete
+			this.stopped = true;
+			synchronized ( this.stepLock ) {
+				this.stepLock.notifyAll();
+			}
+			for ( Future<MemberResults> future : pending ) {
+				future.cancel(false);
+			}
+			executor.shutdown();
+		}
+		long end = System.currentTimeMillis();
+		LOG.info("Ran {} ensemble members in {} ms.", memberCount, end - start);
+		List<String> outputFiles = new ArrayList<>();
+		String outputFileBase = this.baseRunner.getOutputFileBase();
+		StateModEnsembleStatistics [] statistics = { this.nodeStatistics, this.reservoirStatistics };
+		String [] extensions = { ".ens" + StateModBinaryOutputWriter.NODE_EXTENSION, ".ens" + StateModBinaryOutputWriter.RESERVOIR_EXTENSION };
+		for ( int i = 0; i < statistics.length; i++ ) {
+			String outputFile = outputFileBase + extensions[i];
+			try {
+				statistics[i].write(outputFile, this.quantiles, TimeInterval.MONTH, this.summaryYear, this.summaryMonth, 1);
+				outputFiles.add(outputFile);
+			}
+			catch ( IOException e ) {
+				LOG.warn("Error writing ensemble summary file \"" + outputFile + "\".", e);
+				throw new UncheckedIOException("Error writing ensemble summary file \"" + outputFile + "\".", e);
+			}
+		}
+		LOG.info("Wrote ensemble summary for {} members to \"{}.ens.jb43/.ens.jb44\".", memberCount, outputFileBase);
+		return outputFiles;
+	}
+
+	/**
+	 * Run one member.
+	 * @param trace trace number
+	 * @param store base time series store, shared by all members
+	 * @param nodeDiversion diversion station position for each node
+	 * @return results of the member, whose time steps have been added to the statistics
+	 * @exception CancellationException if the run was stopped
+	 * @exception IOException if the trace cannot be read
+	 */
+	private MemberResults runMember ( int trace, StateModTimeSeriesStore store, int [] nodeDiversion ) throws IOException {
+		checkStopped();
+		StateModRightList rights = this.baseRunner.getRightList();
+		StateModTimeSeriesStore memberStore = store.copyWithColumn(this.traces.createTrace(trace, store));
+		try {
+			StateModSimulator simulator = new StateModSimulator(this.baseRunner.getDataSet(), memberStore,
+				this.baseRunner.getNetwork(), rights);
+			StateModCheckpoint restartCheckpoint = this.baseRunner.getRestartCheckpoint();
+			if ( restartCheckpoint != null ) {
+				restartCheckpoint.apply(simulator, rights);
+			}
+			// Members run at the same time so each member uses one thread
+			simulator.setThreads(1);
+			MemberResults results = new MemberResults(trace, simulator, nodeDiversion,
+				rights.getStationIndex(StateModRightList.TYPE_RESERVOIR).size());
+			simulator.addListener(results);
+			simulator.run();
+			return results;
+		}
+		finally {
+			// Later members use the cache space of the member's trace column
+			memberStore.releaseColumns(store);
+		}
+	}
+
+	/**
+	 * Set the quantiles to write to the summary files.
+	 * @param quantiles quantiles, 0 to 1
+	 */
+	public void setQuantiles ( double [] quantiles ) {
+		for ( double quantile : quantiles ) {
+			if ( (quantile < 0.0) || (quantile > 1.0) ) {
+				throw new IllegalArgumentException("Quantile " + quantile + " must be between 0 and 1.");
+			}
+		}
+		this.quantiles = quantiles.clone();
+	}
+
+	/**
+	 * Set the number of members to run at the same time.
+	 * @param threads number of threads
+	 */
+	public void setThreads ( int threads ) {
+		this.threads = (threads < 1) ? 1 : threads;
+	}
+}
@@ -0,0 +1,438 @@
+// StateModEnsembleStatistics - mergeable streaming statistics for ensemble members
+
+/* NoticeStart
+
+StateMod Java
+StateMod Java is a part of Colorado's Decision Support Systems (CDSS)
+Copyright (C) 2019 Colorado Department of Natural Resources
+
+StateMod Java is free software:  you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+StateMod Java is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+    along with StateMod Java.  If not, see <https://www.gnu.org/licenses/>.
+
+NoticeEnd */
+
+package cdss.statemod.app;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Streaming statistics of ensemble member results, for each station, variable, and time step (a cell).
+ * Each member's values are added when the member finishes and are not kept, so memory does not depend on the
+ * number of members.  For each cell the statistics are the count, mean, and variance (Welford's method),
+ * minimum, maximum, and quantiles estimated with a StateModQuantileSketch.
+ * The sketch keeps upper quantiles accurate, except for variables that are listed as low quantile variables,
+ * for example river flow, for which lower quantiles are kept accurate.
+ * Statistics for different members can be computed separately and merged, for example to combine ensembles
+ * that were run on different computers, with the same result as adding all members to one object
+ * except for floating point rounding of the mean and variance.
+ * The statistics use about 160 bytes per cell, most of which is for the quantile sketch.
+ * <p>
+ * Values for a member are in the order of StateModBinaryOutputReader.readSteps(),
+ * ((step*stationCount + station)*variableCount + variable).  A member's values can also be added one time step
+ * at a time as the member runs (addStep()), so that the member's whole output is not kept.
+ * Methods are synchronized so that members on different threads can be added to the same statistics.
+ */
+public class StateModEnsembleStatistics {
+
+	/**
+	 * Default quantiles written to the summary file.
+	 */
+	public static final double [] DEFAULT_QUANTILES = { 0.1, 0.5, 0.9 };
+
+	/**
+	 * Values less than or equal to this are counted as zero for quantiles, which is below the precision of the
+	 * output values and removes round-off, for example 1E-14 ACFT remaining after subtracting a diversion.
+	 */
+	public static final double QUANTILE_ZERO_LIMIT = 1.0E-6;
+
+	/**
+	 * Station identifiers.
+	 */
+	private final String [] stationIds;
+
+	/**
+	 * Variable names.
+	 */
+	private final String [] variableNames;
+
+	/**
+	 * Whether lower quantiles rather than upper quantiles are kept accurate, for each variable.
+	 */
+	private final boolean [] lowQuantileVariables;
+
+	/**
+	 * Number of time steps.
+	 */
+	private final int stepCount;
+
+	/**
+	 * Number of members that were added.
+	 */
+	private int memberCount = 0;
+
+	/**
+	 * Number of values for each cell, which is less than the member count if values were missing.
+	 */
+	private final int [] counts;
+
+	/**
+	 * Mean for each cell.
+	 */
+	private final double [] means;
+
+	/**
+	 * Sum of squared differences from the mean for each cell.
+	 */
+	private final double [] squaredDifferences;
+
+	/**
+	 * Minimum for each cell.
+	 */
+	private final float [] minimums;
+
+	/**
+	 * Maximum for each cell.
+	 */
+	private final float [] maximums;
+
+	/**
+	 * Quantile sketches for the cells.
+	 */
+	private final StateModQuantileSketch sketch;
+
+	/**
+	 * Constructor, keeping upper quantiles accurate for all variables.
+	 * @param stationIds station identifiers
+	 * @param variableNames variable names
+	 * @param stepCount number of time steps
+	 */
+	public StateModEnsembleStatistics ( String [] stationIds, String [] variableNames, int stepCount ) {
+		this(stationIds, variableNames, new String[0], stepCount);
+	}
+
+	/**
+	 * Constructor.
+	 * @param stationIds station identifiers
+	 * @param variableNames variable names
+	 * @param lowQuantileVariableNames names of variables for which lower quantiles rather than upper quantiles
+	 * are kept accurate, for example "RiverFlow"
+	 * @param stepCount number of time steps
+	 */
+	public StateModEnsembleStatistics ( String [] stationIds, String [] variableNames, String [] lowQuantileVariableNames,
+		int stepCount ) {
+		this.stationIds = stationIds.clone();
+		this.variableNames = variableNames.clone();
+		this.lowQuantileVariables = new boolean[variableNames.length];
+		for ( int variable = 0; variable < variableNames.length; variable++ ) {
+			for ( String name : lowQuantileVariableNames ) {
+				if ( name.equals(variableNames[variable]) ) {
+					this.lowQuantileVariables[variable] = true;
+				}
+			}
+		}
+		this.stepCount = stepCount;
+		long cellCount = (long)stationIds.length*variableNames.length*stepCount;
+		if ( cellCount > Integer.MAX_VALUE/StateModQuantileSketch.DEFAULT_BUCKET_COUNT ) {
+			throw new IllegalArgumentException("Too many values for ensemble statistics (" + cellCount + ").");
+		}
+		int cells = (int)cellCount;
+		this.counts = new int[cells];
+		this.means = new double[cells];
+		this.squaredDifferences = new double[cells];
+		this.minimums = new float[cells];
+		this.maximums = new float[cells];
+		Arrays.fill(this.minimums, Float.NaN);
+		Arrays.fill(this.maximums, Float.NaN);
+		this.sketch = new StateModQuantileSketch(cells);
+		this.sketch.setZeroLimit(QUANTILE_ZERO_LIMIT);
+		for ( int cell = 0; cell < cells; cell++ ) {
+			if ( this.lowQuantileVariables[cell % variableNames.length] ) {
+				this.sketch.setCollapseHighest(cell, true);
+			}
+		}
+	}
+
+	/**
+	 * Add the values of one member.
+	 * @param values values for all cells, NaN if missing
+	 * @exception IllegalStateException if more than StateModQuantileSketch.MAX_COUNT members are added
+	 */
+	public synchronized void add ( float [] values ) {
+		if ( values.length != this.counts.length ) {
+			throw new IllegalArgumentException("Expecting " + this.counts.length + " values, have " + values.length + ".");
+		}
+		addValues(0, values);
+		++this.memberCount;
+	}
+
+	/**
+	 * Count a member whose values were added with addStep().
+	 */
+	public synchronized void addMember () {
+		++this.memberCount;
+	}
+
+	/**
+	 * Add the values of one member for one time step, for a member that is added as it runs.
+	 * Call addMember() once for the member.  The statistics do not depend on the order in which members finish
+	 * as long as the members are added to each time step in the same order.
+	 * @param step time step
+	 * @param values values for the cells of the time step, in getCell() order, NaN if missing
+	 * @exception IllegalStateException if more than StateModQuantileSketch.MAX_COUNT members are added
+	 */
+	public synchronized void addStep ( int step, float [] values ) {
+		int stepCellCount = this.stationIds.length*this.variableNames.length;
+		if ( values.length != stepCellCount ) {
+			throw new IllegalArgumentException("Expecting " + stepCellCount + " values, have " + values.length + ".");
+		}
+		addValues(step*stepCellCount, values);
+	}
+
+	/**
+	 * Add values to consecutive cells.
+	 * @param firstCell cell for the first value
+	 * @param values values to add, NaN if missing
+	 */
+	private void addValues ( int firstCell, float [] values ) {
+		for ( int i = 0; i < values.length; i++ ) {
+			int cell = firstCell + i;
+			float value = values[i];
+			if ( Float.isNaN(value) ) {
+				continue;
+			}
+			int count = ++this.counts[cell];
+			double delta = value - this.means[cell];
+			this.means[cell] += delta/count;
+			this.squaredDifferences[cell] += delta*(value - this.means[cell]);
+			if ( count == 1 ) {
+				this.minimums[cell] = value;
+				this.maximums[cell] = value;
+			}
+			else if ( value < this.minimums[cell] ) {
+				this.minimums[cell] = value;
+			}
+			else if ( value > this.maximums[cell] ) {
+				this.maximums[cell] = value;
+			}
+			this.sketch.add(cell, value);
+		}
+	}
+
+	/**
+	 * Return the position of a cell in the value arrays.
+	 * @param station station position
+	 * @param variable variable position
+	 * @param step time step
+	 */
+	public int getCell ( int station, int variable, int step ) {
+		return (step*this.stationIds.length + station)*this.variableNames.length + variable;
+	}
+
+	/**
+	 * Return the number of cells, which is the length of the values for a member.
+	 */
+	public int getCellCount () {
+		return this.counts.length;
+	}
+
+	/**
+	 * Return the number of values for a cell.
+	 * @param cell cell position
+	 */
+	public synchronized int getCount ( int cell ) {
+		return this.counts[cell];
+	}
+
+	/**
+	 * Return the maximum for a cell, NaN if the cell has no values.
+	 * @param cell cell position
+	 */
+	public synchronized double getMax ( int cell ) {
+		return this.maximums[cell];
+	}
+
+	/**
+	 * Return the mean for a cell, NaN if the cell has no values.
+	 * @param cell cell position
+	 */
+	public synchronized double getMean ( int cell ) {
+		return (this.counts[cell] == 0) ? Double.NaN : this.means[cell];
+	}
+
+	/**
+	 * Return the number of members that were added, including members of merged statistics.
+	 */
+	public synchronized int getMemberCount () {
+		return this.memberCount;
+	}
+
+	/**
+	 * Return the minimum for a cell, NaN if the cell has no values.
+	 * @param cell cell position
+	 */
+	public synchronized double getMin ( int cell ) {
+		return this.minimums[cell];
+	}
+
+	/**
+	 * Return the estimate of a quantile for a cell, limited to the minimum and maximum.
+	 * @param cell cell position
+	 * @param quantile quantile, 0 to 1
+	 * @return estimated value, NaN if the cell has no values
+	 */
+	public synchronized double getQuantile ( int cell, double quantile ) {
+		double value = this.sketch.getQuantile(cell, quantile);
+		if ( Double.isNaN(value) ) {
+			return value;
+		}
+		// Values less than or equal to zero are estimated as zero, which is limited to the minimum if negative
+		return Math.max(this.minimums[cell], Math.min(this.maximums[cell], value));
+	}
+
+	/**
+	 * Return the sample standard deviation for a cell, NaN if the cell has fewer than two values.
+	 * @param cell cell position
+	 */
+	public synchronized double getStdDev ( int cell ) {
+		int count = this.counts[cell];
+		return (count < 2) ? Double.NaN : Math.sqrt(this.squaredDifferences[cell]/(count - 1));
+	}
+
+	/**
+	 * Return the station identifiers.
+	 */
+	public String [] getStationIds () {
+		return this.stationIds.clone();
+	}
+
+	/**
+	 * Return the number of time steps.
+	 */
+	public int getStepCount () {
+		return this.stepCount;
+	}
+
+	/**
+	 * Return the variable names.
+	 */
+	public String [] getVariableNames () {
+		return this.variableNames.clone();
+	}
+
+	/**
+	 * Return the name of the summary variable for a quantile, for example "RiverFlow_P10" for 0.1.
+	 */
+	private static String getQuantileName ( String variableName, double quantile ) {
+		String percent = String.format(Locale.US, "%.1f", 100.0*quantile);
+		if ( percent.endsWith(".0") ) {
+			percent = percent.substring(0, percent.length() - 2);
+		}
+		return variableName + "_P" + percent.replace('.', '_');
+	}
+
+	/**
+	 * Merge other statistics into these statistics.  The other statistics are not modified.
+	 * @param other statistics for the same stations, variables, and time steps
+	 */
+	public void merge ( StateModEnsembleStatistics other ) {
+		if ( other == this ) {
+			throw new IllegalArgumentException("Cannot merge ensemble statistics with themselves.");
+		}
+		if ( !Arrays.equals(other.stationIds, this.stationIds) || !Arrays.equals(other.variableNames, this.variableNames) ||
+			!Arrays.equals(other.lowQuantileVariables, this.lowQuantileVariables) || (other.stepCount != this.stepCount) ) {
+			throw new IllegalArgumentException("Ensemble statistics have different stations, variables, quantile accuracy, or time steps.");
+		}
+		synchronized ( other ) {
+			synchronized ( this ) {
+				for ( int cell = 0; cell < this.counts.length; cell++ ) {
+					int otherCount = other.counts[cell];
+					if ( otherCount == 0 ) {
+						continue;
+					}
+					int count = this.counts[cell];
+					if ( count == 0 ) {
+						this.means[cell] = other.means[cell];
+						this.squaredDifferences[cell] = other.squaredDifferences[cell];
+						this.minimums[cell] = other.minimums[cell];
+						this.maximums[cell] = other.maximums[cell];
+					}
+					else {
+						// Chan et al. parallel combination of mean and variance
+						double total = count + otherCount;
+						double delta = other.means[cell] - this.means[cell];
+						this.means[cell] += delta*otherCount/total;
+						this.squaredDifferences[cell] += other.squaredDifferences[cell] + delta*delta*count*otherCount/total;
+						this.minimums[cell] = Math.min(this.minimums[cell], other.minimums[cell]);
+						this.maximums[cell] = Math.max(this.maximums[cell], other.maximums[cell]);
+					}
+					this.counts[cell] = count + otherCount;
+				}
+				this.sketch.merge(other.sketch);
+				this.memberCount += other.memberCount;
+			}
+		}
+	}
+
+	/**
+	 * Write the statistics to a binary output file that can be read with StateModBinaryOutputReader.
+	 * For each variable the file has variables with the statistic appended to the variable name:
+	 * "_Mean", "_StdDev", "_Min", "_Max", and "_P" with the percent for each quantile, for example "RiverFlow_P90".
+	 * @param file file to write
+	 * @param quantiles quantiles to write, 0 to 1
+	 * @param intervalBase TimeInterval.MONTH or TimeInterval.DAY
+	 * @param year year of the first time step
+	 * @param month month of the first time step
+	 * @param day day of the first time step
+	 * @exception IOException if the file cannot be written
+	 */
+	public synchronized void write ( String file, double [] quantiles, int intervalBase, int year, int month, int day )
+		throws IOException {
+		int statisticCount = 4 + quantiles.length;
+		int variableCount = this.variableNames.length;
+		int stationCount = this.stationIds.length;
+		String [] names = new String[variableCount*statisticCount];
+		for ( int variable = 0; variable < variableCount; variable++ ) {
+			String name = this.variableNames[variable];
+			int pos = variable*statisticCount;
+			names[pos] = name + "_Mean";
+			names[pos + 1] = name + "_StdDev";
+			names[pos + 2] = name + "_Min";
+			names[pos + 3] = name + "_Max";
+			for ( int i = 0; i < quantiles.length; i++ ) {
+				names[pos + 4 + i] = getQuantileName(name, quantiles[i]);
+			}
+		}
+		double [][] values = new double[names.length][stationCount];
+		try ( StateModBinaryOutputWriter writer = new StateModBinaryOutputWriter(file, this.stationIds, names,
+			intervalBase, year, month, day) ) {
+			for ( int step = 0; step < this.stepCount; step++ ) {
+				for ( int variable = 0; variable < variableCount; variable++ ) {
+					int pos = variable*statisticCount;
+					for ( int station = 0; station < stationCount; station++ ) {
+						int cell = getCell(station, variable, step);
+						values[pos][station] = getMean(cell);
+						values[pos + 1][station] = getStdDev(cell);
+						values[pos + 2][station] = getMin(cell);
+						values[pos + 3][station] = getMax(cell);
+						for ( int i = 0; i < quantiles.length; i++ ) {
+							values[pos + 4 + i][station] = getQuantile(cell, quantiles[i]);
+						}
+					}
+				}
+				writer.writeStep(step, values);
+			}
+		}
+	}
+}
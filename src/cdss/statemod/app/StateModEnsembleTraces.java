@@ -0,0 +1,52 @@
+// StateModEnsembleTraces - hydrology traces for ensemble members
+
+
+/* NoticeStart
+
+StateMod Java
+StateMod Java is a part of Colorado's Decision Support Systems (CDSS)
+Copyright (C) 2019 Colorado Department of Natural Resources
+
+StateMod Java is free software:  you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+StateMod Java is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+    along with StateMod Java.  If not, see <https://www.gnu.org/licenses/>.
+
+NoticeEnd */
+
+package cdss.statemod.app;
+
+import java.io.IOException;
+
+/**
+ * Interface for the hydrology traces that are run as ensemble members.
+ * A trace is a monthly baseflow column that replaces the dataset baseflows for one member.
+ * Traces are created when a member starts and are released when it finishes, so only the traces for members
+ * that are running at the same time are in memory.  Implementations must allow createTrace() to be called
+ * from multiple threads and must return the same trace for a trace number each time it is called,
+ * so that ensemble results do not depend on the number of threads.
+ */
+public interface StateModEnsembleTraces {
+
+	/**
+	 * Create the monthly baseflow column for a trace.
+	 * @param trace trace number, 0 to getTraceCount()-1
+	 * @param store base time series store for the dataset, which must not be modified
+	 * @return baseflow column for the trace, with the period of the store
+	 * @exception IOException if the trace cannot be read
+	 */
+	public StateModTimeSeriesColumn createTrace ( int trace, StateModTimeSeriesStore store ) throws IOException;
+
+	/**
+	 * Return the number of traces.
+	 */
+	public int getTraceCount ();
+}
@@ -0,0 +1,161 @@
+// StateModFileFingerprint - size, modification time, and content hash of a dataset file
+
+/* NoticeStart
+
+StateMod Java
+StateMod Java is a part of Colorado's Decision Support Systems (CDSS)
+Copyright (C) 2019 Colorado Department of Natural Resources
+
+StateMod Java is free software:  you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+StateMod Java is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+    along with StateMod Java.  If not, see <https://www.gnu.org/licenses/>.
+
+NoticeEnd */
+
+package cdss.statemod.app;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.CRC32;
+
+/**
+ * Fingerprint of a dataset file, used to determine whether a file has changed since it was last read.
+ * The size and modification time are checked first because they are cheap.
+ * If the size is the same but the modification time changed (for example the file was touched or copied),
+ * the content hash is compared so that an unchanged file is not treated as changed.
+ */
+public class StateModFileFingerprint {
+
+	/**
+	 * Absolute path to the file.
+	 */
+	private final String path;
+
+	/**
+	 * File size in bytes, or -1 if the file does not exist.
+	 */
+	private final long size;
+
+	/**
+	 * File modification time in milliseconds.
+	 */
+	private final long lastModified;
+
+	/**
+	 * CRC-32 of the file contents.
+	 */
+	private final long contentHash;
+
+	/**
+	 * Constructor.
+	 * @param path absolute path to the file
+	 * @param size file size in bytes, or -1 if the file does not exist
+	 * @param lastModified file modification time in milliseconds
+	 * @param contentHash CRC-32 of the file contents
+	 */
+	public StateModFileFingerprint ( String path, long size, long lastModified, long contentHash ) {
+		this.path = path;
+		this.size = size;
+		this.lastModified = lastModified;
+		this.contentHash = contentHash;
+	}
+
+	/**
+	 * Compute the CRC-32 of a file's contents.
+	 * @param file file to process
+	 * @return the CRC-32 value
+	 * @exception IOException if the file cannot be read
+	 */
+	public static long computeContentHash ( File file ) throws IOException {
+		CRC32 crc = new CRC32();
+		byte [] buffer = new byte[65536];
+		try ( InputStream in = new FileInputStream(file) ) {
+			int n;
+			while ( (n = in.read(buffer)) > 0 ) {
+				crc.update(buffer, 0, n);
+			}
+		}
+		return crc.getValue();
+	}
+
+	/**
+	 * Create a fingerprint for a file.
+	 * @param path absolute path to the file
+	 * @return fingerprint for the file, with size -1 if the file does not exist
+	 * @exception IOException if the file cannot be read
+	 */
+	public static StateModFileFingerprint create ( String path ) throws IOException {
+		File file = new File(path);
+		if ( !file.exists() ) {
+			return new StateModFileFingerprint(path, -1, 0, 0);
+		}
+		return new StateModFileFingerprint(path, file.length(), file.lastModified(), computeContentHash(file));
+	}
+
+	/**
+	 * Return the content hash.
+	 */
+	public long getContentHash () {
+		return this.contentHash;
+	}
+
+	/**
+	 * Return the modification time.
+	 */
+	public long getLastModified () {
+		return this.lastModified;
+	}
+
+	/**
+	 * Return the path.
+	 */
+	public String getPath () {
+		return this.path;
+	}
+
+	/**
+	 * Return the size.
+	 */
+	public long getSize () {
+		return this.size;
+	}
+
+	/**
+	 * Determine whether the file on disk still matches this fingerprint.
+	 * @return true if the file is unchanged, false if changed, created, or removed
+	 * @exception IOException if the file cannot be read
+	 */
+	public boolean matchesFile () throws IOException {
+		File file = new File(this.path);
+		if ( !file.exists() ) {
+			return this.size < 0;
+		}
+		if ( (this.size < 0) || (file.length() != this.size) ) {
+			return false;
+		}
+		if ( file.lastModified() == this.lastModified ) {
+			return true;
+		}
+		// Same size but different time - check the contents
+		return computeContentHash(file) == this.contentHash;
+	}
+
+	/**
+	 * Return a string representation, useful for logging.
+	 */
+	@Override
+	public String toString () {
+		return this.path + " (size=" + this.size + ", modified=" + this.lastModified + ", crc=" + this.contentHash + ")";
+	}
+}
@@ -0,0 +1,425 @@
+// StateModFortranOutputReader - read results from a Fortran StateMod binary output file with StateMod_BTS
+
+/* NoticeStart
+
+StateMod Java
+StateMod Java is a part of Colorado's Decision Support Systems (CDSS)
+Copyright (C) 2019 Colorado Department of Natural Resources
+
+StateMod Java is free software:  you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+StateMod Java is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+    along with StateMod Java.  If not, see <https://www.gnu.org/licenses/>.
+
+NoticeEnd */
+
+package cdss.statemod.app;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import DWR.StateMod.StateMod_BTS;
+import RTi.TS.TS;
+import RTi.Util.Time.DateTime;
+import RTi.Util.Time.TimeInterval;
+
+/**
+ * Read results from a Fortran StateMod binary output file (*.b43, *.b44) using StateMod_BTS,
+ * so that Java output files can be compared with Fortran StateMod results by StateModOutputComparator.
+ * <p>
+ * StateMod_BTS reads a time series for each station and parameter in the file's station and parameter tables.
+ * The parameters are mapped onto the variable names of the Java output files, for example "River_Outflow"
+ * onto "RiverFlow" (see getDefaultParameters()), and the stations are the time series locations,
+ * so the comparator matches stations and variables by name in the same way as for Java output files.
+ * Variables whose parameter is not in the file are not listed, so the comparator reports them as not compared.
+ * Time series that are missing for a station, for example demand for a river node that is not a diversion,
+ * and missing values are read as NaN.
+ * <p>
+ * When the file is opened, only the time series headers are read to determine the stations and period.
+ * readSteps() reads each station and parameter for the requested time steps with StateMod_BTS.readTimeSeries(),
+ * so, as for StateModBinaryOutputReader, only the requested block of time steps is in memory.
+ */
+public class StateModFortranOutputReader implements StateModOutputReader {
+
+	/**
+	 * Source of the time series in a file, which is StateMod_BTS for a Fortran binary output file.
+	 * Package-private so that tests can provide time series that have already been read.
+	 */
+	interface TimeSeriesSource {
+		/**
+		 * Close the source.
+		 */
+		public void close () throws Exception;
+
+		/**
+		 * Read the time series for a parameter, for all stations, without data.
+		 * @param parameter StateMod_BTS parameter
+		 * @return time series with the parameter as data type and the station as location, empty if none
+		 */
+		public List<TS> readHeaders ( String parameter ) throws Exception;
+
+		/**
+		 * Read the data for a time series for a period.
+		 * @param header time series from readHeaders()
+		 * @param date1 first date/time to read
+		 * @param date2 last date/time to read
+		 * @return time series with data for at least the period
+		 */
+		public TS readData ( TS header, DateTime date1, DateTime date2 ) throws Exception;
+	}
+
+	/**
+	 * Path to the file, used for messages.
+	 */
+	private final String file;
+
+	/**
+	 * Source of the time series.
+	 */
+	private final TimeSeriesSource source;
+
+	/**
+	 * Interval base, TimeInterval.MONTH or TimeInterval.DAY.
+	 */
+	private final int intervalBase;
+
+	/**
+	 * Year, month, and day of the first time step.
+	 */
+	private final int startYear;
+	private final int startMonth;
+	private final int startDay;
+
+	/**
+	 * First time step, null if the file does not have time steps.
+	 */
+	private final DateTime start;
+
+	/**
+	 * Number of time steps.
+	 */
+	private final int stepCount;
+
+	/**
+	 * Station index for the time series locations, in the order first read.
+	 */
+	private final StateModStationIndex stationIndex = new StateModStationIndex();
+
+	/**
+	 * Variable names for the parameters that are in the file.
+	 */
+	private final String [] variableNames;
+
+	/**
+	 * Time series headers indexed by [station*variableCount + variable], null if the station does not have the variable.
+	 */
+	private final TS [] headers;
+
+	/**
+	 * Constructor, which reads the time series headers for the default parameters.
+	 * @param file path to the Fortran binary output file
+	 * @exception IOException if the file cannot be read
+	 */
+	public StateModFortranOutputReader ( String file ) throws IOException {
+		this(file, getDefaultParameters());
+	}
+
+	/**
+	 * Constructor, which reads the time series headers for the parameters.
+	 * @param file path to the Fortran binary output file
+	 * @param parameters StateMod_BTS parameter for each variable name, in the order of the variables
+	 * @exception IOException if the file cannot be read
+	 */
+	public StateModFortranOutputReader ( String file, Map<String,String> parameters ) throws IOException {
+		this(file, parameters, openFile(file));
+	}
+
+	/**
+	 * Constructor for time series that have been read, for example with StateMod_BTS.
+	 * @param file path to the file, used for messages
+	 * @param parameters StateMod_BTS parameter for each variable name, in the order of the variables
+	 * @param timeSeries time series with the parameters as data type and the stations as location,
+	 * all with the same interval - time series for other parameters are ignored
+	 * @exception IOException if the time series are not for the same interval
+	 */
+	StateModFortranOutputReader ( String file, Map<String,String> parameters, final List<TS> timeSeries ) throws IOException {
+		this(file, parameters, new TimeSeriesSource() {
+			@Override
+			public void close () {
+			}
+
+			@Override
+			public List<TS> readHeaders ( String parameter ) {
+				List<TS> tslist = new ArrayList<>();
+				for ( TS ts : timeSeries ) {
+					if ( ts.getDataType().equalsIgnoreCase(parameter) ) {
+						tslist.add(ts);
+					}
+				}
+				return tslist;
+			}
+
+			@Override
+			public TS readData ( TS header, DateTime date1, DateTime date2 ) {
+				return header;
+			}
+		});
+	}
+
+	/**
+	 * Constructor for a time series source, which reads the time series headers for the parameters.
+	 * The source is closed if the headers cannot be read.
+	 * @param file path to the file, used for messages
+	 * @param parameters StateMod_BTS parameter for each variable name, in the order of the variables
+	 * @param source source of the time series
+	 * @exception IOException if the headers cannot be read or the time series are not for the same interval
+	 */
+	private StateModFortranOutputReader ( String file, Map<String,String> parameters, TimeSeriesSource source )
+		throws IOException {
+		this.file = file;
+		this.source = source;
+		try {
+			// Group the time series by variable, for the variables that have time series
+			Map<String,List<TS>> variableTimeSeries = new LinkedHashMap<>();
+			for ( Map.Entry<String,String> entry : parameters.entrySet() ) {
+				List<TS> tslist;
+				try {
+					tslist = source.readHeaders(entry.getValue());
+				}
+				catch ( Exception e ) {
+					throw new IOException("Error reading Fortran StateMod binary output file \"" + file + "\" (" + e + ").", e);
+				}
+				if ( (tslist != null) && !tslist.isEmpty() ) {
+					variableTimeSeries.put(entry.getKey(), tslist);
+				}
+			}
+			List<String> variables = new ArrayList<>(variableTimeSeries.keySet());
+			DateTime date1 = null;
+			DateTime date2 = null;
+			int base = TimeInterval.MONTH;
+			for ( List<TS> tslist : variableTimeSeries.values() ) {
+				for ( TS ts : tslist ) {
+					this.stationIndex.add(ts.getLocation());
+					if ( date1 == null ) {
+						date1 = ts.getDate1();
+						date2 = ts.getDate2();
+						base = ts.getDataIntervalBase();
+					}
+					else if ( ts.getDataIntervalBase() != base ) {
+						throw new IOException("Time series in \"" + file + "\" have different time intervals.");
+					}
+				}
+			}
+			if ( (base != TimeInterval.MONTH) && (base != TimeInterval.DAY) ) {
+				throw new IOException("Time series in \"" + file + "\" are not monthly or daily.");
+			}
+			this.intervalBase = base;
+			this.variableNames = variables.toArray(new String[variables.size()]);
+			if ( date1 == null ) {
+				this.start = null;
+				this.startYear = 0;
+				this.startMonth = 1;
+				this.startDay = 1;
+				this.stepCount = 0;
+			}
+			else {
+				this.start = new DateTime(date1);
+				this.startYear = date1.getYear();
+				this.startMonth = date1.getMonth();
+				this.startDay = (base == TimeInterval.DAY) ? date1.getDay() : 1;
+				this.stepCount = getStep(date2) + 1;
+			}
+			int variableCount = this.variableNames.length;
+			this.headers = new TS[this.stationIndex.size()*variableCount];
+			for ( int variable = 0; variable < variableCount; variable++ ) {
+				for ( TS ts : variableTimeSeries.get(this.variableNames[variable]) ) {
+					this.headers[this.stationIndex.getIndex(ts.getLocation())*variableCount + variable] = ts;
+				}
+			}
+		}
+		catch ( IOException | RuntimeException e ) {
+			try {
+				source.close();
+			}
+			catch ( Exception e2 ) {
+				// Ignore - the original error is reported
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Close the file.
+	 * @exception IOException if there is an error closing the file
+	 */
+	@Override
+	public void close () throws IOException {
+		try {
+			this.source.close();
+		}
+		catch ( IOException e ) {
+			throw e;
+		}
+		catch ( Exception e ) {
+			throw new IOException("Error closing \"" + this.file + "\" (" + e + ").", e);
+		}
+	}
+
+	/**
+	 * Return the date/time of a time step.
+	 */
+	private DateTime getDate ( int step ) {
+		DateTime date = new DateTime(this.start);
+		date.addInterval(this.intervalBase, step);
+		return date;
+	}
+
+	/**
+	 * Return the default StateMod_BTS parameters for the variables of the Java output files, by variable name:
+	 * river nodes (*.b43) "RiverFlow" = "River_Outflow", "Demand" = "Total_Demand", "Diverted" = "Total_Supply",
+	 * "Shortage" = "Total_Short", and reservoirs (*.b44) "Content" = "Sim_EOM".
+	 * Parameters that are not in a file are ignored, so the same parameters can be used for both files.
+	 * The returned map can be modified.
+	 */
+	public static Map<String,String> getDefaultParameters () {
+		Map<String,String> parameters = new LinkedHashMap<>();
+		parameters.put("RiverFlow", "River_Outflow");
+		parameters.put("Demand", "Total_Demand");
+		parameters.put("Diverted", "Total_Supply");
+		parameters.put("Shortage", "Total_Short");
+		parameters.put("Content", "Sim_EOM");
+		return parameters;
+	}
+
+	@Override
+	public int getIntervalBase () {
+		return this.intervalBase;
+	}
+
+	@Override
+	public int getStartDay () {
+		return this.startDay;
+	}
+
+	@Override
+	public int getStartMonth () {
+		return this.startMonth;
+	}
+
+	@Override
+	public int getStartYear () {
+		return this.startYear;
+	}
+
+	@Override
+	public StateModStationIndex getStationIndex () {
+		return this.stationIndex;
+	}
+
+	/**
+	 * Return the time step for a date, relative to the first time step.
+	 */
+	private int getStep ( DateTime date ) {
+		if ( this.intervalBase == TimeInterval.DAY ) {
+			return (int)(LocalDate.of(date.getYear(), date.getMonth(), date.getDay()).toEpochDay() -
+				LocalDate.of(this.startYear, this.startMonth, this.startDay).toEpochDay());
+		}
+		return (date.getYear()*12 + date.getMonth()) - (this.startYear*12 + this.startMonth);
+	}
+
+	@Override
+	public int getStepCount () {
+		return this.stepCount;
+	}
+
+	@Override
+	public String [] getVariableNames () {
+		return this.variableNames;
+	}
+
+	/**
+	 * Open a Fortran binary output file with StateMod_BTS.
+	 * @exception IOException if the file cannot be opened
+	 */
+	private static TimeSeriesSource openFile ( String file ) throws IOException {
+		final StateMod_BTS bts;
+		try {
+			bts = new StateMod_BTS(file);
+		}
+		catch ( Exception e ) {
+			throw new IOException("Error reading Fortran StateMod binary output file \"" + file + "\" (" + e + ").", e);
+		}
+		return new TimeSeriesSource() {
+			@Override
+			public void close () throws Exception {
+				bts.close();
+			}
+
+			@Override
+			public List<TS> readHeaders ( String parameter ) throws Exception {
+				boolean readData = false;
+				return bts.readTimeSeriesList("*.*." + parameter + ".*.*", null, null, null, readData);
+			}
+
+			@Override
+			public TS readData ( TS header, DateTime date1, DateTime date2 ) throws Exception {
+				boolean readData = true;
+				return bts.readTimeSeries(header.getIdentifierString(), date1, date2, null, readData);
+			}
+		};
+	}
+
+	/**
+	 * Read all values for consecutive time steps, reading each station and parameter for the time steps.
+	 */
+	@Override
+	public void readSteps ( int firstStep, int stepCount, float [] values ) throws IOException {
+		if ( (firstStep < 0) || (stepCount < 0) || ((firstStep + stepCount) > this.stepCount) ) {
+			throw new IllegalArgumentException("Time steps " + firstStep + " to " + (firstStep + stepCount - 1) +
+				" are not in the file, which has " + this.stepCount + " time steps.");
+		}
+		int stepValueCount = this.headers.length;
+		Arrays.fill(values, 0, stepCount*stepValueCount, Float.NaN);
+		if ( stepCount == 0 ) {
+			return;
+		}
+		DateTime date1 = getDate(firstStep);
+		DateTime date2 = getDate(firstStep + stepCount - 1);
+		for ( int i = 0; i < stepValueCount; i++ ) {
+			if ( this.headers[i] == null ) {
+				continue;
+			}
+			TS ts;
+			try {
+				ts = this.source.readData(this.headers[i], date1, date2);
+			}
+			catch ( Exception e ) {
+				throw new IOException("Error reading \"" + this.headers[i].getIdentifierString() + "\" from \"" +
+					this.file + "\" (" + e + ").", e);
+			}
+			if ( ts == null ) {
+				continue;
+			}
+			DateTime date = new DateTime(date1);
+			for ( int step = 0; step < stepCount; step++, date.addInterval(this.intervalBase, 1) ) {
+				double value = ts.getDataValue(date);
+				if ( !ts.isDataMissing(value) ) {
+					values[step*stepValueCount + i] = (float)value;
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,183 @@
+// StateModIdRegistry - intern dataset identifiers as dense integers
+
+
+/* NoticeStart
+
+StateMod Java
+StateMod Java is a part of Colorado's Decision Support Systems (CDSS)
+Copyright (C) 2019 Colorado Department of Natural Resources
+
+StateMod Java is free software:  you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+StateMod Java is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+    along with StateMod Java.  If not, see <https://www.gnu.org/licenses/>.
+
+NoticeEnd */
+
+package cdss.statemod.app;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import DWR.StateMod.StateMod_DataSet;
+import DWR.StateMod.StateMod_Right;
+import DWR.StateMod.StateMod_RiverNetworkNode;
+
+/**
+ * Registry that interns the station, right, and river node identifiers of a dataset as dense integers
+ * 0 to size()-1, created once after the dataset is read.
+ * Station indexes that use the same registry map identifiers to positions with primitive int maps,
+ * and can be mapped to each other without string lookups (see StateModStationIndex.mapPositions()).
+ * Each identifier is stored once, so the compiled network, rights, and time series store
+ * share identifier strings rather than holding the duplicates in the dataset objects.
+ * <p>
+ * Identifiers are only added, never removed, so a registry can be shared by runners for the same dataset,
+ * including runners created when changed dataset files are read again.
+ * The registry is safe for use by more than one thread.
+ */
+public class StateModIdRegistry {
+
+	/**
+	 * Identifier to registry number.
+	 */
+	private final ConcurrentHashMap<String,Integer> numbers;
+
+	/**
+	 * Identifiers in registry number order, with unused capacity at the end.
+	 * Replaced when full, with writes guarded by synchronizing on the registry.
+	 */
+	private volatile String [] ids;
+
+	/**
+	 * Number of identifiers in the registry, guarded by synchronizing on the registry.
+	 */
+	private int size = 0;
+
+	/**
+	 * Constructor.
+	 * @param expectedSize number of identifiers expected, used to size the registry
+	 */
+	public StateModIdRegistry ( int expectedSize ) {
+		int capacity = Math.max(16, expectedSize);
+		this.numbers = new ConcurrentHashMap<>(capacity);
+		this.ids = new String[capacity];
+	}
+
+	/**
+	 * Add an identifier if not already in the registry.
+	 * @param id identifier
+	 * @return registry number for the identifier
+	 */
+	public int add ( String id ) {
+		Integer number = this.numbers.get(id);
+		if ( number != null ) {
+			return number;
+		}
+		synchronized ( this ) {
+			number = this.numbers.get(id);
+			if ( number != null ) {
+				return number;
+			}
+			String [] ids = this.ids;
+			if ( this.size == ids.length ) {
+				ids = Arrays.copyOf(ids, 2*ids.length);
+			}
+			ids[this.size] = id;
+			// Publish the array before the number so that getId() finds the identifier
+			this.ids = ids;
+			this.numbers.put(id, this.size);
+			return this.size++;
+		}
+	}
+
+	/**
+	 * Add the identifiers of the river network and rights components of a dataset, which are needed for all run modes.
+	 * Identifiers from other components, such as time series, are added when station indexes are created.
+	 * @param dataset dataset that has been read
+	 */
+	private void addDataSetIds ( StateMod_DataSet dataset ) {
+		List<?> nodes = StateModDataSetLoader.getComponentData(dataset, StateMod_DataSet.COMP_RIVER_NETWORK);
+		if ( nodes != null ) {
+			for ( Object o : nodes ) {
+				add(((StateMod_RiverNetworkNode)o).getID());
+			}
+		}
+		int [] rightCompTypes = {
+			StateMod_DataSet.COMP_DIVERSION_RIGHTS,
+			StateMod_DataSet.COMP_RESERVOIR_RIGHTS,
+			StateMod_DataSet.COMP_INSTREAM_RIGHTS,
+			StateMod_DataSet.COMP_WELL_RIGHTS
+		};
+		for ( int compType : rightCompTypes ) {
+			List<?> rights = StateModDataSetLoader.getComponentData(dataset, compType);
+			if ( rights == null ) {
+				continue;
+			}
+			for ( Object o : rights ) {
+				StateMod_Right right = (StateMod_Right)o;
+				add(right.getLocationIdentifier());
+				add(right.getIdentifier());
+			}
+		}
+	}
+
+	/**
+	 * Create the registry for a dataset that has been read.
+	 * @param dataset dataset that has been read
+	 * @return new registry
+	 */
+	public static StateModIdRegistry createFromDataSet ( StateMod_DataSet dataset ) {
+		String routine = StateModIdRegistry.class.getSimpleName() + ".createFromDataSet";
+		List<?> nodes = StateModDataSetLoader.getComponentData(dataset, StateMod_DataSet.COMP_RIVER_NETWORK);
+		// Rights and time series stations are mostly network nodes, so size for a few times the node count
+		StateModIdRegistry registry = new StateModIdRegistry((nodes == null) ? 0 : 4*nodes.size());
+		registry.addDataSetIds(dataset);
+		StateModLogger.printStatus(2, routine, "Registered " + registry.size() + " station, right, and node identifiers.");
+		return registry;
+	}
+
+	/**
+	 * Return the identifier for a registry number.
+	 * @param number registry number 0 to size()-1
+	 */
+	public String getId ( int number ) {
+		return this.ids[number];
+	}
+
+	/**
+	 * Return the registry number for an identifier, or -1 if not in the registry.
+	 * @param id identifier
+	 */
+	public int getNumber ( String id ) {
+		Integer number = this.numbers.get(id);
+		if ( number == null ) {
+			return -1;
+		}
+		return number;
+	}
+
+	/**
+	 * Return the registered instance of an identifier, adding the identifier if necessary,
+	 * so that equal identifiers share one string.
+	 * @param id identifier
+	 */
+	public String intern ( String id ) {
+		return getId(add(id));
+	}
+
+	/**
+	 * Return the number of identifiers in the registry.
+	 */
+	public synchronized int size () {
+		return this.size;
+	}
+}
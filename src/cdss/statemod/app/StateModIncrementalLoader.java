@@ -0,0 +1,308 @@
+// StateModIncrementalLoader - keep a loaded dataset and read again only the files that have changed
+
+/* NoticeStart
+
+StateMod Java
+StateMod Java is a part of Colorado's Decision Support Systems (CDSS)
+Copyright (C) 2019 Colorado Department of Natural Resources
+
+StateMod Java is free software:  you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+StateMod Java is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+    along with StateMod Java.  If not, see <https://www.gnu.org/licenses/>.
+
+NoticeEnd */
+
+package cdss.statemod.app;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import DWR.StateMod.StateMod_DataSet;
+import RTi.Util.IO.DataSetComponent;
+
+/**
+ * Keep a loaded dataset and its derived data (time series store, network, and rights), and when requested,
+ * read again only the files that have changed since they were read, for example when calibrating by editing
+ * one or two files and running again.
+ * <p>
+ * A fingerprint (StateModFileFingerprint) of the response file and each file in the response file is saved when
+ * the dataset is read.  When the runner is requested again, the fingerprints are checked and, if files have changed,
+ * a new dataset is created from the response file that shares the unchanged components of the previous dataset
+ * and reads only the changed components.  The changed components are connected to the shared stations
+ * (StateModDataSetLoader.connectComponent()): changed rights replace the rights of the stations, changed time series
+ * are connected to the stations, and changed stations are connected to the shared rights.  The runs use the store and
+ * the rights list rather than the station references, so the references of the previous dataset's stations can change.
+ * Derived data are created again only if they depend on a changed component:
+ * the network if the river network changed, the rights if a rights file changed (or the network, since rights refer
+ * to network nodes), and the store columns for the data types that use a changed time series file.
+ * A data type that is read from more than one component (gage and estimate baseflows, which are normally in the same file)
+ * reads all of its components, because the time series objects are released once the store is created.
+ * <p>
+ * The whole dataset is read again if the response file or control file changed, if a changed component cannot
+ * be read separately (see StateModDataSetLoader.isReadableComponent()), or if the store period is not from the control file.
+ * The previous dataset's components and derived data are not modified, so runs that are using them are not affected.
+ */
+public class StateModIncrementalLoader {
+
+	/**
+	 * Absolute path to the response file.
+	 */
+	private final String responseFile;
+
+	/**
+	 * Loader used to read the whole dataset.
+	 */
+	private final StateModDataSetLoader loader;
+
+	/**
+	 * Number of threads used by runners to run tributary reaches and independent sub-basins.
+	 */
+	private final int threads;
+
+	/**
+	 * Base runner for the current dataset, or null if the dataset has not been read.
+	 */
+	private StateModRunner runner = null;
+
+	/**
+	 * Fingerprints of the response file and dataset files when they were read, by path, response file first.
+	 */
+	private final Map<String,StateModFileFingerprint> fingerprints = new LinkedHashMap<>();
+
+	/**
+	 * Number of components read by the last load, or -1 if the whole dataset was read.
+	 */
+	private int lastReadComponentCount = -1;
+
+	/**
+	 * Constructor.  The dataset is read when getRunner() is first called.
+	 * @param responseFile absolute path to the response file
+	 * @param loader loader used to read the whole dataset, which is set to fingerprint the files before reading them
+	 * @param threads number of threads used by runners to run tributary reaches and independent sub-basins
+	 */
+	public StateModIncrementalLoader ( String responseFile, StateModDataSetLoader loader, int threads ) {
+		this.responseFile = responseFile;
+		this.loader = loader;
+		this.threads = threads;
+		loader.setFingerprintFiles(true);
+	}
+
+	/**
+	 * Create a base runner for a dataset.
+	 */
+	private StateModRunner createRunner ( StateMod_DataSet dataset ) {
+		StateModRunner runner = new StateModRunner(dataset);
+		runner.setOutputFileBase(StateModRunner.getOutputFileBase(this.responseFile));
+		runner.setThreads(this.threads);
+		return runner;
+	}
+
+	/**
+	 * Return the files that have changed since they were read.
+	 */
+	private List<String> getChangedFiles () throws Exception {
+		List<String> changedFiles = new ArrayList<>();
+		for ( StateModFileFingerprint fingerprint : this.fingerprints.values() ) {
+			if ( !fingerprint.matchesFile() ) {
+				changedFiles.add(fingerprint.getPath());
+			}
+		}
+		return changedFiles;
+	}
+
+	/**
+	 * Return the number of components read by the last load, or -1 if the whole dataset was read.
+	 */
+	public int getLastReadComponentCount () {
+		return this.lastReadComponentCount;
+	}
+
+	/**
+	 * Return the response file.
+	 */
+	public String getResponseFile () {
+		return this.responseFile;
+	}
+
+	/**
+	 * Return the base runner for the dataset, reading the dataset the first time and, after that,
+	 * reading again the files that have changed.
+	 * @return base runner holding the shared dataset, time series store, network, and rights
+	 * @exception Exception if the dataset cannot be read
+	 */
+	public synchronized StateModRunner getRunner () throws Exception {
+		String routine = getClass().getSimpleName() + ".getRunner";
+		if ( this.runner == null ) {
+			this.runner = readAll();
+			return this.runner;
+		}
+		List<String> changedFiles = getChangedFiles();
+		if ( changedFiles.isEmpty() ) {
+			return this.runner;
+		}
+		StateModLogger.printStatus(2, routine, changedFiles.size() + " files have changed: " + changedFiles);
+		StateModRunner reloaded = readChanged(changedFiles);
+		this.runner = (reloaded == null) ? readAll() : reloaded;
+		return this.runner;
+	}
+
+	/**
+	 * Read the whole dataset and save the file fingerprints.
+	 */
+	private StateModRunner readAll () throws Exception {
+		String routine = getClass().getSimpleName() + ".readAll";
+		long start = System.currentTimeMillis();
+		this.fingerprints.clear();
+		// The loader fingerprints all files before reading so that a file that is edited while reading is read again next time
+		StateMod_DataSet dataset = this.loader.readDataSet(this.responseFile);
+		for ( StateModFileFingerprint fingerprint : StateModDataSetLoader.getFingerprints(dataset) ) {
+			this.fingerprints.put(fingerprint.getPath(), fingerprint);
+		}
+		StateModRunner runner = createRunner(dataset);
+		runner.getTimeSeriesStore().releaseDataSetTimeSeries(dataset);
+		runner.getNetwork();
+		runner.getRightList();
+		this.lastReadComponentCount = -1;
+		StateModLogger.printStatus(2, routine, "Read dataset \"" + this.responseFile + "\" in " + (System.currentTimeMillis() - start) + " ms.");
+		return runner;
+	}
+
+	/**
+	 * Create a new dataset and derived data, reading only the changed components.
+	 * @param changedFiles files that have changed
+	 * @return new base runner, or null if the whole dataset must be read
+	 */
+	@SuppressWarnings("try")
+	private StateModRunner readChanged ( List<String> changedFiles ) throws Exception {
+		String routine = getClass().getSimpleName() + ".readChanged";
+		long start = System.currentTimeMillis();
+		if ( changedFiles.contains(this.responseFile) ) {
+			StateModLogger.printStatus(2, routine, "Response file has changed - reading the whole dataset.");
+			return null;
+		}
+		// Fingerprint before reading so that a file that is edited while reading is read again next time
+		List<StateModFileFingerprint> changedFingerprints = new ArrayList<>();
+		for ( String file : changedFiles ) {
+			changedFingerprints.add(StateModFileFingerprint.create(file));
+		}
+		StateMod_DataSet oldDataSet = this.runner.getDataSet();
+		// Determine the changed components
+		Set<Integer> changedComps = new HashSet<>();
+		for ( DataSetComponent comp : StateModDataSetLoader.getFileComponents(oldDataSet) ) {
+			if ( changedFiles.contains(oldDataSet.getDataFilePathAbsolute(comp)) ) {
+				int compType = comp.getComponentType();
+				if ( (compType == StateMod_DataSet.COMP_CONTROL) || !StateModDataSetLoader.isReadableComponent(compType) ) {
+					StateModLogger.printStatus(2, routine, "Component \"" + comp.getComponentName() +
+						"\" cannot be read separately - reading the whole dataset.");
+					return null;
+				}
+				changedComps.add(compType);
+			}
+		}
+		// Time series objects are released when the store is created, so all components of a changed data type are read
+		Set<Integer> readComps = new HashSet<>(changedComps);
+		for ( StateModTimeSeriesType type : StateModTimeSeriesStore.getTypesForComponents(changedComps) ) {
+			for ( int compType : type.getComponentTypes() ) {
+				readComps.add(compType);
+			}
+		}
+		// Read the response file and share or read each component
+		StateMod_DataSet dataset;
+		StateModLazyDataSet lazyDataSet = null;
+		StateModLazyDataSet oldLazyDataSet = (oldDataSet instanceof StateModLazyDataSet) ? (StateModLazyDataSet)oldDataSet : null;
+		if ( oldLazyDataSet != null ) {
+			lazyDataSet = StateModLazyDataSet.readCatalog(this.responseFile, this.loader.getMetrics());
+			dataset = lazyDataSet;
+		}
+		else {
+			dataset = new StateMod_DataSet();
+			boolean readData = false;
+			boolean readTimeSeries = false;
+			StateModDataSetLoader.readResponseFile(dataset, this.responseFile, readData, readTimeSeries);
+		}
+		int readCount = 0;
+		for ( DataSetComponent comp : StateModDataSetLoader.getFileComponents(dataset) ) {
+			int compType = comp.getComponentType();
+			if ( readComps.contains(compType) ) {
+				if ( lazyDataSet != null ) {
+					// Read when first used
+					continue;
+				}
+				String path = dataset.getDataFilePathAbsolute(comp);
+				if ( new File(path).exists() ) {
+					try ( StateModMetrics.Timer timer = StateModMetrics.startPhase(this.loader.getMetrics(), "ReadComponent " + comp.getComponentName()) ) {
+						comp.setData(StateModDataSetLoader.readComponentData(dataset, compType, path));
+					}
+					comp.setDirty(false);
+					++readCount;
+				}
+				continue;
+			}
+			DataSetComponent oldComp = oldDataSet.getComponentForComponentType(compType);
+			if ( oldComp == null ) {
+				continue;
+			}
+			if ( lazyDataSet != null ) {
+				if ( oldLazyDataSet.isComponentLoaded(compType) ) {
+					lazyDataSet.setLoadedComponentData(compType, oldComp.getData());
+				}
+			}
+			else {
+				comp.setData(oldComp.getData());
+				comp.setDirty(false);
+			}
+		}
+		if ( lazyDataSet == null ) {
+			// Connect only the components that were read (a lazy dataset connects as components are read)
+			for ( int compType : readComps ) {
+				StateModDataSetLoader.connectComponent(dataset, compType);
+			}
+		}
+		// Create the derived data that depend on changed components and share the rest
+		StateModTimeSeriesStore store = this.runner.getTimeSeriesStore().copyWithDataSetChanges(dataset,
+			StateModTimeSeriesStore.getTypesForComponents(readComps));
+		if ( store == null ) {
+			StateModLogger.printStatus(2, routine, "Time series period is not from the control file - reading the whole dataset.");
+			return null;
+		}
+		StateModRunner runner = createRunner(dataset);
+		// Identifiers are only added to the registry so it can be shared with the previous runner
+		runner.setIdRegistry(this.runner.getIdRegistry());
+		runner.setTimeSeriesStore(store);
+		store.releaseDataSetTimeSeries(dataset);
+		boolean networkChanged = changedComps.contains(StateMod_DataSet.COMP_RIVER_NETWORK);
+		if ( !networkChanged ) {
+			runner.setNetwork(this.runner.getNetwork());
+		}
+		runner.getNetwork();
+		if ( !networkChanged && !changedComps.contains(StateMod_DataSet.COMP_DIVERSION_RIGHTS) &&
+			!changedComps.contains(StateMod_DataSet.COMP_RESERVOIR_RIGHTS) &&
+			!changedComps.contains(StateMod_DataSet.COMP_INSTREAM_RIGHTS) &&
+			!changedComps.contains(StateMod_DataSet.COMP_WELL_RIGHTS) ) {
+			runner.setRightList(this.runner.getRightList());
+		}
+		runner.getRightList();
+		for ( StateModFileFingerprint fingerprint : changedFingerprints ) {
+			this.fingerprints.put(fingerprint.getPath(), fingerprint);
+		}
+		StateModDataSetLoader.setFingerprints(dataset, new ArrayList<>(this.fingerprints.values()));
+		this.lastReadComponentCount = readCount;
+		StateModLogger.printStatus(2, routine, "Read " + readCount + " changed components of \"" + this.responseFile + "\" in " +
+			(System.currentTimeMillis() - start) + " ms" + (networkChanged ? ", network changed." : "."));
+		return runner;
+	}
+}
@@ -0,0 +1,148 @@
+// StateModIntIntMap - map of int keys to int values without boxing
+
+
+/* NoticeStart
+
+StateMod Java
+StateMod Java is a part of Colorado's Decision Support Systems (CDSS)
+Copyright (C) 2019 Colorado Department of Natural Resources
+
+StateMod Java is free software:  you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+StateMod Java is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+    along with StateMod Java.  If not, see <https://www.gnu.org/licenses/>.
+
+NoticeEnd */
+
+package cdss.statemod.app;
+
+import java.util.Arrays;
+
+/**
+ * Hash map of non-negative int keys to int values, stored in primitive arrays using open addressing
+ * so that lookups do not box keys or values.
+ * This is used to map identifier registry numbers to array positions.
+ * The map is not synchronized.
+ */
+public class StateModIntIntMap {
+
+	/**
+	 * Value returned by get() for a key that is not in the map.
+	 */
+	public static final int NOT_FOUND = -1;
+
+	/**
+	 * Keys, -1 for an empty slot.  The length is a power of 2.
+	 */
+	private int [] keys;
+
+	/**
+	 * Values, for the slot of the key.
+	 */
+	private int [] values;
+
+	/**
+	 * Number of keys in the map.
+	 */
+	private int size = 0;
+
+	/**
+	 * Constructor.
+	 * @param expectedSize number of keys expected, used to size the arrays
+	 */
+	public StateModIntIntMap ( int expectedSize ) {
+		// Keep the load factor at or below 1/2
+		int capacity = 8;
+		while ( capacity < 2*expectedSize ) {
+			capacity *= 2;
+		}
+		this.keys = new int[capacity];
+		this.values = new int[capacity];
+		Arrays.fill(this.keys, -1);
+	}
+
+	/**
+	 * Return the value for a key, or NOT_FOUND if the key is not in the map.
+	 * @param key non-negative key
+	 */
+	public int get ( int key ) {
+		int mask = this.keys.length - 1;
+		for ( int slot = hash(key) & mask; ; slot = (slot + 1) & mask ) {
+			int k = this.keys[slot];
+			if ( k == key ) {
+				return this.values[slot];
+			}
+			else if ( k < 0 ) {
+				return NOT_FOUND;
+			}
+		}
+	}
+
+	/**
+	 * Spread the key bits so that sequential keys do not fill adjacent slots.
+	 */
+	private static int hash ( int key ) {
+		int h = key*0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	/**
+	 * Set the value for a key, replacing the previous value.
+	 * @param key non-negative key
+	 * @param value value for the key
+	 */
+	public void put ( int key, int value ) {
+		if ( key < 0 ) {
+			throw new IllegalArgumentException("Key (" + key + ") must be non-negative.");
+		}
+		if ( 2*(this.size + 1) > this.keys.length ) {
+			resize();
+		}
+		int mask = this.keys.length - 1;
+		for ( int slot = hash(key) & mask; ; slot = (slot + 1) & mask ) {
+			int k = this.keys[slot];
+			if ( k == key ) {
+				this.values[slot] = value;
+				return;
+			}
+			else if ( k < 0 ) {
+				this.keys[slot] = key;
+				this.values[slot] = value;
+				++this.size;
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Double the capacity and insert the keys again.
+	 */
+	private void resize () {
+		int [] oldKeys = this.keys;
+		int [] oldValues = this.values;
+		this.keys = new int[2*oldKeys.length];
+		this.values = new int[2*oldKeys.length];
+		Arrays.fill(this.keys, -1);
+		this.size = 0;
+		for ( int i = 0; i < oldKeys.length; i++ ) {
+			if ( oldKeys[i] >= 0 ) {
+				put(oldKeys[i], oldValues[i]);
+			}
+		}
+	}
+
+	/**
+	 * Return the number of keys in the map.
+	 */
+	public int size () {
+		return this.size;
+	}
+}
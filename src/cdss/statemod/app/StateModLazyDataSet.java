@@ -0,0 +1,199 @@
+// StateModLazyDataSet - dataset that reads each component the first time it is used
+
+/* NoticeStart
+
+StateMod Java
+StateMod Java is a part of Colorado's Decision Support Systems (CDSS)
+Copyright (C) 2019 Colorado Department of Natural Resources
+
+StateMod Java is free software:  you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+StateMod Java is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+    along with StateMod Java.  If not, see <https://www.gnu.org/licenses/>.
+
+NoticeEnd */
+
+package cdss.statemod.app;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import DWR.StateMod.StateMod_DataSet;
+import RTi.Util.IO.DataSetComponent;
+
+/**
+ * Dataset for which only the response file and control information are read initially,
+ * and each data component is read the first time it is requested with StateModDataSetLoader.getComponentData().
+ * Run modes that do not use a component, for example daily time series for a monthly simulation,
+ * do not read it or hold it in memory.
+ * <p>
+ * Components are read with StateModDataSetLoader.readComponentData(), which reads the station, right, network,
+ * and time series files.  Other components are not read and have only the information from the response file.
+ * As each station, right, or time series component is read, it is connected to the components of its station group
+ * that have already been read (StateModDataSetLoader.connectComponent()), so that once a group has been read
+ * the stations are connected in the same way as for StateMod_DataSet.readStateModFile().
+ * A component can be requested from any thread - each component is read once and other threads
+ * requesting the same component wait for the read.
+ */
+public class StateModLazyDataSet extends StateMod_DataSet {
+
+	/**
+	 * Logger for run-time messages.
+	 */
+	private static final StateModLogger LOG = StateModLogger.getLogger(StateModLazyDataSet.class);
+
+	/**
+	 * Reads that have been started, by component type.
+	 */
+	private final ConcurrentHashMap<Integer,FutureTask<Boolean>> loads = new ConcurrentHashMap<>();
+
+	/**
+	 * Whether components are read when requested, which is enabled after the response file has been read.
+	 */
+	private volatile boolean lazy = false;
+
+	/**
+	 * Metrics that component reads are recorded in, or null to not record.
+	 */
+	private StateModMetrics metrics = null;
+
+	/**
+	 * Constructor.  Use readCatalog() to create a dataset from a response file.
+	 */
+	public StateModLazyDataSet () {
+		super();
+	}
+
+	/**
+	 * Return the number of components that have been read.
+	 */
+	public int getLoadedComponentCount () {
+		return this.loads.size();
+	}
+
+	/**
+	 * Return whether a component has been read or is being read.
+	 * @param compType StateMod_DataSet.COMP_* component type
+	 */
+	public boolean isComponentLoaded ( int compType ) {
+		return this.loads.containsKey(compType);
+	}
+
+	/**
+	 * Read a component if it has not been read.
+	 * @param compType StateMod_DataSet.COMP_* component type
+	 * @exception RuntimeException if the component file cannot be read
+	 */
+	public void loadComponent ( final int compType ) {
+		if ( !this.lazy ) {
+			return;
+		}
+		FutureTask<Boolean> task = this.loads.get(compType);
+		if ( task == null ) {
+			FutureTask<Boolean> newTask = new FutureTask<>(new Callable<Boolean>() {
+				@Override
+				public Boolean call () throws Exception {
+					return readComponent(compType);
+				}
+			});
+			task = this.loads.putIfAbsent(compType, newTask);
+			if ( task == null ) {
+				task = newTask;
+				task.run();
+			}
+		}
+		try {
+			task.get();
+		}
+		catch ( InterruptedException e ) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted reading component type " + compType + ".", e);
+		}
+		catch ( ExecutionException e ) {
+			DataSetComponent comp = getComponentForComponentType(compType);
+			throw new RuntimeException("Error reading component \"" + comp.getComponentName() + "\" from \"" +
+				comp.getDataFileName() + "\".", e.getCause());
+		}
+	}
+
+	/**
+	 * Read the response file and control information, without reading the data components.
+	 * @param responseFile absolute path to the response file
+	 * @param metrics metrics that component reads are recorded in, for example those of the run that reads the dataset,
+	 * or null to not record
+	 * @return dataset that reads components when requested
+	 * @exception Exception if the response file cannot be read
+	 */
+	public static StateModLazyDataSet readCatalog ( String responseFile, StateModMetrics metrics ) throws Exception {
+		StateModLazyDataSet dataset = new StateModLazyDataSet();
+		dataset.metrics = metrics;
+		boolean readData = false;
+		boolean readTimeSeries = false;
+		StateModDataSetLoader.readResponseFile(dataset, responseFile, readData, readTimeSeries);
+		dataset.lazy = true;
+		return dataset;
+	}
+
+	/**
+	 * Set the data for a component that was read previously, for example by StateModIncrementalLoader
+	 * for an unchanged file, so that the component is not read again.
+	 * This should be called before the dataset is used by other threads.
+	 * @param compType StateMod_DataSet.COMP_* component type
+	 * @param data component data
+	 */
+	public void setLoadedComponentData ( int compType, Object data ) {
+		DataSetComponent comp = getComponentForComponentType(compType);
+		if ( comp == null ) {
+			return;
+		}
+		comp.setData(data);
+		comp.setDirty(false);
+		FutureTask<Boolean> task = new FutureTask<>(new Callable<Boolean>() {
+			@Override
+			public Boolean call () {
+				return Boolean.TRUE;
+			}
+		});
+		task.run();
+		this.loads.put(compType, task);
+	}
+
+	/**
+	 * Read a component and set its data.
+	 * @return true if the component was read, false if it has no file or cannot be read separately
+	 */
+	@SuppressWarnings("try")
+	private boolean readComponent ( int compType ) throws Exception {
+		DataSetComponent comp = getComponentForComponentType(compType);
+		String path = StateModDataSetLoader.getComponentFile(this, compType);
+		if ( (comp == null) || (path == null) || !new File(path).exists() ||
+			!StateModDataSetLoader.isReadableComponent(compType) ) {
+			return false;
+		}
+		List<?> data;
+		try ( StateModMetrics.Timer timer = StateModMetrics.startPhase(this.metrics, "ReadComponent " + comp.getComponentName()) ) {
+			data = StateModDataSetLoader.readComponentData(this, compType, path);
+		}
+		// Set and connect with the dataset locked since other components may be read at the same time
+		synchronized ( this ) {
+			comp.setData((data == null) ? new ArrayList<Object>() : data);
+			comp.setDirty(false);
+			StateModDataSetLoader.connectComponent(this, compType);
+		}
+		LOG.info("Read component \"{}\" when first used ({} objects).", comp.getComponentName(), (data == null) ? 0 : data.size());
+		return true;
+	}
+}
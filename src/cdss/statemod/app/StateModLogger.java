@@ -0,0 +1,423 @@
+// StateModLogger - logger with SLF4J-style methods that writes to the Message class, optionally asynchronously
+
+/* NoticeStart
+
+StateMod Java
+StateMod Java is a part of Colorado's Decision Support Systems (CDSS)
+Copyright (C) 2019 Colorado Department of Natural Resources
+
+StateMod Java is free software:  you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+StateMod Java is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+    along with StateMod Java.  If not, see <https://www.gnu.org/licenses/>.
+
+NoticeEnd */
+
+package cdss.statemod.app;
+
+import RTi.Util.Message.Message;
+
+/**
+ * Logger with the methods of the SLF4J Logger interface (level checks, and messages with {} placeholders),
+ * which writes to RTi.Util.Message.Message so that messages go to the same terminal and log file outputs.
+ * Use getLogger() to get a logger for a class, for example:
+ * <pre>
+ * private static final StateModLogger LOG = StateModLogger.getLogger(StateModSimulator.class);
+ * ...
+ * if ( LOG.isDebugEnabled() ) {
+ *     LOG.debug("Time step {} flow at outlet {}", step, flow);
+ * }
+ * </pre>
+ * The level check is a single comparison, and the message is only formatted if the level is enabled.
+ * If startAsync() has been called, messages are added to a StateModAsyncLogWriter and are formatted and
+ * written on its background thread, so arguments should not be modified after they are logged.
+ * Otherwise messages are written on the calling thread.  Levels map to Message as follows:
+ * error = warning level 1, warn = warning level 2, info = status level 2, debug = debug level 1, trace = debug level 10.
+ * <p>
+ * Code that uses the Message levels calls the static printStatus() and printWarning() in place of
+ * the Message methods, so that its messages go through the asynchronous writer in order with the logger messages
+ * rather than being written ahead of the buffered messages.
+ */
+public class StateModLogger {
+
+	/**
+	 * Levels, in order of increasing detail.
+	 */
+	public static final int LEVEL_OFF = 0;
+	public static final int LEVEL_ERROR = 1;
+	public static final int LEVEL_WARN = 2;
+	public static final int LEVEL_INFO = 3;
+	public static final int LEVEL_DEBUG = 4;
+	public static final int LEVEL_TRACE = 5;
+
+	/**
+	 * Most detailed level that is logged, shared by all loggers.
+	 */
+	private static volatile int level = LEVEL_INFO;
+
+	/**
+	 * Asynchronous writer, or null to write on the calling thread.
+	 */
+	private static volatile StateModAsyncLogWriter asyncWriter = null;
+
+	/**
+	 * Logger name, used as the Message routine.
+	 */
+	private final String name;
+
+	/**
+	 * Constructor.
+	 * @param name logger name
+	 */
+	private StateModLogger ( String name ) {
+		this.name = name;
+	}
+
+	/**
+	 * Log a message at debug level.
+	 */
+	public void debug ( String format, Object... args ) {
+		if ( level >= LEVEL_DEBUG ) {
+			log(LEVEL_DEBUG, format, args, null);
+		}
+	}
+
+	/**
+	 * Log a message at error level.
+	 */
+	public void error ( String format, Object... args ) {
+		if ( level >= LEVEL_ERROR ) {
+			log(LEVEL_ERROR, format, args, null);
+		}
+	}
+
+	/**
+	 * Log a message and exception at error level.
+	 */
+	public void error ( String message, Throwable t ) {
+		if ( level >= LEVEL_ERROR ) {
+			log(LEVEL_ERROR, message, null, t);
+		}
+	}
+
+	/**
+	 * Flush messages that have been logged asynchronously, so that they are in the log file.
+	 */
+	public static void flush () {
+		StateModAsyncLogWriter writer = asyncWriter;
+		if ( writer != null ) {
+			writer.flush();
+		}
+	}
+
+	/**
+	 * Format a message, replacing each {} with the next argument, as for SLF4J.
+	 * @param format message with {} placeholders
+	 * @param args arguments, may be null
+	 * @return formatted message
+	 */
+	public static String format ( String format, Object [] args ) {
+		if ( (args == null) || (args.length == 0) || (format == null) ) {
+			return format;
+		}
+		StringBuilder b = new StringBuilder(format.length() + 16*args.length);
+		int start = 0;
+		int iarg = 0;
+		while ( iarg < args.length ) {
+			int pos = format.indexOf("{}", start);
+			if ( pos < 0 ) {
+				break;
+			}
+			b.append(format, start, pos).append(args[iarg++]);
+			start = pos + 2;
+		}
+		b.append(format, start, format.length());
+		return b.toString();
+	}
+
+	/**
+	 * Return the current level.
+	 */
+	public static int getLevel () {
+		return level;
+	}
+
+	/**
+	 * Return a logger for a class, named with the simple class name.
+	 * @param c class that logs messages
+	 */
+	public static StateModLogger getLogger ( Class<?> c ) {
+		return new StateModLogger(c.getSimpleName());
+	}
+
+	/**
+	 * Return the logger name.
+	 */
+	public String getName () {
+		return this.name;
+	}
+
+	/**
+	 * Log a message at info level.
+	 */
+	public void info ( String format, Object... args ) {
+		if ( level >= LEVEL_INFO ) {
+			log(LEVEL_INFO, format, args, null);
+		}
+	}
+
+	/**
+	 * Return whether debug messages are logged.
+	 */
+	public boolean isDebugEnabled () {
+		return level >= LEVEL_DEBUG;
+	}
+
+	/**
+	 * Return whether error messages are logged.
+	 */
+	public boolean isErrorEnabled () {
+		return level >= LEVEL_ERROR;
+	}
+
+	/**
+	 * Return whether info messages are logged.
+	 */
+	public boolean isInfoEnabled () {
+		return level >= LEVEL_INFO;
+	}
+
+	/**
+	 * Return whether trace messages are logged.
+	 */
+	public boolean isTraceEnabled () {
+		return level >= LEVEL_TRACE;
+	}
+
+	/**
+	 * Return whether warning messages are logged.
+	 */
+	public boolean isWarnEnabled () {
+		return level >= LEVEL_WARN;
+	}
+
+	/**
+	 * Log a message that has passed the level check.
+	 */
+	private void log ( int messageLevel, String format, Object [] args, Throwable t ) {
+		write(new LogEvent(this.name, messageLevel, format, args, t));
+	}
+
+	/**
+	 * Write a status message with a Message status level, as Message.printStatus() does.
+	 * @param messageLevel Message status level
+	 * @param routine routine that writes the message
+	 * @param message message to write
+	 */
+	public static void printStatus ( int messageLevel, String routine, String message ) {
+		write(new LogEvent(routine, LEVEL_INFO, messageLevel, message, null));
+	}
+
+	/**
+	 * Write a warning message with a Message warning level, as Message.printWarning() does.
+	 * @param messageLevel Message warning level
+	 * @param routine routine that writes the message
+	 * @param message message to write
+	 */
+	public static void printWarning ( int messageLevel, String routine, String message ) {
+		write(new LogEvent(routine, LEVEL_WARN, messageLevel, message, null));
+	}
+
+	/**
+	 * Write an exception with a Message warning level, as Message.printWarning() does.
+	 * @param messageLevel Message warning level
+	 * @param routine routine that writes the exception
+	 * @param t exception to write
+	 */
+	public static void printWarning ( int messageLevel, String routine, Throwable t ) {
+		write(new LogEvent(routine, LEVEL_WARN, messageLevel, null, t));
+	}
+
+	/**
+	 * Set the level for all loggers.
+	 * @param newLevel one of the LEVEL_* values
+	 */
+	public static void setLevel ( int newLevel ) {
+		level = newLevel;
+	}
+
+	/**
+	 * Start writing messages asynchronously on a background thread.
+	 * @param capacity number of messages that can be buffered before logging threads wait
+	 */
+	public static synchronized void startAsync ( int capacity ) {
+		if ( asyncWriter == null ) {
+			asyncWriter = new StateModAsyncLogWriter(capacity);
+		}
+	}
+
+	/**
+	 * Write the buffered messages and stop writing asynchronously.
+	 * Later messages are written on the calling thread.  This should be called before the log file is closed.
+	 */
+	public static synchronized void stopAsync () {
+		StateModAsyncLogWriter writer = asyncWriter;
+		if ( writer != null ) {
+			asyncWriter = null;
+			writer.shutdown();
+		}
+	}
+
+	/**
+	 * Write a message through the asynchronous writer if it has been started, or otherwise on the calling thread.
+	 */
+	private static void write ( LogEvent event ) {
+		StateModAsyncLogWriter writer = asyncWriter;
+		if ( (writer == null) || !writer.add(event) ) {
+			event.write();
+		}
+	}
+
+	/**
+	 * Log a message at trace level.
+	 */
+	public void trace ( String format, Object... args ) {
+		if ( level >= LEVEL_TRACE ) {
+			log(LEVEL_TRACE, format, args, null);
+		}
+	}
+
+	/**
+	 * Log a message at warning level.
+	 */
+	public void warn ( String format, Object... args ) {
+		if ( level >= LEVEL_WARN ) {
+			log(LEVEL_WARN, format, args, null);
+		}
+	}
+
+	/**
+	 * Log a message and exception at warning level.
+	 */
+	public void warn ( String message, Throwable t ) {
+		if ( level >= LEVEL_WARN ) {
+			log(LEVEL_WARN, message, null, t);
+		}
+	}
+
+	/**
+	 * Message that has been logged, which is formatted and written by write().
+	 */
+	static class LogEvent {
+
+		/**
+		 * Logger name.
+		 */
+		private final String name;
+
+		/**
+		 * Message level.
+		 */
+		private final int level;
+
+		/**
+		 * Message format and arguments.
+		 */
+		private final String format;
+		private final Object [] args;
+
+		/**
+		 * Exception to log, or null.
+		 */
+		private final Throwable throwable;
+
+		/**
+		 * Message status or warning level for a message from printStatus() or printWarning(),
+		 * or -1 to map the level to Message.
+		 */
+		private final int messageLevel;
+
+		/**
+		 * Constructor for a logger message.
+		 */
+		LogEvent ( String name, int level, String format, Object [] args, Throwable throwable ) {
+			this.name = name;
+			this.level = level;
+			this.format = format;
+			this.args = args;
+			this.throwable = throwable;
+			this.messageLevel = -1;
+		}
+
+		/**
+		 * Constructor for a message with a Message level.
+		 * @param level LEVEL_INFO for a status message or LEVEL_WARN for a warning
+		 */
+		LogEvent ( String name, int level, int messageLevel, String message, Throwable throwable ) {
+			this.name = name;
+			this.level = level;
+			this.format = message;
+			this.args = null;
+			this.throwable = throwable;
+			this.messageLevel = messageLevel;
+		}
+
+		/**
+		 * Format and write the message to Message.
+		 */
+		void write () {
+			if ( this.messageLevel >= 0 ) {
+				writeWithMessageLevel();
+				return;
+			}
+			String message = format(this.format, this.args);
+			switch ( this.level ) {
+				case LEVEL_ERROR:
+					Message.printWarning(1, this.name, message);
+					break;
+				case LEVEL_WARN:
+					Message.printWarning(2, this.name, message);
+					break;
+				case LEVEL_INFO:
+					Message.printStatus(2, this.name, message);
+					break;
+				case LEVEL_DEBUG:
+					Message.printDebug(1, this.name, message);
+					break;
+				default:
+					Message.printDebug(10, this.name, message);
+					break;
+			}
+			if ( this.throwable != null ) {
+				Message.printWarning(3, this.name, this.throwable);
+			}
+		}
+
+		/**
+		 * Write a message that has a Message level.
+		 */
+		private void writeWithMessageLevel () {
+			switch ( this.level ) {
+				case LEVEL_WARN:
+					if ( this.throwable != null ) {
+						Message.printWarning(this.messageLevel, this.name, this.throwable);
+					}
+					else {
+						Message.printWarning(this.messageLevel, this.name, this.format);
+					}
+					break;
+				default:
+					Message.printStatus(this.messageLevel, this.name, this.format);
+					break;
+			}
+		}
+	}
+}
@@ -24,8 +24,11 @@ NoticeEnd */
 package cdss.statemod.app;
 
 import java.io.File;
-
-import javax.swing.JFrame;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 import DWR.StateMod.StateMod_DataSet;
 import RTi.Util.IO.IOUtil;
@@ -40,13 +43,116 @@ public class StateModMain {
 	
 	/*
 	 * StateMod response file, which is the starting point for reading a StateMod dataset.
+	 * For a dataset in an archive, this is the response file name next to the archive, which is used to
+	 * name the log and output files, and the dataset is read from the extracted response file.
 	 */
 	private static String responseFile = null;
+
+	/**
+	 * Archive containing the dataset, or null if the response file is not in an archive.
+	 */
+	private static StateModDataSetArchive responseArchive = null;
 	
 	/**
 	 * StateMod dataset object that manages all the data files in a dataset.
 	 */
 	private static StateMod_DataSet dataset = null;
+
+	/**
+	 * Batch manifest file listing scenarios to run from the dataset, or null if not running a batch.
+	 */
+	private static String batchFile = null;
+
+	/**
+	 * Number of batch scenarios to run at the same time.
+	 */
+	private static int batchThreads = 1;
+
+	/**
+	 * Number of simulation time steps between checkpoints, 0 to not write checkpoints.
+	 */
+	private static int checkpointInterval = 0;
+
+	/**
+	 * Whether to log debug messages, such as time step diagnostics.
+	 */
+	private static boolean debug = false;
+
+	/**
+	 * Whether to read dataset components when they are first used rather than all at startup.
+	 */
+	private static boolean lazy = false;
+
+	/**
+	 * Number of threads used to read the dataset, 1 to read sequentially.
+	 */
+	private static int loadThreads = 1;
+
+	/**
+	 * Maximum bytes of time series values to keep in memory, 0 to keep all time series in memory.
+	 */
+	private static long maxMemory = 0;
+
+	/**
+	 * Checkpoint file to restart the simulation from, or null to start at the first time step.
+	 */
+	private static String restartFile = null;
+
+	/**
+	 * Path and base name for the log, metrics, and output files, or null to use the response file.
+	 */
+	private static String outputFileBase = null;
+
+	/**
+	 * Server port, or "stdin" to serve standard input, or null if not running as a server.
+	 */
+	private static String serverPort = null;
+
+	/**
+	 * Path and base name of the reference output files for the compare run mode, or null if not comparing.
+	 */
+	private static String compareReference = null;
+
+	/**
+	 * Comparison tolerances by variable name ("*" for the default), each as absolute and relative tolerance.
+	 */
+	private static final Map<String,double[]> compareTolerances = new LinkedHashMap<>();
+
+	/**
+	 * StateMod_BTS parameters to compare with variable names when the reference is a Fortran output file,
+	 * for variables that do not use the default parameter.
+	 */
+	private static final Map<String,String> compareFortranParameters = new LinkedHashMap<>();
+
+	/**
+	 * Number of hydrology traces to generate for the ensemble run mode, 0 if not generating traces.
+	 */
+	private static int ensembleCount = 0;
+
+	/**
+	 * Seed for generating ensemble hydrology traces.
+	 */
+	private static long ensembleSeed = 1;
+
+	/**
+	 * Manifest file listing ensemble hydrology trace files, or null if not reading traces.
+	 */
+	private static String ensembleTracesFile = null;
+
+	/**
+	 * Class data sharing archive to create with training runs on the dataset, or null if not creating an archive.
+	 */
+	private static String startupArchiveFile = null;
+
+	/**
+	 * Whether to use the binary dataset snapshot next to the response file.
+	 */
+	private static boolean useSnapshot = true;
+
+	/**
+	 * Number of threads used to run tributary reaches and independent sub-basins.
+	 */
+	private static int threads = 1;
 	
 	/**
 	 * Run mode.
@@ -63,8 +169,11 @@ public class StateModMain {
 	 * StateMod main program entry point.
 	 * @param args command line parameters
 	 */
+	@SuppressWarnings("try")
 	public static void main(String[] args) {
 		String routine = "StateMod.main";
+		// StateMod runs without a user interface, so make sure that AWT is never initialized for a display
+		System.setProperty("java.awt.headless", "true");
 
 		try {
 			// Set program name and version
@@ -76,16 +185,21 @@ public class StateModMain {
 			
 			// Determine the response file and working directory so that the log file can be opened.
 			// - do this by parsing the command line arguments and detecting response file
-			try {
+			try ( StateModMetrics.Timer timer = StateModMetrics.getInstance().startPhase("ParseArguments") ) {
 				boolean initialChecks = true;
 				parseArgs ( args, initialChecks );
 			}
 			catch ( Exception e2 ) {
-				Message.printWarning(1, routine, "Error parsing command line.  Exiting.");
-				Message.printWarning(3, routine, e2);
+				StateModLogger.printWarning(1, routine, "Error parsing command line.  Exiting.");
+				StateModLogger.printWarning(3, routine, e2);
 				quitProgram(1);
 			}
 			
+			// Server mode reads datasets as requested so a response file is optional
+			if ( serverPort != null ) {
+				runServer(args);
+			}
+
 			// If a response file was not specified, print the usage and exit
 			if ( responseFile == null ) {
 				System.out.println("");
@@ -97,7 +211,7 @@ public class StateModMain {
 			
 			// If a response file was specified but does not exist, print an error and exit
 			File f = new File(responseFile);
-			if ( !f.exists() ) {
+			if ( (responseArchive == null) && !f.exists() ) {
 				System.out.println("");
 				System.out.println("Response file \"" + responseFile + "\" does not exist.");
 				System.out.println("");
@@ -111,16 +225,21 @@ public class StateModMain {
 			// Now parse the command line arguments
 			// - the response file is determined first so that the working directory is determined
 			// - and then other actions are taken
-			try {
+			try ( StateModMetrics.Timer timer = StateModMetrics.getInstance().startPhase("ParseArguments") ) {
 				boolean initialChecks = false;
 				parseArgs ( args, initialChecks );
 			}
 			catch ( Exception e2 ) {
-				Message.printWarning(1, routine, "Error parsing command line.  Exiting.");
-				Message.printWarning(3, routine, e2);
+				StateModLogger.printWarning(1, routine, "Error parsing command line.  Exiting.");
+				StateModLogger.printWarning(3, routine, e2);
 				quitProgram(1);
 			}
 
+			// Creating a startup archive runs StateMod in child processes
+			if ( startupArchiveFile != null ) {
+				runCreateStartupArchive();
+			}
+
 			// If no run mode was requested, print an error
 			if ( runMode == null ) {
 				System.out.println("");
@@ -133,24 +252,31 @@ public class StateModMain {
 				System.out.println("Run mode is " + runMode);
 			}
 
+			// Comparing output only reads the output files, not the dataset
+			if ( runMode == StateModRunModeType.COMPARE ) {
+				runCompare();
+			}
+
 			// Error indicator
 			boolean error = false;
 			
 			// Open the dataset by reading the response file.
 			// - try reading dataset files
 			try {
-				boolean readData = true; // Read the data files (except for time series)
-				boolean readTimeSeries = true; // Read the time series files
-				boolean useGUI = false; // No UI is defined
-				JFrame parent = null; // A JFrame if UI is used, not implemented here
-				dataset = new StateMod_DataSet();
+				StateModDataSetLoader loader = new StateModDataSetLoader(loadThreads);
+				// The snapshot is not used for an archive because it would be written to the scratch directory
+				loader.setUseSnapshot(useSnapshot && (responseArchive == null));
+				loader.setLazy(lazy);
+				// The check cache saves results with the fingerprints of the files before they were read
+				loader.setFingerprintFiles(runMode == StateModRunModeType.CHECK);
+				loader.setMetrics(StateModMetrics.getInstance());
 				printMemory(routine,"Memory before reading dataset...");
-				dataset.readStateModFile(responseFile, readData, readTimeSeries, useGUI, parent);
+				dataset = loader.readDataSet(getDataSetResponseFile());
 				printMemory(routine,"Memory after reading dataset...");
 			}
 			catch ( Exception e2 ) {
-				Message.printWarning(1, routine, "Error reading response file.  See the log file.");
-				Message.printWarning(3, routine, e2);
+				StateModLogger.printWarning(1, routine, "Error reading response file.  See the log file.");
+				StateModLogger.printWarning(3, routine, e2);
 			}
 			
 			if ( !error ) {
@@ -160,20 +286,55 @@ public class StateModMain {
 					runStateMod(dataset, runMode);
 				}
 				catch ( Exception e2 ) {
-					Message.printWarning(1, routine, "Error running StateMod.  See the log file.");
-					Message.printWarning(3, routine, e2);
+					StateModLogger.printWarning(1, routine, "Error running StateMod.  See the log file.");
+					StateModLogger.printWarning(3, routine, e2);
 				}
 			}
+			writeMetrics();
+			StateModLogger.stopAsync();
 
 		}
 		catch ( Exception e ) {
 			// Main catch.
-			Message.printWarning ( 1, routine, "Error starting TSTool." );
-			Message.printWarning ( 1, routine, e );
+			StateModLogger.printWarning ( 1, routine, "Error starting TSTool." );
+			StateModLogger.printWarning ( 1, routine, e );
 			quitProgram ( 1 );
 		}
 	}
 	
+	/**
+	 * Return the response file to read the dataset from, extracting the dataset if it is in an archive.
+	 * The extracted files are deleted when the program exits.
+	 * @exception IOException if the archive cannot be extracted
+	 */
+	@SuppressWarnings("try")
+	private static String getDataSetResponseFile () throws IOException {
+		if ( responseArchive == null ) {
+			return responseFile;
+		}
+		try ( StateModMetrics.Timer timer = StateModMetrics.getInstance().startPhase("ExtractArchive") ) {
+			final StateModDataSetArchive archive = responseArchive;
+			String extractedResponseFile = archive.extract(loadThreads);
+			Runtime.getRuntime().addShutdownHook(new Thread("statemod-archive-cleanup") {
+				@Override
+				public void run () {
+					archive.deleteExtracted();
+				}
+			});
+			return extractedResponseFile;
+		}
+	}
+
+	/**
+	 * Return the path and base name for output files, from the --output-base option or the response file.
+	 */
+	private static String getOutputFileBase () {
+		if ( outputFileBase != null ) {
+			return outputFileBase;
+		}
+		return StateModRunner.getOutputFileBase(responseFile);
+	}
+
 	/**
 	 * Return the working directory, in case needed elsewhere.
 	 */
@@ -182,12 +343,13 @@ public class StateModMain {
 	}
 	
 	/*
-	 * Initialize logging. This uses the Message class, but SL4J should be implemented.
+	 * Initialize logging. This uses the Message class, with StateModLogger providing SLF4J-style logging
+	 * that writes to Message on a background thread.
 	 * - The workingDir should have been set from previous logic.
 	 */
 	private static void initializeLogging() {
 	    Message.setDebugLevel ( Message.TERM_OUTPUT, 0 );
-	    Message.setDebugLevel ( Message.LOG_OUTPUT, 0 );
+	    Message.setDebugLevel ( Message.LOG_OUTPUT, debug ? 1 : 0 );
 	    Message.setStatusLevel ( Message.TERM_OUTPUT, 2 );
 	    Message.setStatusLevel ( Message.LOG_OUTPUT, 2 );
 	    Message.setWarningLevel ( Message.TERM_OUTPUT, 2 );
@@ -199,9 +361,19 @@ public class StateModMain {
 	    Message.setPropValue ( "ShowMessageLevel=true" );
 	    Message.setPropValue ( "ShowMessageTag=true" );
 	    
-	    // Open the log file as the name of the response file with ".log".
-	    if ( responseFile != null ) {
-	    	String logFile = responseFile + ".log";
+	    // Open the log file as the name of the response file with ".log", or the output base with ".log".
+	    // - a server without a response file logs to the working directory
+	    String logFile = null;
+	    if ( outputFileBase != null ) {
+	    	logFile = outputFileBase + ".log";
+	    }
+	    else if ( responseFile != null ) {
+	    	logFile = responseFile + ".log";
+	    }
+	    else if ( serverPort != null ) {
+	    	logFile = IOUtil.getProgramWorkingDir() + File.separator + "statemod-server.log";
+	    }
+	    if ( logFile != null ) {
 	    	try {
 	    		Message.openLogFile(logFile);
 	    	}
@@ -210,6 +382,10 @@ public class StateModMain {
 	    		System.out.println(nl + "Unable to open log file \"" + logFile + "\"" + nl );
 	    	}
 	    }
+
+	    // Run-time messages are written on a background thread so that logging threads do not wait for output
+	    StateModLogger.setLevel ( debug ? StateModLogger.LEVEL_DEBUG : StateModLogger.LEVEL_INFO );
+	    StateModLogger.startAsync ( 8192 );
 	}
 
 	/**
@@ -240,18 +416,201 @@ public class StateModMain {
 				if ( args[i].equalsIgnoreCase("-baseflows") || args[i].equalsIgnoreCase("--baseflows") ) {
 					runMode = StateModRunModeType.BASEFLOWS; 
 				}
+				else if ( args[i].equalsIgnoreCase("-batch") || args[i].equalsIgnoreCase("--batch") ) {
+					// Batch manifest file with scenarios
+					if ( (i + 1) == args.length ) {
+						throw new IllegalArgumentException("No value specified for " + args[i] );
+					}
+					++i;
+					batchFile = IOUtil.verifyPathForOS(IOUtil.toAbsolutePath(IOUtil.getProgramWorkingDir(), args[i]),true);
+				}
+				else if ( args[i].equalsIgnoreCase("-batch-threads") || args[i].equalsIgnoreCase("--batch-threads") ) {
+					// Number of batch scenarios to run at the same time
+					if ( (i + 1) == args.length ) {
+						throw new IllegalArgumentException("No value specified for " + args[i] );
+					}
+					++i;
+					batchThreads = Integer.parseInt(args[i]);
+					if ( batchThreads < 1 ) {
+						throw new IllegalArgumentException("Number of batch threads (" + args[i] + ") must be >= 1.");
+					}
+				}
 				else if ( args[i].equalsIgnoreCase("-check") || args[i].equalsIgnoreCase("--check") ) {
 					runMode = StateModRunModeType.CHECK; 
 				}
+				else if ( args[i].equalsIgnoreCase("-checkpoint-interval") || args[i].equalsIgnoreCase("--checkpoint-interval") ) {
+					// Number of simulation time steps between checkpoints
+					if ( (i + 1) == args.length ) {
+						throw new IllegalArgumentException("No value specified for " + args[i] );
+					}
+					++i;
+					checkpointInterval = Integer.parseInt(args[i]);
+					if ( checkpointInterval < 1 ) {
+						throw new IllegalArgumentException("Checkpoint interval (" + args[i] + ") must be >= 1.");
+					}
+				}
+				else if ( args[i].equalsIgnoreCase("-compare") || args[i].equalsIgnoreCase("--compare") ) {
+					// Reference output to compare the output with
+					if ( (i + 1) == args.length ) {
+						throw new IllegalArgumentException("No value specified for " + args[i] );
+					}
+					++i;
+					runMode = StateModRunModeType.COMPARE;
+					compareReference = IOUtil.verifyPathForOS(IOUtil.toAbsolutePath(IOUtil.getProgramWorkingDir(), args[i]),true);
+				}
+				else if ( args[i].equalsIgnoreCase("-create-startup-archive") || args[i].equalsIgnoreCase("--create-startup-archive") ) {
+					// Class data sharing archive to create
+					if ( (i + 1) == args.length ) {
+						throw new IllegalArgumentException("No value specified for " + args[i] );
+					}
+					++i;
+					startupArchiveFile = IOUtil.verifyPathForOS(IOUtil.toAbsolutePath(IOUtil.getProgramWorkingDir(), args[i]),true);
+				}
+				else if ( args[i].equalsIgnoreCase("-debug") || args[i].equalsIgnoreCase("--debug") ) {
+					// Log debug messages
+					debug = true;
+				}
+				else if ( args[i].equalsIgnoreCase("-ensemble") || args[i].equalsIgnoreCase("--ensemble") ) {
+					// Number of hydrology traces to generate for the ensemble
+					if ( (i + 1) == args.length ) {
+						throw new IllegalArgumentException("No value specified for " + args[i] );
+					}
+					++i;
+					runMode = StateModRunModeType.ENSEMBLE;
+					ensembleCount = Integer.parseInt(args[i]);
+					if ( ensembleCount < 1 ) {
+						throw new IllegalArgumentException("Number of ensemble traces (" + args[i] + ") must be >= 1.");
+					}
+				}
+				else if ( args[i].equalsIgnoreCase("-ensemble-seed") || args[i].equalsIgnoreCase("--ensemble-seed") ) {
+					// Seed for generating hydrology traces
+					if ( (i + 1) == args.length ) {
+						throw new IllegalArgumentException("No value specified for " + args[i] );
+					}
+					++i;
+					ensembleSeed = Long.parseLong(args[i]);
+				}
+				else if ( args[i].equalsIgnoreCase("-ensemble-traces") || args[i].equalsIgnoreCase("--ensemble-traces") ) {
+					// Manifest listing hydrology trace files for the ensemble
+					if ( (i + 1) == args.length ) {
+						throw new IllegalArgumentException("No value specified for " + args[i] );
+					}
+					++i;
+					runMode = StateModRunModeType.ENSEMBLE;
+					ensembleTracesFile = IOUtil.verifyPathForOS(IOUtil.toAbsolutePath(IOUtil.getProgramWorkingDir(), args[i]),true);
+				}
+				else if ( args[i].equalsIgnoreCase("-fortran-parameter") || args[i].equalsIgnoreCase("--fortran-parameter") ) {
+					// Fortran output parameter to compare with a variable, as variable=parameter
+					if ( (i + 1) == args.length ) {
+						throw new IllegalArgumentException("No value specified for " + args[i] );
+					}
+					++i;
+					int pos = args[i].indexOf('=');
+					if ( pos <= 0 ) {
+						throw new IllegalArgumentException("Fortran parameter (" + args[i] + ") must be variable=parameter.");
+					}
+					compareFortranParameters.put(args[i].substring(0, pos).trim(), args[i].substring(pos + 1).trim());
+				}
+				else if ( args[i].equalsIgnoreCase("-lazy") || args[i].equalsIgnoreCase("--lazy") ) {
+					// Read components when first used
+					lazy = true;
+				}
+				else if ( args[i].equalsIgnoreCase("-load-threads") || args[i].equalsIgnoreCase("--load-threads") ) {
+					// Number of threads to read the dataset
+					if ( (i + 1) == args.length ) {
+						throw new IllegalArgumentException("No value specified for " + args[i] );
+					}
+					++i;
+					loadThreads = Integer.parseInt(args[i]);
+					if ( loadThreads < 1 ) {
+						throw new IllegalArgumentException("Number of load threads (" + args[i] + ") must be >= 1.");
+					}
+				}
+				else if ( args[i].equalsIgnoreCase("-max-memory") || args[i].equalsIgnoreCase("--max-memory") ) {
+					// Maximum memory for time series values, such as 512M or 2G
+					if ( (i + 1) == args.length ) {
+						throw new IllegalArgumentException("No value specified for " + args[i] );
+					}
+					++i;
+					maxMemory = parseMemorySize(args[i]);
+					if ( maxMemory < 1024*1024 ) {
+						throw new IllegalArgumentException("Maximum memory (" + args[i] + ") must be at least 1M.");
+					}
+					// Read time series components when first used so that all time series are not in memory at once
+					lazy = true;
+				}
+				else if ( args[i].equalsIgnoreCase("-no-snapshot") || args[i].equalsIgnoreCase("--no-snapshot") ) {
+					// Always read the text files and do not write the snapshot
+					useSnapshot = false;
+				}
+				else if ( args[i].equalsIgnoreCase("-output-base") || args[i].equalsIgnoreCase("--output-base") ) {
+					// Path and base name for output files, rather than the response file
+					if ( (i + 1) == args.length ) {
+						throw new IllegalArgumentException("No value specified for " + args[i] );
+					}
+					++i;
+					outputFileBase = IOUtil.verifyPathForOS(IOUtil.toAbsolutePath(IOUtil.getProgramWorkingDir(), args[i]),true);
+				}
+				else if ( args[i].equalsIgnoreCase("-restart") || args[i].equalsIgnoreCase("--restart") ) {
+					// Checkpoint file to restart the simulation from
+					if ( (i + 1) == args.length ) {
+						throw new IllegalArgumentException("No value specified for " + args[i] );
+					}
+					++i;
+					restartFile = IOUtil.verifyPathForOS(IOUtil.toAbsolutePath(IOUtil.getProgramWorkingDir(), args[i]),true);
+				}
 				else if ( (ipass == ipassToCheck) &&
 					(args[i].equalsIgnoreCase("-h") || args[i].equalsIgnoreCase("--help")) ) {
 					// Print the version information
 					printUsage();
 					quitProgram(0);
 				}
+				else if ( args[i].equalsIgnoreCase("-server") || args[i].equalsIgnoreCase("--server") ) {
+					// Run as a server on a local port or standard input
+					if ( (i + 1) == args.length ) {
+						throw new IllegalArgumentException("No value specified for " + args[i] );
+					}
+					++i;
+					serverPort = args[i];
+					if ( !serverPort.equalsIgnoreCase("stdin") ) {
+						int port = Integer.parseInt(serverPort);
+						if ( (port < 0) || (port > 65535) ) {
+							throw new IllegalArgumentException("Server port (" + args[i] + ") must be 0 to 65535.");
+						}
+					}
+				}
 				else if ( (args[i].equalsIgnoreCase("-sim") || args[i].equalsIgnoreCase("--sim")) ) {
 					runMode = StateModRunModeType.SIMULATE; 
 				}
+				else if ( args[i].equalsIgnoreCase("-threads") || args[i].equalsIgnoreCase("--threads") ) {
+					// Number of threads to run tributary reaches and independent sub-basins
+					if ( (i + 1) == args.length ) {
+						throw new IllegalArgumentException("No value specified for " + args[i] );
+					}
+					++i;
+					threads = Integer.parseInt(args[i]);
+					if ( threads < 1 ) {
+						throw new IllegalArgumentException("Number of threads (" + args[i] + ") must be >= 1.");
+					}
+				}
+				else if ( args[i].equalsIgnoreCase("-tolerance") || args[i].equalsIgnoreCase("--tolerance") ) {
+					// Comparison tolerance, as variable=absolute[,relative]
+					if ( (i + 1) == args.length ) {
+						throw new IllegalArgumentException("No value specified for " + args[i] );
+					}
+					++i;
+					int pos = args[i].indexOf('=');
+					if ( pos <= 0 ) {
+						throw new IllegalArgumentException("Tolerance (" + args[i] + ") must be variable=absolute[,relative].");
+					}
+					String [] parts = args[i].substring(pos + 1).split(",");
+					double absolute = Double.parseDouble(parts[0].trim());
+					double relative = (parts.length > 1) ? Double.parseDouble(parts[1].trim()) : 0.0;
+					if ( (absolute < 0.0) || (relative < 0.0) ) {
+						throw new IllegalArgumentException("Tolerance (" + args[i] + ") must be >= 0.");
+					}
+					compareTolerances.put(args[i].substring(0, pos).trim(), new double[] { absolute, relative });
+				}
 				else if ( args[i].equalsIgnoreCase("-v") || args[i].equalsIgnoreCase("--version") ) {
 					// Print the version information
 					printVersion();
@@ -272,6 +631,30 @@ public class StateModMain {
 		}
 	}
 	
+	/**
+	 * Parse a memory size, which is a number of bytes optionally followed by K, M, or G (powers of 1024).
+	 * @param size memory size string
+	 * @return number of bytes
+	 * @exception NumberFormatException if the size is not a number
+	 */
+	private static long parseMemorySize ( String size ) {
+		String s = size.trim().toUpperCase();
+		long multiplier = 1;
+		if ( s.endsWith("K") ) {
+			multiplier = 1024L;
+		}
+		else if ( s.endsWith("M") ) {
+			multiplier = 1024L*1024;
+		}
+		else if ( s.endsWith("G") ) {
+			multiplier = 1024L*1024*1024;
+		}
+		if ( multiplier > 1 ) {
+			s = s.substring(0, s.length() - 1);
+		}
+		return (long)(Double.parseDouble(s)*multiplier);
+	}
+
 	/**
 	 * Print memory information.
 	 * @param routine calling routine
@@ -279,10 +662,11 @@ public class StateModMain {
 	 */
 	private static void printMemory ( String routine, String message ) {
 		Runtime runtime = Runtime.getRuntime();
-		Message.printStatus(1,routine,message);
-		Message.printStatus(1,routine,"Maximum:          " + runtime.maxMemory() + "bytes" );
-		Message.printStatus(1,routine,"Total allocated:  " + runtime.totalMemory() + "bytes" );
-		Message.printStatus(1,routine,"Free:             " + runtime.freeMemory() + "bytes" );
+		StateModMetrics.getInstance().recordMemory(message);
+		StateModLogger.printStatus(1,routine,message);
+		StateModLogger.printStatus(1,routine,"Maximum:          " + runtime.maxMemory() + "bytes" );
+		StateModLogger.printStatus(1,routine,"Total allocated:  " + runtime.totalMemory() + "bytes" );
+		StateModLogger.printStatus(1,routine,"Free:             " + runtime.freeMemory() + "bytes" );
 	}
 
 	/*
@@ -293,9 +677,41 @@ public class StateModMain {
 	    System.out.println(nl +
 	    "statemod-java [options] dataset.rsp" + nl + nl +
 	    "dataset.rsp             \"response file\" that provides a list of dataset input files." + nl +
+	    "                        A dataset in a zip archive is specified as archive.zip!/path/dataset.rsp, and" + nl +
+	    "                        the listed files are extracted to the temporary directory (java.io.tmpdir)." + nl +
 	    "-baseflow, --baseflow   Run the baseflow mode with standard options." + nl +
+	    "--batch manifest        Run each scenario in the manifest file for the run mode, reading the dataset once." + nl +
+	    "--batch-threads N       Run N batch scenarios at the same time (default is 1)." + nl +
+	    "--compare reference     Compare dataset.jb43/.jb44 with reference.jb43/.jb44, or with the Fortran StateMod" + nl +
+	    "                        reference.b43/.b44 if there is no .jb43/.jb44 or a .b43/.b44 file is given, writing" + nl +
+	    "                        dataset.jb43.compare.csv and dataset.jb44.compare.csv.  The reference can be a" + nl +
+	    "                        response file or output file." + nl +
+	    "--checkpoint-interval N Write the simulation state to dataset.checkpoint every N time steps." + nl +
+	    "--create-startup-archive archive  Create a class data sharing archive using training runs on the dataset," + nl +
+	    "                        for use with Java option -XX:SharedArchiveFile=archive (Java 10 or later)." + nl +
+	    "--debug                 Log debug messages, such as time step diagnostics." + nl +
+	    "--ensemble N            Simulate N hydrology traces resampled from the dataset baseflow years, running" + nl +
+	    "                        --threads members at the same time, and write summary statistics (mean, standard" + nl +
+	    "                        deviation, minimum, maximum, and percentiles) to dataset.ens.jb43/.ens.jb44." + nl +
+	    "--ensemble-seed S       Seed for generating ensemble traces, to repeat an ensemble (default is 1)." + nl +
+	    "--ensemble-traces manifest  Simulate an ensemble of the baseflow (*.xbm) files listed in the manifest file." + nl +
+	    "--fortran-parameter var=param  Compare variable var with Fortran output parameter param (empty to not" + nl +
+	    "                        compare), for example RiverFlow=River_Outflow, which is the default." + nl +
 	    "-h, --help              Print program usage" + nl +
+	    "--lazy                  Read dataset components when first used rather than all at startup." + nl +
+	    "--load-threads N        Read dataset components using N threads (default is 1)." + nl +
+	    "--max-memory size       Keep at most size bytes (such as 512M or 2G) of time series in memory," + nl +
+	    "                        spilling the rest to dataset.spill.  Implies --lazy." + nl +
+	    "--no-snapshot           Do not use the binary dataset snapshot (dataset.rsp.snapshot)." + nl +
+	    "--output-base base      Write the log, metrics, and output files as base.log, base.metrics.json, base.jb43," + nl +
+	    "                        etc. rather than next to the response file." + nl +
+	    "--restart checkpoint    Restart the simulation, or all batch scenarios, from a checkpoint file." + nl +
+	    "--server port|stdin     Keep datasets loaded and run requests from a local port or standard input." + nl +
 	    "-sim, --sim             Run the simulation with standard options." + nl +
+	    "--threads N             Run tributary reaches and independent sub-basins using N threads (default is 1)." + nl +
+	    "--tolerance var=abs[,rel]  Compare variable var with absolute and relative tolerances (var * for the" + nl +
+	    "                        default, which is " + StateModOutputComparator.DEFAULT_ABSOLUTE_TOLERANCE + "," +
+	    	StateModOutputComparator.DEFAULT_RELATIVE_TOLERANCE + ")." + nl +
 	    "-v, --version           Print program version." + nl);
 	}
 
@@ -329,74 +745,321 @@ public class StateModMain {
 	public static void quitProgram ( int status ) {
 		String routine = "StateModMain.quitProgram";
 
-		Message.printStatus ( 1, routine, "Exiting with status " + status + "." );
+		StateModLogger.printStatus ( 1, routine, "Exiting with status " + status + "." );
+		// Terminal output is in order with the buffered messages
+		StateModLogger.flush();
 
 		System.out.print( "STOP " + status + "\n" );
+		writeMetrics();
+		// Write buffered messages before closing the log file
+		StateModLogger.stopAsync();
 		Message.closeLogFile ();
 		System.exit ( status );
 	}
 	
+	/*
+	 * Compare the output files for the response file with the reference output files, and then quit the program.
+	 * The exit status is 1 if any station differs or is in only one of the files, or if there is an error.
+	 */
+	@SuppressWarnings("try")
+	private static void runCompare () {
+		String routine = "StateModMain.runCompare";
+		String outputBase = getOutputFileBase();
+		String referenceBase = compareReference;
+		String [] extensions = { StateModBinaryOutputWriter.NODE_EXTENSION, StateModBinaryOutputWriter.RESERVOIR_EXTENSION };
+		String [] fortranExtensions = { ".b43", ".b44" };
+		boolean fortranReference = false;
+		if ( referenceBase.endsWith(extensions[0]) || referenceBase.endsWith(extensions[1]) ) {
+			referenceBase = referenceBase.substring(0, referenceBase.length() - extensions[0].length());
+		}
+		else if ( referenceBase.endsWith(fortranExtensions[0]) || referenceBase.endsWith(fortranExtensions[1]) ) {
+			referenceBase = referenceBase.substring(0, referenceBase.length() - fortranExtensions[0].length());
+			fortranReference = true;
+		}
+		else {
+			referenceBase = StateModRunner.getOutputFileBase(referenceBase);
+		}
+		int status = 0;
+		try ( StateModMetrics.Timer timer = StateModMetrics.getInstance().startPhase("Compare") ) {
+			for ( int i = 0; i < extensions.length; i++ ) {
+				String outputFile = outputBase + extensions[i];
+				// Use the Fortran output file if requested or if there is no Java output file
+				String referenceFile = referenceBase + extensions[i];
+				if ( fortranReference || !new File(referenceFile).exists() ) {
+					referenceFile = referenceBase + fortranExtensions[i];
+				}
+				if ( !new File(outputFile).exists() || !new File(referenceFile).exists() ) {
+					StateModLogger.printWarning(1, routine, "Output file \"" + outputFile + "\" or reference file \"" +
+						referenceFile + "\" does not exist - not comparing.");
+					status = 1;
+					continue;
+				}
+				StateModOutputComparator comparator = new StateModOutputComparator(outputFile, referenceFile);
+				comparator.setThreads(threads);
+				for ( Map.Entry<String,double[]> entry : compareTolerances.entrySet() ) {
+					comparator.setTolerance(entry.getKey(), entry.getValue()[0], entry.getValue()[1]);
+				}
+				for ( Map.Entry<String,String> entry : compareFortranParameters.entrySet() ) {
+					comparator.setFortranParameter(entry.getKey(), entry.getValue().isEmpty() ? null : entry.getValue());
+				}
+				long start = System.currentTimeMillis();
+				List<StateModStationComparison> results = comparator.compare();
+				long valueCount = 0;
+				int differentCount = 0;
+				int uncomparedCount = 0;
+				for ( StateModStationComparison result : results ) {
+					valueCount += result.getValueCount();
+					if ( result.getDifferenceCount() > 0 ) {
+						++differentCount;
+					}
+					else if ( !result.isCompared() ) {
+						++uncomparedCount;
+					}
+				}
+				StateModMetrics.getInstance().addCount("CompareValues", valueCount);
+				String reportFile = outputFile + ".compare.csv";
+				comparator.writeReport(reportFile, results);
+				String message = "Compared " + valueCount + " values for " + results.size() + " stations in " +
+					(System.currentTimeMillis() - start) + " ms:  " + differentCount + " stations differ, " +
+					uncomparedCount + " stations are in only one file.  See \"" + reportFile + "\".";
+				System.out.println(message);
+				StateModLogger.printStatus(2, routine, message);
+				if ( (differentCount > 0) || (uncomparedCount > 0) ) {
+					status = 1;
+				}
+			}
+		}
+		catch ( Exception e ) {
+			StateModLogger.printWarning(1, routine, "Error comparing output.  See the log file.");
+			StateModLogger.printWarning(3, routine, e);
+			status = 1;
+		}
+		quitProgram(status);
+	}
+
+	/*
+	 * Create the startup archive using training runs on the dataset, and then quit the program.
+	 */
+	private static void runCreateStartupArchive () {
+		String routine = "StateModMain.runCreateStartupArchive";
+		int status = 0;
+		try {
+			// Training runs read a dataset in an archive from the archive
+			new StateModStartupArchive(startupArchiveFile,
+				(responseArchive != null) ? responseArchive.getPath() : responseFile).create();
+			System.out.println("Created startup archive \"" + startupArchiveFile + "\".");
+		}
+		catch ( Exception e ) {
+			StateModLogger.printWarning(1, routine, "Error creating startup archive.  See the log file.");
+			StateModLogger.printWarning(3, routine, e);
+			status = 1;
+		}
+		quitProgram(status);
+	}
+
+	/*
+	 * Run as a server until the server is shut down, and then quit the program.
+	 * If a response file was given, the dataset is read before serving requests.
+	 * @param args command line arguments
+	 */
+	private static void runServer ( String [] args ) {
+		String routine = "StateModMain.runServer";
+		initializeLogging();
+		int status = 0;
+		try {
+			parseArgs ( args, false );
+			StateModServer server = new StateModServer(loadThreads, useSnapshot, threads);
+			server.setLazy(lazy);
+			if ( responseFile != null ) {
+				server.getDataSet(getDataSetResponseFile());
+			}
+			if ( serverPort.equalsIgnoreCase("stdin") ) {
+				// Results are written to standard output so program output is redirected to standard error
+				PrintStream resultOut = System.out;
+				System.setOut(System.err);
+				server.serve(System.in, resultOut);
+			}
+			else {
+				server.servePort(Integer.parseInt(serverPort));
+			}
+		}
+		catch ( Exception e ) {
+			StateModLogger.printWarning(1, routine, "Error running server.  See the log file.");
+			StateModLogger.printWarning(3, routine, e);
+			status = 1;
+		}
+		quitProgram(status);
+	}
+
 	/*
 	 * Run StateMod for the provided dataset based on the run mode from the command line.
 	 * @param datasetToRun the dataset to run
 	 * @param runMode the run mode to execute
 	 */
+	@SuppressWarnings("try")
 	public static void runStateMod ( StateMod_DataSet datasetToRun, StateModRunModeType runMode ) {
+		String routine = "StateModMain.runStateMod";
 		// Create a StateMod simulator
 		StateModRunner stateModRunner = new StateModRunner(datasetToRun);
-		if ( runMode == StateModRunModeType.BASEFLOWS ) {
+		stateModRunner.setThreads(threads);
+		if ( responseFile != null ) {
+			stateModRunner.setOutputFileBase(getOutputFileBase());
+		}
+		stateModRunner.setCheckpointInterval(checkpointInterval);
+		stateModRunner.setMaxMemory(maxMemory);
+		if ( restartFile != null ) {
+			// Read the checkpoint once - it is shared by batch scenarios
+			try {
+				stateModRunner.setRestartCheckpoint(StateModCheckpoint.read(restartFile));
+			}
+			catch ( IOException e ) {
+				throw new RuntimeException("Error reading restart checkpoint \"" + restartFile + "\".", e);
+			}
+		}
+		// Move the time series into the columnar store and release the time series objects,
+		// which are not used by the run modes
+		try ( StateModMetrics.Timer timer = StateModMetrics.getInstance().startPhase("CreateTimeSeriesStore") ) {
+			stateModRunner.getTimeSeriesStore().releaseDataSetTimeSeries(datasetToRun);
+		}
+		printMemory(routine,"Memory after creating time series store...");
+		if ( runMode == StateModRunModeType.ENSEMBLE ) {
+			if ( ensembleTracesFile != null ) {
+				try {
+					stateModRunner.setEnsembleTraces(StateModTraceFiles.readManifest(ensembleTracesFile));
+				}
+				catch ( IOException e ) {
+					throw new RuntimeException("Error reading ensemble trace manifest \"" + ensembleTracesFile + "\".", e);
+				}
+			}
+			else {
+				stateModRunner.setEnsembleTraces(new StateModResampledTraces(ensembleCount, ensembleSeed));
+			}
+		}
+		if ( batchFile != null ) {
+			// Run scenarios that share the dataset
+			List<StateModScenario> scenarios = null;
+			try {
+				scenarios = StateModScenario.readManifest(batchFile);
+			}
+			catch ( IOException e ) {
+				throw new RuntimeException("Error reading batch manifest \"" + batchFile + "\".", e);
+			}
+			StateModBatchRunner batchRunner = new StateModBatchRunner(stateModRunner);
+			batchRunner.setBatchThreads(batchThreads);
+			batchRunner.setThreads(threads);
+			int failedCount;
+			try ( StateModMetrics.Timer timer = StateModMetrics.getInstance().startPhase("Batch") ) {
+				failedCount = batchRunner.run(scenarios, runMode);
+			}
+			if ( failedCount > 0 ) {
+				StateModLogger.printWarning(1, routine, failedCount + " of " + scenarios.size() + " scenarios failed.  See the log files.");
+			}
+			printMemory(routine,"Memory after running batch...");
+		}
+		else if ( runMode == StateModRunModeType.BASEFLOWS ) {
 			stateModRunner.runBaseflows();
 		}
 		else if ( runMode == StateModRunModeType.CHECK ) {
 			stateModRunner.runCheck();
 		}
+		else if ( runMode == StateModRunModeType.ENSEMBLE ) {
+			stateModRunner.runEnsemble();
+		}
 		else if ( runMode == StateModRunModeType.SIMULATE ) {
 			stateModRunner.runSimulation();
 		}
 	}
 	
 	/*
-	 * Set the response file name.
-	 * @param responseFileReq name of the response file.
-	 * If an absolute path, use it.  If a relative path, convert to absolute path.
+	 * Resolve a response file name from the command line to an existing file.
+	 * If an absolute path, use it.  If a relative path, convert to absolute path using the program working directory.
 	 * If the file exists, use the path as specified.
 	 * If the with ".rsp" exists, use that.
-	 * Consequently the final value is full path that matches an existing file.
+	 * @param responseFileReq name of the response file.
+	 * @return the absolute path to the existing response file, or null if the file does not exist.
 	 */
-	private static void setResponseFile ( String responseFileReq ) {
-		String routine = "setResponseFile";
-		// First convert the file to absolute path.
-		String message="Response file (from command line): " + responseFileReq;
-		System.out.println(message);
-		Message.printStatus(2, routine, message);
+	public static String resolveResponseFile ( String responseFileReq ) {
 		String responseFileAbsolute = IOUtil.verifyPathForOS(
 			IOUtil.toAbsolutePath(IOUtil.getProgramWorkingDir(), responseFileReq),true);
-		message="Response file (absolute path): " + responseFileAbsolute;
-		System.out.println(message);
-		Message.printStatus(2, routine, message);
-		File f = new File(responseFileAbsolute);
-		if ( f.exists() ) {
-			responseFile = responseFileAbsolute;
-			// Reset the working directory to that of the response file, in case it changed from above logic
-			workingDir = f.getParent();
+		if ( new File(responseFileAbsolute).exists() ) {
+			return responseFileAbsolute;
 		}
 		else if ( !responseFileAbsolute.endsWith(".rsp") ) {
 			// Try adding the extension
 			String responseFileAbsolute2 = responseFileAbsolute + ".rsp";
-			File f2 = new File(responseFileAbsolute2);
-			if ( f2.exists() ) {
-				message="Response file (with .rsp appended): " + responseFileAbsolute2;
+			if ( new File(responseFileAbsolute2).exists() ) {
+				return responseFileAbsolute2;
+			}
+		}
+		return null;
+	}
+
+	/*
+	 * Set the response file name.
+	 * @param responseFileReq name of the response file.
+	 * The file is resolved with resolveResponseFile().
+	 * Consequently the final value is full path that matches an existing file.
+	 */
+	@SuppressWarnings("try")
+	private static void setResponseFile ( String responseFileReq ) {
+		String routine = "setResponseFile";
+		String message="Response file (from command line): " + responseFileReq;
+		System.out.println(message);
+		StateModLogger.printStatus(2, routine, message);
+		if ( StateModDataSetArchive.isArchivePath(responseFileReq) ) {
+			// Response file in an archive - output files are written next to the archive
+			try ( StateModMetrics.Timer timer = StateModMetrics.getInstance().startPhase("ResolveResponseFile") ) {
+				responseArchive = StateModDataSetArchive.parse(responseFileReq, IOUtil.getProgramWorkingDir());
+			}
+			catch ( IOException e ) {
+				message = "Unable to read response file from archive (" + e.getMessage() + ").";
 				System.out.println(message);
-				Message.printStatus(2, routine, message);
-				responseFile = responseFileAbsolute2;
-				// Reset the working directory to that of the response file, in case it changed from above logic
-				workingDir = f.getParent();
+				StateModLogger.printWarning(2, routine, message);
+				return;
 			}
+			message="Response file (archive): " + responseArchive;
+			System.out.println(message);
+			StateModLogger.printStatus(2, routine, message);
+			responseFile = responseArchive.getOutputFileBase() + ".rsp";
+			workingDir = new File(responseArchive.getArchiveFile()).getParent();
+			return;
+		}
+		String responseFileAbsolute;
+		try ( StateModMetrics.Timer timer = StateModMetrics.getInstance().startPhase("ResolveResponseFile") ) {
+			responseFileAbsolute = resolveResponseFile(responseFileReq);
+		}
+		if ( responseFileAbsolute != null ) {
+			message="Response file (absolute path): " + responseFileAbsolute;
+			System.out.println(message);
+			StateModLogger.printStatus(2, routine, message);
+			responseFile = responseFileAbsolute;
+			// Reset the working directory to that of the response file, in case it changed from above logic
+			workingDir = new File(responseFileAbsolute).getParent();
 		}
 		// The response file may not exist, in which case it will be set to the initial null value.
 		// This will trigger exiting the program from the main program.
 	}
 	
+	/**
+	 * Write the run metrics as JSON next to the log file, as the response file with ".metrics.json",
+	 * or the output base with ".metrics.json".
+	 * Errors are logged but are not fatal.
+	 */
+	private static void writeMetrics () {
+		String routine = "StateModMain.writeMetrics";
+		if ( responseFile == null ) {
+			return;
+		}
+		String metricsFile = ((outputFileBase != null) ? outputFileBase : responseFile) + ".metrics.json";
+		try {
+			StateModMetrics.getInstance().writeJson(metricsFile);
+			StateModLogger.printStatus(2, routine, "Wrote metrics to \"" + metricsFile + "\".");
+		}
+		catch ( Exception e ) {
+			StateModLogger.printWarning(3, routine, "Error writing metrics file \"" + metricsFile + "\" (" + e + ").");
+		}
+	}
+
 	/**
 	Set the working directory as the system "user.dir" property.
 	*/
@@ -409,7 +1072,7 @@ public class StateModMain {
 	    // occurs, this default for dialogs should be the home of the command file.
 	    //JGUIUtil.setLastFileDialogDirectory( working_dir );
 	    String message = "Setting working directory to user directory \"" + workingDir +"\".";
-	    Message.printStatus ( 1, routine, message );
+	    StateModLogger.printStatus ( 1, routine, message );
 	    System.out.println(message);
 	}
 
@@ -0,0 +1,354 @@
+// StateModMetrics - phase timers, allocation, counters, and memory use for a run
+
+/* NoticeStart
+
+StateMod Java
+StateMod Java is a part of Colorado's Decision Support Systems (CDSS)
+Copyright (C) 2019 Colorado Department of Natural Resources
+
+StateMod Java is free software:  you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+StateMod Java is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+    along with StateMod Java.  If not, see <https://www.gnu.org/licenses/>.
+
+NoticeEnd */
+
+package cdss.statemod.app;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Metrics for a run:  elapsed time and allocated bytes for each phase (for example reading each component
+ * or simulating each year), counters that are added to by the run modes, and memory use at points in the run.
+ * The metrics are written as a JSON file next to the log file so that runs can be compared without a profiler.
+ * <p>
+ * Phases are timed with startPhase() in a try-with-resources statement.  Allocated bytes are for the thread
+ * that times the phase (the HotSpot ThreadMXBean extension is used if available), so work done by pool
+ * threads is included in elapsed time but not in allocated bytes.
+ * A phase that is timed more than once, for example on several threads, is reported with the count,
+ * total, minimum, and maximum time.
+ * Counters are intended to be added to once per loop, not in the innermost loop, for example using
+ * counts accumulated by the simulator.
+ * All methods can be called from any thread.
+ */
+public class StateModMetrics {
+
+	/**
+	 * Metrics for the program.
+	 */
+	private static final StateModMetrics instance = new StateModMetrics();
+
+	/**
+	 * Thread bean used to measure allocated bytes.
+	 */
+	private static final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+
+	/**
+	 * Phase statistics by name, in the order first recorded.
+	 */
+	private final Map<String,PhaseStats> phases = new LinkedHashMap<>();
+
+	/**
+	 * Counters by name.
+	 */
+	private final ConcurrentHashMap<String,LongAdder> counters = new ConcurrentHashMap<>();
+
+	/**
+	 * Memory snapshots, in the order recorded.
+	 */
+	private final List<MemorySnapshot> memorySnapshots = new ArrayList<>();
+
+	/**
+	 * Time that the metrics were created or reset, milliseconds.
+	 */
+	private long startTime = System.currentTimeMillis();
+
+	/**
+	 * Add to a counter.
+	 * @param name counter name
+	 * @param count amount to add
+	 */
+	public void addCount ( String name, long count ) {
+		LongAdder adder = this.counters.get(name);
+		if ( adder == null ) {
+			this.counters.putIfAbsent(name, new LongAdder());
+			adder = this.counters.get(name);
+		}
+		adder.add(count);
+	}
+
+	/**
+	 * Add a phase measurement.
+	 * @param name phase name
+	 * @param elapsedNanos elapsed time, nanoseconds
+	 * @param allocatedBytes allocated bytes, or -1 if not measured
+	 */
+	public void addPhase ( String name, long elapsedNanos, long allocatedBytes ) {
+		synchronized ( this.phases ) {
+			PhaseStats stats = this.phases.get(name);
+			if ( stats == null ) {
+				stats = new PhaseStats();
+				this.phases.put(name, stats);
+			}
+			++stats.count;
+			stats.totalNanos += elapsedNanos;
+			stats.minNanos = Math.min(stats.minNanos, elapsedNanos);
+			stats.maxNanos = Math.max(stats.maxNanos, elapsedNanos);
+			if ( (allocatedBytes < 0) || (stats.allocatedBytes < 0) ) {
+				stats.allocatedBytes = -1;
+			}
+			else {
+				stats.allocatedBytes += allocatedBytes;
+			}
+		}
+	}
+
+	/**
+	 * Return the bytes allocated by the current thread, or -1 if not supported.
+	 */
+	public static long getAllocatedBytes () {
+		if ( threadBean instanceof com.sun.management.ThreadMXBean ) {
+			com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean)threadBean;
+			if ( sunBean.isThreadAllocatedMemorySupported() && sunBean.isThreadAllocatedMemoryEnabled() ) {
+				return sunBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Return the value of a counter, 0 if the counter has not been added to.
+	 * @param name counter name
+	 */
+	public long getCount ( String name ) {
+		LongAdder adder = this.counters.get(name);
+		return (adder == null) ? 0 : adder.sum();
+	}
+
+	/**
+	 * Return the metrics for the program.
+	 */
+	public static StateModMetrics getInstance () {
+		return instance;
+	}
+
+	/**
+	 * Quote a string for JSON.
+	 */
+	private static String quote ( String s ) {
+		StringBuilder b = new StringBuilder("\"");
+		for ( int i = 0; i < s.length(); i++ ) {
+			char c = s.charAt(i);
+			if ( (c == '"') || (c == '\\') ) {
+				b.append('\\').append(c);
+			}
+			else if ( c < ' ' ) {
+				b.append(String.format("\\u%04x", (int)c));
+			}
+			else {
+				b.append(c);
+			}
+		}
+		return b.append('"').toString();
+	}
+
+	/**
+	 * Record the current memory use.
+	 * @param label label for the point in the run
+	 */
+	public void recordMemory ( String label ) {
+		Runtime runtime = Runtime.getRuntime();
+		MemorySnapshot snapshot = new MemorySnapshot();
+		snapshot.label = label;
+		snapshot.time = System.currentTimeMillis();
+		snapshot.maxBytes = runtime.maxMemory();
+		snapshot.totalBytes = runtime.totalMemory();
+		snapshot.freeBytes = runtime.freeMemory();
+		synchronized ( this.memorySnapshots ) {
+			this.memorySnapshots.add(snapshot);
+		}
+	}
+
+	/**
+	 * Clear all metrics.
+	 */
+	public void reset () {
+		synchronized ( this.phases ) {
+			this.phases.clear();
+		}
+		synchronized ( this.memorySnapshots ) {
+			this.memorySnapshots.clear();
+		}
+		this.counters.clear();
+		this.startTime = System.currentTimeMillis();
+	}
+
+	/**
+	 * Start timing a phase.  The phase is recorded when the returned timer is closed.
+	 * @param name phase name
+	 * @return timer, which should be closed in a try-with-resources statement
+	 */
+	public Timer startPhase ( String name ) {
+		return new Timer(this, name);
+	}
+
+	/**
+	 * Start timing a phase for objects that are given the metrics of a run, which may be null.
+	 * @param metrics metrics to record the phase in, or null to not record the phase
+	 * @param name phase name
+	 * @return timer, or null if metrics is null, which should be closed in a try-with-resources statement
+	 */
+	public static Timer startPhase ( StateModMetrics metrics, String name ) {
+		return (metrics == null) ? null : new Timer(metrics, name);
+	}
+
+	/**
+	 * Write the metrics as JSON.
+	 * @param file path to the output file
+	 * @exception IOException if the file cannot be written
+	 */
+	public void writeJson ( String file ) throws IOException {
+		String nl = System.getProperty("line.separator");
+		try ( PrintWriter out = new PrintWriter(file) ) {
+			out.print("{" + nl);
+			out.print("  \"program\": " + quote(StateModMain.PROGRAM_NAME + " " + StateModMain.PROGRAM_VERSION) + "," + nl);
+			out.print("  \"javaVersion\": " + quote(System.getProperty("java.version")) + "," + nl);
+			out.print("  \"processors\": " + Runtime.getRuntime().availableProcessors() + "," + nl);
+			out.print("  \"startTime\": " + this.startTime + "," + nl);
+			out.print("  \"elapsedMs\": " + (System.currentTimeMillis() - this.startTime) + "," + nl);
+			out.print("  \"phases\": [");
+			synchronized ( this.phases ) {
+				String delim = nl;
+				for ( Map.Entry<String,PhaseStats> entry : this.phases.entrySet() ) {
+					PhaseStats stats = entry.getValue();
+					out.print(delim + "    { \"name\": " + quote(entry.getKey()) + ", \"count\": " + stats.count +
+						", \"totalMs\": " + formatMs(stats.totalNanos) + ", \"minMs\": " + formatMs(stats.minNanos) +
+						", \"maxMs\": " + formatMs(stats.maxNanos) + ", \"allocatedBytes\": " + stats.allocatedBytes + " }");
+					delim = "," + nl;
+				}
+			}
+			out.print(nl + "  ]," + nl);
+			out.print("  \"counters\": {");
+			String delim = nl;
+			for ( Map.Entry<String,LongAdder> entry : new TreeMap<>(this.counters).entrySet() ) {
+				out.print(delim + "    " + quote(entry.getKey()) + ": " + entry.getValue().sum());
+				delim = "," + nl;
+			}
+			out.print(nl + "  }," + nl);
+			out.print("  \"memory\": [");
+			synchronized ( this.memorySnapshots ) {
+				delim = nl;
+				for ( MemorySnapshot snapshot : this.memorySnapshots ) {
+					out.print(delim + "    { \"label\": " + quote(snapshot.label) + ", \"time\": " + snapshot.time +
+						", \"maxBytes\": " + snapshot.maxBytes + ", \"totalBytes\": " + snapshot.totalBytes +
+						", \"freeBytes\": " + snapshot.freeBytes + ", \"usedBytes\": " + (snapshot.totalBytes - snapshot.freeBytes) + " }");
+					delim = "," + nl;
+				}
+			}
+			out.print(nl + "  ]" + nl);
+			out.print("}" + nl);
+		}
+	}
+
+	/**
+	 * Format nanoseconds as milliseconds with 3 decimals, independent of locale.
+	 */
+	private static String formatMs ( long nanos ) {
+		return Long.toString(nanos/1000000) + "." + String.format("%03d", (nanos/1000)%1000);
+	}
+
+	/**
+	 * Memory use at a point in the run.
+	 */
+	private static class MemorySnapshot {
+		String label;
+		long time;
+		long maxBytes;
+		long totalBytes;
+		long freeBytes;
+	}
+
+	/**
+	 * Statistics for a phase.
+	 */
+	private static class PhaseStats {
+		long count = 0;
+		long totalNanos = 0;
+		long minNanos = Long.MAX_VALUE;
+		long maxNanos = 0;
+		long allocatedBytes = 0;
+	}
+
+	/**
+	 * Timer for a phase, which records the phase when closed.
+	 */
+	public static class Timer implements AutoCloseable {
+
+		/**
+		 * Metrics to record the phase in.
+		 */
+		private final StateModMetrics metrics;
+
+		/**
+		 * Phase name.
+		 */
+		private final String name;
+
+		/**
+		 * Start time, nanoseconds.
+		 */
+		private final long startNanos;
+
+		/**
+		 * Allocated bytes for the thread at the start, -1 if not supported.
+		 */
+		private final long startBytes;
+
+		/**
+		 * Whether the phase has been recorded.
+		 */
+		private boolean closed = false;
+
+		/**
+		 * Constructor, which starts the timer.
+		 */
+		private Timer ( StateModMetrics metrics, String name ) {
+			this.metrics = metrics;
+			this.name = name;
+			this.startBytes = getAllocatedBytes();
+			this.startNanos = System.nanoTime();
+		}
+
+		/**
+		 * Stop the timer and record the phase.  Only the first call has an effect.
+		 */
+		@Override
+		public void close () {
+			if ( this.closed ) {
+				return;
+			}
+			this.closed = true;
+			long elapsed = System.nanoTime() - this.startNanos;
+			long bytes = (this.startBytes < 0) ? -1 : (getAllocatedBytes() - this.startBytes);
+			this.metrics.addPhase(this.name, elapsed, bytes);
+		}
+	}
+}
@@ -0,0 +1,185 @@
+// StateModNetwork - river network compiled into integer index arrays
+
+/* NoticeStart
+
+StateMod Java
+StateMod Java is a part of Colorado's Decision Support Systems (CDSS)
+Copyright (C) 2019 Colorado Department of Natural Resources
+
+StateMod Java is free software:  you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+StateMod Java is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+    along with StateMod Java.  If not, see <https://www.gnu.org/licenses/>.
+
+NoticeEnd */
+
+package cdss.statemod.app;
+
+import java.util.List;
+
+import DWR.StateMod.StateMod_DataSet;
+import DWR.StateMod.StateMod_RiverNetworkNode;
+
+/**
+ * River network compiled into integer arrays so that run modes can walk the network without
+ * string lookups or object references.
+ * Nodes are numbered in the order of the river network file.
+ * The downstream array gives the next node downstream (-1 at the outlet),
+ * the upstream lists are stored in compressed form (upstreamStart, upstreamNodes),
+ * and the upstream-to-downstream order lists nodes so that every node comes after all nodes upstream of it.
+ */
+public class StateModNetwork {
+
+	/**
+	 * Node identifier to node position.
+	 */
+	private final StateModStationIndex nodeIndex;
+
+	/**
+	 * Downstream node for each node, -1 for an outlet.
+	 */
+	private final int [] downstream;
+
+	/**
+	 * Position in upstreamNodes of the first upstream node for each node, with an extra value at the end,
+	 * so that the upstream nodes of node i are upstreamNodes[upstreamStart[i]] to upstreamNodes[upstreamStart[i+1]-1].
+	 */
+	private final int [] upstreamStart;
+
+	/**
+	 * Immediately upstream nodes for all nodes, see upstreamStart.
+	 */
+	private final int [] upstreamNodes;
+
+	/**
+	 * Nodes in upstream to downstream order.
+	 */
+	private final int [] order;
+
+	/**
+	 * Constructor.
+	 * @param nodeIndex node identifier to node position
+	 * @param downstream downstream node for each node, -1 for an outlet
+	 */
+	public StateModNetwork ( StateModStationIndex nodeIndex, int [] downstream ) {
+		this.nodeIndex = nodeIndex;
+		this.downstream = downstream;
+		int nodeCount = downstream.length;
+		// Count the upstream nodes of each node and convert to start positions
+		this.upstreamStart = new int[nodeCount + 1];
+		for ( int i = 0; i < nodeCount; i++ ) {
+			if ( downstream[i] >= 0 ) {
+				++this.upstreamStart[downstream[i] + 1];
+			}
+		}
+		for ( int i = 0; i < nodeCount; i++ ) {
+			this.upstreamStart[i + 1] += this.upstreamStart[i];
+		}
+		this.upstreamNodes = new int[this.upstreamStart[nodeCount]];
+		int [] fill = new int[nodeCount];
+		for ( int i = 0; i < nodeCount; i++ ) {
+			int d = downstream[i];
+			if ( d >= 0 ) {
+				this.upstreamNodes[this.upstreamStart[d] + fill[d]] = i;
+				++fill[d];
+			}
+		}
+		// Determine the upstream to downstream order by starting with headwater nodes
+		// and adding a node when all of its upstream nodes have been added.
+		this.order = new int[nodeCount];
+		int [] remaining = new int[nodeCount];
+		int orderCount = 0;
+		for ( int i = 0; i < nodeCount; i++ ) {
+			remaining[i] = this.upstreamStart[i + 1] - this.upstreamStart[i];
+			if ( remaining[i] == 0 ) {
+				this.order[orderCount++] = i;
+			}
+		}
+		for ( int iorder = 0; iorder < orderCount; iorder++ ) {
+			int d = downstream[this.order[iorder]];
+			if ( (d >= 0) && (--remaining[d] == 0) ) {
+				this.order[orderCount++] = d;
+			}
+		}
+		if ( orderCount != nodeCount ) {
+			throw new IllegalArgumentException("River network contains a loop - " + (nodeCount - orderCount) +
+				" nodes cannot be ordered upstream to downstream.");
+		}
+	}
+
+	/**
+	 * Create the network from the dataset river network component.
+	 * @param dataset dataset that has been read
+	 * @param registry identifier registry for the dataset
+	 * @return compiled network
+	 */
+	public static StateModNetwork createFromDataSet ( StateMod_DataSet dataset, StateModIdRegistry registry ) {
+		@SuppressWarnings("unchecked")
+		List<StateMod_RiverNetworkNode> nodes =
+			(List<StateMod_RiverNetworkNode>)StateModDataSetLoader.getComponentData(dataset, StateMod_DataSet.COMP_RIVER_NETWORK);
+		StateModStationIndex nodeIndex = new StateModStationIndex(registry, (nodes == null) ? 0 : nodes.size());
+		if ( nodes == null ) {
+			return new StateModNetwork(nodeIndex, new int[0]);
+		}
+		for ( StateMod_RiverNetworkNode node : nodes ) {
+			nodeIndex.add(node.getID());
+		}
+		int [] downstream = new int[nodeIndex.size()];
+		for ( StateMod_RiverNetworkNode node : nodes ) {
+			// Downstream node that is not found (for example "END") indicates an outlet
+			downstream[nodeIndex.getIndex(node.getID())] = nodeIndex.getIndex(node.getCstadn());
+		}
+		return new StateModNetwork(nodeIndex, downstream);
+	}
+
+	/**
+	 * Return the downstream node array, which is not copied.  -1 indicates an outlet.
+	 */
+	public int [] getDownstream () {
+		return this.downstream;
+	}
+
+	/**
+	 * Return the number of nodes.
+	 */
+	public int getNodeCount () {
+		return this.downstream.length;
+	}
+
+	/**
+	 * Return the node index.
+	 */
+	public StateModStationIndex getNodeIndex () {
+		return this.nodeIndex;
+	}
+
+	/**
+	 * Return the upstream to downstream node order, which is not copied.
+	 */
+	public int [] getOrder () {
+		return this.order;
+	}
+
+	/**
+	 * Return the upstream node list, which is not copied.  See getUpstreamStart().
+	 */
+	public int [] getUpstreamNodes () {
+		return this.upstreamNodes;
+	}
+
+	/**
+	 * Return the upstream node start positions, which is not copied.
+	 * The upstream nodes of node i are getUpstreamNodes()[start[i]] to getUpstreamNodes()[start[i+1]-1].
+	 */
+	public int [] getUpstreamStart () {
+		return this.upstreamStart;
+	}
+}
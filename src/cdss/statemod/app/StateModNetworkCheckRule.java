@@ -0,0 +1,142 @@
+// StateModNetworkCheckRule - check that the river network is connected and has no loops
+
+/* NoticeStart
+
+StateMod Java
+StateMod Java is a part of Colorado's Decision Support Systems (CDSS)
+Copyright (C) 2019 Colorado Department of Natural Resources
+
+StateMod Java is free software:  you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+StateMod Java is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+    along with StateMod Java.  If not, see <https://www.gnu.org/licenses/>.
+
+NoticeEnd */
+
+package cdss.statemod.app;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import DWR.StateMod.StateMod_DataSet;
+import DWR.StateMod.StateMod_RiverNetworkNode;
+
+/**
+ * Check the river network:  node identifiers must be unique, each node must drain to at least one outlet,
+ * and the network must not contain loops.
+ * A downstream identifier that is not a node (for example "END") is treated as an outlet,
+ * but is reported as a warning if more than one outlet uses a different identifier,
+ * which usually indicates a typographical error.
+ */
+public class StateModNetworkCheckRule implements StateModCheckRule {
+
+	/**
+	 * Rule name.
+	 */
+	private static final String NAME = "RiverNetwork";
+
+	/**
+	 * Check the dataset.
+	 */
+	@Override
+	public List<StateModCheckMessage> check ( StateMod_DataSet dataset, StateModTimeSeriesStore store ) {
+		List<StateModCheckMessage> messages = new ArrayList<>();
+		@SuppressWarnings("unchecked")
+		List<StateMod_RiverNetworkNode> nodes =
+			(List<StateMod_RiverNetworkNode>)StateModDataSetLoader.getComponentData(dataset, StateMod_DataSet.COMP_RIVER_NETWORK);
+		String component = StateModCheckEngine.getComponentName(dataset, StateMod_DataSet.COMP_RIVER_NETWORK);
+		if ( (nodes == null) || nodes.isEmpty() ) {
+			messages.add(new StateModCheckMessage(NAME, StateModCheckMessage.SEVERITY_ERROR, component, "",
+				"River network has no nodes."));
+			return messages;
+		}
+		StateModStationIndex nodeIndex = new StateModStationIndex();
+		for ( StateMod_RiverNetworkNode node : nodes ) {
+			String id = node.getID();
+			if ( nodeIndex.getIndex(id) >= 0 ) {
+				messages.add(new StateModCheckMessage(NAME, StateModCheckMessage.SEVERITY_ERROR, component, id,
+					"Node identifier is used more than once."));
+			}
+			nodeIndex.add(id);
+		}
+		// Downstream node for each unique node, using the first definition, and count of outlets by downstream identifier
+		int nodeCount = nodeIndex.size();
+		int [] downstream = new int[nodeCount];
+		boolean [] set = new boolean[nodeCount];
+		Map<String,Integer> outletCounts = new HashMap<>();
+		for ( StateMod_RiverNetworkNode node : nodes ) {
+			int pos = nodeIndex.getIndex(node.getID());
+			if ( set[pos] ) {
+				continue;
+			}
+			set[pos] = true;
+			String downstreamId = node.getCstadn();
+			downstream[pos] = nodeIndex.getIndex(downstreamId);
+			if ( downstream[pos] == pos ) {
+				messages.add(new StateModCheckMessage(NAME, StateModCheckMessage.SEVERITY_ERROR, component, node.getID(),
+					"Node is downstream of itself."));
+				downstream[pos] = -1;
+			}
+			else if ( downstream[pos] < 0 ) {
+				String key = (downstreamId == null) ? "" : downstreamId.trim();
+				Integer count = outletCounts.get(key);
+				outletCounts.put(key, (count == null) ? 1 : count + 1);
+			}
+		}
+		if ( outletCounts.size() > 1 ) {
+			for ( Map.Entry<String,Integer> entry : outletCounts.entrySet() ) {
+				messages.add(new StateModCheckMessage(NAME, StateModCheckMessage.SEVERITY_WARNING, component, entry.getKey(),
+					entry.getValue() + " nodes drain to downstream identifier \"" + entry.getKey() +
+					"\", which is not a node - check for typographical errors."));
+			}
+		}
+		// Nodes that do not drain to an outlet are on or upstream of a loop.
+		// 0 = not visited, 1 = on the current path, 2 = drains to an outlet, 3 = does not drain to an outlet
+		int [] state = new int[nodeCount];
+		int [] path = new int[nodeCount];
+		for ( int i = 0; i < nodeCount; i++ ) {
+			int pathCount = 0;
+			int pos = i;
+			while ( (pos >= 0) && (state[pos] == 0) ) {
+				state[pos] = 1;
+				path[pathCount++] = pos;
+				pos = downstream[pos];
+			}
+			int result = ((pos < 0) || (state[pos] == 2)) ? 2 : 3;
+			for ( int ipath = 0; ipath < pathCount; ipath++ ) {
+				state[path[ipath]] = result;
+				if ( result == 3 ) {
+					messages.add(new StateModCheckMessage(NAME, StateModCheckMessage.SEVERITY_ERROR, component,
+						nodeIndex.getId(path[ipath]), "Node does not drain to an outlet - the network contains a loop."));
+				}
+			}
+		}
+		return messages;
+	}
+
+	/**
+	 * Return the component types that are read.
+	 */
+	@Override
+	public int [] getComponentTypes () {
+		return new int [] { StateMod_DataSet.COMP_RIVER_NETWORK };
+	}
+
+	/**
+	 * Return the rule name.
+	 */
+	@Override
+	public String getName () {
+		return NAME;
+	}
+}
@@ -0,0 +1,545 @@
+// StateModOutputComparator - compare binary output files with reference output files
+
+
+/* NoticeStart
+
+StateMod Java
+StateMod Java is a part of Colorado's Decision Support Systems (CDSS)
+Copyright (C) 2019 Colorado Department of Natural Resources
+
+StateMod Java is free software:  you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+StateMod Java is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+    along with StateMod Java.  If not, see <https://www.gnu.org/licenses/>.
+
+NoticeEnd */
+
+package cdss.statemod.app;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import RTi.Util.Time.TimeInterval;
+
+/**
+ * Compare a binary output file with a reference output file, for example to check the Java results
+ * against Fortran StateMod results.
+ * <p>
+ * Each file can be a Java binary output file (*.jb43, *.jb44), read with StateModBinaryOutputReader,
+ * or a Fortran StateMod binary output file (*.b43, *.b44), read with StateModFortranOutputReader (StateMod_BTS),
+ * which is determined from the start of the file.  Fortran parameters are mapped onto the Java variable names
+ * with StateModFortranOutputReader.getDefaultParameters(), which can be changed with setFortranParameter().
+ * <p>
+ * Stations and variables are matched by name, so the files can list them in different order, and the
+ * overlapping period is compared.  The files are streamed a block of time steps at a time, so memory use
+ * does not depend on the length of the period.  While one block is compared, using threads that each
+ * compare a range of stations, the next block is read.
+ * <p>
+ * A value differs from the reference value if both the absolute difference is larger than the absolute
+ * tolerance and the absolute difference is larger than the relative tolerance times the reference value.
+ * Tolerances can be set for each variable.  Values that are missing (NaN) in both files are the same,
+ * and a value that is missing in only one file is a difference.
+ */
+public class StateModOutputComparator {
+
+	/**
+	 * Logger for run-time messages.
+	 */
+	private static final StateModLogger LOG = StateModLogger.getLogger(StateModOutputComparator.class);
+
+	/**
+	 * Default absolute tolerance, in the output units.
+	 */
+	public static final double DEFAULT_ABSOLUTE_TOLERANCE = 0.01;
+
+	/**
+	 * Default relative tolerance, as a fraction of the reference value.
+	 */
+	public static final double DEFAULT_RELATIVE_TOLERANCE = 0.001;
+
+	/**
+	 * Maximum number of values read from each file for a block of time steps.
+	 */
+	private static final int BLOCK_VALUES = 1024*1024;
+
+	/**
+	 * Output file to check.
+	 */
+	private final String outputFile;
+
+	/**
+	 * Reference output file.
+	 */
+	private final String referenceFile;
+
+	/**
+	 * Absolute and relative tolerances by variable name, for variables that do not use the default.
+	 */
+	private final Map<String,double[]> tolerances = new HashMap<>();
+
+	/**
+	 * Absolute tolerance for variables without a tolerance.
+	 */
+	private double defaultAbsoluteTolerance = DEFAULT_ABSOLUTE_TOLERANCE;
+
+	/**
+	 * Relative tolerance for variables without a tolerance.
+	 */
+	private double defaultRelativeTolerance = DEFAULT_RELATIVE_TOLERANCE;
+
+	/**
+	 * StateMod_BTS parameter for each variable name, used to read Fortran output files.
+	 */
+	private final Map<String,String> fortranParameters = StateModFortranOutputReader.getDefaultParameters();
+
+	/**
+	 * Number of threads used to compare stations.
+	 */
+	private int threads = 1;
+
+	/**
+	 * Output interval base, year, month, and day of the first time step, set by compare().
+	 */
+	private int intervalBase = TimeInterval.MONTH;
+	private int startYear = 0;
+	private int startMonth = 1;
+	private int startDay = 1;
+
+	/**
+	 * Output variable names, set by compare().
+	 */
+	private String [] variableNames = new String[0];
+
+	/**
+	 * Output variable names that are not in the reference file, set by compare().
+	 */
+	private final List<String> uncomparedVariables = new ArrayList<>();
+
+	/**
+	 * First and last output time step that were compared, set by compare(), last step is -1 if none.
+	 */
+	private int firstComparedStep = 0;
+	private int lastComparedStep = -1;
+
+	/**
+	 * Constructor.
+	 * @param outputFile output file to check
+	 * @param referenceFile reference output file
+	 */
+	public StateModOutputComparator ( String outputFile, String referenceFile ) {
+		this.outputFile = outputFile;
+		this.referenceFile = referenceFile;
+	}
+
+	/**
+	 * Compare the files.
+	 * @return comparison for each station, in output file order followed by stations that are only in the reference file
+	 * @exception IOException if a file cannot be read
+	 * @exception IllegalArgumentException if the files have different time intervals
+	 */
+	public List<StateModStationComparison> compare () throws IOException {
+		try ( StateModOutputReader output = openReader(this.outputFile);
+			StateModOutputReader reference = openReader(this.referenceFile) ) {
+			return compare(output, reference);
+		}
+	}
+
+	/**
+	 * Compare files that have been opened.  The readers are not closed.
+	 * @param output reader for the output file
+	 * @param reference reader for the reference file
+	 * @return comparison for each station, in output file order followed by stations that are only in the reference file
+	 * @exception IOException if a file cannot be read
+	 * @exception IllegalArgumentException if the files have different time intervals
+	 */
+	public List<StateModStationComparison> compare ( StateModOutputReader output, StateModOutputReader reference )
+		throws IOException {
+		if ( output.getIntervalBase() != reference.getIntervalBase() ) {
+			throw new IllegalArgumentException("Output file \"" + this.outputFile + "\" and reference file \"" +
+				this.referenceFile + "\" have different time intervals.");
+		}
+		this.intervalBase = output.getIntervalBase();
+		this.startYear = output.getStartYear();
+		this.startMonth = output.getStartMonth();
+		this.startDay = output.getStartDay();
+		this.variableNames = output.getVariableNames();
+
+		// Match variables by name and determine the tolerances for each output variable
+		String [] referenceNames = reference.getVariableNames();
+		int variableCount = this.variableNames.length;
+		int [] referenceVariable = new int[variableCount];
+		double [] absolute = new double[variableCount];
+		double [] relative = new double[variableCount];
+		this.uncomparedVariables.clear();
+		for ( int variable = 0; variable < variableCount; variable++ ) {
+			referenceVariable[variable] = -1;
+			for ( int i = 0; i < referenceNames.length; i++ ) {
+				if ( referenceNames[i].equalsIgnoreCase(this.variableNames[variable]) ) {
+					referenceVariable[variable] = i;
+					break;
+				}
+			}
+			if ( referenceVariable[variable] < 0 ) {
+				this.uncomparedVariables.add(this.variableNames[variable]);
+				LOG.warn("Variable \"{}\" is not in reference file \"{}\" and is not compared.",
+					this.variableNames[variable], this.referenceFile);
+			}
+			double [] tolerance = this.tolerances.get(this.variableNames[variable].toUpperCase());
+			absolute[variable] = (tolerance == null) ? this.defaultAbsoluteTolerance : tolerance[0];
+			relative[variable] = (tolerance == null) ? this.defaultRelativeTolerance : tolerance[1];
+		}
+
+		// Match stations by identifier
+		StateModStationIndex outputStations = output.getStationIndex();
+		StateModStationIndex referenceStations = reference.getStationIndex();
+		int [] referenceStation = outputStations.mapPositions(referenceStations);
+		int [] outputStation = referenceStations.mapPositions(outputStations);
+		List<StateModStationComparison> results = new ArrayList<>(outputStations.size());
+		for ( int station = 0; station < referenceStation.length; station++ ) {
+			results.add(new StateModStationComparison(outputStations.getId(station), referenceStation[station] >= 0, true));
+		}
+		for ( int station = 0; station < outputStation.length; station++ ) {
+			if ( outputStation[station] < 0 ) {
+				results.add(new StateModStationComparison(referenceStations.getId(station), false, false));
+			}
+		}
+
+		// Compare the overlapping period, where the reference step is the output step plus the offset
+		int offset = getStepOffset(output, reference);
+		this.firstComparedStep = Math.max(0, -offset);
+		this.lastComparedStep = Math.min(output.getStepCount(), reference.getStepCount() - offset) - 1;
+		if ( this.lastComparedStep < this.firstComparedStep ) {
+			LOG.warn("Output file \"{}\" and reference file \"{}\" do not have overlapping periods.",
+				this.outputFile, this.referenceFile);
+			return results;
+		}
+		compareSteps(output, reference, offset, results, referenceStation, referenceVariable, absolute, relative);
+		return results;
+	}
+
+	/**
+	 * Compare a block of time steps for a range of output stations.
+	 * @param values output values for the block
+	 * @param referenceValues reference values for the block
+	 * @param blockStep output time step of the first step in the block
+	 * @param stepCount number of time steps in the block
+	 * @param firstStation first output station to compare
+	 * @param endStation output station after the last station to compare
+	 */
+	private static void compareBlock ( float [] values, int outputStationCount, int outputVariableCount,
+		float [] referenceValues, int referenceStationCount, int referenceVariableCount,
+		int blockStep, int stepCount, int firstStation, int endStation, List<StateModStationComparison> results,
+		int [] referenceStation, int [] referenceVariable, double [] absolute, double [] relative ) {
+		for ( int station = firstStation; station < endStation; station++ ) {
+			int refStation = referenceStation[station];
+			if ( refStation < 0 ) {
+				continue;
+			}
+			StateModStationComparison result = results.get(station);
+			long valueCount = 0;
+			for ( int step = 0; step < stepCount; step++ ) {
+				int position = (step*outputStationCount + station)*outputVariableCount;
+				int referencePosition = (step*referenceStationCount + refStation)*referenceVariableCount;
+				for ( int variable = 0; variable < outputVariableCount; variable++ ) {
+					int refVariable = referenceVariable[variable];
+					if ( refVariable < 0 ) {
+						continue;
+					}
+					++valueCount;
+					double value = values[position + variable];
+					double referenceValue = referenceValues[referencePosition + refVariable];
+					if ( value == referenceValue ) {
+						continue;
+					}
+					double difference = Math.abs(value - referenceValue);
+					double allowed = Math.max(absolute[variable], relative[variable]*Math.abs(referenceValue));
+					if ( difference <= allowed ) {
+						continue;
+					}
+					if ( Double.isNaN(difference) ) {
+						if ( Double.isNaN(value) && Double.isNaN(referenceValue) ) {
+							continue;
+						}
+						result.addDifference(blockStep + step, variable, value, referenceValue, Double.POSITIVE_INFINITY);
+					}
+					else {
+						result.addDifference(blockStep + step, variable, value, referenceValue,
+							(allowed > 0.0) ? difference/allowed : Double.POSITIVE_INFINITY);
+					}
+				}
+			}
+			result.addValueCount(valueCount);
+		}
+	}
+
+	/**
+	 * Stream the overlapping time steps, comparing one block while reading the next.
+	 */
+	private void compareSteps ( StateModOutputReader output, StateModOutputReader reference, int offset,
+		final List<StateModStationComparison> results, final int [] referenceStation, final int [] referenceVariable,
+		final double [] absolute, final double [] relative ) throws IOException {
+		final int outputStationCount = output.getStationIndex().size();
+		final int outputVariableCount = output.getVariableNames().length;
+		final int referenceStationCount = reference.getStationIndex().size();
+		final int referenceVariableCount = reference.getVariableNames().length;
+		int outputStepValues = outputStationCount*outputVariableCount;
+		int referenceStepValues = referenceStationCount*referenceVariableCount;
+		int blockSteps = Math.max(1, BLOCK_VALUES/Math.max(1, Math.max(outputStepValues, referenceStepValues)));
+		// Two sets of buffers so that the next block can be read while the current block is compared
+		float [][] values = new float[2][blockSteps*outputStepValues];
+		float [][] referenceValues = new float[2][blockSteps*referenceStepValues];
+		int taskCount = Math.max(1, Math.min(this.threads, outputStationCount));
+		ExecutorService executor = (taskCount > 1) ? Executors.newFixedThreadPool(taskCount) : null;
+		try {
+			int step = this.firstComparedStep;
+			int stepCount = Math.min(blockSteps, this.lastComparedStep - step + 1);
+			output.readSteps(step, stepCount, values[0]);
+			reference.readSteps(step + offset, stepCount, referenceValues[0]);
+			int current = 0;
+			while ( stepCount > 0 ) {
+				final float [] blockValues = values[current];
+				final float [] blockReferenceValues = referenceValues[current];
+				final int blockStep = step;
+				final int blockStepCount = stepCount;
+				List<Future<Void>> futures = new ArrayList<>(taskCount);
+				if ( executor != null ) {
+					for ( int task = 0; task < taskCount; task++ ) {
+						final int firstStation = (int)((long)outputStationCount*task/taskCount);
+						final int endStation = (int)((long)outputStationCount*(task + 1)/taskCount);
+						futures.add(executor.submit(new Callable<Void>() {
+							@Override
+							public Void call () {
+								compareBlock(blockValues, outputStationCount, outputVariableCount,
+									blockReferenceValues, referenceStationCount, referenceVariableCount,
+									blockStep, blockStepCount, firstStation, endStation, results,
+									referenceStation, referenceVariable, absolute, relative);
+								return null;
+							}
+						}));
+					}
+				}
+				else {
+					compareBlock(blockValues, outputStationCount, outputVariableCount,
+						blockReferenceValues, referenceStationCount, referenceVariableCount,
+						blockStep, blockStepCount, 0, outputStationCount, results,
+						referenceStation, referenceVariable, absolute, relative);
+				}
+				// Read the next block while the current block is compared
+				step += stepCount;
+				stepCount = Math.min(blockSteps, this.lastComparedStep - step + 1);
+				current = 1 - current;
+				if ( stepCount > 0 ) {
+					output.readSteps(step, stepCount, values[current]);
+					reference.readSteps(step + offset, stepCount, referenceValues[current]);
+				}
+				for ( Future<Void> future : futures ) {
+					future.get();
+				}
+			}
+		}
+		catch ( InterruptedException e ) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Output comparison was interrupted.", e);
+		}
+		catch ( ExecutionException e ) {
+			throw new RuntimeException("Error comparing output.", e.getCause());
+		}
+		finally {
+			if ( executor != null ) {
+				executor.shutdownNow();
+			}
+		}
+	}
+
+	/**
+	 * Return the date of an output time step, YYYY-MM for monthly or YYYY-MM-DD for daily output.
+	 * @param step output time step
+	 */
+	public String formatStep ( int step ) {
+		LocalDate start = LocalDate.of(this.startYear, this.startMonth, this.startDay);
+		if ( this.intervalBase == TimeInterval.DAY ) {
+			return start.plusDays(step).toString();
+		}
+		LocalDate date = start.plusMonths(step);
+		return String.format("%04d-%02d", date.getYear(), date.getMonthValue());
+	}
+
+	/**
+	 * Return the number of time steps from the reference start to the output start.
+	 */
+	private static int getStepOffset ( StateModOutputReader output, StateModOutputReader reference ) {
+		if ( output.getIntervalBase() == TimeInterval.DAY ) {
+			return (int)(LocalDate.of(output.getStartYear(), output.getStartMonth(), output.getStartDay()).toEpochDay() -
+				LocalDate.of(reference.getStartYear(), reference.getStartMonth(), reference.getStartDay()).toEpochDay());
+		}
+		return (output.getStartYear()*12 + output.getStartMonth()) - (reference.getStartYear()*12 + reference.getStartMonth());
+	}
+
+	/**
+	 * Return the output variable names that are not in the reference file, from the last comparison.
+	 */
+	public List<String> getUncomparedVariables () {
+		return this.uncomparedVariables;
+	}
+
+	/**
+	 * Open a Java or Fortran output file, determined from the start of the file.
+	 * @param file output file
+	 * @exception IOException if the file cannot be read
+	 */
+	private StateModOutputReader openReader ( String file ) throws IOException {
+		if ( StateModBinaryOutputReader.isBinaryOutputFile(file) ) {
+			return new StateModBinaryOutputReader(file);
+		}
+		return new StateModFortranOutputReader(file, this.fortranParameters);
+	}
+
+	/**
+	 * Quote a string for the report, doubling embedded quotes.
+	 */
+	private static String quote ( String s ) {
+		if ( s == null ) {
+			return "\"\"";
+		}
+		return "\"" + s.replace("\"", "\"\"") + "\"";
+	}
+
+	/**
+	 * Set the StateMod_BTS parameter that is compared with a variable when reading a Fortran output file.
+	 * @param variableName variable name, for example "RiverFlow"
+	 * @param parameter StateMod_BTS parameter, for example "River_Outflow", or null to not compare the variable
+	 */
+	public void setFortranParameter ( String variableName, String parameter ) {
+		if ( parameter == null ) {
+			this.fortranParameters.remove(variableName);
+		}
+		else {
+			this.fortranParameters.put(variableName, parameter);
+		}
+	}
+
+	/**
+	 * Set the number of threads used to compare stations.
+	 * @param threads number of threads
+	 */
+	public void setThreads ( int threads ) {
+		this.threads = (threads < 1) ? 1 : threads;
+	}
+
+	/**
+	 * Set the tolerances for a variable.
+	 * @param variableName variable name (case-independent), or "*" to set the default tolerances
+	 * @param absoluteTolerance allowed absolute difference, in the output units
+	 * @param relativeTolerance allowed difference as a fraction of the reference value
+	 */
+	public void setTolerance ( String variableName, double absoluteTolerance, double relativeTolerance ) {
+		if ( (absoluteTolerance < 0.0) || (relativeTolerance < 0.0) ) {
+			throw new IllegalArgumentException("Tolerances for \"" + variableName + "\" must be >= 0.");
+		}
+		if ( variableName.equals("*") ) {
+			this.defaultAbsoluteTolerance = absoluteTolerance;
+			this.defaultRelativeTolerance = relativeTolerance;
+		}
+		else {
+			this.tolerances.put(variableName.toUpperCase(), new double[] { absoluteTolerance, relativeTolerance });
+		}
+	}
+
+	/**
+	 * Write the comparison report as CSV, with stations that differ first, worst difference first,
+	 * followed by the other stations in file order.
+	 * @param reportFile report file to write
+	 * @param results results from compare()
+	 * @exception IOException if the report cannot be written
+	 */
+	public void writeReport ( String reportFile, List<StateModStationComparison> results ) throws IOException {
+		List<StateModStationComparison> sorted = new ArrayList<>(results);
+		Collections.sort(sorted, new Comparator<StateModStationComparison>() {
+			@Override
+			public int compare ( StateModStationComparison a, StateModStationComparison b ) {
+				boolean aDifferent = a.getDifferenceCount() > 0;
+				boolean bDifferent = b.getDifferenceCount() > 0;
+				if ( aDifferent != bDifferent ) {
+					return aDifferent ? -1 : 1;
+				}
+				return aDifferent ? Double.compare(b.getWorstRatio(), a.getWorstRatio()) : 0;
+			}
+		});
+		int [] statusCounts = new int[4];
+		String [] statuses = {
+			StateModStationComparison.STATUS_SAME, StateModStationComparison.STATUS_DIFFERENT,
+			StateModStationComparison.STATUS_NOT_IN_REFERENCE, StateModStationComparison.STATUS_NOT_IN_OUTPUT };
+		for ( StateModStationComparison result : results ) {
+			for ( int i = 0; i < statuses.length; i++ ) {
+				if ( statuses[i].equals(result.getStatus()) ) {
+					++statusCounts[i];
+				}
+			}
+		}
+		try ( PrintWriter out = new PrintWriter(reportFile) ) {
+			out.println("# StateMod output comparison report");
+			out.println("# Program: " + StateModMain.PROGRAM_NAME + " " + StateModMain.PROGRAM_VERSION);
+			out.println("# Output: " + this.outputFile);
+			out.println("# Reference: " + this.referenceFile);
+			if ( this.lastComparedStep >= this.firstComparedStep ) {
+				out.println("# Period: " + formatStep(this.firstComparedStep) + " to " + formatStep(this.lastComparedStep));
+			}
+			else {
+				out.println("# Period: none");
+			}
+			StringBuilder b = new StringBuilder("# Tolerances (absolute, relative): *=" +
+				this.defaultAbsoluteTolerance + "," + this.defaultRelativeTolerance);
+			for ( String variableName : this.variableNames ) {
+				double [] tolerance = this.tolerances.get(variableName.toUpperCase());
+				if ( tolerance != null ) {
+					b.append(" " + variableName + "=" + tolerance[0] + "," + tolerance[1]);
+				}
+			}
+			out.println(b);
+			if ( !this.uncomparedVariables.isEmpty() ) {
+				out.println("# Variables not in reference: " + this.uncomparedVariables);
+			}
+			for ( int i = 0; i < statuses.length; i++ ) {
+				out.println("# " + statuses[i] + ": " + statusCounts[i]);
+			}
+			out.println("\"Station\",\"Status\",\"Values\",\"Differences\"," +
+				"\"FirstDate\",\"FirstVariable\",\"FirstValue\",\"FirstReference\"," +
+				"\"WorstDate\",\"WorstVariable\",\"WorstValue\",\"WorstReference\",\"WorstRatio\"");
+			for ( StateModStationComparison result : sorted ) {
+				out.print(quote(result.getStationId()) + "," + quote(result.getStatus()) + "," +
+					result.getValueCount() + "," + result.getDifferenceCount());
+				if ( result.getDifferenceCount() > 0 ) {
+					out.println("," + quote(formatStep(result.getFirstStep())) + "," +
+						quote(this.variableNames[result.getFirstVariable()]) + "," +
+						result.getFirstValue() + "," + result.getFirstReference() + "," +
+						quote(formatStep(result.getWorstStep())) + "," +
+						quote(this.variableNames[result.getWorstVariable()]) + "," +
+						result.getWorstValue() + "," + result.getWorstReference() + "," + result.getWorstRatio());
+				}
+				else {
+					out.println(",,,,,,,,,");
+				}
+			}
+		}
+	}
+}
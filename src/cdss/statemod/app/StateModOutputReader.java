@@ -0,0 +1,89 @@
+// StateModOutputReader - read time step results from an output file
+
+
+/* NoticeStart
+
+StateMod Java
+StateMod Java is a part of Colorado's Decision Support Systems (CDSS)
+Copyright (C) 2019 Colorado Department of Natural Resources
+
+StateMod Java is free software:  you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+StateMod Java is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+    along with StateMod Java.  If not, see <https://www.gnu.org/licenses/>.
+
+NoticeEnd */
+
+package cdss.statemod.app;
+
+import java.io.IOException;
+
+/**
+ * Interface for reading time step results for a list of stations and variables from an output file,
+ * for example to compare output files with StateModOutputComparator.
+ * Values are read a block of time steps at a time, for all stations and variables.
+ * See StateModBinaryOutputReader for the Java binary output files and StateModFortranOutputReader
+ * for the Fortran StateMod binary output files.
+ */
+public interface StateModOutputReader extends AutoCloseable {
+
+	/**
+	 * Close the file.
+	 * @exception IOException if there is an error closing the file
+	 */
+	@Override
+	public void close () throws IOException;
+
+	/**
+	 * Return the interval base, TimeInterval.MONTH or TimeInterval.DAY.
+	 */
+	public int getIntervalBase ();
+
+	/**
+	 * Return the day of the first time step.
+	 */
+	public int getStartDay ();
+
+	/**
+	 * Return the month of the first time step.
+	 */
+	public int getStartMonth ();
+
+	/**
+	 * Return the year of the first time step.
+	 */
+	public int getStartYear ();
+
+	/**
+	 * Return the station index for the file.
+	 */
+	public StateModStationIndex getStationIndex ();
+
+	/**
+	 * Return the number of time steps.
+	 */
+	public int getStepCount ();
+
+	/**
+	 * Return the variable names, which are not copied.
+	 */
+	public String [] getVariableNames ();
+
+	/**
+	 * Read all values for consecutive time steps.
+	 * @param firstStep first time step to read
+	 * @param stepCount number of time steps to read
+	 * @param values array to fill, indexed by ((step - firstStep)*stationCount + station)*variableCount + variable,
+	 * which must have room for the values, NaN for missing values
+	 * @exception IOException if the file cannot be read
+	 */
+	public void readSteps ( int firstStep, int stepCount, float [] values ) throws IOException;
+}
@@ -0,0 +1,357 @@
+// StateModQuantileSketch - mergeable quantile sketches for many cells
+
+
+/* NoticeStart
+
+StateMod Java
+StateMod Java is a part of Colorado's Decision Support Systems (CDSS)
+Copyright (C) 2019 Colorado Department of Natural Resources
+
+StateMod Java is free software:  you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+StateMod Java is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+    along with StateMod Java.  If not, see <https://www.gnu.org/licenses/>.
+
+NoticeEnd */
+
+package cdss.statemod.app;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Mergeable quantile sketches for a fixed number of cells, for example one per station, variable, and time step,
+ * used to estimate quantiles of values that are added one at a time without keeping the values.
+ * <p>
+ * Positive values are counted in logarithmic buckets so that a quantile estimate is within the relative accuracy
+ * of the value that has the quantile's rank.  Values less than or equal to zero, or to the zero limit
+ * (setZeroLimit()), are counted in a zero bucket and are estimated as zero.  Each cell has a fixed number of buckets, which is a window on the bucket indexes.
+ * If the values for a cell span more buckets than the window, the lowest buckets are combined,
+ * so that upper quantiles, for example of shortage, remain accurate and lower quantiles lose accuracy.
+ * For cells where lower quantiles are important, for example river flow in dry years,
+ * setCollapseHighest() combines the highest buckets instead, so that lower quantiles remain accurate.
+ * Such cells should have a zero limit so that round-off values near zero do not move the window away from
+ * the other values.
+ * With the default relative accuracy of 0.05 and 64 buckets, values in a range of about 600 times are kept accurate.
+ * <p>
+ * The buckets for all cells are stored in one array to limit memory for many cells.
+ * Counts are 16 bits, so a cell can have at most MAX_COUNT values.
+ * Sketches with the same cell count, bucket count, and accuracy can be merged, with the same result
+ * as adding the values of both sketches.  The class is not synchronized.
+ */
+public class StateModQuantileSketch {
+
+	/**
+	 * Default relative accuracy of quantile estimates.
+	 */
+	public static final double DEFAULT_RELATIVE_ACCURACY = 0.05;
+
+	/**
+	 * Default number of buckets for each cell.
+	 */
+	public static final int DEFAULT_BUCKET_COUNT = 64;
+
+	/**
+	 * Maximum number of values for a cell.
+	 */
+	public static final int MAX_COUNT = Character.MAX_VALUE;
+
+	/**
+	 * Bucket index offset for a cell that has no positive values.
+	 */
+	private static final int EMPTY = Integer.MIN_VALUE;
+
+	/**
+	 * Number of cells.
+	 */
+	private final int cellCount;
+
+	/**
+	 * Number of buckets for each cell.
+	 */
+	private final int bucketCount;
+
+	/**
+	 * Relative accuracy of quantile estimates.
+	 */
+	private final double relativeAccuracy;
+
+	/**
+	 * Ratio of the upper and lower bounds of a bucket.
+	 */
+	private final double gamma;
+
+	/**
+	 * Natural logarithm of gamma.
+	 */
+	private final double logGamma;
+
+	/**
+	 * Bucket counts, indexed by cell*bucketCount + bucket.
+	 */
+	private final char [] counts;
+
+	/**
+	 * Bucket index of the first bucket in each cell's window, EMPTY if the cell has no positive values.
+	 * Bucket index i counts values in (gamma^(i-1), gamma^i].
+	 */
+	private final int [] offsets;
+
+	/**
+	 * Count of values less than or equal to zero for each cell.
+	 */
+	private final char [] zeroCounts;
+
+	/**
+	 * Cells for which the highest buckets are combined rather than the lowest.
+	 * The buckets for these cells use negated bucket indexes, so that the window logic is the same for all cells.
+	 */
+	private final BitSet collapseHighest = new BitSet();
+
+	/**
+	 * Values less than or equal to this are counted as zero.
+	 */
+	private double zeroLimit = Double.MIN_NORMAL;
+
+	/**
+	 * Constructor using the default accuracy and bucket count.
+	 * @param cellCount number of cells
+	 */
+	public StateModQuantileSketch ( int cellCount ) {
+		this(cellCount, DEFAULT_RELATIVE_ACCURACY, DEFAULT_BUCKET_COUNT);
+	}
+
+	/**
+	 * Constructor.
+	 * @param cellCount number of cells
+	 * @param relativeAccuracy relative accuracy of quantile estimates, greater than 0 and less than 1
+	 * @param bucketCount number of buckets for each cell, at least 2
+	 */
+	public StateModQuantileSketch ( int cellCount, double relativeAccuracy, int bucketCount ) {
+		if ( (relativeAccuracy <= 0.0) || (relativeAccuracy >= 1.0) ) {
+			throw new IllegalArgumentException("Relative accuracy " + relativeAccuracy + " must be between 0 and 1.");
+		}
+		if ( bucketCount < 2 ) {
+			throw new IllegalArgumentException("Bucket count " + bucketCount + " must be at least 2.");
+		}
+		if ( (long)cellCount*bucketCount > Integer.MAX_VALUE ) {
+			throw new IllegalArgumentException("Too many cells (" + cellCount + ") for " + bucketCount + " buckets per cell.");
+		}
+		this.cellCount = cellCount;
+		this.bucketCount = bucketCount;
+		this.relativeAccuracy = relativeAccuracy;
+		this.gamma = (1.0 + relativeAccuracy)/(1.0 - relativeAccuracy);
+		this.logGamma = Math.log(this.gamma);
+		this.counts = new char[cellCount*bucketCount];
+		this.offsets = new int[cellCount];
+		Arrays.fill(this.offsets, EMPTY);
+		this.zeroCounts = new char[cellCount];
+	}
+
+	/**
+	 * Add a value to a cell.  Missing (NaN) values are ignored.
+	 * @param cell cell position
+	 * @param value value to add
+	 * @exception IllegalStateException if the cell has MAX_COUNT values
+	 */
+	public void add ( int cell, double value ) {
+		if ( Double.isNaN(value) ) {
+			return;
+		}
+		if ( value <= this.zeroLimit ) {
+			this.zeroCounts[cell] = addCount(this.zeroCounts[cell], 1);
+		}
+		else {
+			int index = (int)Math.ceil(Math.log(value)/this.logGamma);
+			addToBucket(cell, this.collapseHighest.get(cell) ? -index : index, 1);
+		}
+	}
+
+	/**
+	 * Add counts, checking for overflow.
+	 */
+	private static char addCount ( char count, int add ) {
+		int sum = count + add;
+		if ( sum > MAX_COUNT ) {
+			throw new IllegalStateException("Quantile sketch cell has more than " + MAX_COUNT + " values.");
+		}
+		return (char)sum;
+	}
+
+	/**
+	 * Add a count to a bucket of a cell, moving the cell's window if necessary.
+	 * @param cell cell position
+	 * @param index bucket index
+	 * @param count count to add
+	 */
+	private void addToBucket ( int cell, int index, int count ) {
+		int base = cell*this.bucketCount;
+		int offset = this.offsets[cell];
+		if ( offset == EMPTY ) {
+			// Center the window on the first value so that it can move either way
+			offset = index - this.bucketCount/2;
+			this.offsets[cell] = offset;
+		}
+		else if ( index >= offset + this.bucketCount ) {
+			// Move the window up, combining the lowest buckets into the first bucket
+			int shift = index - (offset + this.bucketCount - 1);
+			int combined = 0;
+			for ( int bucket = 0; bucket <= Math.min(shift, this.bucketCount - 1); bucket++ ) {
+				combined += this.counts[base + bucket];
+			}
+			if ( shift < this.bucketCount ) {
+				System.arraycopy(this.counts, base + shift + 1, this.counts, base + 1, this.bucketCount - shift - 1);
+				Arrays.fill(this.counts, base + this.bucketCount - shift, base + this.bucketCount, (char)0);
+			}
+			else {
+				Arrays.fill(this.counts, base, base + this.bucketCount, (char)0);
+			}
+			this.counts[base] = addCount((char)0, combined);
+			offset += shift;
+			this.offsets[cell] = offset;
+		}
+		else if ( index < offset ) {
+			// Move the window down as far as the empty upper buckets allow, then combine into the first bucket
+			int empty = 0;
+			while ( (empty < this.bucketCount) && (this.counts[base + this.bucketCount - 1 - empty] == 0) ) {
+				++empty;
+			}
+			int shift = Math.min(offset - index, empty);
+			if ( shift > 0 ) {
+				System.arraycopy(this.counts, base, this.counts, base + shift, this.bucketCount - shift);
+				Arrays.fill(this.counts, base, base + shift, (char)0);
+				offset -= shift;
+				this.offsets[cell] = offset;
+			}
+		}
+		int bucket = Math.max(0, index - offset);
+		this.counts[base + bucket] = addCount(this.counts[base + bucket], count);
+	}
+
+	/**
+	 * Return the number of values that were added to a cell.
+	 * @param cell cell position
+	 */
+	public int getCount ( int cell ) {
+		int count = this.zeroCounts[cell];
+		int base = cell*this.bucketCount;
+		for ( int bucket = 0; bucket < this.bucketCount; bucket++ ) {
+			count += this.counts[base + bucket];
+		}
+		return count;
+	}
+
+	/**
+	 * Return the number of cells.
+	 */
+	public int getCellCount () {
+		return this.cellCount;
+	}
+
+	/**
+	 * Return the estimate of a quantile for a cell.
+	 * The estimate is for the value with rank quantile*(count - 1) rounded to the nearest rank, 0 for the smallest value.
+	 * @param cell cell position
+	 * @param quantile quantile, 0 to 1
+	 * @return estimated value, or NaN if no values were added to the cell
+	 */
+	public double getQuantile ( int cell, double quantile ) {
+		int count = getCount(cell);
+		if ( count == 0 ) {
+			return Double.NaN;
+		}
+		long rank = Math.round(Math.max(0.0, Math.min(1.0, quantile))*(count - 1));
+		long cumulative = this.zeroCounts[cell];
+		if ( rank < cumulative ) {
+			return 0.0;
+		}
+		// Buckets with negated indexes are in decreasing order of value
+		boolean negated = this.collapseHighest.get(cell);
+		int base = cell*this.bucketCount;
+		int position = 0;
+		for ( ; position < this.bucketCount - 1; position++ ) {
+			cumulative += this.counts[base + (negated ? (this.bucketCount - 1 - position) : position)];
+			if ( rank < cumulative ) {
+				break;
+			}
+		}
+		int index = this.offsets[cell] + (negated ? (this.bucketCount - 1 - position) : position);
+		// Value in the middle of the bucket, in relative terms
+		return 2.0*Math.pow(this.gamma, negated ? -index : index)/(this.gamma + 1.0);
+	}
+
+	/**
+	 * Return whether the highest buckets of a cell are combined rather than the lowest.
+	 * @param cell cell position
+	 */
+	public boolean isCollapseHighest ( int cell ) {
+		return this.collapseHighest.get(cell);
+	}
+
+	/**
+	 * Return the relative accuracy of quantile estimates.
+	 */
+	public double getRelativeAccuracy () {
+		return this.relativeAccuracy;
+	}
+
+	/**
+	 * Set whether the highest buckets of a cell are combined rather than the lowest when the values span more
+	 * buckets than the window, which keeps lower quantiles accurate rather than upper quantiles.
+	 * @param cell cell position
+	 * @param collapseHighest true to combine the highest buckets, false to combine the lowest (the default)
+	 * @exception IllegalStateException if values have been added to the cell
+	 */
+	public void setCollapseHighest ( int cell, boolean collapseHighest ) {
+		if ( getCount(cell) > 0 ) {
+			throw new IllegalStateException("Cannot change the collapse direction of a quantile sketch cell with values.");
+		}
+		this.collapseHighest.set(cell, collapseHighest);
+	}
+
+	/**
+	 * Set the limit at or below which values are counted as zero, for example the precision of the values,
+	 * so that round-off values near zero are not counted in buckets.  This should be set before values are added.
+	 * @param zeroLimit zero limit, at least Double.MIN_NORMAL (the default)
+	 */
+	public void setZeroLimit ( double zeroLimit ) {
+		this.zeroLimit = Math.max(Double.MIN_NORMAL, zeroLimit);
+	}
+
+	/**
+	 * Merge another sketch into this sketch.  The other sketch is not modified.
+	 * @param other sketch with the same cell count, bucket count, and accuracy
+	 * @exception IllegalArgumentException if the sketches are not compatible
+	 */
+	public void merge ( StateModQuantileSketch other ) {
+		if ( (other.cellCount != this.cellCount) || (other.bucketCount != this.bucketCount) ||
+			(other.relativeAccuracy != this.relativeAccuracy) || !other.collapseHighest.equals(this.collapseHighest) ||
+			(other.zeroLimit != this.zeroLimit) ) {
+			throw new IllegalArgumentException(
+				"Quantile sketches have different cells, buckets, accuracy, collapse direction, or zero limit.");
+		}
+		for ( int cell = 0; cell < this.cellCount; cell++ ) {
+			this.zeroCounts[cell] = addCount(this.zeroCounts[cell], other.zeroCounts[cell]);
+			int offset = other.offsets[cell];
+			if ( offset == EMPTY ) {
+				continue;
+			}
+			int base = cell*this.bucketCount;
+			// Add the highest buckets first so that the window is placed before lower buckets are added
+			for ( int bucket = this.bucketCount - 1; bucket >= 0; bucket-- ) {
+				int count = other.counts[base + bucket];
+				if ( count > 0 ) {
+					addToBucket(cell, offset + bucket, count);
+				}
+			}
+		}
+	}
+}
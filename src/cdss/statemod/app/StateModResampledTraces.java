@@ -0,0 +1,129 @@
+// StateModResampledTraces - hydrology traces generated by resampling historical years
+
+
+/* NoticeStart
+
+StateMod Java
+StateMod Java is a part of Colorado's Decision Support Systems (CDSS)
+Copyright (C) 2019 Colorado Department of Natural Resources
+
+StateMod Java is free software:  you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+StateMod Java is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+    along with StateMod Java.  If not, see <https://www.gnu.org/licenses/>.
+
+NoticeEnd */
+
+package cdss.statemod.app;
+
+import java.util.Random;
+
+import RTi.Util.Time.TimeInterval;
+
+/**
+ * Hydrology traces generated by resampling years of the dataset baseflows (an index sequential bootstrap).
+ * Each year of a trace is a year of the dataset period chosen at random, with all stations and months taken
+ * from the same year so that the spatial and within-year correlation of the baseflows is kept.
+ * Years are counted from the start of the period, so a period that starts in October resamples water years.
+ * A partial year at the end of the period is filled from the start of the chosen year.
+ * <p>
+ * Each trace uses a random number generator seeded from the ensemble seed and the trace number,
+ * so a trace is the same regardless of the order or thread in which traces are created.
+ */
+public class StateModResampledTraces implements StateModEnsembleTraces {
+
+	/**
+	 * Number of months in a resampled year.
+	 */
+	private static final int MONTHS_PER_YEAR = 12;
+
+	/**
+	 * Multiplier to combine the seed and trace number so that traces use unrelated random sequences.
+	 */
+	private static final long TRACE_SEED_MULTIPLIER = 0x9E3779B97F4A7C15L;
+
+	/**
+	 * Number of traces.
+	 */
+	private final int traceCount;
+
+	/**
+	 * Seed for the random number generators.
+	 */
+	private final long seed;
+
+	/**
+	 * Constructor.
+	 * @param traceCount number of traces
+	 * @param seed seed for the random number generators, to repeat an ensemble
+	 */
+	public StateModResampledTraces ( int traceCount, long seed ) {
+		if ( traceCount < 1 ) {
+			throw new IllegalArgumentException("Number of traces (" + traceCount + ") must be at least 1.");
+		}
+		this.traceCount = traceCount;
+		this.seed = seed;
+	}
+
+	/**
+	 * Create the monthly baseflow column for a trace.
+	 * @param trace trace number, 0 to getTraceCount()-1
+	 * @param store base time series store for the dataset, which must not be modified
+	 * @return baseflow column for the trace, in memory
+	 * @exception IllegalArgumentException if the dataset does not have baseflows for at least one year
+	 */
+	@Override
+	public StateModTimeSeriesColumn createTrace ( int trace, StateModTimeSeriesStore store ) {
+		StateModTimeSeriesColumn baseColumn = store.getColumn(StateModTimeSeriesType.BASEFLOW_MONTHLY);
+		if ( baseColumn == null ) {
+			throw new IllegalArgumentException("Dataset does not have monthly baseflows to resample.");
+		}
+		int stepCount = baseColumn.getStepCount();
+		int yearCount = stepCount/MONTHS_PER_YEAR;
+		if ( yearCount < 1 ) {
+			throw new IllegalArgumentException("Dataset period (" + store.getStepCount(TimeInterval.MONTH) +
+				" months) must be at least one year to resample baseflows.");
+		}
+		int stationCount = baseColumn.getStationCount();
+		StateModTimeSeriesColumn column = new StateModTimeSeriesColumn(StateModTimeSeriesType.BASEFLOW_MONTHLY,
+			baseColumn.getStationIndex(), stepCount);
+		double [] values = column.createBlock(0);
+		Random random = new Random(this.seed + (trace + 1)*TRACE_SEED_MULTIPLIER);
+		for ( int yearStart = 0; yearStart < stepCount; yearStart += MONTHS_PER_YEAR ) {
+			int sourceStart = random.nextInt(yearCount)*MONTHS_PER_YEAR;
+			int months = Math.min(MONTHS_PER_YEAR, stepCount - yearStart);
+			for ( int month = 0; month < months; month++ ) {
+				int sourceStep = sourceStart + month;
+				// Copy all stations for the month, a block at a time for a cached base column
+				System.arraycopy(baseColumn.getBlock(sourceStep), baseColumn.getBlockOffset(sourceStep),
+					values, (yearStart + month)*stationCount, stationCount);
+			}
+		}
+		column.setBlock(0, values);
+		return column;
+	}
+
+	/**
+	 * Return the number of traces.
+	 */
+	@Override
+	public int getTraceCount () {
+		return this.traceCount;
+	}
+
+	/**
+	 * Return a description of the traces, for logging.
+	 */
+	@Override
+	public String toString () {
+		return this.traceCount + " traces resampled from historical years with seed " + this.seed;
+	}
+}
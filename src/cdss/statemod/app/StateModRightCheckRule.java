@@ -0,0 +1,129 @@
+// StateModRightCheckRule - check that rights refer to stations and have valid data
+
+/* NoticeStart
+
+StateMod Java
+StateMod Java is a part of Colorado's Decision Support Systems (CDSS)
+Copyright (C) 2019 Colorado Department of Natural Resources
+
+StateMod Java is free software:  you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+StateMod Java is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+    along with StateMod Java.  If not, see <https://www.gnu.org/licenses/>.
+
+NoticeEnd */
+
+package cdss.statemod.app;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import DWR.StateMod.StateMod_Data;
+import DWR.StateMod.StateMod_DataSet;
+import DWR.StateMod.StateMod_Right;
+
+/**
+ * Check the rights in a rights component:  right identifiers must be unique, each right must be for a
+ * station in the matching station component, the administration number must be numeric,
+ * and the decree must be positive.
+ */
+public class StateModRightCheckRule implements StateModCheckRule {
+
+	/**
+	 * Rights component type, StateMod_DataSet.COMP_*_RIGHTS.
+	 */
+	private final int rightCompType;
+
+	/**
+	 * Station component type, StateMod_DataSet.COMP_*_STATIONS.
+	 */
+	private final int stationCompType;
+
+	/**
+	 * Rule name.
+	 */
+	private final String name;
+
+	/**
+	 * Constructor.
+	 * @param name rule name
+	 * @param rightCompType rights component type, StateMod_DataSet.COMP_*_RIGHTS
+	 * @param stationCompType station component type for the rights, StateMod_DataSet.COMP_*_STATIONS
+	 */
+	public StateModRightCheckRule ( String name, int rightCompType, int stationCompType ) {
+		this.name = name;
+		this.rightCompType = rightCompType;
+		this.stationCompType = stationCompType;
+	}
+
+	/**
+	 * Check the dataset.
+	 */
+	@Override
+	public List<StateModCheckMessage> check ( StateMod_DataSet dataset, StateModTimeSeriesStore store ) {
+		List<StateModCheckMessage> messages = new ArrayList<>();
+		List<?> rights = StateModDataSetLoader.getComponentData(dataset, this.rightCompType);
+		if ( rights == null ) {
+			return messages;
+		}
+		String component = StateModCheckEngine.getComponentName(dataset, this.rightCompType);
+		Set<String> stationIds = new HashSet<>();
+		List<?> stations = StateModDataSetLoader.getComponentData(dataset, this.stationCompType);
+		if ( stations != null ) {
+			for ( Object o : stations ) {
+				stationIds.add(((StateMod_Data)o).getID());
+			}
+		}
+		Set<String> rightIds = new HashSet<>();
+		for ( Object o : rights ) {
+			StateMod_Right right = (StateMod_Right)o;
+			String id = right.getIdentifier();
+			if ( !rightIds.add(id) ) {
+				messages.add(new StateModCheckMessage(this.name, StateModCheckMessage.SEVERITY_WARNING, component, id,
+					"Right identifier is used more than once."));
+			}
+			if ( !stationIds.contains(right.getLocationIdentifier()) ) {
+				messages.add(new StateModCheckMessage(this.name, StateModCheckMessage.SEVERITY_ERROR, component, id,
+					"Right is for station \"" + right.getLocationIdentifier() + "\", which is not defined."));
+			}
+			try {
+				Double.parseDouble(right.getAdministrationNumber().trim());
+			}
+			catch ( RuntimeException e ) {
+				messages.add(new StateModCheckMessage(this.name, StateModCheckMessage.SEVERITY_ERROR, component, id,
+					"Administration number \"" + right.getAdministrationNumber() + "\" is not a number."));
+			}
+			if ( !(right.getDecree() > 0.0) ) {
+				messages.add(new StateModCheckMessage(this.name, StateModCheckMessage.SEVERITY_WARNING, component, id,
+					"Decree (" + right.getDecree() + ") is not positive - right will not be used."));
+			}
+		}
+		return messages;
+	}
+
+	/**
+	 * Return the component types that are read.
+	 */
+	@Override
+	public int [] getComponentTypes () {
+		return new int [] { this.rightCompType, this.stationCompType };
+	}
+
+	/**
+	 * Return the rule name.
+	 */
+	@Override
+	public String getName () {
+		return this.name;
+	}
+}
@@ -0,0 +1,339 @@
+// StateModRightList - water rights compiled into priority-ordered arrays
+
+/* NoticeStart
+
+StateMod Java
+StateMod Java is a part of Colorado's Decision Support Systems (CDSS)
+Copyright (C) 2019 Colorado Department of Natural Resources
+
+StateMod Java is free software:  you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+StateMod Java is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+    along with StateMod Java.  If not, see <https://www.gnu.org/licenses/>.
+
+NoticeEnd */
+
+package cdss.statemod.app;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import DWR.StateMod.StateMod_DataSet;
+import DWR.StateMod.StateMod_Right;
+
+/**
+ * Water rights for all structure types compiled into arrays sorted by priority
+ * (administration number, most senior first).
+ * Ties are broken by right type and then by the order in the rights file, so the order is deterministic.
+ * Each right refers to its structure by station position (in the station index for the right type)
+ * and to the river node of the structure by node position in the network.
+ * Rights for structures that are not in the network are not included.
+ */
+public class StateModRightList {
+
+	/**
+	 * Right type for diversion rights.
+	 */
+	public static final int TYPE_DIVERSION = 0;
+
+	/**
+	 * Right type for reservoir (storage) rights.
+	 */
+	public static final int TYPE_RESERVOIR = 1;
+
+	/**
+	 * Right type for instream flow rights.
+	 */
+	public static final int TYPE_INSTREAM = 2;
+
+	/**
+	 * Right type for well rights.
+	 */
+	public static final int TYPE_WELL = 3;
+
+	/**
+	 * Right identifiers, in priority order.
+	 */
+	private final String [] ids;
+
+	/**
+	 * Administration numbers, in priority order.
+	 */
+	private final double [] adminNumbers;
+
+	/**
+	 * Decrees (CFS for diversion, instream, and well rights, ACFT for reservoir rights), in priority order.
+	 */
+	private final double [] decrees;
+
+	/**
+	 * Right type, TYPE_*, in priority order.
+	 */
+	private final int [] types;
+
+	/**
+	 * Structure position in the station index for the right type, in priority order.
+	 */
+	private final int [] stations;
+
+	/**
+	 * River node position of the structure, in priority order.
+	 */
+	private final int [] nodes;
+
+	/**
+	 * On/off switch from the rights file: 1 = on, 0 = off, >1 = on starting in the year, <-1 = on through the year.
+	 */
+	private final int [] switches;
+
+	/**
+	 * Station index for each right type, indexed by TYPE_*.
+	 */
+	private final StateModStationIndex [] stationIndexes;
+
+	/**
+	 * Constructor.
+	 * @param rights rights in priority order
+	 * @param stationIndexes station index for each right type, indexed by TYPE_*
+	 */
+	private StateModRightList ( List<CompiledRight> rights, StateModStationIndex [] stationIndexes ) {
+		int count = rights.size();
+		this.ids = new String[count];
+		this.adminNumbers = new double[count];
+		this.decrees = new double[count];
+		this.types = new int[count];
+		this.stations = new int[count];
+		this.nodes = new int[count];
+		this.switches = new int[count];
+		for ( int i = 0; i < count; i++ ) {
+			CompiledRight right = rights.get(i);
+			this.ids[i] = right.id;
+			this.adminNumbers[i] = right.adminNumber;
+			this.decrees[i] = right.decree;
+			this.types[i] = right.type;
+			this.stations[i] = right.station;
+			this.nodes[i] = right.node;
+			this.switches[i] = right.onOff;
+		}
+		this.stationIndexes = stationIndexes;
+	}
+
+	/**
+	 * Constructor used by copyWithSwitches(), which shares all arrays except the switches.
+	 */
+	private StateModRightList ( StateModRightList rights, int [] switches ) {
+		this.ids = rights.ids;
+		this.adminNumbers = rights.adminNumbers;
+		this.decrees = rights.decrees;
+		this.types = rights.types;
+		this.stations = rights.stations;
+		this.nodes = rights.nodes;
+		this.switches = switches;
+		this.stationIndexes = rights.stationIndexes;
+	}
+
+	/**
+	 * Add the rights for one right type to the list of compiled rights.
+	 */
+	private static void addRights ( StateMod_DataSet dataset, int compType, int type, StateModStationIndex stationIndex,
+		StateModNetwork network, StateModIdRegistry registry, List<CompiledRight> compiledRights ) {
+		String routine = StateModRightList.class.getSimpleName() + ".addRights";
+		List<?> rights = StateModDataSetLoader.getComponentData(dataset, compType);
+		if ( rights == null ) {
+			return;
+		}
+		int notInNetwork = 0;
+		for ( Object o : rights ) {
+			StateMod_Right right = (StateMod_Right)o;
+			String stationId = right.getLocationIdentifier();
+			int node = network.getNodeIndex().getIndex(stationId);
+			if ( node < 0 ) {
+				++notInNetwork;
+				continue;
+			}
+			CompiledRight compiledRight = new CompiledRight();
+			compiledRight.id = registry.intern(right.getIdentifier());
+			compiledRight.adminNumber = parseAdministrationNumber(right.getAdministrationNumber());
+			compiledRight.decree = right.getDecree();
+			compiledRight.type = type;
+			compiledRight.station = stationIndex.add(stationId);
+			compiledRight.node = node;
+			compiledRight.onOff = right.getSwitch();
+			compiledRight.sequence = compiledRights.size();
+			compiledRights.add(compiledRight);
+		}
+		if ( notInNetwork > 0 ) {
+			StateModLogger.printWarning(3, routine, notInNetwork + " rights for component type " + compType +
+				" are for structures that are not in the river network - not simulated.");
+		}
+	}
+
+	/**
+	 * Create the priority-ordered right list from the dataset rights components.
+	 * @param dataset dataset that has been read
+	 * @param network compiled river network
+	 * @param registry identifier registry for the dataset, which should also be used by the network
+	 * @return compiled right list
+	 */
+	public static StateModRightList createFromDataSet ( StateMod_DataSet dataset, StateModNetwork network,
+		StateModIdRegistry registry ) {
+		StateModStationIndex [] stationIndexes = new StateModStationIndex[4];
+		for ( int i = 0; i < stationIndexes.length; i++ ) {
+			stationIndexes[i] = new StateModStationIndex(registry, 0);
+		}
+		List<CompiledRight> rights = new ArrayList<>();
+		addRights(dataset, StateMod_DataSet.COMP_DIVERSION_RIGHTS, TYPE_DIVERSION, stationIndexes[TYPE_DIVERSION], network, registry, rights);
+		addRights(dataset, StateMod_DataSet.COMP_RESERVOIR_RIGHTS, TYPE_RESERVOIR, stationIndexes[TYPE_RESERVOIR], network, registry, rights);
+		addRights(dataset, StateMod_DataSet.COMP_INSTREAM_RIGHTS, TYPE_INSTREAM, stationIndexes[TYPE_INSTREAM], network, registry, rights);
+		addRights(dataset, StateMod_DataSet.COMP_WELL_RIGHTS, TYPE_WELL, stationIndexes[TYPE_WELL], network, registry, rights);
+		Collections.sort(rights, new Comparator<CompiledRight>() {
+			@Override
+			public int compare ( CompiledRight r1, CompiledRight r2 ) {
+				int c = Double.compare(r1.adminNumber, r2.adminNumber);
+				if ( c == 0 ) {
+					c = Integer.compare(r1.type, r2.type);
+				}
+				if ( c == 0 ) {
+					c = Integer.compare(r1.sequence, r2.sequence);
+				}
+				return c;
+			}
+		});
+		return new StateModRightList(rights, stationIndexes);
+	}
+
+	/**
+	 * Return a copy of the right list that uses different on/off switches.
+	 * All other arrays are shared with this list, which is not modified.
+	 * @param switches on/off switches in priority order, the same length as getSwitches()
+	 * @return new right list
+	 */
+	public StateModRightList copyWithSwitches ( int [] switches ) {
+		if ( switches.length != this.switches.length ) {
+			throw new IllegalArgumentException("Number of switches (" + switches.length +
+				") does not match the number of rights (" + this.switches.length + ").");
+		}
+		return new StateModRightList(this, switches);
+	}
+
+	/**
+	 * Return the administration numbers in priority order, which is not copied.
+	 */
+	public double [] getAdministrationNumbers () {
+		return this.adminNumbers;
+	}
+
+	/**
+	 * Return the number of rights.
+	 */
+	public int getCount () {
+		return this.ids.length;
+	}
+
+	/**
+	 * Return the decrees in priority order, which is not copied.
+	 */
+	public double [] getDecrees () {
+		return this.decrees;
+	}
+
+	/**
+	 * Return the right identifiers in priority order, which is not copied.
+	 */
+	public String [] getIds () {
+		return this.ids;
+	}
+
+	/**
+	 * Return the river node positions in priority order, which is not copied.
+	 */
+	public int [] getNodes () {
+		return this.nodes;
+	}
+
+	/**
+	 * Return the station index for a right type.
+	 * @param type right type, TYPE_*
+	 */
+	public StateModStationIndex getStationIndex ( int type ) {
+		return this.stationIndexes[type];
+	}
+
+	/**
+	 * Return the station positions in priority order, which is not copied.
+	 */
+	public int [] getStations () {
+		return this.stations;
+	}
+
+	/**
+	 * Return the on/off switches in priority order, which is not copied.
+	 */
+	public int [] getSwitches () {
+		return this.switches;
+	}
+
+	/**
+	 * Return the right types in priority order, which is not copied.
+	 */
+	public int [] getTypes () {
+		return this.types;
+	}
+
+	/**
+	 * Return whether a right is on for a year, based on the rights file on/off switch.
+	 * @param onOff on/off switch: 1 = on, 0 = off, >1 = on starting in the year, <-1 = on through the year
+	 * @param year year being simulated
+	 */
+	public static boolean isOn ( int onOff, int year ) {
+		if ( onOff == 1 ) {
+			return true;
+		}
+		else if ( onOff > 1 ) {
+			return year >= onOff;
+		}
+		else if ( onOff < -1 ) {
+			return year <= -onOff;
+		}
+		return false;
+	}
+
+	/**
+	 * Parse an administration number, treating a blank or invalid value as most junior.
+	 */
+	private static double parseAdministrationNumber ( String adminNumber ) {
+		if ( adminNumber == null ) {
+			return Double.MAX_VALUE;
+		}
+		try {
+			return Double.parseDouble(adminNumber.trim());
+		}
+		catch ( NumberFormatException e ) {
+			return Double.MAX_VALUE;
+		}
+	}
+
+	/**
+	 * Right data used while compiling, before conversion to arrays.
+	 */
+	private static class CompiledRight {
+		String id;
+		double adminNumber;
+		double decree;
+		int type;
+		int station;
+		int node;
+		int onOff;
+		int sequence;
+	}
+}
@@ -0,0 +1,185 @@
+// StateModRunControl - cooperative cancellation and progress for a run
+
+
+/* NoticeStart
+
+StateMod Java
+StateMod Java is a part of Colorado's Decision Support Systems (CDSS)
+Copyright (C) 2019 Colorado Department of Natural Resources
+
+StateMod Java is free software:  you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+StateMod Java is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+    along with StateMod Java.  If not, see <https://www.gnu.org/licenses/>.
+
+NoticeEnd */
+
+package cdss.statemod.app;
+
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Cooperative cancellation and progress reporting for one run.
+ * The run thread calls startPhase() at the start of each phase and stepCompleted() after each time step,
+ * which throw CancellationException if the run has been cancelled, so a cancelled run stops at the next
+ * time step, closing its output files.  Any thread can call cancel() and getProgress().
+ * <p>
+ * Progress events are sent to listeners when a phase starts and at most once per progress interval within a
+ * phase, so the cost per time step is a flag check and a clock read.
+ */
+public class StateModRunControl {
+
+	/**
+	 * Default minimum milliseconds between progress events within a phase.
+	 */
+	public static final long DEFAULT_PROGRESS_INTERVAL_MS = 250;
+
+	/**
+	 * Whether the run has been cancelled.
+	 */
+	private volatile boolean cancelled = false;
+
+	/**
+	 * Latest progress, updated when events are sent.
+	 */
+	private volatile StateModRunProgress progress = new StateModRunProgress("Queued", 0, 0, 0, false);
+
+	/**
+	 * Listeners to notify of progress.
+	 */
+	private final List<StateModRunProgressListener> listeners = new CopyOnWriteArrayList<>();
+
+	/**
+	 * Minimum nanoseconds between progress events within a phase.
+	 */
+	private final long progressIntervalNanos;
+
+	/**
+	 * Current phase, used only on the run thread.
+	 */
+	private String phase = "Queued";
+
+	/**
+	 * Number of time steps in the current phase, used only on the run thread.
+	 */
+	private int stepCount = 0;
+
+	/**
+	 * Time that the current phase started and time of the next progress event, System.nanoTime(),
+	 * used only on the run thread.
+	 */
+	private long phaseStartNanos = System.nanoTime();
+	private long nextEventNanos = 0;
+
+	/**
+	 * Constructor using the default progress interval.
+	 */
+	public StateModRunControl () {
+		this ( DEFAULT_PROGRESS_INTERVAL_MS );
+	}
+
+	/**
+	 * Constructor.
+	 * @param progressIntervalMs minimum milliseconds between progress events within a phase
+	 */
+	public StateModRunControl ( long progressIntervalMs ) {
+		this.progressIntervalNanos = Math.max(0, progressIntervalMs)*1000000L;
+	}
+
+	/**
+	 * Add a listener to notify of progress.
+	 * @param listener listener to add
+	 */
+	public void addProgressListener ( StateModRunProgressListener listener ) {
+		this.listeners.add(listener);
+	}
+
+	/**
+	 * Request that the run stop at the next time step or phase.
+	 */
+	public void cancel () {
+		this.cancelled = true;
+	}
+
+	/**
+	 * Throw CancellationException if the run has been cancelled.
+	 */
+	public void checkCancelled () {
+		if ( this.cancelled ) {
+			throw new CancellationException("Run was cancelled.");
+		}
+	}
+
+	/**
+	 * Indicate that the run is complete, successfully or not, and send a final progress event.
+	 */
+	public void done () {
+		publish(new StateModRunProgress(this.phase, this.progress.getStepsCompleted(), this.stepCount,
+			(System.nanoTime() - this.phaseStartNanos)/1000000L, true));
+	}
+
+	/**
+	 * Return the latest progress, which is updated when progress events are sent.
+	 */
+	public StateModRunProgress getProgress () {
+		return this.progress;
+	}
+
+	/**
+	 * Return whether the run has been cancelled.
+	 */
+	public boolean isCancelled () {
+		return this.cancelled;
+	}
+
+	/**
+	 * Set the latest progress and notify the listeners.
+	 */
+	private void publish ( StateModRunProgress progress ) {
+		this.progress = progress;
+		for ( StateModRunProgressListener listener : this.listeners ) {
+			listener.progress(progress);
+		}
+	}
+
+	/**
+	 * Start a phase of the run.
+	 * @param phase name of the phase, for example "Simulate"
+	 * @param stepCount number of time steps in the phase, 0 if the phase does not have time steps
+	 * @exception CancellationException if the run has been cancelled
+	 */
+	public void startPhase ( String phase, int stepCount ) {
+		checkCancelled();
+		this.phase = phase;
+		this.stepCount = stepCount;
+		this.phaseStartNanos = System.nanoTime();
+		this.nextEventNanos = this.phaseStartNanos + this.progressIntervalNanos;
+		publish(new StateModRunProgress(phase, 0, stepCount, 0, false));
+	}
+
+	/**
+	 * Indicate that a time step in the current phase is complete, sending a progress event if the
+	 * progress interval has passed.
+	 * @param stepsCompleted number of time steps completed in the phase
+	 * @exception CancellationException if the run has been cancelled
+	 */
+	public void stepCompleted ( int stepsCompleted ) {
+		checkCancelled();
+		long now = System.nanoTime();
+		if ( (now >= this.nextEventNanos) || (stepsCompleted == this.stepCount) ) {
+			this.nextEventNanos = now + this.progressIntervalNanos;
+			publish(new StateModRunProgress(this.phase, stepsCompleted, this.stepCount,
+				(now - this.phaseStartNanos)/1000000L, false));
+		}
+	}
+}
@@ -0,0 +1,131 @@
+// StateModRunHandle - handle for a run submitted to StateModRunService
+
+
+/* NoticeStart
+
+StateMod Java
+StateMod Java is a part of Colorado's Decision Support Systems (CDSS)
+Copyright (C) 2019 Colorado Department of Natural Resources
+
+StateMod Java is free software:  you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+StateMod Java is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+    along with StateMod Java.  If not, see <https://www.gnu.org/licenses/>.
+
+NoticeEnd */
+
+package cdss.statemod.app;
+
+import java.util.concurrent.Future;
+
+/**
+ * Handle for a run submitted to StateModRunService, used to wait for the result, follow progress,
+ * and cancel the run.
+ * <p>
+ * The future completes with the run result, or with an ExecutionException whose cause is the error that
+ * stopped the run:  CancellationException if the run was cancelled while running, UncheckedIOException if
+ * output could not be written, or the exception from reading the dataset.
+ * A run that is cancelled before it starts completes with CancellationException without running.
+ */
+public class StateModRunHandle {
+
+	/**
+	 * Request that was submitted.
+	 */
+	private final StateModRunRequest request;
+
+	/**
+	 * Cancellation and progress for the run.
+	 */
+	private final StateModRunControl runControl;
+
+	/**
+	 * Metrics for the run.
+	 */
+	private final StateModMetrics metrics;
+
+	/**
+	 * Future for the run result, set by the service after the run is submitted.
+	 */
+	private Future<StateModRunResult> future = null;
+
+	/**
+	 * Constructor, called by StateModRunService.
+	 * @param request request that was submitted
+	 * @param runControl cancellation and progress for the run
+	 * @param metrics metrics for the run
+	 */
+	StateModRunHandle ( StateModRunRequest request, StateModRunControl runControl, StateModMetrics metrics ) {
+		this.request = request;
+		this.runControl = runControl;
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Add a listener to notify of progress.  Events sent before the listener is added are not repeated,
+	 * so listeners that need all events should be added to the request.
+	 * @param listener listener to add
+	 */
+	public void addProgressListener ( StateModRunProgressListener listener ) {
+		this.runControl.addProgressListener(listener);
+	}
+
+	/**
+	 * Request that the run stop.  A running run stops at the next time step or phase, closing its output files,
+	 * and a run that has not started is not run.
+	 */
+	public void cancel () {
+		// The future is not cancelled so that it completes only after a running run has closed its files
+		this.runControl.cancel();
+	}
+
+	/**
+	 * Return the future for the run result.
+	 */
+	public Future<StateModRunResult> getFuture () {
+		return this.future;
+	}
+
+	/**
+	 * Return the metrics for the run, which contain the run phases and counts.
+	 */
+	public StateModMetrics getMetrics () {
+		return this.metrics;
+	}
+
+	/**
+	 * Return the latest progress of the run.
+	 */
+	public StateModRunProgress getProgress () {
+		return this.runControl.getProgress();
+	}
+
+	/**
+	 * Return the request that was submitted.
+	 */
+	public StateModRunRequest getRequest () {
+		return this.request;
+	}
+
+	/**
+	 * Return whether the run has been cancelled.
+	 */
+	public boolean isCancelled () {
+		return this.runControl.isCancelled();
+	}
+
+	/**
+	 * Set the future for the run result, called by StateModRunService.
+	 */
+	void setFuture ( Future<StateModRunResult> future ) {
+		this.future = future;
+	}
+}
@@ -36,6 +36,14 @@ public enum StateModRunModeType
      * Data check mode.
      */
     CHECK( "Check", "check", "Data check mode." ),
+    /**
+     * Compare simulation output files with reference output files.
+     */
+    COMPARE( "Compare", "compare", "Compare output with reference output." ),
+    /**
+     * Simulate an ensemble of hydrology traces and write summary statistics.
+     */
+    ENSEMBLE( "Ensemble", "ensemble", "Simulate an ensemble of hydrology traces." ),
 	/**
 	 * Simulate with normal options.
 	 */
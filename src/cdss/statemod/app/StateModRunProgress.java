@@ -0,0 +1,137 @@
+// StateModRunProgress - progress of a run, for progress events
+
+
+/* NoticeStart
+
+StateMod Java
+StateMod Java is a part of Colorado's Decision Support Systems (CDSS)
+Copyright (C) 2019 Colorado Department of Natural Resources
+
+StateMod Java is free software:  you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+StateMod Java is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+    along with StateMod Java.  If not, see <https://www.gnu.org/licenses/>.
+
+NoticeEnd */
+
+package cdss.statemod.app;
+
+/**
+ * Progress of a run at one time, passed to StateModRunProgressListener and returned by StateModRunHandle.
+ * Instances are immutable.
+ */
+public class StateModRunProgress {
+
+	/**
+	 * Current phase, for example "ReadDataSet" or "Simulate".
+	 */
+	private final String phase;
+
+	/**
+	 * Number of time steps completed in the phase.
+	 */
+	private final int stepsCompleted;
+
+	/**
+	 * Number of time steps in the phase, 0 if the phase does not have time steps.
+	 */
+	private final int stepCount;
+
+	/**
+	 * Milliseconds since the phase started.
+	 */
+	private final long elapsedMs;
+
+	/**
+	 * Whether the run is complete, successfully or not.
+	 */
+	private final boolean done;
+
+	/**
+	 * Constructor.
+	 * @param phase current phase
+	 * @param stepsCompleted number of time steps completed in the phase
+	 * @param stepCount number of time steps in the phase, 0 if the phase does not have time steps
+	 * @param elapsedMs milliseconds since the phase started
+	 * @param done whether the run is complete
+	 */
+	public StateModRunProgress ( String phase, int stepsCompleted, int stepCount, long elapsedMs, boolean done ) {
+		this.phase = phase;
+		this.stepsCompleted = stepsCompleted;
+		this.stepCount = stepCount;
+		this.elapsedMs = elapsedMs;
+		this.done = done;
+	}
+
+	/**
+	 * Return the milliseconds since the phase started.
+	 */
+	public long getElapsedMs () {
+		return this.elapsedMs;
+	}
+
+	/**
+	 * Return the fraction of the phase time steps that are complete, 0 to 1, or 0 if the phase does not have time steps.
+	 */
+	public double getFractionComplete () {
+		return (this.stepCount > 0) ? (double)this.stepsCompleted/this.stepCount : 0.0;
+	}
+
+	/**
+	 * Return the current phase.
+	 */
+	public String getPhase () {
+		return this.phase;
+	}
+
+	/**
+	 * Return the number of time steps in the phase, 0 if the phase does not have time steps.
+	 */
+	public int getStepCount () {
+		return this.stepCount;
+	}
+
+	/**
+	 * Return the number of time steps completed in the phase.
+	 */
+	public int getStepsCompleted () {
+		return this.stepsCompleted;
+	}
+
+	/**
+	 * Return the throughput for the phase, time steps per second.
+	 */
+	public double getStepsPerSecond () {
+		return (this.elapsedMs > 0) ? this.stepsCompleted*1000.0/this.elapsedMs : 0.0;
+	}
+
+	/**
+	 * Return whether the run is complete, successfully or not.
+	 */
+	public boolean isDone () {
+		return this.done;
+	}
+
+	/**
+	 * Return a string for messages.
+	 */
+	@Override
+	public String toString () {
+		if ( this.done ) {
+			return "Done";
+		}
+		if ( this.stepCount == 0 ) {
+			return this.phase + " (" + this.elapsedMs + " ms)";
+		}
+		return this.phase + " step " + this.stepsCompleted + " of " + this.stepCount + " (" +
+			String.format("%.1f", getStepsPerSecond()) + " steps/s)";
+	}
+}
@@ -0,0 +1,39 @@
+// StateModRunProgressListener - interface for run progress events
+
+
+/* NoticeStart
+
+StateMod Java
+StateMod Java is a part of Colorado's Decision Support Systems (CDSS)
+Copyright (C) 2019 Colorado Department of Natural Resources
+
+StateMod Java is free software:  you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+StateMod Java is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+    along with StateMod Java.  If not, see <https://www.gnu.org/licenses/>.
+
+NoticeEnd */
+
+package cdss.statemod.app;
+
+/**
+ * Interface for classes that need to be notified of run progress, for example to update a status display.
+ * Implementations are called on the run thread, when a phase starts and ends and at most once per progress
+ * interval during time step loops (see StateModRunControl), and should return quickly.
+ */
+public interface StateModRunProgressListener {
+
+	/**
+	 * Called when the run progresses.
+	 * @param progress progress of the run
+	 */
+	public void progress ( StateModRunProgress progress );
+}
@@ -0,0 +1,348 @@
+// StateModRunRequest - configuration for a run submitted to StateModRunService
+
+
+/* NoticeStart
+
+StateMod Java
+StateMod Java is a part of Colorado's Decision Support Systems (CDSS)
+Copyright (C) 2019 Colorado Department of Natural Resources
+
+StateMod Java is free software:  you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+StateMod Java is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+    along with StateMod Java.  If not, see <https://www.gnu.org/licenses/>.
+
+NoticeEnd */
+
+package cdss.statemod.app;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import DWR.StateMod.StateMod_DataSet;
+
+/**
+ * Configuration for one run submitted to StateModRunService, equivalent to the command line options for
+ * a single run.  The dataset is either read from the response file when the run starts or is a dataset that
+ * has already been read, which may be shared by runs because run modes only read the dataset.
+ * The request should not be changed after it is submitted.
+ */
+public class StateModRunRequest {
+
+	/**
+	 * Response file to read the dataset from, or null if a dataset is provided.
+	 */
+	private String responseFile = null;
+
+	/**
+	 * Dataset that has already been read, or null to read the response file.
+	 */
+	private StateMod_DataSet dataset = null;
+
+	/**
+	 * Run mode to run.
+	 */
+	private StateModRunModeType runMode = StateModRunModeType.SIMULATE;
+
+	/**
+	 * Path and base name for output files, or null to use the response file without ".rsp".
+	 */
+	private String outputFileBase = null;
+
+	/**
+	 * Number of threads used to run tributary reaches and independent sub-basins.
+	 */
+	private int threads = 1;
+
+	/**
+	 * Number of threads used to read the dataset.
+	 */
+	private int loadThreads = 1;
+
+	/**
+	 * Whether to read dataset components when first used.
+	 */
+	private boolean lazy = false;
+
+	/**
+	 * Whether to use the binary dataset snapshot next to the response file.
+	 */
+	private boolean useSnapshot = false;
+
+	/**
+	 * Number of time steps between simulation checkpoints, 0 to not write checkpoints.
+	 */
+	private int checkpointInterval = 0;
+
+	/**
+	 * Maximum bytes of time series values to keep in memory, 0 to keep all time series in memory.
+	 */
+	private long maxMemory = 0;
+
+	/**
+	 * Checkpoint to restart the simulation from, or null to start at the first time step.
+	 */
+	private StateModCheckpoint restartCheckpoint = null;
+
+	/**
+	 * Hydrology traces for the ensemble run mode, or null if not an ensemble run.
+	 */
+	private StateModEnsembleTraces ensembleTraces = null;
+
+	/**
+	 * Minimum milliseconds between progress events within a phase.
+	 */
+	private long progressIntervalMs = StateModRunControl.DEFAULT_PROGRESS_INTERVAL_MS;
+
+	/**
+	 * Listeners to notify of progress.
+	 */
+	private final List<StateModRunProgressListener> progressListeners = new ArrayList<>();
+
+	/**
+	 * Listeners added to the simulation, called after each time step.
+	 */
+	private final List<StateModSimulationListener> simulationListeners = new ArrayList<>();
+
+	/**
+	 * Constructor for a run that reads the dataset from a response file.
+	 * @param responseFile absolute path to the response file
+	 * @param runMode run mode to run
+	 */
+	public StateModRunRequest ( String responseFile, StateModRunModeType runMode ) {
+		this.responseFile = responseFile;
+		this.runMode = runMode;
+	}
+
+	/**
+	 * Constructor for a run of a dataset that has already been read.
+	 * @param dataset dataset to run
+	 * @param outputFileBase path and base name for output files
+	 * @param runMode run mode to run
+	 */
+	public StateModRunRequest ( StateMod_DataSet dataset, String outputFileBase, StateModRunModeType runMode ) {
+		this.dataset = dataset;
+		this.outputFileBase = outputFileBase;
+		this.runMode = runMode;
+	}
+
+	/**
+	 * Add a listener to notify of progress.
+	 * @param listener listener to add
+	 */
+	public void addProgressListener ( StateModRunProgressListener listener ) {
+		this.progressListeners.add(listener);
+	}
+
+	/**
+	 * Add a listener to the simulation, called on the run thread after each time step.
+	 * @param listener listener to add
+	 */
+	public void addSimulationListener ( StateModSimulationListener listener ) {
+		this.simulationListeners.add(listener);
+	}
+
+	/**
+	 * Return the number of time steps between simulation checkpoints, 0 if checkpoints are not written.
+	 */
+	public int getCheckpointInterval () {
+		return this.checkpointInterval;
+	}
+
+	/**
+	 * Return the dataset that has already been read, or null to read the response file.
+	 */
+	public StateMod_DataSet getDataSet () {
+		return this.dataset;
+	}
+
+	/**
+	 * Return the hydrology traces for the ensemble run mode, or null if not an ensemble run.
+	 */
+	public StateModEnsembleTraces getEnsembleTraces () {
+		return this.ensembleTraces;
+	}
+
+	/**
+	 * Return whether dataset components are read when first used.
+	 */
+	public boolean getLazy () {
+		return this.lazy;
+	}
+
+	/**
+	 * Return the number of threads used to read the dataset.
+	 */
+	public int getLoadThreads () {
+		return this.loadThreads;
+	}
+
+	/**
+	 * Return the maximum bytes of time series values to keep in memory, 0 to keep all time series in memory.
+	 */
+	public long getMaxMemory () {
+		return this.maxMemory;
+	}
+
+	/**
+	 * Return the path and base name for output files, using the response file without ".rsp" if not set.
+	 */
+	public String getOutputFileBase () {
+		if ( (this.outputFileBase == null) && (this.responseFile != null) ) {
+			return StateModRunner.getOutputFileBase(this.responseFile);
+		}
+		return this.outputFileBase;
+	}
+
+	/**
+	 * Return the minimum milliseconds between progress events within a phase.
+	 */
+	public long getProgressIntervalMs () {
+		return this.progressIntervalMs;
+	}
+
+	/**
+	 * Return the listeners to notify of progress.
+	 */
+	public List<StateModRunProgressListener> getProgressListeners () {
+		return this.progressListeners;
+	}
+
+	/**
+	 * Return the response file to read the dataset from, or null if a dataset is provided.
+	 */
+	public String getResponseFile () {
+		return this.responseFile;
+	}
+
+	/**
+	 * Return the checkpoint to restart the simulation from, or null to start at the first time step.
+	 */
+	public StateModCheckpoint getRestartCheckpoint () {
+		return this.restartCheckpoint;
+	}
+
+	/**
+	 * Return the run mode to run.
+	 */
+	public StateModRunModeType getRunMode () {
+		return this.runMode;
+	}
+
+	/**
+	 * Return the listeners added to the simulation.
+	 */
+	public List<StateModSimulationListener> getSimulationListeners () {
+		return this.simulationListeners;
+	}
+
+	/**
+	 * Return the number of threads used to run tributary reaches and independent sub-basins.
+	 */
+	public int getThreads () {
+		return this.threads;
+	}
+
+	/**
+	 * Return whether the binary dataset snapshot is used.
+	 */
+	public boolean getUseSnapshot () {
+		return this.useSnapshot;
+	}
+
+	/**
+	 * Set the number of time steps between simulation checkpoints, written to "base.checkpoint".
+	 * @param checkpointInterval number of time steps between checkpoints, 0 to not write checkpoints
+	 */
+	public void setCheckpointInterval ( int checkpointInterval ) {
+		this.checkpointInterval = (checkpointInterval < 0) ? 0 : checkpointInterval;
+	}
+
+	/**
+	 * Set the hydrology traces for the ensemble run mode, which are shared and must not be changed during the run.
+	 * @param ensembleTraces traces to run as ensemble members
+	 */
+	public void setEnsembleTraces ( StateModEnsembleTraces ensembleTraces ) {
+		this.ensembleTraces = ensembleTraces;
+	}
+
+	/**
+	 * Set whether to read dataset components when first used rather than all when the run starts.
+	 * @param lazy if true, read components when first used
+	 */
+	public void setLazy ( boolean lazy ) {
+		this.lazy = lazy;
+	}
+
+	/**
+	 * Set the number of threads used to read the dataset.
+	 * @param loadThreads number of threads, 1 to read sequentially
+	 */
+	public void setLoadThreads ( int loadThreads ) {
+		this.loadThreads = (loadThreads < 1) ? 1 : loadThreads;
+	}
+
+	/**
+	 * Set the maximum bytes of time series values to keep in memory, spilling the rest to "base.spill".
+	 * @param maxMemory maximum bytes of time series values in memory, 0 to keep all time series in memory
+	 */
+	public void setMaxMemory ( long maxMemory ) {
+		this.maxMemory = (maxMemory < 0) ? 0 : maxMemory;
+	}
+
+	/**
+	 * Set the path and base name for output files.
+	 * @param outputFileBase path and base name for output files, or null to use the response file without ".rsp"
+	 */
+	public void setOutputFileBase ( String outputFileBase ) {
+		this.outputFileBase = outputFileBase;
+	}
+
+	/**
+	 * Set the minimum milliseconds between progress events within a phase.
+	 * @param progressIntervalMs milliseconds between progress events, 0 to send an event after every time step
+	 */
+	public void setProgressIntervalMs ( long progressIntervalMs ) {
+		this.progressIntervalMs = (progressIntervalMs < 0) ? 0 : progressIntervalMs;
+	}
+
+	/**
+	 * Set the checkpoint to restart the simulation from, which is not modified and can be shared between requests.
+	 * @param restartCheckpoint checkpoint to restart from, or null to start at the first time step
+	 */
+	public void setRestartCheckpoint ( StateModCheckpoint restartCheckpoint ) {
+		this.restartCheckpoint = restartCheckpoint;
+	}
+
+	/**
+	 * Set the number of threads used to run tributary reaches and independent sub-basins.
+	 * @param threads number of threads, 1 to run on the run thread
+	 */
+	public void setThreads ( int threads ) {
+		this.threads = (threads < 1) ? 1 : threads;
+	}
+
+	/**
+	 * Set whether to use the binary dataset snapshot next to the response file.
+	 * @param useSnapshot if true, read the snapshot if up to date and write the snapshot after reading text files
+	 */
+	public void setUseSnapshot ( boolean useSnapshot ) {
+		this.useSnapshot = useSnapshot;
+	}
+
+	/**
+	 * Return a string for messages.
+	 */
+	@Override
+	public String toString () {
+		return this.runMode + " " + ((this.responseFile != null) ? this.responseFile : getOutputFileBase());
+	}
+}
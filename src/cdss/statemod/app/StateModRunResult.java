@@ -0,0 +1,125 @@
+// StateModRunResult - result of a completed run
+
+
+/* NoticeStart
+
+StateMod Java
+StateMod Java is a part of Colorado's Decision Support Systems (CDSS)
+Copyright (C) 2019 Colorado Department of Natural Resources
+
+StateMod Java is free software:  you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+StateMod Java is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+    along with StateMod Java.  If not, see <https://www.gnu.org/licenses/>.
+
+NoticeEnd */
+
+package cdss.statemod.app;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Result of a completed run, returned by StateModRunner.run() and by the StateModRunHandle future.
+ */
+public class StateModRunResult {
+
+	/**
+	 * Run mode that was run.
+	 */
+	private final StateModRunModeType runMode;
+
+	/**
+	 * Path and base name for the output files.
+	 */
+	private final String outputFileBase;
+
+	/**
+	 * Output files that were written.
+	 */
+	private final List<String> outputFiles;
+
+	/**
+	 * Simulation summary, or null if not a simulation.
+	 */
+	private final StateModSimulationSummary simulationSummary;
+
+	/**
+	 * Check messages, or null if not a check.
+	 */
+	private final List<StateModCheckMessage> checkMessages;
+
+	/**
+	 * Milliseconds to run.
+	 */
+	private final long elapsedMs;
+
+	/**
+	 * Constructor.
+	 * @param runMode run mode that was run
+	 * @param outputFileBase path and base name for the output files
+	 * @param outputFiles output files that were written
+	 * @param simulationSummary simulation summary, or null if not a simulation
+	 * @param checkMessages check messages, or null if not a check
+	 * @param elapsedMs milliseconds to run
+	 */
+	public StateModRunResult ( StateModRunModeType runMode, String outputFileBase, List<String> outputFiles,
+		StateModSimulationSummary simulationSummary, List<StateModCheckMessage> checkMessages, long elapsedMs ) {
+		this.runMode = runMode;
+		this.outputFileBase = outputFileBase;
+		this.outputFiles = Collections.unmodifiableList(outputFiles);
+		this.simulationSummary = simulationSummary;
+		this.checkMessages = (checkMessages == null) ? null : Collections.unmodifiableList(checkMessages);
+		this.elapsedMs = elapsedMs;
+	}
+
+	/**
+	 * Return the check messages, or null if not a check.
+	 */
+	public List<StateModCheckMessage> getCheckMessages () {
+		return this.checkMessages;
+	}
+
+	/**
+	 * Return the milliseconds to run.
+	 */
+	public long getElapsedMs () {
+		return this.elapsedMs;
+	}
+
+	/**
+	 * Return the output files that were written.
+	 */
+	public List<String> getOutputFiles () {
+		return this.outputFiles;
+	}
+
+	/**
+	 * Return the path and base name for the output files.
+	 */
+	public String getOutputFileBase () {
+		return this.outputFileBase;
+	}
+
+	/**
+	 * Return the run mode that was run.
+	 */
+	public StateModRunModeType getRunMode () {
+		return this.runMode;
+	}
+
+	/**
+	 * Return the simulation summary, or null if not a simulation.
+	 */
+	public StateModSimulationSummary getSimulationSummary () {
+		return this.simulationSummary;
+	}
+}
@@ -0,0 +1,180 @@
+// StateModRunService - run StateMod in-process with concurrent runs
+
+/* NoticeStart
+
+StateMod Java
+StateMod Java is a part of Colorado's Decision Support Systems (CDSS)
+Copyright (C) 2019 Colorado Department of Natural Resources
+
+StateMod Java is free software:  you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+StateMod Java is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+    along with StateMod Java.  If not, see <https://www.gnu.org/licenses/>.
+
+NoticeEnd */
+
+package cdss.statemod.app;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import DWR.StateMod.StateMod_DataSet;
+
+/**
+ * Run StateMod in-process, for applications that schedule runs without starting a program for each run.
+ * Each submitted StateModRunRequest runs on a service thread with its own runner, run control, and metrics,
+ * so runs do not share state other than a dataset that is provided in more than one request, which run
+ * modes only read.  Runs do not use the command line state in StateModMain and do not exit the program.
+ * <p>
+ * Example:
+ * <pre>
+ * try ( StateModRunService service = new StateModRunService(4) ) {
+ *     StateModRunRequest request = new StateModRunRequest("/data/cm2015H.rsp", StateModRunModeType.SIMULATE);
+ *     request.addProgressListener(listener);
+ *     StateModRunHandle handle = service.submit(request);
+ *     StateModRunResult result = handle.getFuture().get();
+ * }
+ * </pre>
+ */
+public class StateModRunService implements AutoCloseable {
+
+	/**
+	 * Executor that runs the requests.
+	 */
+	private final ExecutorService executor;
+
+	/**
+	 * Constructor.
+	 * @param maxRuns maximum number of runs at the same time, later runs wait until a run completes
+	 */
+	public StateModRunService ( int maxRuns ) {
+		final AtomicInteger threadCount = new AtomicInteger();
+		this.executor = Executors.newFixedThreadPool(Math.max(1, maxRuns), new ThreadFactory() {
+			@Override
+			public Thread newThread ( Runnable r ) {
+				Thread thread = new Thread(r, "statemod-run-" + threadCount.incrementAndGet());
+				// Do not keep the application running if it does not close the service
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Stop accepting runs.  Runs that have been submitted continue - cancel the handles to stop them.
+	 */
+	@Override
+	public void close () {
+		this.executor.shutdown();
+	}
+
+	/**
+	 * Run a request on the calling thread.
+	 * @param request request to run
+	 * @param runControl cancellation and progress for the run
+	 * @param metrics metrics for the run
+	 * @return result of the run
+	 * @exception Exception if the dataset cannot be read or the run fails, CancellationException if cancelled
+	 */
+	public static StateModRunResult run ( StateModRunRequest request, StateModRunControl runControl,
+		StateModMetrics metrics ) throws Exception {
+		String routine = "StateModRunService.run";
+		try {
+			// A run that was cancelled before starting stops here
+			runControl.checkCancelled();
+			StateMod_DataSet dataset = request.getDataSet();
+			if ( dataset == null ) {
+				runControl.startPhase("ReadDataSet", 0);
+				if ( !new File(request.getResponseFile()).isFile() ) {
+					throw new FileNotFoundException("Response file \"" + request.getResponseFile() + "\" does not exist.");
+				}
+				StateModDataSetLoader loader = new StateModDataSetLoader(request.getLoadThreads());
+				loader.setLazy(request.getLazy());
+				loader.setUseSnapshot(request.getUseSnapshot());
+				loader.setFingerprintFiles(request.getRunMode() == StateModRunModeType.CHECK);
+				// The loader records the read phases in the run's metrics
+				loader.setMetrics(metrics);
+				dataset = loader.readDataSet(request.getResponseFile());
+			}
+			StateModRunner runner = new StateModRunner(dataset);
+			runner.setOutputFileBase(request.getOutputFileBase());
+			runner.setThreads(request.getThreads());
+			runner.setCheckpointInterval(request.getCheckpointInterval());
+			runner.setMaxMemory(request.getMaxMemory());
+			runner.setRestartCheckpoint(request.getRestartCheckpoint());
+			runner.setEnsembleTraces(request.getEnsembleTraces());
+			runner.setRunControl(runControl);
+			runner.setMetrics(metrics);
+			for ( StateModSimulationListener listener : request.getSimulationListeners() ) {
+				runner.addSimulationListener(listener);
+			}
+			try {
+				if ( request.getDataSet() == null ) {
+					// The dataset was read for this run so its time series objects are released once they are in the store,
+					// but a dataset in the request may be shared by other runs and is not modified
+					runner.getTimeSeriesStore().releaseDataSetTimeSeries(dataset);
+				}
+				StateModRunResult result = runner.run(request.getRunMode());
+				StateModLogger.printStatus(2, routine, "Run " + request + " completed in " + result.getElapsedMs() + " ms.");
+				return result;
+			}
+			finally {
+				runner.closeTimeSeriesCache();
+			}
+		}
+		catch ( Exception e ) {
+			StateModLogger.printWarning(2, routine, "Run " + request + " did not complete (" + e + ").");
+			throw e;
+		}
+		finally {
+			runControl.done();
+		}
+	}
+
+	/**
+	 * Submit a run.
+	 * @param request request to run, which should not be changed after it is submitted
+	 * @return handle for the run
+	 * @exception IllegalArgumentException if the request does not have a dataset or response file,
+	 * the run mode is not supported, or an ensemble request does not have traces
+	 */
+	public StateModRunHandle submit ( final StateModRunRequest request ) {
+		if ( (request.getDataSet() == null) && (request.getResponseFile() == null) ) {
+			throw new IllegalArgumentException("Run request does not have a dataset or response file.");
+		}
+		StateModRunModeType runMode = request.getRunMode();
+		if ( (runMode != StateModRunModeType.BASEFLOWS) && (runMode != StateModRunModeType.CHECK) &&
+			(runMode != StateModRunModeType.ENSEMBLE) && (runMode != StateModRunModeType.SIMULATE) ) {
+			throw new IllegalArgumentException("Run mode " + runMode + " is not supported.");
+		}
+		if ( (runMode == StateModRunModeType.ENSEMBLE) && (request.getEnsembleTraces() == null) ) {
+			throw new IllegalArgumentException("Ensemble run request does not have ensemble traces.");
+		}
+		final StateModRunControl runControl = new StateModRunControl(request.getProgressIntervalMs());
+		for ( StateModRunProgressListener listener : request.getProgressListeners() ) {
+			runControl.addProgressListener(listener);
+		}
+		final StateModMetrics metrics = new StateModMetrics();
+		StateModRunHandle handle = new StateModRunHandle(request, runControl, metrics);
+		handle.setFuture(this.executor.submit(new Callable<StateModRunResult>() {
+			@Override
+			public StateModRunResult call () throws Exception {
+				return run(request, runControl, metrics);
+			}
+		}));
+		return handle;
+	}
+}
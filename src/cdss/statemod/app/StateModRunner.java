@@ -23,9 +23,16 @@ NoticeEnd */
 
 package cdss.statemod.app;
 
-import javax.swing.JFrame;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
 
 import DWR.StateMod.StateMod_DataSet;
+import RTi.Util.Message.Message;
+import RTi.Util.Time.DateTime;
+import RTi.Util.Time.TimeInterval;
 
 /**
  * StateModRunner runs a StateMod simulation or other run mode.
@@ -38,6 +45,81 @@ public class StateModRunner {
 	 * StateMod dataset used by the simulator.
 	 */
 	private StateMod_DataSet dataset = null;
+
+	/*
+	 * Columnar time series store for the dataset, created when first requested.
+	 */
+	private StateModTimeSeriesStore timeSeriesStore = null;
+
+	/*
+	 * Time series store of the runner that created this scenario runner, or null if not a scenario runner.
+	 */
+	private StateModTimeSeriesStore baseTimeSeriesStore = null;
+
+	/*
+	 * Identifier registry shared by the network, rights, and time series store, created when first requested.
+	 */
+	private StateModIdRegistry idRegistry = null;
+
+	/*
+	 * River network compiled into index arrays, created when first requested.
+	 */
+	private StateModNetwork network = null;
+
+	/*
+	 * Priority-ordered rights, created when first requested.
+	 */
+	private StateModRightList rightList = null;
+
+	/*
+	 * Number of threads used to run tributary reaches and independent sub-basins.
+	 */
+	private int threads = 1;
+
+	/*
+	 * Path and base name for output files, for example the response file without ".rsp".
+	 */
+	private String outputFileBase = null;
+
+	/*
+	 * Summary of the last simulation, or null if a simulation has not been run.
+	 */
+	private StateModSimulationSummary simulationSummary = null;
+
+	/*
+	 * Number of time steps between simulation checkpoints, 0 to not write checkpoints.
+	 */
+	private int checkpointInterval = 0;
+
+	/*
+	 * Maximum bytes of time series values to keep in memory, 0 to keep all time series in memory.
+	 */
+	private long maxMemory = 0;
+
+	/*
+	 * Checkpoint to restart the simulation from, or null to start at the first time step.
+	 */
+	private StateModCheckpoint restartCheckpoint = null;
+
+	/*
+	 * Hydrology traces for the ensemble run mode, or null if not set.
+	 */
+	private StateModEnsembleTraces ensembleTraces = null;
+
+	/*
+	 * Cancellation and progress for runs, or null if runs cannot be cancelled.
+	 */
+	private StateModRunControl runControl = null;
+
+	/*
+	 * Metrics for run phases and counts, by default the program metrics.
+	 */
+	private StateModMetrics metrics = StateModMetrics.getInstance();
+
+	/*
+	 * Additional listeners added to each simulation, for example to report progress.
+	 */
+	private final List<StateModSimulationListener> simulationListeners = new ArrayList<>();
 	
 	/*
 	 * Constructor.
@@ -52,39 +134,559 @@ public class StateModRunner {
 	 * @param responseFile response file to read dataset.
 	 */
 	public StateModRunner ( String responseFile ) {
+		this ( responseFile, 1 );
+	}
+
+	/*
+	 * Constructor.
+	 * @param responseFile response file to read dataset.
+	 * @param loadThreads number of threads used to read the dataset, 1 to read sequentially.
+	 * @exception RuntimeException if the dataset cannot be read
+	 */
+	public StateModRunner ( String responseFile, int loadThreads ) {
 		try {
-			boolean readData = true; // Read the data files (except for time series)
-			boolean readTimeSeries = true; // Read the time series files
-			boolean useGUI = false; // No UI is defined
-			JFrame parent = null; // A JFrame if UI is uses, not yet implemented
-			StateMod_DataSet dataset = new StateMod_DataSet();
-			dataset.readStateModFile(responseFile, readData, readTimeSeries, useGUI, parent);
-			this.dataset = dataset;
+			StateModDataSetLoader loader = new StateModDataSetLoader(loadThreads);
+			loader.setMetrics(this.metrics);
+			this.dataset = loader.readDataSet(responseFile);
+			setOutputFileBase(StateModRunner.getOutputFileBase(responseFile));
+		}
+		catch ( RuntimeException e ) {
+			throw e;
 		}
 		catch ( Exception e ) {
-			
+			throw new RuntimeException("Error reading dataset from response file \"" + responseFile + "\".", e);
 		}
 	}
 	
+	/*
+	 * Add a listener that is called after each simulation time step, in addition to the runner's listeners.
+	 * @param listener listener to add
+	 */
+	public void addSimulationListener ( StateModSimulationListener listener ) {
+		this.simulationListeners.add(listener);
+	}
+
+	/*
+	 * Close the time series cache that was created by the runner, which deletes the spill file.
+	 * This should only be called when the runner and any scenario runners that share its store are no longer used.
+	 * Errors are logged but are not fatal.
+	 */
+	public void closeTimeSeriesCache () {
+		if ( (this.timeSeriesStore == null) || (this.timeSeriesStore.getCache() == null) ) {
+			return;
+		}
+		try {
+			this.timeSeriesStore.getCache().close();
+		}
+		catch ( IOException e ) {
+			String routine = getClass().getSimpleName() + ".closeTimeSeriesCache";
+			StateModLogger.printWarning(3, routine, "Error closing time series cache (" + e + ").");
+		}
+	}
+
+	/*
+	 * Create a runner for a scenario that shares this runner's dataset and compiled network, and
+	 * the time series store and rights where the scenario does not change them.
+	 * This runner's data should be created before scenario runners are used on other threads.
+	 * @param scenario scenario changes to apply
+	 * @param outputFileBase path and base name for the scenario output files
+	 * @return runner for the scenario
+	 */
+	public StateModRunner createScenarioRunner ( StateModScenario scenario, String outputFileBase ) {
+		StateModRunner runner = new StateModRunner(this.dataset);
+		runner.setOutputFileBase(outputFileBase);
+		runner.setThreads(this.threads);
+		runner.setIdRegistry(getIdRegistry());
+		runner.setNetwork(getNetwork());
+		runner.setTimeSeriesStore(scenario.applyToStore(getTimeSeriesStore()));
+		runner.baseTimeSeriesStore = getTimeSeriesStore();
+		runner.setRightList(scenario.applyToRights(getRightList()));
+		runner.setRestartCheckpoint(this.restartCheckpoint);
+		runner.setCheckpointInterval(this.checkpointInterval);
+		runner.setEnsembleTraces(this.ensembleTraces);
+		runner.setRunControl(this.runControl);
+		runner.setMetrics(this.metrics);
+		return runner;
+	}
+
+	/*
+	 * Release the time series columns of a scenario runner that are not shared with the runner that created it,
+	 * so that the time series cache uses their space for later scenarios (see StateModTimeSeriesStore.releaseColumns()).
+	 * This should be called when the scenario runs are done; the runner must not be run after the call.
+	 * Nothing is done for a runner that was not created by createScenarioRunner().
+	 */
+	public void releaseScenarioData () {
+		if ( (this.baseTimeSeriesStore == null) || (this.timeSeriesStore == null) ) {
+			return;
+		}
+		this.timeSeriesStore.releaseColumns(this.baseTimeSeriesStore);
+		this.timeSeriesStore = null;
+	}
+
+	/*
+	 * Return the number of time steps between simulation checkpoints, 0 if checkpoints are not written.
+	 */
+	public int getCheckpointInterval () {
+		return this.checkpointInterval;
+	}
+
+	/*
+	 * Return the dataset used by the runner.
+	 */
+	public StateMod_DataSet getDataSet () {
+		return this.dataset;
+	}
+
+	/*
+	 * Return the hydrology traces for the ensemble run mode, or null if not set.
+	 */
+	public StateModEnsembleTraces getEnsembleTraces () {
+		return this.ensembleTraces;
+	}
+
+	/*
+	 * Return the identifier registry for the dataset, creating it if necessary.
+	 * The registry is created from the dataset after it is read and is used for all station indexes
+	 * so that run modes can join stations, rights, and nodes by registry number.
+	 */
+	public StateModIdRegistry getIdRegistry () {
+		if ( this.idRegistry == null ) {
+			this.idRegistry = StateModIdRegistry.createFromDataSet(this.dataset);
+		}
+		return this.idRegistry;
+	}
+
+	/*
+	 * Return the metrics for run phases and counts.
+	 */
+	public StateModMetrics getMetrics () {
+		return this.metrics;
+	}
+
+	/*
+	 * Return the maximum bytes of time series values to keep in memory, 0 if all time series are kept in memory.
+	 */
+	public long getMaxMemory () {
+		return this.maxMemory;
+	}
+
+	/*
+	 * Return the output file base for a response file, which is the response file without the ".rsp" extension.
+	 * @param responseFile path to the response file
+	 */
+	public static String getOutputFileBase ( String responseFile ) {
+		if ( responseFile.toLowerCase().endsWith(".rsp") ) {
+			return responseFile.substring(0, responseFile.length() - 4);
+		}
+		return responseFile;
+	}
+
+	/*
+	 * Return the path and base name for output files.
+	 * If not set, "statemod" in the current directory is used.
+	 */
+	public String getOutputFileBase () {
+		if ( this.outputFileBase == null ) {
+			return "statemod";
+		}
+		return this.outputFileBase;
+	}
+
+	/*
+	 * Return the compiled river network, creating it if necessary.
+	 */
+	public StateModNetwork getNetwork () {
+		if ( this.network == null ) {
+			this.network = StateModNetwork.createFromDataSet(this.dataset, getIdRegistry());
+		}
+		return this.network;
+	}
+
+	/*
+	 * Return the checkpoint to restart the simulation from, or null to start at the first time step.
+	 */
+	public StateModCheckpoint getRestartCheckpoint () {
+		return this.restartCheckpoint;
+	}
+
+	/*
+	 * Return the cancellation and progress control for runs, or null if runs cannot be cancelled.
+	 */
+	public StateModRunControl getRunControl () {
+		return this.runControl;
+	}
+
+	/*
+	 * Return the priority-ordered rights, creating them if necessary.
+	 */
+	public StateModRightList getRightList () {
+		if ( this.rightList == null ) {
+			this.rightList = StateModRightList.createFromDataSet(this.dataset, getNetwork(), getIdRegistry());
+		}
+		return this.rightList;
+	}
+
+	/*
+	 * Return the summary of the last simulation, or null if a simulation has not been run.
+	 */
+	public StateModSimulationSummary getSimulationSummary () {
+		return this.simulationSummary;
+	}
+
+	/*
+	 * Return the time series store for the dataset, creating it if necessary.
+	 * Run modes use the store rather than the dataset time series objects.
+	 */
+	public StateModTimeSeriesStore getTimeSeriesStore () {
+		if ( this.timeSeriesStore == null ) {
+			StateModTimeSeriesCache cache = null;
+			if ( this.maxMemory > 0 ) {
+				String spillFile = getOutputFileBase() + ".spill";
+				try {
+					cache = new StateModTimeSeriesCache(this.maxMemory, new File(spillFile), this.metrics);
+				}
+				catch ( IOException e ) {
+					String routine = getClass().getSimpleName() + ".getTimeSeriesStore";
+					StateModLogger.printWarning(2, routine, "Error creating time series spill file \"" + spillFile +
+						"\" - keeping all time series in memory.");
+					StateModLogger.printWarning(3, routine, e);
+				}
+			}
+			this.timeSeriesStore = StateModTimeSeriesStore.createFromDataSet(this.dataset, getIdRegistry(), cache);
+		}
+		return this.timeSeriesStore;
+	}
+
+	/*
+	 * Set the number of time steps between simulation checkpoints, written to "base.checkpoint".
+	 * @param checkpointInterval number of time steps between checkpoints, 0 to not write checkpoints
+	 */
+	public void setCheckpointInterval ( int checkpointInterval ) {
+		this.checkpointInterval = (checkpointInterval < 0) ? 0 : checkpointInterval;
+	}
+
+	/*
+	 * Set the hydrology traces for the ensemble run mode.
+	 * @param ensembleTraces traces to run as ensemble members
+	 */
+	public void setEnsembleTraces ( StateModEnsembleTraces ensembleTraces ) {
+		this.ensembleTraces = ensembleTraces;
+	}
+
+	/*
+	 * Set the identifier registry, for example to share a registry between runners for the same dataset.
+	 * The registry must be set before the network, rights, and time series store are created.
+	 * @param idRegistry identifier registry for the dataset
+	 */
+	public void setIdRegistry ( StateModIdRegistry idRegistry ) {
+		this.idRegistry = idRegistry;
+	}
+
+	/*
+	 * Set the maximum bytes of time series values to keep in memory.
+	 * If set, the time series store keeps values in blocks that are spilled to "base.spill" and read again when used.
+	 * This must be set before the time series store is created.
+	 * @param maxMemory maximum bytes of time series values in memory, 0 to keep all time series in memory
+	 */
+	public void setMaxMemory ( long maxMemory ) {
+		this.maxMemory = (maxMemory < 0) ? 0 : maxMemory;
+	}
+
+	/*
+	 * Set the metrics for run phases and counts, for example to keep the metrics for concurrent runs separate.
+	 * The metrics are passed to the objects that the runner creates, such as the time series cache and checkpoint writer,
+	 * so this should be set before the runner is used.
+	 * @param metrics metrics for the runner
+	 */
+	public void setMetrics ( StateModMetrics metrics ) {
+		this.metrics = metrics;
+	}
+
+	/*
+	 * Set the compiled river network, for example to share a network between runners for the same dataset.
+	 * @param network compiled river network for the dataset
+	 */
+	public void setNetwork ( StateModNetwork network ) {
+		this.network = network;
+	}
+
+	/*
+	 * Set the path and base name for output files.
+	 * @param outputFileBase path and base name for output files, for example the response file without ".rsp".
+	 */
+	public void setOutputFileBase ( String outputFileBase ) {
+		this.outputFileBase = outputFileBase;
+	}
+
+	/*
+	 * Set the checkpoint to restart the simulation from.  The checkpoint is not modified
+	 * and can be shared between runners, for example to warm-start batch scenarios.
+	 * @param restartCheckpoint checkpoint to restart from, or null to start at the first time step
+	 */
+	public void setRestartCheckpoint ( StateModCheckpoint restartCheckpoint ) {
+		this.restartCheckpoint = restartCheckpoint;
+	}
+
+	/*
+	 * Set the priority-ordered rights, for example rights with scenario on/off switches.
+	 * @param rightList compiled rights for the dataset and network
+	 */
+	public void setRightList ( StateModRightList rightList ) {
+		this.rightList = rightList;
+	}
+
+	/*
+	 * Set the cancellation and progress control for runs.
+	 * Cancelled runs stop at the next time step or phase with CancellationException.
+	 * @param runControl run control, or null if runs cannot be cancelled
+	 */
+	public void setRunControl ( StateModRunControl runControl ) {
+		this.runControl = runControl;
+	}
+
+	/*
+	 * Set the number of threads used to run tributary reaches and independent sub-basins.
+	 * @param threads number of threads, 1 to run on the calling thread.
+	 */
+	public void setThreads ( int threads ) {
+		this.threads = (threads < 1) ? 1 : threads;
+	}
+
+	/*
+	 * Set the time series store, for example a store shared between runners or with scenario changes.
+	 * @param timeSeriesStore time series store for the dataset
+	 */
+	public void setTimeSeriesStore ( StateModTimeSeriesStore timeSeriesStore ) {
+		this.timeSeriesStore = timeSeriesStore;
+	}
+
+	/*
+	 * Run the requested run mode.
+	 * @param runMode run mode to run
+	 * @return result of the run
+	 * @exception CancellationException if the run control was cancelled
+	 * @exception UncheckedIOException if output files cannot be written
+	 */
+	public StateModRunResult run ( StateModRunModeType runMode ) {
+		long start = System.currentTimeMillis();
+		List<String> outputFiles = new ArrayList<>();
+		StateModSimulationSummary summary = null;
+		List<StateModCheckMessage> messages = null;
+		if ( runMode == StateModRunModeType.BASEFLOWS ) {
+			outputFiles = runBaseflows();
+		}
+		else if ( runMode == StateModRunModeType.ENSEMBLE ) {
+			outputFiles = runEnsemble();
+		}
+		else if ( runMode == StateModRunModeType.CHECK ) {
+			messages = runCheck();
+			outputFiles.add(getOutputFileBase() + ".chk.csv");
+		}
+		else if ( runMode == StateModRunModeType.SIMULATE ) {
+			summary = runSimulation();
+			outputFiles.add(getOutputFileBase() + StateModBinaryOutputWriter.NODE_EXTENSION);
+			outputFiles.add(getOutputFileBase() + StateModBinaryOutputWriter.RESERVOIR_EXTENSION);
+		}
+		else {
+			throw new IllegalArgumentException("Run mode " + runMode + " is not supported.");
+		}
+		return new StateModRunResult(runMode, getOutputFileBase(), outputFiles, summary, messages,
+			System.currentTimeMillis() - start);
+	}
+
 	/*
 	 * Run the baseflow mode.
+	 * @return baseflow files that were written
+	 * @exception CancellationException if the run control was cancelled
+	 * @exception UncheckedIOException if a baseflow file cannot be written, after writing the other files
 	 */
-	public void runBaseflows () {
+	@SuppressWarnings("try")
+	public List<String> runBaseflows () {
+		String routine = getClass().getSimpleName() + ".runBaseflows";
 		System.out.println("Running baseflow mode.");
+		StateModNetwork network = getNetwork();
+		StateModStationIndex nodeIndex = network.getNodeIndex();
+		String [] ids = new String[nodeIndex.size()];
+		for ( int i = 0; i < ids.length; i++ ) {
+			ids[i] = nodeIndex.getId(i);
+		}
+		List<String> outputFiles = new ArrayList<>();
+		IOException error = null;
+		// Monthly baseflows are always computed, daily if daily historical streamflow is available
+		boolean [] dailyModes = { false, true };
+		for ( boolean daily : dailyModes ) {
+			StateModBaseflowCalculator calculator = new StateModBaseflowCalculator(this.dataset, getTimeSeriesStore(), network, daily,
+				this.metrics);
+			if ( calculator.getStepCount() == 0 ) {
+				if ( !daily ) {
+					StateModLogger.printWarning(2, routine, "No monthly historical streamflow - cannot compute baseflows.");
+				}
+				continue;
+			}
+			calculator.setThreads(this.threads);
+			String phase = daily ? "BaseflowDaily" : "BaseflowMonthly";
+			if ( this.runControl != null ) {
+				this.runControl.startPhase(phase, calculator.getStepCount());
+				calculator.setRunControl(this.runControl);
+			}
+			String outputFile = getOutputFileBase() + (daily ? ".xbd" : ".xbm");
+			DateTime start = calculator.getStart();
+			DateTime end = new DateTime(start);
+			for ( int step = 1; step < calculator.getStepCount(); step++ ) {
+				StateModTimeSeriesUtil.addStep(end, daily ? TimeInterval.DAY : TimeInterval.MONTH);
+			}
+			try ( StateModBaseflowWriter writer = new StateModBaseflowWriter(outputFile, ids, start, end, daily);
+				StateModMetrics.Timer timer = this.metrics.startPhase(phase) ) {
+				calculator.run(writer);
+				StateModLogger.printStatus(2, routine, "Wrote " + (daily ? "daily" : "monthly") + " baseflows for " +
+					ids.length + " nodes to \"" + outputFile + "\".");
+				outputFiles.add(outputFile);
+			}
+			catch ( IOException e ) {
+				StateModLogger.printWarning(2, routine, "Error writing baseflow file \"" + outputFile + "\".");
+				StateModLogger.printWarning(3, routine, e);
+				if ( error == null ) {
+					error = e;
+				}
+			}
+		}
+		if ( error != null ) {
+			throw new UncheckedIOException("Error writing baseflow files \"" + getOutputFileBase() + ".xbm/.xbd\".", error);
+		}
+		return outputFiles;
 	}
 
 	/*
 	 * Run the check.
+	 * @return check messages
+	 * @exception CancellationException if the run control was cancelled
+	 * @exception UncheckedIOException if the check report cannot be written
 	 */
-	public void runCheck () {
+	@SuppressWarnings("try")
+	public List<StateModCheckMessage> runCheck () {
+		String routine = getClass().getSimpleName() + ".runCheck";
 		System.out.println("Running check mode.");
+		if ( this.runControl != null ) {
+			this.runControl.startPhase("Check", 0);
+		}
+		StateModCheckEngine engine = new StateModCheckEngine(this.dataset, getTimeSeriesStore());
+		engine.setThreads(this.threads);
+		engine.setCacheFile(getOutputFileBase() + ".chk.cache");
+		long start = System.currentTimeMillis();
+		List<StateModCheckMessage> messages;
+		try ( StateModMetrics.Timer timer = this.metrics.startPhase("Check") ) {
+			messages = engine.run(StateModCheckEngine.getDefaultRules());
+		}
+		long end = System.currentTimeMillis();
+		this.metrics.addCount("CheckRulesCached", engine.getCachedRuleCount());
+		this.metrics.addCount("CheckMessages", messages.size());
+		int errorCount = 0;
+		for ( StateModCheckMessage message : messages ) {
+			if ( StateModCheckMessage.SEVERITY_ERROR.equals(message.getSeverity()) ) {
+				++errorCount;
+			}
+		}
+		StateModLogger.printStatus(2, routine, "Check completed in " + (end - start) + " ms with " + errorCount + " errors and " +
+			(messages.size() - errorCount) + " warnings.");
+		String reportFile = getOutputFileBase() + ".chk.csv";
+		try {
+			engine.writeReport(reportFile, messages);
+			StateModLogger.printStatus(2, routine, "Wrote check report \"" + reportFile + "\".");
+		}
+		catch ( IOException e ) {
+			StateModLogger.printWarning(2, routine, "Error writing check report \"" + reportFile + "\".");
+			StateModLogger.printWarning(3, routine, e);
+			throw new UncheckedIOException("Error writing check report \"" + reportFile + "\".", e);
+		}
+		return messages;
+	}
+
+	/*
+	 * Run the ensemble of hydrology traces, using the runner threads to run members at the same time,
+	 * and write the summary statistics.  See StateModEnsembleRunner.
+	 * @return summary files that were written
+	 * @exception CancellationException if the run control was cancelled
+	 * @exception IllegalStateException if the ensemble traces have not been set
+	 * @exception UncheckedIOException if a trace cannot be read or the summary files cannot be written
+	 */
+	public List<String> runEnsemble () {
+		System.out.println("Running ensemble mode.");
+		if ( this.ensembleTraces == null ) {
+			throw new IllegalStateException("Ensemble traces have not been set.");
+		}
+		StateModEnsembleRunner ensembleRunner = new StateModEnsembleRunner(this, this.ensembleTraces);
+		ensembleRunner.setThreads(this.threads);
+		return ensembleRunner.run();
 	}
 
 	/*
 	 * Run the simulation.
+	 * @return summary of the simulation
+	 * @exception CancellationException if the run control was cancelled, after closing the output files
+	 * @exception UncheckedIOException if the output files cannot be written
 	 */
-	public void runSimulation () {
+	@SuppressWarnings("try")
+	public StateModSimulationSummary runSimulation () {
+		String routine = getClass().getSimpleName() + ".runSimulation";
 		System.out.println("Running simulation.");
-		// TODO smalers 2019-03-14 need to implement logic
+		StateModMetrics metrics = this.metrics;
+		if ( this.runControl != null ) {
+			this.runControl.startPhase("CompileSimulation", 0);
+		}
+		// Compile the network, rights, and time series before the time step loop
+		StateModSimulator simulator;
+		try ( StateModMetrics.Timer timer = metrics.startPhase("CompileSimulation") ) {
+			simulator = new StateModSimulator(this.dataset, getTimeSeriesStore(), getNetwork(), getRightList());
+		}
+		if ( this.restartCheckpoint != null ) {
+			// Checkpoint is checked against the simulation and throws IllegalArgumentException if it does not match
+			this.restartCheckpoint.apply(simulator, getRightList());
+			StateModLogger.printStatus(2, routine, "Restarting simulation from checkpoint at time step " +
+				(simulator.getNextStep() + 1) + " of " + simulator.getStepCount() + ".");
+		}
+		StateModLogger.printStatus(2, routine, "Simulating " + simulator.getStepCount() + " months with " +
+			getNetwork().getNodeCount() + " nodes and " + getRightList().getCount() + " rights.");
+		simulator.setThreads(this.threads);
+		StateModLogger.printStatus(2, routine, "Network has " + simulator.getSubBasins().getReachCount() + " reaches in " +
+			simulator.getSubBasins().getBasinCount() + " independent sub-basins, simulating with " + this.threads + " threads.");
+		if ( this.runControl != null ) {
+			this.runControl.startPhase("Simulate", simulator.getStepCount() - simulator.getNextStep());
+			simulator.setRunControl(this.runControl);
+		}
+		StateModSimulationSummary summary = new StateModSimulationSummary();
+		simulator.addListener(summary);
+		IOException error = null;
+		try ( StateModSimulationOutput output = new StateModSimulationOutput(getOutputFileBase(), simulator, getNetwork(), getRightList()) ) {
+			simulator.addListener(output);
+			simulator.addListener(new StateModSimulationMetrics(metrics));
+			for ( StateModSimulationListener listener : this.simulationListeners ) {
+				simulator.addListener(listener);
+			}
+			if ( this.checkpointInterval > 0 ) {
+				simulator.addListener(new StateModCheckpointWriter(getOutputFileBase() + ".checkpoint",
+					this.checkpointInterval, getRightList(), metrics));
+			}
+			long start = System.currentTimeMillis();
+			simulator.run();
+			long end = System.currentTimeMillis();
+			StateModLogger.printStatus(2, routine, "Simulation completed in " + (end - start) + " ms.");
+			try ( StateModMetrics.Timer timer = metrics.startPhase("OutputFlush") ) {
+				output.close();
+			}
+		}
+		catch ( IOException e ) {
+			StateModLogger.printWarning(2, routine, "Error writing simulation output files \"" + getOutputFileBase() + ".jb43/.jb44\".");
+			StateModLogger.printWarning(3, routine, e);
+			error = e;
+		}
+		metrics.addCount("SimulationTimeSteps", simulator.getNextStep());
+		metrics.addCount("SimulationRightsEvaluated", simulator.getRightEvaluationCount());
+		metrics.addCount("SimulationRightsAllocated", simulator.getRightAllocationCount());
+		summary.print();
+		this.simulationSummary = summary;
+		if ( error != null ) {
+			throw new UncheckedIOException("Error writing simulation output files \"" + getOutputFileBase() + ".jb43/.jb44\".", error);
+		}
+		return summary;
 	}
-}
\ No newline at end of file
+}
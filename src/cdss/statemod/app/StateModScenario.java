@@ -0,0 +1,251 @@
+// StateModScenario - scenario changes applied to a shared base dataset in batch mode
+
+/* NoticeStart
+
+StateMod Java
+StateMod Java is a part of Colorado's Decision Support Systems (CDSS)
+Copyright (C) 2019 Colorado Department of Natural Resources
+
+StateMod Java is free software:  you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+StateMod Java is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+    along with StateMod Java.  If not, see <https://www.gnu.org/licenses/>.
+
+NoticeEnd */
+
+package cdss.statemod.app;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Scenario for batch mode, which is a named set of changes (an overlay) applied to a base dataset.
+ * The base time series store and right list are not modified.  Instead, applyToStore() and applyToRights()
+ * return copies that share all data that the scenario does not change, so many scenarios can be run from
+ * one base dataset without copying it.
+ * <p>
+ * Scenarios are read from a manifest file with one scenario per line:
+ * <pre>
+ * # Lines starting with # are comments.
+ * # Name followed by changes, separated by spaces.
+ * Baseline
+ * HighDemand    DemandMonthly=1.2
+ * DryStation    DemandMonthly:0100501=0.5   InstreamDemandMonthly=0
+ * NoJuniorRight Right:0100503.01=0
+ * </pre>
+ * Changes are:
+ * <ul>
+ * <li>	<code>Type=Factor</code> - multiply all values of a time series type (see StateModTimeSeriesType) by the factor</li>
+ * <li>	<code>Type:StationID=Factor</code> - multiply the values for one station by the factor</li>
+ * <li>	<code>Right:RightID=Switch</code> - set the on/off switch for a right (1 = on, 0 = off, or a year, as in the rights file)</li>
+ * </ul>
+ * Scenario names are used in output file names and must contain only letters, digits, '_', '-', and '.'.
+ */
+public class StateModScenario {
+
+	/**
+	 * Scenario name.
+	 */
+	private final String name;
+
+	/**
+	 * Scale factors by time series type and station identifier, "" for all stations.
+	 */
+	private final EnumMap<StateModTimeSeriesType,Map<String,Double>> scaleFactors = new EnumMap<>(StateModTimeSeriesType.class);
+
+	/**
+	 * Right on/off switches by right identifier.
+	 */
+	private final Map<String,Integer> rightSwitches = new LinkedHashMap<>();
+
+	/**
+	 * Constructor.
+	 * @param name scenario name
+	 */
+	public StateModScenario ( String name ) {
+		if ( !name.matches("[A-Za-z0-9_.\\-]+") ) {
+			throw new IllegalArgumentException("Scenario name \"" + name +
+				"\" can only contain letters, digits, '_', '-', and '.'.");
+		}
+		this.name = name;
+	}
+
+	/**
+	 * Add a change from the manifest.
+	 * @param change change as Key=Value, see the class documentation
+	 */
+	public void addChange ( String change ) {
+		int pos = change.indexOf('=');
+		if ( pos <= 0 ) {
+			throw new IllegalArgumentException("Scenario \"" + this.name + "\" change \"" + change + "\" is not Key=Value.");
+		}
+		String key = change.substring(0, pos);
+		String value = change.substring(pos + 1);
+		String id = "";
+		int colonPos = key.indexOf(':');
+		if ( colonPos > 0 ) {
+			id = key.substring(colonPos + 1);
+			key = key.substring(0, colonPos);
+		}
+		if ( key.equalsIgnoreCase("Right") ) {
+			if ( id.isEmpty() ) {
+				throw new IllegalArgumentException("Scenario \"" + this.name + "\" change \"" + change + "\" has no right identifier.");
+			}
+			this.rightSwitches.put(id, Integer.parseInt(value.trim()));
+			return;
+		}
+		StateModTimeSeriesType type = StateModTimeSeriesType.valueOfIgnoreCase(key);
+		if ( type == null ) {
+			throw new IllegalArgumentException("Scenario \"" + this.name + "\" change \"" + change +
+				"\" does not start with Right or a time series type.");
+		}
+		Map<String,Double> factors = this.scaleFactors.get(type);
+		if ( factors == null ) {
+			factors = new LinkedHashMap<>();
+			this.scaleFactors.put(type, factors);
+		}
+		factors.put(id, Double.parseDouble(value.trim()));
+	}
+
+	/**
+	 * Return a right list with the scenario on/off switches.
+	 * @param rights base right list, which is not modified
+	 * @return the base right list if the scenario does not change rights, or a copy with different switches
+	 */
+	public StateModRightList applyToRights ( StateModRightList rights ) {
+		if ( this.rightSwitches.isEmpty() ) {
+			return rights;
+		}
+		int [] switches = rights.getSwitches().clone();
+		String [] ids = rights.getIds();
+		Set<String> found = new HashSet<>();
+		for ( int i = 0; i < ids.length; i++ ) {
+			Integer onOff = this.rightSwitches.get(ids[i]);
+			if ( onOff != null ) {
+				switches[i] = onOff;
+				found.add(ids[i]);
+			}
+		}
+		for ( String id : this.rightSwitches.keySet() ) {
+			if ( !found.contains(id) ) {
+				throw new IllegalArgumentException("Scenario \"" + this.name + "\" right \"" + id + "\" is not a simulated right.");
+			}
+		}
+		return rights.copyWithSwitches(switches);
+	}
+
+	/**
+	 * Return a time series store with the scenario scale factors applied.
+	 * Only the columns for the changed types are copied.
+	 * @param store base time series store, which is not modified
+	 * @return the base store if the scenario does not change time series, or a copy with changed columns
+	 */
+	public StateModTimeSeriesStore applyToStore ( StateModTimeSeriesStore store ) {
+		StateModTimeSeriesStore scenarioStore = store;
+		for ( Map.Entry<StateModTimeSeriesType,Map<String,Double>> entry : this.scaleFactors.entrySet() ) {
+			StateModTimeSeriesType type = entry.getKey();
+			StateModTimeSeriesColumn baseColumn = store.getColumn(type);
+			if ( baseColumn == null ) {
+				throw new IllegalArgumentException("Scenario \"" + this.name + "\" changes " + type +
+					", which is not in the dataset.");
+			}
+			StateModTimeSeriesColumn column = baseColumn.copy();
+			for ( Map.Entry<String,Double> factor : entry.getValue().entrySet() ) {
+				String id = factor.getKey();
+				double scale = factor.getValue();
+				if ( id.isEmpty() ) {
+					// NaN (missing) values remain missing
+					column.multiply(-1, scale);
+					continue;
+				}
+				int station = column.getStationIndex().getIndex(id);
+				if ( station < 0 ) {
+					throw new IllegalArgumentException("Scenario \"" + this.name + "\" station \"" + id +
+						"\" does not have " + type + " time series.");
+				}
+				column.multiply(station, scale);
+			}
+			scenarioStore = scenarioStore.copyWithColumn(column);
+		}
+		return scenarioStore;
+	}
+
+	/**
+	 * Return the scenario name.
+	 */
+	public String getName () {
+		return this.name;
+	}
+
+	/**
+	 * Read scenarios from a manifest file.
+	 * @param manifestFile path to the manifest file
+	 * @return list of scenarios in the order of the file
+	 * @exception IOException if the file cannot be read
+	 * @exception IllegalArgumentException if the file has errors or scenario names are not unique
+	 */
+	public static List<StateModScenario> readManifest ( String manifestFile ) throws IOException {
+		List<StateModScenario> scenarios = new ArrayList<>();
+		Set<String> names = new HashSet<>();
+		try ( BufferedReader in = new BufferedReader(new FileReader(manifestFile)) ) {
+			String line;
+			int lineNumber = 0;
+			while ( (line = in.readLine()) != null ) {
+				++lineNumber;
+				line = line.trim();
+				if ( line.isEmpty() || line.startsWith("#") ) {
+					continue;
+				}
+				String [] tokens = line.split("\\s+");
+				try {
+					StateModScenario scenario = new StateModScenario(tokens[0]);
+					for ( int i = 1; i < tokens.length; i++ ) {
+						scenario.addChange(tokens[i]);
+					}
+					if ( !names.add(scenario.getName().toUpperCase()) ) {
+						throw new IllegalArgumentException("Scenario name \"" + scenario.getName() + "\" is used more than once.");
+					}
+					scenarios.add(scenario);
+				}
+				catch ( IllegalArgumentException e ) {
+					throw new IllegalArgumentException("Error in manifest \"" + manifestFile + "\" line " + lineNumber +
+						": " + e.getMessage(), e);
+				}
+			}
+		}
+		return scenarios;
+	}
+
+	/**
+	 * Return a description of the scenario changes, for logging.
+	 */
+	@Override
+	public String toString () {
+		StringBuilder b = new StringBuilder(this.name);
+		for ( Map.Entry<StateModTimeSeriesType,Map<String,Double>> entry : this.scaleFactors.entrySet() ) {
+			for ( Map.Entry<String,Double> factor : entry.getValue().entrySet() ) {
+				b.append(" " + entry.getKey() + (factor.getKey().isEmpty() ? "" : (":" + factor.getKey())) + "=" + factor.getValue());
+			}
+		}
+		for ( Map.Entry<String,Integer> entry : this.rightSwitches.entrySet() ) {
+			b.append(" Right:" + entry.getKey() + "=" + entry.getValue());
+		}
+		return b.toString();
+	}
+}
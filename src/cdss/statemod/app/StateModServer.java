@@ -0,0 +1,431 @@
+// StateModServer - resident server that keeps datasets loaded and runs requests
+
+/* NoticeStart
+
+StateMod Java
+StateMod Java is a part of Colorado's Decision Support Systems (CDSS)
+Copyright (C) 2019 Colorado Department of Natural Resources
+
+StateMod Java is free software:  you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+StateMod Java is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+    along with StateMod Java.  If not, see <https://www.gnu.org/licenses/>.
+
+NoticeEnd */
+
+package cdss.statemod.app;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Resident server that keeps datasets loaded in memory and runs requests on them, so that each request
+ * does not pay for program startup and reading the dataset.
+ * Each dataset is read the first time it is requested and is shared by later requests.
+ * Before each request the dataset files are checked, and files that have changed are read again
+ * with StateModIncrementalLoader, so that editing one file does not require reading the whole dataset.
+ * Each request runs on its own StateModRunner created with StateModRunner.createScenarioRunner(),
+ * so requests for the same dataset can run at the same time and do not change the loaded dataset.
+ * <p>
+ * Requests are read from standard input or from connections to a local (loopback) socket,
+ * one request per line, with space-separated tokens:
+ * <pre>
+ * RUN Mode ResponseFile [Name=RequestName] [Change ...]   Run a mode (Simulate, Check, Baseflow) with scenario changes
+ * LOAD ResponseFile                                       Read a dataset, or changed files, so later requests do not wait
+ * UNLOAD ResponseFile                                     Release a dataset
+ * LIST                                                    List the loaded datasets
+ * QUIT                                                    Close the connection
+ * SHUTDOWN                                                Stop the server
+ * </pre>
+ * Changes use the batch manifest syntax (see StateModScenario), for example <code>DemandMonthly=1.2</code>.
+ * Output files are named "dataset_RequestName", where the default request name is "requestN".
+ * Results are written back as lines as they are available:
+ * <pre>
+ * STATUS text         status message
+ * PROGRESS step/count simulation progress, each year of time steps
+ * SUMMARY text        simulation summary
+ * OUTPUT path         output file written by the request
+ * OK ms               request completed, with the run time
+ * ERROR text          request failed
+ * </pre>
+ * Each request ends with an OK or ERROR line.  Relative response file paths are relative to the program working directory.
+ * When serving standard input, program output is written to standard error once the server starts,
+ * so clients should ignore lines before the first STATUS line.
+ */
+public class StateModServer {
+
+	/**
+	 * Logger for run-time messages.
+	 */
+	private static final StateModLogger LOG = StateModLogger.getLogger(StateModServer.class);
+
+	/**
+	 * Loaded datasets by absolute response file path.
+	 */
+	private final ConcurrentHashMap<String,StateModIncrementalLoader> datasets = new ConcurrentHashMap<>();
+
+	/**
+	 * Number of threads used to read a dataset.
+	 */
+	private final int loadThreads;
+
+	/**
+	 * Whether to use the binary dataset snapshot.
+	 */
+	private final boolean useSnapshot;
+
+	/**
+	 * Number of threads used by each request to run tributary reaches and independent sub-basins.
+	 */
+	private final int threads;
+
+	/**
+	 * Whether datasets read components when first used.
+	 */
+	private boolean lazy = false;
+
+	/**
+	 * Count of requests, used for default request names.
+	 */
+	private final AtomicInteger requestCount = new AtomicInteger();
+
+	/**
+	 * Server socket when serving a port, closed to shut down the server.
+	 */
+	private volatile ServerSocket serverSocket = null;
+
+	/**
+	 * Whether a shutdown was requested.
+	 */
+	private volatile boolean shutdown = false;
+
+	/**
+	 * Constructor.
+	 * @param loadThreads number of threads used to read a dataset
+	 * @param useSnapshot whether to use the binary dataset snapshot
+	 * @param threads number of threads used by each request to run tributary reaches and independent sub-basins
+	 */
+	public StateModServer ( int loadThreads, boolean useSnapshot, int threads ) {
+		this.loadThreads = loadThreads;
+		this.useSnapshot = useSnapshot;
+		this.threads = threads;
+	}
+
+	/**
+	 * Return the base runner for a dataset, reading the dataset if it is not loaded or the files that have changed.
+	 * @param responseFile absolute path to the response file
+	 * @return base runner holding the shared dataset, time series store, network, and rights
+	 * @exception Exception if the dataset cannot be read
+	 */
+	public StateModRunner getDataSet ( String responseFile ) throws Exception {
+		StateModIncrementalLoader loader = this.datasets.get(responseFile);
+		if ( loader == null ) {
+			StateModDataSetLoader dataSetLoader = new StateModDataSetLoader(this.loadThreads);
+			dataSetLoader.setUseSnapshot(this.useSnapshot);
+			dataSetLoader.setLazy(this.lazy);
+			// Datasets are shared by requests so reads are recorded in the program metrics, as for the requests' runners
+			dataSetLoader.setMetrics(StateModMetrics.getInstance());
+			StateModIncrementalLoader newLoader = new StateModIncrementalLoader(responseFile, dataSetLoader, this.threads);
+			loader = this.datasets.putIfAbsent(responseFile, newLoader);
+			if ( loader == null ) {
+				loader = newLoader;
+			}
+		}
+		// Concurrent requests for the same dataset wait for one read, and a failed read is tried again by the next request
+		return loader.getRunner();
+	}
+
+	/**
+	 * Return the absolute paths of the loaded datasets, sorted.
+	 */
+	public List<String> getDataSetNames () {
+		List<String> names = new ArrayList<>(this.datasets.keySet());
+		Collections.sort(names);
+		return names;
+	}
+
+	/**
+	 * Return the output files for a run mode.
+	 */
+	private static List<String> getOutputFiles ( StateModRunModeType runMode, String outputFileBase ) {
+		String [] extensions;
+		if ( runMode == StateModRunModeType.BASEFLOWS ) {
+			extensions = new String [] { ".xbm", ".xbd" };
+		}
+		else if ( runMode == StateModRunModeType.CHECK ) {
+			extensions = new String [] { ".chk.csv" };
+		}
+		else {
+			extensions = new String [] { StateModBinaryOutputWriter.NODE_EXTENSION, StateModBinaryOutputWriter.RESERVOIR_EXTENSION,
+				".checkpoint" };
+		}
+		List<String> files = new ArrayList<>();
+		for ( String extension : extensions ) {
+			if ( new File(outputFileBase + extension).exists() ) {
+				files.add(outputFileBase + extension);
+			}
+		}
+		return files;
+	}
+
+	/**
+	 * Handle one request.
+	 * @param line request line
+	 * @param out output for results
+	 * @return false if the connection should be closed, true to continue reading requests
+	 */
+	private boolean handleRequest ( String line, PrintWriter out ) {
+		String [] tokens = line.trim().split("\\s+");
+		String command = tokens[0];
+		long start = System.currentTimeMillis();
+		try {
+			if ( command.equalsIgnoreCase("QUIT") ) {
+				writeLine(out, "OK 0");
+				return false;
+			}
+			else if ( command.equalsIgnoreCase("SHUTDOWN") ) {
+				writeLine(out, "OK 0");
+				shutdown();
+				return false;
+			}
+			else if ( command.equalsIgnoreCase("LIST") ) {
+				for ( String name : getDataSetNames() ) {
+					writeLine(out, "STATUS " + name);
+				}
+			}
+			else if ( command.equalsIgnoreCase("LOAD") && (tokens.length == 2) ) {
+				String responseFile = resolveResponseFile(tokens[1]);
+				getDataSet(responseFile);
+				writeLine(out, "STATUS Loaded " + responseFile);
+			}
+			else if ( command.equalsIgnoreCase("UNLOAD") && (tokens.length == 2) ) {
+				String responseFile = resolveResponseFile(tokens[1]);
+				// Requests that are running keep their reference to the dataset
+				writeLine(out, "STATUS " + ((this.datasets.remove(responseFile) == null) ? "Not loaded " : "Unloaded ") + responseFile);
+			}
+			else if ( command.equalsIgnoreCase("RUN") && (tokens.length >= 3) ) {
+				StateModRunModeType runMode = StateModRunModeType.valueOfIgnoreCase(tokens[1]);
+				if ( runMode == null ) {
+					throw new IllegalArgumentException("Run mode \"" + tokens[1] + "\" is not recognized.");
+				}
+				String responseFile = resolveResponseFile(tokens[2]);
+				// Parse the request before waiting for the dataset so that errors are returned immediately
+				String name = "request" + this.requestCount.incrementAndGet();
+				List<String> changes = new ArrayList<>();
+				for ( int i = 3; i < tokens.length; i++ ) {
+					if ( tokens[i].regionMatches(true, 0, "Name=", 0, 5) ) {
+						name = tokens[i].substring(5);
+					}
+					else {
+						changes.add(tokens[i]);
+					}
+				}
+				StateModScenario scenario = new StateModScenario(name);
+				for ( String change : changes ) {
+					scenario.addChange(change);
+				}
+				StateModRunner baseRunner = getDataSet(responseFile);
+				String outputFileBase = baseRunner.getOutputFileBase() + "_" + scenario.getName();
+				StateModRunner runner = baseRunner.createScenarioRunner(scenario, outputFileBase);
+				try {
+					if ( runMode == StateModRunModeType.SIMULATE ) {
+						runner.addSimulationListener(new ProgressListener(out));
+					}
+					writeLine(out, "STATUS Running " + runMode + " for " + scenario);
+					runner.run(runMode);
+					if ( runMode == StateModRunModeType.SIMULATE ) {
+						writeLine(out, "SUMMARY " + runner.getSimulationSummary().format());
+					}
+				}
+				finally {
+					runner.releaseScenarioData();
+				}
+				for ( String file : getOutputFiles(runMode, outputFileBase) ) {
+					writeLine(out, "OUTPUT " + file);
+				}
+			}
+			else {
+				throw new IllegalArgumentException("Request \"" + line.trim() + "\" is not recognized.");
+			}
+			writeLine(out, "OK " + (System.currentTimeMillis() - start));
+		}
+		catch ( Exception e ) {
+			LOG.warn("Request \"" + line.trim() + "\" failed.", e);
+			writeLine(out, "ERROR " + ((e.getMessage() == null) ? e.toString() : e.getMessage()).replace('\n', ' '));
+		}
+		return true;
+	}
+
+	/**
+	 * Resolve a response file from a request.
+	 * @exception IllegalArgumentException if the file does not exist
+	 */
+	private static String resolveResponseFile ( String responseFileReq ) {
+		String responseFile = StateModMain.resolveResponseFile(responseFileReq);
+		if ( responseFile == null ) {
+			throw new IllegalArgumentException("Response file \"" + responseFileReq + "\" does not exist.");
+		}
+		return responseFile;
+	}
+
+	/**
+	 * Serve requests from an input stream until the input ends or QUIT or SHUTDOWN is requested.
+	 * @param in input with one request per line
+	 * @param out output for results
+	 * @exception IOException if there is an error reading requests
+	 */
+	public void serve ( InputStream in, OutputStream out ) throws IOException {
+		BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+		PrintWriter writer = new PrintWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+		writeLine(writer, "STATUS " + StateModMain.PROGRAM_NAME + " " + StateModMain.PROGRAM_VERSION + " server ready");
+		String line;
+		while ( !this.shutdown && ((line = reader.readLine()) != null) ) {
+			if ( line.trim().isEmpty() || line.trim().startsWith("#") ) {
+				continue;
+			}
+			if ( !handleRequest(line, writer) ) {
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Serve requests from connections to a local socket until SHUTDOWN is requested.
+	 * Each connection is handled on its own thread so that requests from different connections run at the same time.
+	 * @param port port to listen on, bound to the loopback address so that only local programs can connect
+	 * @exception IOException if the socket cannot be opened
+	 */
+	public void servePort ( int port ) throws IOException {
+		ExecutorService executor = Executors.newCachedThreadPool(new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+			@Override
+			public Thread newThread ( Runnable r ) {
+				Thread thread = new Thread(r, "StateModServer-" + this.count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		try ( ServerSocket socket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress()) ) {
+			this.serverSocket = socket;
+			LOG.info("Listening for requests on {}.", socket.getLocalSocketAddress());
+			while ( !this.shutdown ) {
+				final Socket connection;
+				try {
+					connection = socket.accept();
+				}
+				catch ( SocketException e ) {
+					// Socket was closed by shutdown()
+					break;
+				}
+				executor.execute(new Runnable() {
+					@Override
+					public void run () {
+						try ( Socket s = connection ) {
+							serve(s.getInputStream(), s.getOutputStream());
+						}
+						catch ( IOException e ) {
+							LOG.warn("Error serving connection.", e);
+						}
+					}
+				});
+			}
+		}
+		finally {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Set whether datasets read components when first used, which applies to datasets loaded after this call.
+	 * @param lazy if true, read components when first used
+	 */
+	public void setLazy ( boolean lazy ) {
+		this.lazy = lazy;
+	}
+
+	/**
+	 * Stop the server.  Requests that are running are completed.
+	 */
+	public void shutdown () {
+		this.shutdown = true;
+		ServerSocket socket = this.serverSocket;
+		if ( socket != null ) {
+			try {
+				socket.close();
+			}
+			catch ( IOException e ) {
+				// Ignore - the server is stopping
+			}
+		}
+	}
+
+	/**
+	 * Write a result line and flush so that the client receives it immediately.
+	 * Lines for one request can be written by the simulation thread, so writing is synchronized on the writer.
+	 */
+	private static void writeLine ( PrintWriter out, String line ) {
+		synchronized ( out ) {
+			out.print(line);
+			out.print('\n');
+			out.flush();
+		}
+	}
+
+	/**
+	 * Simulation listener that writes progress each year of time steps and at the end of the simulation.
+	 */
+	private static class ProgressListener implements StateModSimulationListener {
+
+		/**
+		 * Output for results.
+		 */
+		private final PrintWriter out;
+
+		/**
+		 * Constructor.
+		 * @param out output for results
+		 */
+		public ProgressListener ( PrintWriter out ) {
+			this.out = out;
+		}
+
+		/**
+		 * Write progress.
+		 */
+		@Override
+		public void timeStepCompleted ( StateModSimulator simulator, int step ) {
+			int count = simulator.getStepCount();
+			if ( (((step + 1) % 12) == 0) || ((step + 1) == count) ) {
+				writeLine(this.out, "PROGRESS " + (step + 1) + "/" + count);
+			}
+		}
+	}
+}
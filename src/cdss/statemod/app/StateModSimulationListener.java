@@ -0,0 +1,40 @@
+// StateModSimulationListener - receive notification as simulation time steps complete
+
+/* NoticeStart
+
+StateMod Java
+StateMod Java is a part of Colorado's Decision Support Systems (CDSS)
+Copyright (C) 2019 Colorado Department of Natural Resources
+
+StateMod Java is free software:  you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+StateMod Java is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+    along with StateMod Java.  If not, see <https://www.gnu.org/licenses/>.
+
+NoticeEnd */
+
+package cdss.statemod.app;
+
+/**
+ * Interface for classes that need to process simulation results as each time step completes,
+ * for example to write output.
+ * Implementations are called on the simulation thread and should not retain references to the
+ * simulator arrays, which are reused for the next time step.
+ */
+public interface StateModSimulationListener {
+
+	/**
+	 * Called after a time step has been simulated.
+	 * @param simulator the simulator, which provides access to the state for the time step
+	 * @param step the time step that was completed, 0 for the first time step of the period
+	 */
+	public void timeStepCompleted ( StateModSimulator simulator, int step );
+}
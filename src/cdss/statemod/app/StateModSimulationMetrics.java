@@ -0,0 +1,77 @@
+// StateModSimulationMetrics - simulation listener that records the time for each simulation year
+
+/* NoticeStart
+
+StateMod Java
+StateMod Java is a part of Colorado's Decision Support Systems (CDSS)
+Copyright (C) 2019 Colorado Department of Natural Resources
+
+StateMod Java is free software:  you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+StateMod Java is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+    along with StateMod Java.  If not, see <https://www.gnu.org/licenses/>.
+
+NoticeEnd */
+
+package cdss.statemod.app;
+
+/**
+ * Simulation listener that records the elapsed time and allocated bytes for each simulation year in the metrics,
+ * as phase "SimulationYear YYYY", and for all years as phase "SimulationYear".
+ * The time for a year includes other listeners that are called before this listener.
+ */
+public class StateModSimulationMetrics implements StateModSimulationListener {
+
+	/**
+	 * Metrics to record in.
+	 */
+	private final StateModMetrics metrics;
+
+	/**
+	 * Start of the current year, nanoseconds.
+	 */
+	private long yearStartNanos;
+
+	/**
+	 * Allocated bytes at the start of the current year, -1 if not supported.
+	 */
+	private long yearStartBytes;
+
+	/**
+	 * Constructor, which starts timing the first year.
+	 * The listener should be created immediately before the simulation is run.
+	 * @param metrics metrics to record in
+	 */
+	public StateModSimulationMetrics ( StateModMetrics metrics ) {
+		this.metrics = metrics;
+		this.yearStartBytes = StateModMetrics.getAllocatedBytes();
+		this.yearStartNanos = System.nanoTime();
+	}
+
+	/**
+	 * Record the year if the time step is the last in the year.
+	 */
+	@Override
+	public void timeStepCompleted ( StateModSimulator simulator, int step ) {
+		int year = simulator.getStepYear(step);
+		if ( ((step + 1) < simulator.getStepCount()) && (simulator.getStepYear(step + 1) == year) ) {
+			return;
+		}
+		long nanos = System.nanoTime();
+		long bytes = StateModMetrics.getAllocatedBytes();
+		long elapsed = nanos - this.yearStartNanos;
+		long allocated = (this.yearStartBytes < 0) ? -1 : (bytes - this.yearStartBytes);
+		this.metrics.addPhase("SimulationYear " + year, elapsed, allocated);
+		this.metrics.addPhase("SimulationYear", elapsed, allocated);
+		this.yearStartNanos = nanos;
+		this.yearStartBytes = bytes;
+	}
+}
@@ -0,0 +1,169 @@
+// StateModSimulationOutput - simulation listener that writes binary output files
+
+/* NoticeStart
+
+StateMod Java
+StateMod Java is a part of Colorado's Decision Support Systems (CDSS)
+Copyright (C) 2019 Colorado Department of Natural Resources
+
+StateMod Java is free software:  you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+StateMod Java is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+    along with StateMod Java.  If not, see <https://www.gnu.org/licenses/>.
+
+NoticeEnd */
+
+package cdss.statemod.app;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+import RTi.Util.Time.TimeInterval;
+
+/**
+ * Simulation listener that writes the results of each time step to binary output files:
+ * <ul>
+ * <li>	"base.jb43" - river nodes, with river flow and, for diversion nodes, demand, diverted, and shortage</li>
+ * <li>	"base.jb44" - reservoirs, with end of time step content and amount stored</li>
+ * </ul>
+ * The files have results like the Fortran StateMod "base.b43" and "base.b44" files but a different layout
+ * (see StateModBinaryOutputWriter), so different extensions are used.  Values are ACFT.  The files are written by StateModBinaryOutputWriter on background threads
+ * and can be read with StateModBinaryOutputReader.
+ * If the simulation was restarted from a checkpoint, the files start at the first simulated time step.
+ */
+public class StateModSimulationOutput implements StateModSimulationListener, AutoCloseable {
+
+	/**
+	 * Writer for river node results.
+	 */
+	private final StateModBinaryOutputWriter nodeWriter;
+
+	/**
+	 * Writer for reservoir results.
+	 */
+	private final StateModBinaryOutputWriter reservoirWriter;
+
+	/**
+	 * Diversion station position for each node, -1 if the node is not a diversion.
+	 */
+	private final int [] nodeDiversion;
+
+	/**
+	 * First simulated time step, which is the first time step in the files.
+	 */
+	private final int firstStep;
+
+	/**
+	 * Node values for the current time step, indexed by [variable][node].
+	 */
+	private final double [][] nodeValues;
+
+	/**
+	 * Reservoir values for the current time step, indexed by [variable][reservoir].
+	 */
+	private final double [][] reservoirValues;
+
+	/**
+	 * Constructor, which creates the output files.
+	 * @param outputFileBase path and base name for output files
+	 * @param simulator simulator that will be run, used for the period, and restored from a checkpoint if restarting
+	 * @param network compiled river network used by the simulator
+	 * @param rights compiled rights used by the simulator
+	 * @exception IOException if the files cannot be created
+	 */
+	public StateModSimulationOutput ( String outputFileBase, StateModSimulator simulator,
+		StateModNetwork network, StateModRightList rights ) throws IOException {
+		this.firstStep = simulator.getNextStep();
+		int year = (this.firstStep < simulator.getStepCount()) ? simulator.getStepYear(this.firstStep) : 0;
+		int month = (this.firstStep < simulator.getStepCount()) ? simulator.getStepMonth(this.firstStep) : 1;
+		StateModStationIndex nodeIndex = network.getNodeIndex();
+		String [] nodeIds = getIds(nodeIndex);
+		StateModStationIndex diversionIndex = rights.getStationIndex(StateModRightList.TYPE_DIVERSION);
+		this.nodeDiversion = new int[nodeIds.length];
+		for ( int node = 0; node < nodeIds.length; node++ ) {
+			this.nodeDiversion[node] = diversionIndex.getIndex(nodeIds[node]);
+		}
+		String [] nodeVariables = { "RiverFlow", "Demand", "Diverted", "Shortage" };
+		this.nodeValues = new double[nodeVariables.length][nodeIds.length];
+		String [] reservoirIds = getIds(rights.getStationIndex(StateModRightList.TYPE_RESERVOIR));
+		String [] reservoirVariables = { "Content", "Stored" };
+		this.reservoirValues = new double[reservoirVariables.length][];
+		this.nodeWriter = new StateModBinaryOutputWriter(outputFileBase + StateModBinaryOutputWriter.NODE_EXTENSION, nodeIds, nodeVariables,
+			TimeInterval.MONTH, year, month, 1);
+		try {
+			this.reservoirWriter = new StateModBinaryOutputWriter(outputFileBase + StateModBinaryOutputWriter.RESERVOIR_EXTENSION, reservoirIds, reservoirVariables,
+				TimeInterval.MONTH, year, month, 1);
+		}
+		catch ( IOException e ) {
+			this.nodeWriter.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Finish writing and close the files.
+	 * @exception IOException if there is an error writing
+	 */
+	@Override
+	public void close () throws IOException {
+		try {
+			this.nodeWriter.close();
+		}
+		finally {
+			this.reservoirWriter.close();
+		}
+	}
+
+	/**
+	 * Return the identifiers in a station index as an array.
+	 */
+	private static String [] getIds ( StateModStationIndex index ) {
+		String [] ids = new String[index.size()];
+		for ( int i = 0; i < ids.length; i++ ) {
+			ids[i] = index.getId(i);
+		}
+		return ids;
+	}
+
+	/**
+	 * Write the time step results.
+	 * @exception UncheckedIOException if there is an error writing, which stops the simulation
+	 */
+	@Override
+	public void timeStepCompleted ( StateModSimulator simulator, int step ) {
+		double [] flow = simulator.getFlow();
+		double [] demand = simulator.getDiversionDemand();
+		double [] diverted = simulator.getDiverted();
+		double [] flowOut = this.nodeValues[0];
+		double [] demandOut = this.nodeValues[1];
+		double [] divertedOut = this.nodeValues[2];
+		double [] shortageOut = this.nodeValues[3];
+		for ( int node = 0; node < flowOut.length; node++ ) {
+			flowOut[node] = flow[node];
+			int div = this.nodeDiversion[node];
+			if ( div >= 0 ) {
+				demandOut[node] = demand[div];
+				divertedOut[node] = diverted[div];
+				shortageOut[node] = demand[div] - diverted[div];
+			}
+		}
+		// Reservoir arrays are written directly since they are in station order
+		this.reservoirValues[0] = simulator.getReservoirContent();
+		this.reservoirValues[1] = simulator.getReservoirStored();
+		try {
+			this.nodeWriter.writeStep(step - this.firstStep, this.nodeValues);
+			this.reservoirWriter.writeStep(step - this.firstStep, this.reservoirValues);
+		}
+		catch ( IOException e ) {
+			throw new UncheckedIOException(e);
+		}
+	}
+}
@@ -0,0 +1,113 @@
+// StateModSimulationSummary - accumulate simulation totals for the run summary
+
+/* NoticeStart
+
+StateMod Java
+StateMod Java is a part of Colorado's Decision Support Systems (CDSS)
+Copyright (C) 2019 Colorado Department of Natural Resources
+
+StateMod Java is free software:  you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+StateMod Java is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+    along with StateMod Java.  If not, see <https://www.gnu.org/licenses/>.
+
+NoticeEnd */
+
+package cdss.statemod.app;
+
+/**
+ * Simulation listener that accumulates period totals for diversions, demands, and instream flows,
+ * which are printed at the end of the simulation.
+ */
+public class StateModSimulationSummary implements StateModSimulationListener {
+
+	/**
+	 * Total diversion demand, ACFT.
+	 */
+	private double totalDemand = 0.0;
+
+	/**
+	 * Total diverted, ACFT.
+	 */
+	private double totalDiverted = 0.0;
+
+	/**
+	 * Total instream flow demand met, ACFT.
+	 */
+	private double totalInstreamMet = 0.0;
+
+	/**
+	 * Total well pumping, ACFT.
+	 */
+	private double totalWellPumped = 0.0;
+
+	/**
+	 * Number of time steps.
+	 */
+	private int stepCount = 0;
+
+	/**
+	 * Return the total diversion demand, ACFT.
+	 */
+	public double getTotalDemand () {
+		return this.totalDemand;
+	}
+
+	/**
+	 * Return the total diverted, ACFT.
+	 */
+	public double getTotalDiverted () {
+		return this.totalDiverted;
+	}
+
+	/**
+	 * Return the summary as a single line of text.
+	 */
+	public String format () {
+		return String.format("Simulated %d time steps: diversion demand %.0f ACFT, diverted %.0f ACFT, " +
+			"shortage %.0f ACFT, instream flow met %.0f ACFT, well pumping %.0f ACFT.",
+			this.stepCount, this.totalDemand, this.totalDiverted, (this.totalDemand - this.totalDiverted),
+			this.totalInstreamMet, this.totalWellPumped );
+	}
+
+	/**
+	 * Print the summary to the log file and terminal.
+	 */
+	public void print () {
+		String routine = getClass().getSimpleName() + ".print";
+		String message = format();
+		System.out.println(message);
+		StateModLogger.printStatus(2, routine, message);
+	}
+
+	/**
+	 * Add the time step results to the totals.
+	 */
+	@Override
+	public void timeStepCompleted ( StateModSimulator simulator, int step ) {
+		this.totalDemand += sum(simulator.getDiversionDemand());
+		this.totalDiverted += sum(simulator.getDiverted());
+		this.totalInstreamMet += sum(simulator.getInstreamMet());
+		this.totalWellPumped += sum(simulator.getWellPumped());
+		++this.stepCount;
+	}
+
+	/**
+	 * Return the sum of an array.
+	 */
+	private static double sum ( double [] values ) {
+		double total = 0.0;
+		for ( double v : values ) {
+			total += v;
+		}
+		return total;
+	}
+}
@@ -0,0 +1,801 @@
+// StateModSimulator - monthly priority-order water rights simulation engine
+
+/* NoticeStart
+
+StateMod Java
+StateMod Java is a part of Colorado's Decision Support Systems (CDSS)
+Copyright (C) 2019 Colorado Department of Natural Resources
+
+StateMod Java is free software:  you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+StateMod Java is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+    along with StateMod Java.  If not, see <https://www.gnu.org/licenses/>.
+
+NoticeEnd */
+
+package cdss.statemod.app;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import DWR.StateMod.StateMod_DataSet;
+import DWR.StateMod.StateMod_Diversion;
+import DWR.StateMod.StateMod_Reservoir;
+import RTi.Util.Time.DateTime;
+import RTi.Util.Time.TimeInterval;
+import RTi.Util.Time.TimeUtil;
+import RTi.Util.Time.YearType;
+
+/**
+ * Monthly simulation engine that allocates water to rights in priority order.
+ * <p>
+ * All data needed by the time step loop are compiled into arrays when the simulator is constructed:
+ * the river network (StateModNetwork), the priority-ordered rights (StateModRightList),
+ * the mapping from nodes and stations to time series store columns, and the calendar of each time step.
+ * The time step loop then only walks arrays and does not allocate objects.
+ * <p>
+ * For each time step:
+ * <ol>
+ * <li>	The gain at each baseflow node is the node baseflow minus the baseflow at the nearest upstream baseflow nodes.</li>
+ * <li>	River flow is accumulated from upstream to downstream.</li>
+ * <li>	Each right that is on is given water in priority order, limited by its decree, the remaining demand
+ * 	(or storage space for reservoirs), and the flow available at the structure, which is the minimum
+ * 	unreserved flow at the structure and all nodes downstream.
+ * 	Diversions and reservoir storage reduce flow at the structure and downstream.
+ * 	Instream flow rights reserve flow at the instream flow node so that junior rights upstream cannot divert it.
+ * 	Well rights are limited by the decree and well demand and do not affect river flow.</li>
+ * </ol>
+ * Operating rules, return flows, reservoir evaporation and releases, and delayed well depletions
+ * are not yet simulated.
+ * <p>
+ * Steps 1-2 are done for each reach of the network split at confluences, and step 3 is done for each
+ * independent sub-basin (StateModSubBasins).  If more than one thread is requested, the tributaries above
+ * a confluence are processed at the same time and then the reach below the confluence,
+ * and then the sub-basins are processed at the same time, on a fork-join pool (StateModSubBasinExecutor).
+ * Rights in a sub-basin are allocated on one thread because a right's available flow depends on the
+ * main stem flow below it, which senior rights on every tributary change.
+ * Each reach and sub-basin only updates the array positions for its own nodes, stations, and rights,
+ * so the results are identical to a single-threaded run.
+ */
+public class StateModSimulator {
+
+	/**
+	 * Logger for time step diagnostics.
+	 */
+	private static final StateModLogger LOG = StateModLogger.getLogger(StateModSimulator.class);
+
+	/**
+	 * Conversion from CFS for one day to ACFT.
+	 */
+	public static final double CFS_DAY_TO_ACFT = 1.9835;
+
+	// Compiled network and rights
+
+	/**
+	 * Downstream node for each node, -1 for outlet.
+	 */
+	private final int [] downstream;
+
+	/**
+	 * Upstream node start positions, see StateModNetwork.
+	 */
+	private final int [] upstreamStart;
+
+	/**
+	 * Upstream nodes, see StateModNetwork.
+	 */
+	private final int [] upstreamNodes;
+
+	/**
+	 * Nodes in upstream to downstream order.
+	 */
+	private final int [] order;
+
+	/**
+	 * Right decrees, type, station, node, and switch, in priority order.
+	 */
+	private final double [] rightDecrees;
+	private final int [] rightTypes;
+	private final int [] rightStations;
+	private final int [] rightNodes;
+	private final int [] rightSwitches;
+
+	// Mapping of nodes and stations to time series store columns, -1 if no data
+
+	private final StateModTimeSeriesColumn baseflowColumn;
+	private final int [] nodeBaseflowPos;
+	private final int [] gainUpstreamStart;
+	private final int [] gainUpstreamNodes;
+
+	private final StateModTimeSeriesColumn demandColumn;
+	private final int [] diversionDemandPos;
+
+	private final StateModTimeSeriesColumn instreamDemandColumn;
+	private final int [] instreamDemandPos;
+
+	private final StateModTimeSeriesColumn wellDemandColumn;
+	private final int [] wellDemandPos;
+
+	/**
+	 * Baseflow column block and offset of the values for the current time step, set by prepareStep().
+	 */
+	private double [] baseflowBlock = StateModTimeSeriesColumn.EMPTY_BLOCK;
+	private int baseflowOffset = 0;
+
+	private final double [] diversionCapacity;
+	private final double [] reservoirCapacity;
+	private final double [] reservoirInitialContent;
+
+	/**
+	 * Month (1-12) in which the annual decrees of each reservoir's rights start over.
+	 */
+	private final int [] reservoirAdminMonth;
+
+	// Calendar for each time step
+
+	private final int stepCount;
+	private final int [] stepYear;
+	private final int [] stepMonth;
+	private final int [] stepDays;
+
+	// State, updated each time step
+
+	private final double [] gain;
+	private final double [] flow;
+	private final double [] reserved;
+	private final double [] diversionDemand;
+	private final double [] diverted;
+	private final double [] instreamDemand;
+	private final double [] instreamMet;
+	private final double [] wellDemand;
+	private final double [] wellPumped;
+	private final double [] reservoirContent;
+	private final double [] reservoirStored;
+	private final double [] reservoirRightRemaining;
+
+	/**
+	 * Reaches and independent sub-basins.
+	 */
+	private final StateModSubBasins subBasins;
+
+	/**
+	 * Counts of rights evaluated (on) and rights that received water, two per sub-basin,
+	 * so that each sub-basin only updates its own counts.
+	 */
+	private final long [] basinRightCounts;
+
+	/**
+	 * Number of threads used to simulate reaches and sub-basins.
+	 */
+	private int threads = 1;
+
+	/**
+	 * Cancellation and progress for the run, or null if the run cannot be cancelled.
+	 */
+	private StateModRunControl runControl = null;
+
+	/**
+	 * Next time step to simulate.
+	 */
+	private int nextStep = 0;
+
+	/**
+	 * Listeners for completed time steps.
+	 */
+	private final List<StateModSimulationListener> listeners = new ArrayList<>();
+
+	/**
+	 * Constructor, which compiles all data needed by the time step loop.
+	 * @param dataset dataset that has been read, used for station capacities
+	 * @param store time series store for the dataset
+	 * @param network compiled river network
+	 * @param rights compiled priority-ordered rights
+	 */
+	public StateModSimulator ( StateMod_DataSet dataset, StateModTimeSeriesStore store,
+		StateModNetwork network, StateModRightList rights ) {
+		int nodeCount = network.getNodeCount();
+		this.downstream = network.getDownstream();
+		this.upstreamStart = network.getUpstreamStart();
+		this.upstreamNodes = network.getUpstreamNodes();
+		this.order = network.getOrder();
+		this.rightDecrees = rights.getDecrees();
+		this.rightTypes = rights.getTypes();
+		this.rightStations = rights.getStations();
+		this.rightNodes = rights.getNodes();
+		this.rightSwitches = rights.getSwitches();
+
+		// Baseflows and gains
+		StateModTimeSeriesColumn baseflowColumn = store.getColumn(StateModTimeSeriesType.BASEFLOW_MONTHLY);
+		this.baseflowColumn = baseflowColumn;
+		this.nodeBaseflowPos = mapStations(network.getNodeIndex(), baseflowColumn);
+		List<Integer> gainStart = new ArrayList<>();
+		List<Integer> gainNodes = new ArrayList<>();
+		compileGainUpstreamNodes(gainStart, gainNodes);
+		this.gainUpstreamStart = toIntArray(gainStart);
+		this.gainUpstreamNodes = toIntArray(gainNodes);
+
+		// Demands
+		StateModStationIndex diversionIndex = rights.getStationIndex(StateModRightList.TYPE_DIVERSION);
+		StateModTimeSeriesColumn demandColumn = store.getColumn(StateModTimeSeriesType.DEMAND_MONTHLY);
+		this.demandColumn = demandColumn;
+		this.diversionDemandPos = mapStations(diversionIndex, demandColumn);
+		StateModStationIndex instreamIndex = rights.getStationIndex(StateModRightList.TYPE_INSTREAM);
+		StateModTimeSeriesColumn instreamColumn = store.getColumn(StateModTimeSeriesType.INSTREAM_DEMAND_MONTHLY);
+		this.instreamDemandColumn = instreamColumn;
+		this.instreamDemandPos = mapStations(instreamIndex, instreamColumn);
+		StateModStationIndex wellIndex = rights.getStationIndex(StateModRightList.TYPE_WELL);
+		StateModTimeSeriesColumn wellColumn = store.getColumn(StateModTimeSeriesType.WELL_DEMAND_MONTHLY);
+		this.wellDemandColumn = wellColumn;
+		this.wellDemandPos = mapStations(wellIndex, wellColumn);
+
+		// Capacities
+		this.diversionCapacity = new double[diversionIndex.size()];
+		Arrays.fill(this.diversionCapacity, Double.MAX_VALUE);
+		List<?> diversions = StateModDataSetLoader.getComponentData(dataset, StateMod_DataSet.COMP_DIVERSION_STATIONS);
+		if ( diversions != null ) {
+			for ( Object o : diversions ) {
+				StateMod_Diversion div = (StateMod_Diversion)o;
+				int pos = diversionIndex.getIndex(div.getID());
+				if ( (pos >= 0) && (div.getDivcap() > 0.0) ) {
+					// Capacity in CFS, converted to ACFT each time step
+					this.diversionCapacity[pos] = div.getDivcap();
+				}
+			}
+		}
+		StateModStationIndex reservoirIndex = rights.getStationIndex(StateModRightList.TYPE_RESERVOIR);
+		this.reservoirCapacity = new double[reservoirIndex.size()];
+		this.reservoirInitialContent = new double[reservoirIndex.size()];
+		this.reservoirAdminMonth = new int[reservoirIndex.size()];
+		// Reservoirs that do not have an administration date use the first month of the control file year type
+		YearType yearType = dataset.getCyrl();
+		if ( yearType == null ) {
+			yearType = YearType.CALENDAR;
+		}
+		Arrays.fill(this.reservoirAdminMonth, yearType.getStartMonth());
+		List<?> reservoirs = StateModDataSetLoader.getComponentData(dataset, StateMod_DataSet.COMP_RESERVOIR_STATIONS);
+		if ( reservoirs != null ) {
+			for ( Object o : reservoirs ) {
+				StateMod_Reservoir res = (StateMod_Reservoir)o;
+				int pos = reservoirIndex.getIndex(res.getID());
+				if ( pos >= 0 ) {
+					this.reservoirCapacity[pos] = res.getVolmax();
+					int rdate = res.getRdate();
+					if ( (rdate >= 1) && (rdate <= 12) ) {
+						this.reservoirAdminMonth[pos] = rdate;
+					}
+				}
+			}
+		}
+		StateModTimeSeriesColumn contentColumn = store.getColumn(StateModTimeSeriesType.RESERVOIR_CONTENT_MONTHLY);
+		if ( contentColumn != null ) {
+			// Use the first historical content as the initial content
+			int [] contentPos = mapStations(reservoirIndex, contentColumn);
+			for ( int i = 0; i < contentPos.length; i++ ) {
+				if ( (contentPos[i] >= 0) && (contentColumn.getStepCount() > 0) ) {
+					double content = contentColumn.get(contentPos[i], 0);
+					if ( !Double.isNaN(content) ) {
+						this.reservoirInitialContent[i] = Math.min(content, this.reservoirCapacity[i]);
+					}
+				}
+			}
+		}
+
+		// Calendar
+		this.stepCount = store.getStepCount(TimeInterval.MONTH);
+		this.stepYear = new int[this.stepCount];
+		this.stepMonth = new int[this.stepCount];
+		this.stepDays = new int[this.stepCount];
+		DateTime dt = store.getStart(TimeInterval.MONTH);
+		for ( int step = 0; step < this.stepCount; step++ ) {
+			this.stepYear[step] = dt.getYear();
+			this.stepMonth[step] = dt.getMonth();
+			this.stepDays[step] = TimeUtil.numDaysInMonth(dt.getMonth(), dt.getYear());
+			dt.addMonth(1);
+		}
+
+		// State
+		this.gain = new double[nodeCount];
+		this.flow = new double[nodeCount];
+		this.reserved = new double[nodeCount];
+		this.diversionDemand = new double[diversionIndex.size()];
+		this.diverted = new double[diversionIndex.size()];
+		this.instreamDemand = new double[instreamIndex.size()];
+		this.instreamMet = new double[instreamIndex.size()];
+		this.wellDemand = new double[wellIndex.size()];
+		this.wellPumped = new double[wellIndex.size()];
+		this.reservoirContent = new double[reservoirIndex.size()];
+		this.reservoirStored = new double[reservoirIndex.size()];
+		this.reservoirRightRemaining = new double[this.rightDecrees.length];
+		this.subBasins = StateModSubBasins.analyze(network, rights);
+		this.basinRightCounts = new long[2*this.subBasins.getBasinCount()];
+		initialize();
+	}
+
+	/**
+	 * Add a listener that is called as each time step completes.
+	 * Listeners are called in the order that they are added.
+	 * @param listener listener to add
+	 */
+	public void addListener ( StateModSimulationListener listener ) {
+		this.listeners.add(listener);
+	}
+
+	/**
+	 * Return the flow available at a node, which is the minimum unreserved flow at the node and all nodes downstream.
+	 * @param node node position
+	 */
+	private double available ( int node ) {
+		double avail = Double.MAX_VALUE;
+		for ( int n = node; n >= 0; n = this.downstream[n] ) {
+			double unreserved = this.flow[n] - this.reserved[n];
+			if ( unreserved < avail ) {
+				avail = unreserved;
+			}
+		}
+		return (avail > 0.0) ? avail : 0.0;
+	}
+
+	/**
+	 * Determine the nearest upstream baseflow nodes for each node, used to compute gains.
+	 * @param gainStart list to fill with start positions, one per node plus one at the end
+	 * @param gainNodes list to fill with upstream baseflow nodes
+	 */
+	private void compileGainUpstreamNodes ( List<Integer> gainStart, List<Integer> gainNodes ) {
+		int nodeCount = this.downstream.length;
+		int [] stack = new int[nodeCount];
+		for ( int node = 0; node < nodeCount; node++ ) {
+			gainStart.add(gainNodes.size());
+			if ( this.nodeBaseflowPos[node] < 0 ) {
+				continue;
+			}
+			// Search upstream, stopping at nodes with baseflow
+			int stackSize = 0;
+			for ( int k = this.upstreamStart[node]; k < this.upstreamStart[node + 1]; k++ ) {
+				stack[stackSize++] = this.upstreamNodes[k];
+			}
+			while ( stackSize > 0 ) {
+				int up = stack[--stackSize];
+				if ( this.nodeBaseflowPos[up] >= 0 ) {
+					gainNodes.add(up);
+					continue;
+				}
+				for ( int k = this.upstreamStart[up]; k < this.upstreamStart[up + 1]; k++ ) {
+					stack[stackSize++] = this.upstreamNodes[k];
+				}
+			}
+		}
+		gainStart.add(gainNodes.size());
+	}
+
+	/**
+	 * Return the amount diverted by each diversion station for the current time step, ACFT, which is not copied.
+	 */
+	public double [] getDiverted () {
+		return this.diverted;
+	}
+
+	/**
+	 * Return the demand for each diversion station for the current time step, ACFT, which is not copied.
+	 */
+	public double [] getDiversionDemand () {
+		return this.diversionDemand;
+	}
+
+	/**
+	 * Return the river flow at each node for the current time step, ACFT, which is not copied.
+	 */
+	public double [] getFlow () {
+		return this.flow;
+	}
+
+	/**
+	 * Return the instream flow demand met for each instream flow station for the current time step, ACFT, which is not copied.
+	 */
+	public double [] getInstreamMet () {
+		return this.instreamMet;
+	}
+
+	/**
+	 * Return the next time step to simulate.
+	 */
+	public int getNextStep () {
+		return this.nextStep;
+	}
+
+	/**
+	 * Return the number of times a right received water, for all time steps simulated.
+	 */
+	public long getRightAllocationCount () {
+		long count = 0;
+		for ( int i = 1; i < this.basinRightCounts.length; i += 2 ) {
+			count += this.basinRightCounts[i];
+		}
+		return count;
+	}
+
+	/**
+	 * Return the number of times a right that is on was evaluated, for all time steps simulated.
+	 */
+	public long getRightEvaluationCount () {
+		long count = 0;
+		for ( int i = 0; i < this.basinRightCounts.length; i += 2 ) {
+			count += this.basinRightCounts[i];
+		}
+		return count;
+	}
+
+	/**
+	 * Return the reservoir content for each reservoir at the end of the current time step, ACFT, which is not copied.
+	 */
+	public double [] getReservoirContent () {
+		return this.reservoirContent;
+	}
+
+	/**
+	 * Return the amount stored by each reservoir during the current time step, ACFT, which is not copied.
+	 */
+	public double [] getReservoirStored () {
+		return this.reservoirStored;
+	}
+
+	/**
+	 * Return the remaining annual decree for each right in priority order, ACFT, used for reservoir rights,
+	 * which is not copied.
+	 */
+	public double [] getReservoirRightRemaining () {
+		return this.reservoirRightRemaining;
+	}
+
+	/**
+	 * Return the number of time steps in the simulation period.
+	 */
+	public int getStepCount () {
+		return this.stepCount;
+	}
+
+	/**
+	 * Return the month (1-12) of a time step.
+	 */
+	public int getStepMonth ( int step ) {
+		return this.stepMonth[step];
+	}
+
+	/**
+	 * Return the year of a time step.
+	 */
+	public int getStepYear ( int step ) {
+		return this.stepYear[step];
+	}
+
+	/**
+	 * Return the well pumping for each well station for the current time step, ACFT, which is not copied.
+	 */
+	public double [] getWellPumped () {
+		return this.wellPumped;
+	}
+
+	/**
+	 * Return the block of a column that contains a time step, or an empty array if the column is null.
+	 */
+	private static double [] getBlock ( StateModTimeSeriesColumn column, int step ) {
+		return (column == null) ? StateModTimeSeriesColumn.EMPTY_BLOCK : column.getBlock(step);
+	}
+
+	/**
+	 * Return the offset of a time step in the block of a column, or zero if the column is null.
+	 */
+	private static int getBlockOffset ( StateModTimeSeriesColumn column, int step ) {
+		return (column == null) ? 0 : column.getBlockOffset(step);
+	}
+
+	/**
+	 * Initialize the state to the start of the simulation period.
+	 */
+	public void initialize () {
+		System.arraycopy(this.reservoirInitialContent, 0, this.reservoirContent, 0, this.reservoirContent.length);
+		Arrays.fill(this.reservoirRightRemaining, 0.0);
+		this.nextStep = 0;
+	}
+
+	/**
+	 * Map the positions in a station index to positions in a time series store column.
+	 * @return array with the column position for each station, -1 if the column does not have the station
+	 */
+	private static int [] mapStations ( StateModStationIndex stationIndex, StateModTimeSeriesColumn column ) {
+		return stationIndex.mapPositions((column == null) ? null : column.getStationIndex());
+	}
+
+	/**
+	 * Run the remaining time steps of the simulation period.
+	 */
+	public void run () {
+		String routine = getClass().getSimpleName() + ".run";
+		if ( this.stepCount == 0 ) {
+			StateModLogger.printWarning(2, routine, "No monthly time series are available - cannot simulate.");
+			return;
+		}
+		runSteps ( this.nextStep, this.stepCount );
+	}
+
+	/**
+	 * Prepare a time step, doing the work that is not specific to a sub-basin.
+	 * @param step time step to simulate
+	 */
+	private void prepareStep ( int step ) {
+		// Reservoir decrees are annual amounts that start over in the first month of the period
+		// and in the administration month of each reservoir
+		int month = this.stepMonth[step];
+		int rightCount = this.rightDecrees.length;
+		for ( int r = 0; r < rightCount; r++ ) {
+			if ( (this.rightTypes[r] == StateModRightList.TYPE_RESERVOIR) &&
+				((step == 0) || (this.reservoirAdminMonth[this.rightStations[r]] == month)) ) {
+				this.reservoirRightRemaining[r] = this.rightDecrees[r];
+			}
+		}
+
+		// Demands for the time step
+		setDemands(this.diversionDemand, this.diversionDemandPos, this.demandColumn, step);
+		setDemands(this.instreamDemand, this.instreamDemandPos, this.instreamDemandColumn, step);
+		setDemands(this.wellDemand, this.wellDemandPos, this.wellDemandColumn, step);
+		// Baseflows for the time step, used by each sub-basin
+		this.baseflowBlock = getBlock(this.baseflowColumn, step);
+		this.baseflowOffset = getBlockOffset(this.baseflowColumn, step);
+		Arrays.fill(this.diverted, 0.0);
+		Arrays.fill(this.instreamMet, 0.0);
+		Arrays.fill(this.wellPumped, 0.0);
+		Arrays.fill(this.reservoirStored, 0.0);
+	}
+
+	/**
+	 * Compute the gains and river flow for one reach for a time step, after the upstream reaches.
+	 * @param step time step to simulate
+	 * @param reach reach to simulate
+	 */
+	private void runReachStep ( int step, int reach ) {
+		int [] reachNodes = this.subBasins.getReachNodes();
+		int nodeStart = this.subBasins.getReachNodeStart()[reach];
+		int nodeEnd = this.subBasins.getReachNodeStart()[reach + 1];
+
+		// Gains at baseflow nodes
+		double [] baseflowValues = this.baseflowBlock;
+		int baseflowOffset = this.baseflowOffset;
+		for ( int i = nodeStart; i < nodeEnd; i++ ) {
+			int n = reachNodes[i];
+			int pos = this.nodeBaseflowPos[n];
+			double g = 0.0;
+			if ( pos >= 0 ) {
+				g = value(baseflowValues[baseflowOffset + pos]);
+				for ( int k = this.gainUpstreamStart[n]; k < this.gainUpstreamStart[n + 1]; k++ ) {
+					g -= value(baseflowValues[baseflowOffset + this.nodeBaseflowPos[this.gainUpstreamNodes[k]]]);
+				}
+			}
+			this.gain[n] = g;
+		}
+
+		// Accumulate flow upstream to downstream, adding the upstream nodes in network order at a confluence
+		for ( int i = nodeStart; i < nodeEnd; i++ ) {
+			int n = reachNodes[i];
+			double f = this.gain[n];
+			for ( int k = this.upstreamStart[n]; k < this.upstreamStart[n + 1]; k++ ) {
+				f += this.flow[this.upstreamNodes[k]];
+			}
+			this.flow[n] = f;
+			this.reserved[n] = 0.0;
+		}
+	}
+
+	/**
+	 * Allocate water to the rights of one sub-basin for a time step, after the river flow has been computed.
+	 * @param step time step to simulate
+	 * @param basin sub-basin to simulate
+	 */
+	private void runBasinStep ( int step, int basin ) {
+		int year = this.stepYear[step];
+		double conversion = CFS_DAY_TO_ACFT*this.stepDays[step];
+		int [] basinRights = this.subBasins.getBasinRights();
+		int rightStart = this.subBasins.getBasinRightStart()[basin];
+		int rightEnd = this.subBasins.getBasinRightStart()[basin + 1];
+
+		// Allocate water to rights in priority order
+		int evaluatedCount = 0;
+		int allocatedCount = 0;
+		for ( int i = rightStart; i < rightEnd; i++ ) {
+			int r = basinRights[i];
+			if ( !StateModRightList.isOn(this.rightSwitches[r], year) ) {
+				continue;
+			}
+			++evaluatedCount;
+			int node = this.rightNodes[r];
+			int station = this.rightStations[r];
+			double want;
+			double amount;
+			switch ( this.rightTypes[r] ) {
+				case StateModRightList.TYPE_DIVERSION:
+					want = Math.min(this.rightDecrees[r]*conversion, this.diversionDemand[station] - this.diverted[station]);
+					want = Math.min(want, this.diversionCapacity[station]*conversion - this.diverted[station]);
+					if ( want <= 0.0 ) {
+						continue;
+					}
+					amount = Math.min(want, available(node));
+					if ( amount > 0.0 ) {
+						++allocatedCount;
+						withdraw(node, amount);
+						this.diverted[station] += amount;
+					}
+					break;
+				case StateModRightList.TYPE_RESERVOIR:
+					want = Math.min(this.reservoirRightRemaining[r],
+						this.reservoirCapacity[station] - this.reservoirContent[station]);
+					if ( want <= 0.0 ) {
+						continue;
+					}
+					amount = Math.min(want, available(node));
+					if ( amount > 0.0 ) {
+						++allocatedCount;
+						withdraw(node, amount);
+						this.reservoirContent[station] += amount;
+						this.reservoirStored[station] += amount;
+						this.reservoirRightRemaining[r] -= amount;
+					}
+					break;
+				case StateModRightList.TYPE_INSTREAM:
+					want = Math.min(this.rightDecrees[r]*conversion, this.instreamDemand[station] - this.instreamMet[station]);
+					if ( want <= 0.0 ) {
+						continue;
+					}
+					amount = Math.min(want, available(node));
+					if ( amount > 0.0 ) {
+						++allocatedCount;
+						// Flow stays in the river but is not available to junior rights at or upstream of the node
+						this.reserved[node] += amount;
+						this.instreamMet[station] += amount;
+					}
+					break;
+				case StateModRightList.TYPE_WELL:
+					want = Math.min(this.rightDecrees[r]*conversion, this.wellDemand[station] - this.wellPumped[station]);
+					if ( want > 0.0 ) {
+						++allocatedCount;
+						this.wellPumped[station] += want;
+					}
+					break;
+				default:
+					break;
+			}
+		}
+		this.basinRightCounts[2*basin] += evaluatedCount;
+		this.basinRightCounts[2*basin + 1] += allocatedCount;
+	}
+
+	/**
+	 * Simulate a range of time steps.
+	 * @param firstStep first time step to simulate, which must be the next step
+	 * @param endStep time step after the last time step to simulate
+	 */
+	public void runSteps ( int firstStep, int endStep ) {
+		if ( firstStep != this.nextStep ) {
+			throw new IllegalStateException("Time step " + firstStep + " is requested but the next time step is " + this.nextStep + ".");
+		}
+		StateModSubBasinExecutor.BasinWork work = new StateModSubBasinExecutor.BasinWork() {
+			@Override
+			public void runReachStep ( int step, int reach ) {
+				StateModSimulator.this.runReachStep(step, reach);
+			}
+
+			@Override
+			public void runBasinStep ( int step, int basin ) {
+				StateModSimulator.this.runBasinStep(step, basin);
+			}
+		};
+		try ( StateModSubBasinExecutor executor = new StateModSubBasinExecutor(this.subBasins, this.threads, work) ) {
+			for ( int step = firstStep; step < endStep; step++ ) {
+				prepareStep(step);
+				executor.runStep(step);
+				this.nextStep = step + 1;
+				if ( LOG.isDebugEnabled() ) {
+					LOG.debug("Time step {} ({}-{}) completed, {} rights allocated in total.",
+						step, getStepYear(step), getStepMonth(step), getRightAllocationCount());
+				}
+				for ( StateModSimulationListener listener : this.listeners ) {
+					listener.timeStepCompleted(this, step);
+				}
+				if ( this.runControl != null ) {
+					// Stops the loop with CancellationException if cancelled
+					this.runControl.stepCompleted(step + 1 - firstStep);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Set the demand for each station from a store column.
+	 */
+	private static void setDemands ( double [] demand, int [] pos, StateModTimeSeriesColumn column, int step ) {
+		double [] values = getBlock(column, step);
+		int offset = getBlockOffset(column, step);
+		for ( int i = 0; i < demand.length; i++ ) {
+			demand[i] = (pos[i] < 0) ? 0.0 : value(values[offset + pos[i]]);
+		}
+	}
+
+
+	/**
+	 * Restore the state that is carried from one time step to the next, for example from a checkpoint.
+	 * The simulation continues at the next time step when run() is called.
+	 * @param nextStep next time step to simulate
+	 * @param reservoirContent reservoir content at the end of the previous time step, ACFT, one per reservoir
+	 * @param reservoirRightRemaining remaining annual decree for each right in priority order, ACFT
+	 */
+	public void restoreState ( int nextStep, double [] reservoirContent, double [] reservoirRightRemaining ) {
+		if ( (nextStep < 0) || (nextStep > this.stepCount) ) {
+			throw new IllegalArgumentException("Next time step " + nextStep + " is not in the period (0 to " + this.stepCount + ").");
+		}
+		if ( (reservoirContent.length != this.reservoirContent.length) ||
+			(reservoirRightRemaining.length != this.reservoirRightRemaining.length) ) {
+			throw new IllegalArgumentException("State does not match the number of reservoirs and rights being simulated.");
+		}
+		System.arraycopy(reservoirContent, 0, this.reservoirContent, 0, reservoirContent.length);
+		System.arraycopy(reservoirRightRemaining, 0, this.reservoirRightRemaining, 0, reservoirRightRemaining.length);
+		this.nextStep = nextStep;
+	}
+
+	/**
+	 * Set the cancellation and progress control for the run, which is checked after each time step.
+	 * @param runControl run control, or null if the run cannot be cancelled
+	 */
+	public void setRunControl ( StateModRunControl runControl ) {
+		this.runControl = runControl;
+	}
+
+	/**
+	 * Set the number of threads used to simulate tributary reaches and independent sub-basins.
+	 * @param threads number of threads, 1 to simulate on the calling thread
+	 */
+	public void setThreads ( int threads ) {
+		this.threads = (threads < 1) ? 1 : threads;
+	}
+
+	/**
+	 * Return the reaches and independent sub-basins.
+	 */
+	public StateModSubBasins getSubBasins () {
+		return this.subBasins;
+	}
+
+	/**
+	 * Convert a list to an array.
+	 */
+	private static int [] toIntArray ( List<Integer> list ) {
+		int [] array = new int[list.size()];
+		for ( int i = 0; i < array.length; i++ ) {
+			array[i] = list.get(i);
+		}
+		return array;
+	}
+
+	/**
+	 * Return a value, treating missing (NaN) as zero.
+	 */
+	private static double value ( double v ) {
+		return Double.isNaN(v) ? 0.0 : v;
+	}
+
+	/**
+	 * Remove water from the river at a node and all nodes downstream.
+	 * @param node node position
+	 * @param amount amount to remove, ACFT
+	 */
+	private void withdraw ( int node, double amount ) {
+		for ( int n = node; n >= 0; n = this.downstream[n] ) {
+			this.flow[n] -= amount;
+		}
+	}
+}
@@ -0,0 +1,233 @@
+// StateModStartupArchive - create a class data sharing archive for fast startup
+
+
+/* NoticeStart
+
+StateMod Java
+StateMod Java is a part of Colorado's Decision Support Systems (CDSS)
+Copyright (C) 2019 Colorado Department of Natural Resources
+
+StateMod Java is free software:  you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+StateMod Java is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+    along with StateMod Java.  If not, see <https://www.gnu.org/licenses/>.
+
+NoticeEnd */
+
+package cdss.statemod.app;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Create an application class data sharing (AppCDS) archive so that later StateMod launches
+ * start without loading and verifying the program classes from the class path.
+ * <p>
+ * The archive is created by running StateMod as training runs on a dataset in child Java processes
+ * (check and then simulate, so that the classes for both are included), each writing the list of loaded classes,
+ * and then dumping the merged class list into the archive.
+ * The training runs read the dataset but write their log, metrics, and output files with --output-base
+ * to a temporary folder that is deleted afterwards, and do not write the dataset snapshot (--no-snapshot),
+ * so that the output files of the user's runs next to the response file are not overwritten.
+ * Later launches use the archive with the Java option "-XX:SharedArchiveFile=archive".
+ * The class path used with the archive must be the same as the class path used to create it,
+ * and only classes from jar files are archived.
+ * Application class data sharing requires Java 10 or later.
+ */
+public class StateModStartupArchive {
+
+	/**
+	 * Archive file to create.
+	 */
+	private final String archiveFile;
+
+	/**
+	 * Response file for the dataset used for the training runs.
+	 */
+	private final String responseFile;
+
+	/**
+	 * Run modes for the training runs, as command line options.
+	 */
+	private final String [] trainingOptions = { "--check", "--sim" };
+
+	/**
+	 * Constructor.
+	 * @param archiveFile archive file to create
+	 * @param responseFile response file for the dataset used for the training runs
+	 */
+	public StateModStartupArchive ( String archiveFile, String responseFile ) {
+		this.archiveFile = archiveFile;
+		this.responseFile = responseFile;
+	}
+
+	/**
+	 * Create the archive.
+	 * Output from the child processes is written to "archive.log".
+	 * @exception IOException if the Java version does not support application class data sharing,
+	 * a child process fails, or the archive cannot be written
+	 */
+	public void create () throws IOException {
+		String routine = getClass().getSimpleName() + ".create";
+		int javaVersion = getJavaVersion();
+		if ( javaVersion < 10 ) {
+			throw new IOException("Application class data sharing requires Java 10 or later (running Java " +
+				javaVersion + ").");
+		}
+		String classPath = System.getProperty("java.class.path");
+		for ( String path : classPath.split(File.pathSeparator) ) {
+			if ( new File(path).isDirectory() ) {
+				StateModLogger.printWarning(2, routine, "Class path folder \"" + path +
+					"\" is not archived - only classes from jar files are archived.");
+			}
+		}
+		File logFile = new File(this.archiveFile + ".log");
+		Files.deleteIfExists(logFile.toPath());
+		// Training runs, each writing a list of the classes that were loaded
+		// - output files are written to a temporary folder so that the user's output files are not overwritten
+		Set<String> classes = new LinkedHashSet<>();
+		File outputFolder = Files.createTempDirectory("statemod-startup").toFile();
+		try {
+			String outputFileBase = new File(outputFolder, "training").getPath();
+			for ( int i = 0; i < this.trainingOptions.length; i++ ) {
+				File classListFile = new File(this.archiveFile + ".classlist" + i);
+				List<String> command = createJavaCommand();
+				command.add("-Xshare:off");
+				command.add("-XX:DumpLoadedClassList=" + classListFile.getPath());
+				command.add("-cp");
+				command.add(classPath);
+				command.add(StateModMain.class.getName());
+				command.add(this.trainingOptions[i]);
+				command.add("--no-snapshot");
+				command.add("--output-base");
+				command.add(outputFileBase);
+				command.add(this.responseFile);
+				StateModLogger.printStatus(2, routine, "Training run " + this.trainingOptions[i] + " on \"" + this.responseFile +
+					"\", writing output to \"" + outputFolder + "\".");
+				runProcess(command, logFile);
+				try {
+					classes.addAll(Files.readAllLines(classListFile.toPath(), StandardCharsets.UTF_8));
+				}
+				finally {
+					Files.deleteIfExists(classListFile.toPath());
+				}
+			}
+		}
+		finally {
+			deleteFolder(outputFolder);
+		}
+		// Dump the merged class list into the archive
+		File classListFile = new File(this.archiveFile + ".classlist");
+		try ( PrintWriter out = new PrintWriter(Files.newBufferedWriter(classListFile.toPath(), StandardCharsets.UTF_8)) ) {
+			for ( String c : classes ) {
+				out.println(c);
+			}
+		}
+		List<String> command = createJavaCommand();
+		command.add("-Xshare:dump");
+		command.add("-XX:SharedClassListFile=" + classListFile.getPath());
+		command.add("-XX:SharedArchiveFile=" + this.archiveFile);
+		command.add("-cp");
+		command.add(classPath);
+		try {
+			runProcess(command, logFile);
+		}
+		finally {
+			Files.deleteIfExists(classListFile.toPath());
+		}
+		StateModLogger.printStatus(2, routine, "Created startup archive \"" + this.archiveFile + "\" with " + classes.size() +
+			" classes.  Use with Java option -XX:SharedArchiveFile=" + this.archiveFile + " and the same class path.");
+	}
+
+	/**
+	 * Create the start of a command to run Java, using the Java that is running this program.
+	 */
+	private static List<String> createJavaCommand () {
+		List<String> command = new ArrayList<>();
+		command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+		command.add("-Djava.awt.headless=true");
+		return command;
+	}
+
+	/**
+	 * Delete a folder and the files in it.  Files that cannot be deleted are left.
+	 */
+	private static void deleteFolder ( File folder ) {
+		File [] files = folder.listFiles();
+		if ( files != null ) {
+			for ( File file : files ) {
+				if ( file.isDirectory() ) {
+					deleteFolder(file);
+				}
+				else {
+					file.delete();
+				}
+			}
+		}
+		folder.delete();
+	}
+
+	/**
+	 * Return the archive file.
+	 */
+	public String getArchiveFile () {
+		return this.archiveFile;
+	}
+
+	/**
+	 * Return the major version of the running Java, for example 8 for "1.8" and 11 for "11".
+	 */
+	private static int getJavaVersion () {
+		String version = System.getProperty("java.specification.version");
+		if ( version.startsWith("1.") ) {
+			version = version.substring(2);
+		}
+		try {
+			return Integer.parseInt(version);
+		}
+		catch ( NumberFormatException e ) {
+			return 0;
+		}
+	}
+
+	/**
+	 * Run a child process and wait for it to complete, appending its output to the log file.
+	 * @param command command and arguments
+	 * @param logFile log file for process output
+	 * @exception IOException if the process cannot be run or exits with non-zero status
+	 */
+	private static void runProcess ( List<String> command, File logFile ) throws IOException {
+		ProcessBuilder builder = new ProcessBuilder(command);
+		builder.redirectErrorStream(true);
+		builder.redirectOutput(ProcessBuilder.Redirect.appendTo(logFile));
+		Process process = builder.start();
+		int status;
+		try {
+			status = process.waitFor();
+		}
+		catch ( InterruptedException e ) {
+			process.destroy();
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted waiting for " + command.get(0) + ".", e);
+		}
+		if ( status != 0 ) {
+			throw new IOException("Command exited with status " + status + ", see \"" + logFile.getPath() + "\": " +
+				String.join(" ", command));
+		}
+	}
+}
@@ -0,0 +1,247 @@
+// StateModStationComparison - differences between output and reference output for one station
+
+
+/* NoticeStart
+
+StateMod Java
+StateMod Java is a part of Colorado's Decision Support Systems (CDSS)
+Copyright (C) 2019 Colorado Department of Natural Resources
+
+StateMod Java is free software:  you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+StateMod Java is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+    along with StateMod Java.  If not, see <https://www.gnu.org/licenses/>.
+
+NoticeEnd */
+
+package cdss.statemod.app;
+
+/**
+ * Summary of the differences between output and reference output values for one station,
+ * with the first difference in time and the worst difference relative to the tolerance.
+ * Values are added by StateModOutputComparator, with each station updated by only one thread.
+ */
+public class StateModStationComparison {
+
+	/**
+	 * Status for a station with no differences larger than the tolerances.
+	 */
+	public static final String STATUS_SAME = "Same";
+
+	/**
+	 * Status for a station with differences larger than the tolerances.
+	 */
+	public static final String STATUS_DIFFERENT = "Different";
+
+	/**
+	 * Status for a station that is in the output but not the reference output.
+	 */
+	public static final String STATUS_NOT_IN_REFERENCE = "NotInReference";
+
+	/**
+	 * Status for a station that is in the reference output but not the output.
+	 */
+	public static final String STATUS_NOT_IN_OUTPUT = "NotInOutput";
+
+	/**
+	 * Station identifier.
+	 */
+	private final String stationId;
+
+	/**
+	 * Whether the station is in the output and reference output.
+	 */
+	private final boolean compared;
+
+	/**
+	 * Whether the station is in the output, used when not compared.
+	 */
+	private final boolean inOutput;
+
+	/**
+	 * Number of values compared.
+	 */
+	private long valueCount = 0;
+
+	/**
+	 * Number of values that differ by more than the tolerance.
+	 */
+	private long differenceCount = 0;
+
+	/**
+	 * Output time step, variable, value, and reference value of the first difference, step -1 if none.
+	 */
+	private int firstStep = -1;
+	private int firstVariable = -1;
+	private double firstValue = Double.NaN;
+	private double firstReference = Double.NaN;
+
+	/**
+	 * Output time step, variable, value, and reference value of the worst difference, step -1 if none.
+	 */
+	private int worstStep = -1;
+	private int worstVariable = -1;
+	private double worstValue = Double.NaN;
+	private double worstReference = Double.NaN;
+
+	/**
+	 * Difference divided by the allowed difference for the worst difference,
+	 * positive infinity if one value is missing or the allowed difference is zero.
+	 */
+	private double worstRatio = 0.0;
+
+	/**
+	 * Constructor.
+	 * @param stationId station identifier
+	 * @param compared whether the station is in the output and reference output
+	 * @param inOutput whether the station is in the output, used when not compared
+	 */
+	public StateModStationComparison ( String stationId, boolean compared, boolean inOutput ) {
+		this.stationId = stationId;
+		this.compared = compared;
+		this.inOutput = inOutput;
+	}
+
+	/**
+	 * Add a difference that is larger than the tolerance.
+	 * Differences must be added in time step order for the first difference to be correct.
+	 * @param step output time step
+	 * @param variable output variable position
+	 * @param value output value
+	 * @param reference reference value
+	 * @param ratio difference divided by the allowed difference
+	 */
+	void addDifference ( int step, int variable, double value, double reference, double ratio ) {
+		if ( this.differenceCount == 0 ) {
+			this.firstStep = step;
+			this.firstVariable = variable;
+			this.firstValue = value;
+			this.firstReference = reference;
+		}
+		++this.differenceCount;
+		if ( (this.worstStep < 0) || (ratio > this.worstRatio) ) {
+			this.worstStep = step;
+			this.worstVariable = variable;
+			this.worstValue = value;
+			this.worstReference = reference;
+			this.worstRatio = ratio;
+		}
+	}
+
+	/**
+	 * Add to the number of values compared.
+	 * @param count number of values
+	 */
+	void addValueCount ( long count ) {
+		this.valueCount += count;
+	}
+
+	/**
+	 * Return the number of values that differ by more than the tolerance.
+	 */
+	public long getDifferenceCount () {
+		return this.differenceCount;
+	}
+
+	/**
+	 * Return the output time step of the first difference, or -1 if none.
+	 */
+	public int getFirstStep () {
+		return this.firstStep;
+	}
+
+	/**
+	 * Return the reference value of the first difference.
+	 */
+	public double getFirstReference () {
+		return this.firstReference;
+	}
+
+	/**
+	 * Return the output value of the first difference.
+	 */
+	public double getFirstValue () {
+		return this.firstValue;
+	}
+
+	/**
+	 * Return the output variable position of the first difference, or -1 if none.
+	 */
+	public int getFirstVariable () {
+		return this.firstVariable;
+	}
+
+	/**
+	 * Return the station identifier.
+	 */
+	public String getStationId () {
+		return this.stationId;
+	}
+
+	/**
+	 * Return the comparison status, STATUS_*.
+	 */
+	public String getStatus () {
+		if ( !this.compared ) {
+			return this.inOutput ? STATUS_NOT_IN_REFERENCE : STATUS_NOT_IN_OUTPUT;
+		}
+		return (this.differenceCount > 0) ? STATUS_DIFFERENT : STATUS_SAME;
+	}
+
+	/**
+	 * Return the number of values compared.
+	 */
+	public long getValueCount () {
+		return this.valueCount;
+	}
+
+	/**
+	 * Return the difference divided by the allowed difference for the worst difference.
+	 */
+	public double getWorstRatio () {
+		return this.worstRatio;
+	}
+
+	/**
+	 * Return the reference value of the worst difference.
+	 */
+	public double getWorstReference () {
+		return this.worstReference;
+	}
+
+	/**
+	 * Return the output time step of the worst difference, or -1 if none.
+	 */
+	public int getWorstStep () {
+		return this.worstStep;
+	}
+
+	/**
+	 * Return the output value of the worst difference.
+	 */
+	public double getWorstValue () {
+		return this.worstValue;
+	}
+
+	/**
+	 * Return the output variable position of the worst difference, or -1 if none.
+	 */
+	public int getWorstVariable () {
+		return this.worstVariable;
+	}
+
+	/**
+	 * Return whether the station is in the output and reference output.
+	 */
+	public boolean isCompared () {
+		return this.compared;
+	}
+}
@@ -0,0 +1,182 @@
+// StateModStationIndex - map station identifiers to dense array positions
+
+/* NoticeStart
+
+StateMod Java
+StateMod Java is a part of Colorado's Decision Support Systems (CDSS)
+Copyright (C) 2019 Colorado Department of Natural Resources
+
+StateMod Java is free software:  you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+StateMod Java is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+    along with StateMod Java.  If not, see <https://www.gnu.org/licenses/>.
+
+NoticeEnd */
+
+package cdss.statemod.app;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Map station identifiers to dense positions 0 to size()-1, in the order that identifiers are added.
+ * The position is used to index arrays, such as the columns of the time series store.
+ * <p>
+ * An index created with an identifier registry stores the registry number of each identifier
+ * and maps registry numbers to positions with a primitive map, so that indexes that use the same registry
+ * can be mapped to each other without string hashing and share the registered identifier strings.
+ */
+public class StateModStationIndex {
+
+	/**
+	 * Identifiers in position order.
+	 */
+	private final List<String> ids = new ArrayList<>();
+
+	/**
+	 * Map of identifier to position, used if the index does not have a registry.
+	 */
+	private final Map<String,Integer> positions;
+
+	/**
+	 * Identifier registry, or null if identifiers are mapped with the positions map.
+	 */
+	private final StateModIdRegistry registry;
+
+	/**
+	 * Registry number for each position, used if the index has a registry.
+	 */
+	private int [] numbers;
+
+	/**
+	 * Map of registry number to position, used if the index has a registry.
+	 */
+	private final StateModIntIntMap numberPositions;
+
+	/**
+	 * Constructor for an index that does not use a registry.
+	 */
+	public StateModStationIndex () {
+		this.positions = new HashMap<>();
+		this.registry = null;
+		this.numbers = null;
+		this.numberPositions = null;
+	}
+
+	/**
+	 * Constructor for an index that uses a registry.
+	 * @param registry identifier registry, shared with other indexes for the dataset
+	 * @param expectedSize number of identifiers expected, used to size the index
+	 */
+	public StateModStationIndex ( StateModIdRegistry registry, int expectedSize ) {
+		this.positions = null;
+		this.registry = registry;
+		this.numbers = new int[Math.max(8, expectedSize)];
+		this.numberPositions = new StateModIntIntMap(expectedSize);
+	}
+
+	/**
+	 * Add an identifier if not already in the index.
+	 * @param id station identifier
+	 * @return position of the identifier
+	 */
+	public int add ( String id ) {
+		if ( this.registry != null ) {
+			int number = this.registry.add(id);
+			int pos = this.numberPositions.get(number);
+			if ( pos != StateModIntIntMap.NOT_FOUND ) {
+				return pos;
+			}
+			int newPos = this.ids.size();
+			if ( newPos == this.numbers.length ) {
+				this.numbers = Arrays.copyOf(this.numbers, 2*newPos);
+			}
+			this.numbers[newPos] = number;
+			this.ids.add(this.registry.getId(number));
+			this.numberPositions.put(number, newPos);
+			return newPos;
+		}
+		Integer pos = this.positions.get(id);
+		if ( pos != null ) {
+			return pos;
+		}
+		int newPos = this.ids.size();
+		this.ids.add(id);
+		this.positions.put(id, newPos);
+		return newPos;
+	}
+
+	/**
+	 * Return the identifier at a position.
+	 * @param pos position 0 to size()-1
+	 */
+	public String getId ( int pos ) {
+		return this.ids.get(pos);
+	}
+
+	/**
+	 * Return the position for an identifier, or -1 if not in the index.
+	 * @param id station identifier
+	 */
+	public int getIndex ( String id ) {
+		if ( this.registry != null ) {
+			int number = this.registry.getNumber(id);
+			return (number < 0) ? -1 : this.numberPositions.get(number);
+		}
+		Integer pos = this.positions.get(id);
+		if ( pos == null ) {
+			return -1;
+		}
+		return pos;
+	}
+
+	/**
+	 * Return the identifier registry, or null if the index does not use a registry.
+	 */
+	public StateModIdRegistry getRegistry () {
+		return this.registry;
+	}
+
+	/**
+	 * Return the position in another index of each position in this index.
+	 * If both indexes use the same registry, positions are matched by registry number,
+	 * otherwise by identifier.
+	 * @param other index to map to, or null if there is no other index
+	 * @return array with the position in the other index for each position, -1 if the other index does not have the identifier
+	 */
+	public int [] mapPositions ( StateModStationIndex other ) {
+		int [] pos = new int[size()];
+		if ( other == null ) {
+			Arrays.fill(pos, -1);
+		}
+		else if ( (this.registry != null) && (this.registry == other.registry) ) {
+			for ( int i = 0; i < pos.length; i++ ) {
+				pos[i] = other.numberPositions.get(this.numbers[i]);
+			}
+		}
+		else {
+			for ( int i = 0; i < pos.length; i++ ) {
+				pos[i] = other.getIndex(this.ids.get(i));
+			}
+		}
+		return pos;
+	}
+
+	/**
+	 * Return the number of identifiers in the index.
+	 */
+	public int size () {
+		return this.ids.size();
+	}
+}
@@ -0,0 +1,109 @@
+// StateModStationNetworkCheckRule - check that stations are nodes in the river network
+
+/* NoticeStart
+
+StateMod Java
+StateMod Java is a part of Colorado's Decision Support Systems (CDSS)
+Copyright (C) 2019 Colorado Department of Natural Resources
+
+StateMod Java is free software:  you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+StateMod Java is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+    along with StateMod Java.  If not, see <https://www.gnu.org/licenses/>.
+
+NoticeEnd */
+
+package cdss.statemod.app;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import DWR.StateMod.StateMod_Data;
+import DWR.StateMod.StateMod_DataSet;
+import DWR.StateMod.StateMod_RiverNetworkNode;
+
+/**
+ * Check that each station in a station component is a node in the river network and has a unique identifier.
+ * Stations that are not in the network are not simulated.
+ */
+public class StateModStationNetworkCheckRule implements StateModCheckRule {
+
+	/**
+	 * Station component type, StateMod_DataSet.COMP_*_STATIONS.
+	 */
+	private final int stationCompType;
+
+	/**
+	 * Rule name.
+	 */
+	private final String name;
+
+	/**
+	 * Constructor.
+	 * @param name rule name
+	 * @param stationCompType station component type, StateMod_DataSet.COMP_*_STATIONS
+	 */
+	public StateModStationNetworkCheckRule ( String name, int stationCompType ) {
+		this.name = name;
+		this.stationCompType = stationCompType;
+	}
+
+	/**
+	 * Check the dataset.
+	 */
+	@Override
+	public List<StateModCheckMessage> check ( StateMod_DataSet dataset, StateModTimeSeriesStore store ) {
+		List<StateModCheckMessage> messages = new ArrayList<>();
+		List<?> stations = StateModDataSetLoader.getComponentData(dataset, this.stationCompType);
+		if ( stations == null ) {
+			return messages;
+		}
+		String component = StateModCheckEngine.getComponentName(dataset, this.stationCompType);
+		Set<String> nodeIds = new HashSet<>();
+		List<?> nodes = StateModDataSetLoader.getComponentData(dataset, StateMod_DataSet.COMP_RIVER_NETWORK);
+		if ( nodes != null ) {
+			for ( Object o : nodes ) {
+				nodeIds.add(((StateMod_RiverNetworkNode)o).getID());
+			}
+		}
+		Set<String> stationIds = new HashSet<>();
+		for ( Object o : stations ) {
+			String id = ((StateMod_Data)o).getID();
+			if ( !stationIds.add(id) ) {
+				messages.add(new StateModCheckMessage(this.name, StateModCheckMessage.SEVERITY_ERROR, component, id,
+					"Station identifier is used more than once."));
+			}
+			if ( !nodeIds.contains(id) ) {
+				messages.add(new StateModCheckMessage(this.name, StateModCheckMessage.SEVERITY_ERROR, component, id,
+					"Station is not a node in the river network - will not be simulated."));
+			}
+		}
+		return messages;
+	}
+
+	/**
+	 * Return the component types that are read.
+	 */
+	@Override
+	public int [] getComponentTypes () {
+		return new int [] { this.stationCompType, StateMod_DataSet.COMP_RIVER_NETWORK };
+	}
+
+	/**
+	 * Return the rule name.
+	 */
+	@Override
+	public String getName () {
+		return this.name;
+	}
+}
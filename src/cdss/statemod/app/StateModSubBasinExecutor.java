@@ -0,0 +1,262 @@
+// StateModSubBasinExecutor - run the work for each independent sub-basin of a time step
+
+/* NoticeStart
+
+StateMod Java
+StateMod Java is a part of Colorado's Decision Support Systems (CDSS)
+Copyright (C) 2019 Colorado Department of Natural Resources
+
+StateMod Java is free software:  you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+StateMod Java is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+    along with StateMod Java.  If not, see <https://www.gnu.org/licenses/>.
+
+NoticeEnd */
+
+package cdss.statemod.app;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Run the work for a time step in two phases, either on the calling thread or, if more than one thread is requested,
+ * on a fork-join pool:
+ * <ol>
+ * <li>	Reach work (StateModSubBasins reaches), where the upstream reaches of a reach are done before the reach.
+ * 	The tributary reaches above a confluence are run at the same time if they and their upstream reaches
+ * 	have at least MIN_FORK_NODES nodes, and smaller parts of the network are run on one thread.</li>
+ * <li>	Sub-basin work, where the independent sub-basins are run at the same time.</li>
+ * </ol>
+ * The tasks are created once and reinitialized for each time step so that the time step loop does not allocate.
+ * The time step is complete when runStep() returns.
+ */
+public class StateModSubBasinExecutor implements AutoCloseable {
+
+	/**
+	 * Work to do for one reach or sub-basin and time step.
+	 */
+	public interface BasinWork {
+		/**
+		 * Do the work for a reach, after the work for its upstream reaches is done.
+		 * Only array positions for the reach's nodes can be modified, and only values for the reach's nodes
+		 * and upstream nodes can be used.
+		 * @param step time step
+		 * @param reach reach
+		 */
+		public void runReachStep ( int step, int reach );
+
+		/**
+		 * Do the work for a sub-basin, after the work for all reaches is done.
+		 * Only array positions for the sub-basin's nodes, stations, and rights can be modified.
+		 * @param step time step
+		 * @param basin sub-basin
+		 */
+		public void runBasinStep ( int step, int basin );
+	}
+
+	/**
+	 * Minimum number of nodes in a reach and its upstream reaches for the upstream reaches to be run at the same time,
+	 * so that small tributaries are not split into tasks that take longer to schedule than to run.
+	 */
+	public static final int MIN_FORK_NODES = 256;
+
+	/**
+	 * Number of sub-basins.
+	 */
+	private final int basinCount;
+
+	/**
+	 * Number of reaches.
+	 */
+	private final int reachCount;
+
+	/**
+	 * Work to run.
+	 */
+	private final BasinWork work;
+
+	/**
+	 * Pool for parallel execution, or null to run on the calling thread.
+	 */
+	private final ForkJoinPool pool;
+
+	/**
+	 * Task to run all reaches and sub-basins for a time step, or null to run on the calling thread.
+	 */
+	private final StepTask stepTask;
+
+	/**
+	 * Constructor.
+	 * @param subBasins reaches and independent sub-basins
+	 * @param threads number of threads, 1 to run on the calling thread
+	 * @param work work to run for each reach and sub-basin
+	 */
+	public StateModSubBasinExecutor ( StateModSubBasins subBasins, int threads, BasinWork work ) {
+		this.basinCount = subBasins.getBasinCount();
+		this.reachCount = subBasins.getReachCount();
+		this.work = work;
+		int [] upstreamStart = subBasins.getReachUpstreamStart();
+		int [] upstream = subBasins.getReachUpstream();
+		// Use a pool only if there are sub-basins or confluences with enough nodes to run at the same time
+		boolean parallel = this.basinCount > 1;
+		for ( int reach = 0; reach < this.reachCount; reach++ ) {
+			if ( ((upstreamStart[reach + 1] - upstreamStart[reach]) > 1) &&
+				(subBasins.getReachTotalNodeCount(reach) >= MIN_FORK_NODES) ) {
+				parallel = true;
+			}
+		}
+		if ( (threads > 1) && parallel ) {
+			this.pool = new ForkJoinPool(threads);
+			// Create the reach tasks in reach order so that the upstream tasks of a reach have been created
+			ReachTask [] reachTasks = new ReachTask[this.reachCount];
+			for ( int reach = 0; reach < this.reachCount; reach++ ) {
+				ReachTask [] upstreamTasks = new ReachTask[upstreamStart[reach + 1] - upstreamStart[reach]];
+				for ( int i = 0; i < upstreamTasks.length; i++ ) {
+					upstreamTasks[i] = reachTasks[upstream[upstreamStart[reach] + i]];
+				}
+				reachTasks[reach] = new ReachTask(work, reach, upstreamTasks,
+					subBasins.getReachTotalNodeCount(reach) >= MIN_FORK_NODES);
+			}
+			int [] outletReaches = subBasins.getOutletReaches();
+			ReachTask [] outletTasks = new ReachTask[outletReaches.length];
+			for ( int i = 0; i < outletTasks.length; i++ ) {
+				outletTasks[i] = reachTasks[outletReaches[i]];
+			}
+			BasinTask [] basinTasks = new BasinTask[this.basinCount];
+			for ( int b = 0; b < this.basinCount; b++ ) {
+				basinTasks[b] = new BasinTask(work, b);
+			}
+			this.stepTask = new StepTask(outletTasks, basinTasks);
+		}
+		else {
+			this.pool = null;
+			this.stepTask = null;
+		}
+	}
+
+	/**
+	 * Shut down the pool.
+	 */
+	@Override
+	public void close () {
+		if ( this.pool != null ) {
+			this.pool.shutdown();
+		}
+	}
+
+	/**
+	 * Run the work for all reaches and then all sub-basins for a time step, returning when all work is done.
+	 * @param step time step
+	 */
+	public void runStep ( int step ) {
+		if ( this.pool == null ) {
+			// Reaches are numbered so that upstream reaches are run first
+			for ( int reach = 0; reach < this.reachCount; reach++ ) {
+				this.work.runReachStep(step, reach);
+			}
+			for ( int b = 0; b < this.basinCount; b++ ) {
+				this.work.runBasinStep(step, b);
+			}
+		}
+		else {
+			this.stepTask.step = step;
+			this.stepTask.reinitialize();
+			this.pool.invoke(this.stepTask);
+		}
+	}
+
+	/**
+	 * Task to run one sub-basin for the current time step of the step task.
+	 */
+	private static class BasinTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final BasinWork work;
+		private final int basin;
+		private int step;
+
+		private BasinTask ( BasinWork work, int basin ) {
+			this.work = work;
+			this.basin = basin;
+		}
+
+		@Override
+		protected void compute () {
+			this.work.runBasinStep(this.step, this.basin);
+		}
+	}
+
+	/**
+	 * Task to run one reach for the current time step, after running its upstream reaches.
+	 */
+	private static class ReachTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final BasinWork work;
+		private final int reach;
+		private final ReachTask [] upstreamTasks;
+		private final boolean fork;
+		private int step;
+
+		private ReachTask ( BasinWork work, int reach, ReachTask [] upstreamTasks, boolean fork ) {
+			this.work = work;
+			this.reach = reach;
+			this.upstreamTasks = upstreamTasks;
+			this.fork = fork;
+		}
+
+		@Override
+		protected void compute () {
+			if ( this.fork && (this.upstreamTasks.length > 1) ) {
+				// Run the tributaries above the confluence at the same time
+				for ( ReachTask upstreamTask : this.upstreamTasks ) {
+					upstreamTask.step = this.step;
+					upstreamTask.reinitialize();
+				}
+				invokeAll(this.upstreamTasks);
+			}
+			else {
+				for ( ReachTask upstreamTask : this.upstreamTasks ) {
+					upstreamTask.step = this.step;
+					upstreamTask.compute();
+				}
+			}
+			this.work.runReachStep(this.step, this.reach);
+		}
+	}
+
+	/**
+	 * Task to run all reaches and then all sub-basins for a time step.
+	 */
+	private static class StepTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final ReachTask [] outletTasks;
+		private final BasinTask [] basinTasks;
+		private int step;
+
+		private StepTask ( ReachTask [] outletTasks, BasinTask [] basinTasks ) {
+			this.outletTasks = outletTasks;
+			this.basinTasks = basinTasks;
+		}
+
+		@Override
+		protected void compute () {
+			for ( ReachTask outletTask : this.outletTasks ) {
+				outletTask.step = this.step;
+				outletTask.reinitialize();
+			}
+			invokeAll(this.outletTasks);
+			for ( BasinTask basinTask : this.basinTasks ) {
+				basinTask.step = this.step;
+				basinTask.reinitialize();
+			}
+			invokeAll(this.basinTasks);
+		}
+	}
+}
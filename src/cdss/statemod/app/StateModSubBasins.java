@@ -0,0 +1,371 @@
+// StateModSubBasins - independent sub-basins of the river network
+
+/* NoticeStart
+
+StateMod Java
+StateMod Java is a part of Colorado's Decision Support Systems (CDSS)
+Copyright (C) 2019 Colorado Department of Natural Resources
+
+StateMod Java is free software:  you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+StateMod Java is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+    along with StateMod Java.  If not, see <https://www.gnu.org/licenses/>.
+
+NoticeEnd */
+
+package cdss.statemod.app;
+
+import java.util.Arrays;
+
+/**
+ * Decomposition of the river network into parts that can be processed at the same time:
+ * <ul>
+ * <li>	Reaches, which are found by splitting the network at confluences.  Each reach is a headwater or
+ * 	confluence node and the nodes downstream of it up to the next confluence, and its upstream reaches are
+ * 	the reaches that flow into its first node.  Work that only depends on a node's own data and the results
+ * 	of its upstream nodes, such as accumulating river flow and baseflows, can process the tributary reaches
+ * 	upstream of a confluence at the same time and then the reach below the confluence.</li>
+ * <li>	Independent sub-basins, which are the nodes that drain to the same outlet.  Rights are assigned to the
+ * 	sub-basin of their structure's node.  Rights must be allocated in priority order across a sub-basin,
+ * 	because water taken on one tributary changes the flow on the main stem that limits junior rights
+ * 	on other tributaries, so only separate sub-basins can allocate rights at the same time.
+ * 	A network with one outlet has one sub-basin.</li>
+ * </ul>
+ * The nodes of each reach and sub-basin are listed in upstream to downstream order and the rights of each
+ * sub-basin are listed in priority order, both as subsequences of the full network and right list order.
+ * A node's result is computed from its upstream nodes in the order of the compiled network's upstream lists,
+ * which is the deterministic merge at a confluence, so processing reaches and sub-basins on any number
+ * of threads does the same arithmetic as a single-threaded run and gives identical results.
+ */
+public class StateModSubBasins {
+
+	/**
+	 * Sub-basin for each node.
+	 */
+	private final int [] nodeBasin;
+
+	/**
+	 * Start position in basinNodes for each sub-basin, plus one at the end.
+	 */
+	private final int [] basinNodeStart;
+
+	/**
+	 * Nodes for all sub-basins, grouped by sub-basin and in upstream to downstream order within a sub-basin.
+	 */
+	private final int [] basinNodes;
+
+	/**
+	 * Start position in basinRights for each sub-basin, plus one at the end.
+	 */
+	private final int [] basinRightStart;
+
+	/**
+	 * Right positions for all sub-basins, grouped by sub-basin and in priority order within a sub-basin.
+	 */
+	private final int [] basinRights;
+
+	/**
+	 * Start position in reachNodes for each reach, plus one at the end.
+	 * Reaches are numbered in network order of their first node, so upstream reaches have lower numbers.
+	 */
+	private final int [] reachNodeStart;
+
+	/**
+	 * Nodes for all reaches, grouped by reach and in upstream to downstream order within a reach.
+	 */
+	private final int [] reachNodes;
+
+	/**
+	 * Start position in reachUpstream for each reach, plus one at the end.
+	 */
+	private final int [] reachUpstreamStart;
+
+	/**
+	 * Upstream reaches for all reaches, grouped by reach, in the order of the upstream nodes of the reach's first node.
+	 */
+	private final int [] reachUpstream;
+
+	/**
+	 * Reaches that end at an outlet, in reach order.
+	 */
+	private final int [] outletReaches;
+
+	/**
+	 * Number of nodes in each reach and all reaches upstream of it.
+	 */
+	private final int [] reachTotalNodes;
+
+	/**
+	 * Constructor.
+	 * @param network compiled river network
+	 * @param rights compiled rights
+	 * @param parent union-find parent for each node, where nodes with the same root are in the same sub-basin
+	 */
+	private StateModSubBasins ( StateModNetwork network, StateModRightList rights, int [] parent ) {
+		int nodeCount = network.getNodeCount();
+		// Number the sub-basins in order of the first node of each sub-basin
+		this.nodeBasin = new int[nodeCount];
+		int [] rootBasin = new int[nodeCount];
+		Arrays.fill(rootBasin, -1);
+		int basinCount = 0;
+		for ( int n = 0; n < nodeCount; n++ ) {
+			int root = find(parent, n);
+			if ( rootBasin[root] < 0 ) {
+				rootBasin[root] = basinCount++;
+			}
+			this.nodeBasin[n] = rootBasin[root];
+		}
+		// Group the nodes by sub-basin, keeping upstream to downstream order
+		this.basinNodeStart = new int[basinCount + 1];
+		this.basinNodes = new int[nodeCount];
+		int [] order = network.getOrder();
+		groupByBasin(order, this.nodeBasin, null, basinCount, this.basinNodeStart, this.basinNodes);
+		// Group the rights by sub-basin, keeping priority order
+		int rightCount = (rights == null) ? 0 : rights.getCount();
+		int [] rightOrder = new int[rightCount];
+		for ( int r = 0; r < rightCount; r++ ) {
+			rightOrder[r] = r;
+		}
+		this.basinRightStart = new int[basinCount + 1];
+		this.basinRights = new int[rightCount];
+		if ( rights != null ) {
+			groupByBasin(rightOrder, this.nodeBasin, rights.getNodes(), basinCount, this.basinRightStart, this.basinRights);
+		}
+		// Split the network at confluences into reaches - a node with one upstream node is in the same reach
+		// as the upstream node, and other nodes start a reach
+		int [] upstreamStart = network.getUpstreamStart();
+		int [] upstreamNodes = network.getUpstreamNodes();
+		int [] downstream = network.getDownstream();
+		int [] nodeReach = new int[nodeCount];
+		int reachCount = 0;
+		int upstreamReachCount = 0;
+		int outletCount = 0;
+		for ( int n : order ) {
+			int upstreamCount = upstreamStart[n + 1] - upstreamStart[n];
+			if ( upstreamCount == 1 ) {
+				nodeReach[n] = nodeReach[upstreamNodes[upstreamStart[n]]];
+			}
+			else {
+				nodeReach[n] = reachCount++;
+				upstreamReachCount += upstreamCount;
+			}
+			if ( downstream[n] < 0 ) {
+				++outletCount;
+			}
+		}
+		this.reachNodeStart = new int[reachCount + 1];
+		this.reachNodes = new int[nodeCount];
+		groupByBasin(order, nodeReach, null, reachCount, this.reachNodeStart, this.reachNodes);
+		this.reachUpstreamStart = new int[reachCount + 1];
+		this.reachUpstream = new int[upstreamReachCount];
+		this.reachTotalNodes = new int[reachCount];
+		this.outletReaches = new int[outletCount];
+		int upstreamPos = 0;
+		int outletPos = 0;
+		for ( int reach = 0; reach < reachCount; reach++ ) {
+			int first = this.reachNodes[this.reachNodeStart[reach]];
+			int last = this.reachNodes[this.reachNodeStart[reach + 1] - 1];
+			this.reachUpstreamStart[reach] = upstreamPos;
+			int total = this.reachNodeStart[reach + 1] - this.reachNodeStart[reach];
+			for ( int k = upstreamStart[first]; k < upstreamStart[first + 1]; k++ ) {
+				int upstreamReach = nodeReach[upstreamNodes[k]];
+				this.reachUpstream[upstreamPos++] = upstreamReach;
+				total += this.reachTotalNodes[upstreamReach];
+			}
+			this.reachTotalNodes[reach] = total;
+			if ( downstream[last] < 0 ) {
+				this.outletReaches[outletPos++] = reach;
+			}
+		}
+		this.reachUpstreamStart[reachCount] = upstreamPos;
+	}
+
+	/**
+	 * Analyze the network and rights to determine the independent sub-basins.
+	 * @param network compiled river network
+	 * @param rights compiled rights, or null if rights are not needed (for example for baseflow calculations)
+	 * @return the sub-basins
+	 */
+	public static StateModSubBasins analyze ( StateModNetwork network, StateModRightList rights ) {
+		int nodeCount = network.getNodeCount();
+		int [] parent = new int[nodeCount];
+		for ( int n = 0; n < nodeCount; n++ ) {
+			parent[n] = n;
+		}
+		// Nodes are connected to their downstream node.
+		// - when operating rules are simulated, the nodes that an operation connects must also be joined here
+		int [] downstream = network.getDownstream();
+		for ( int n = 0; n < nodeCount; n++ ) {
+			if ( downstream[n] >= 0 ) {
+				union(parent, n, downstream[n]);
+			}
+		}
+		return new StateModSubBasins(network, rights, parent);
+	}
+
+	/**
+	 * Find the union-find root of a node, compressing the path.
+	 */
+	private static int find ( int [] parent, int n ) {
+		int root = n;
+		while ( parent[root] != root ) {
+			root = parent[root];
+		}
+		while ( parent[n] != root ) {
+			int next = parent[n];
+			parent[n] = root;
+			n = next;
+		}
+		return root;
+	}
+
+	/**
+	 * Return the number of sub-basins.
+	 */
+	public int getBasinCount () {
+		return this.basinNodeStart.length - 1;
+	}
+
+	/**
+	 * Return the sub-basin node start positions, which is not copied.
+	 * The nodes of sub-basin b are getBasinNodes()[start[b]] to getBasinNodes()[start[b+1]-1].
+	 */
+	public int [] getBasinNodeStart () {
+		return this.basinNodeStart;
+	}
+
+	/**
+	 * Return the sub-basin nodes, which is not copied.  See getBasinNodeStart().
+	 */
+	public int [] getBasinNodes () {
+		return this.basinNodes;
+	}
+
+	/**
+	 * Return the sub-basin right start positions, which is not copied.
+	 * The rights of sub-basin b are getBasinRights()[start[b]] to getBasinRights()[start[b+1]-1].
+	 */
+	public int [] getBasinRightStart () {
+		return this.basinRightStart;
+	}
+
+	/**
+	 * Return the sub-basin rights, which is not copied.  See getBasinRightStart().
+	 */
+	public int [] getBasinRights () {
+		return this.basinRights;
+	}
+
+	/**
+	 * Return the sub-basin for each node, which is not copied.
+	 */
+	public int [] getNodeBasin () {
+		return this.nodeBasin;
+	}
+
+	/**
+	 * Return the number of nodes in a sub-basin.
+	 * @param basin sub-basin position
+	 */
+	public int getNodeCount ( int basin ) {
+		return this.basinNodeStart[basin + 1] - this.basinNodeStart[basin];
+	}
+
+	/**
+	 * Return the reaches that end at an outlet, which is not copied.
+	 */
+	public int [] getOutletReaches () {
+		return this.outletReaches;
+	}
+
+	/**
+	 * Return the number of reaches.
+	 */
+	public int getReachCount () {
+		return this.reachNodeStart.length - 1;
+	}
+
+	/**
+	 * Return the reach node start positions, which is not copied.
+	 * The nodes of reach r are getReachNodes()[start[r]] to getReachNodes()[start[r+1]-1].
+	 */
+	public int [] getReachNodeStart () {
+		return this.reachNodeStart;
+	}
+
+	/**
+	 * Return the reach nodes, which is not copied.  See getReachNodeStart().
+	 */
+	public int [] getReachNodes () {
+		return this.reachNodes;
+	}
+
+	/**
+	 * Return the number of nodes in a reach and all reaches upstream of it.
+	 * @param reach reach position
+	 */
+	public int getReachTotalNodeCount ( int reach ) {
+		return this.reachTotalNodes[reach];
+	}
+
+	/**
+	 * Return the upstream reach start positions, which is not copied.
+	 * The upstream reaches of reach r are getReachUpstream()[start[r]] to getReachUpstream()[start[r+1]-1].
+	 */
+	public int [] getReachUpstreamStart () {
+		return this.reachUpstreamStart;
+	}
+
+	/**
+	 * Return the upstream reaches, which is not copied.  See getReachUpstreamStart().
+	 */
+	public int [] getReachUpstream () {
+		return this.reachUpstream;
+	}
+
+	/**
+	 * Group items by sub-basin or reach, keeping the order of the items within each group.
+	 * @param items items in the order to keep
+	 * @param nodeBasin sub-basin or reach for each node
+	 * @param itemNode node for each item, or null if the items are nodes
+	 * @param basinCount number of sub-basins or reaches
+	 * @param start array to fill with start positions, size basinCount + 1
+	 * @param grouped array to fill with grouped items
+	 */
+	private static void groupByBasin ( int [] items, int [] nodeBasin, int [] itemNode, int basinCount,
+		int [] start, int [] grouped ) {
+		for ( int item : items ) {
+			int node = (itemNode == null) ? item : itemNode[item];
+			++start[nodeBasin[node] + 1];
+		}
+		for ( int b = 0; b < basinCount; b++ ) {
+			start[b + 1] += start[b];
+		}
+		int [] fill = new int[basinCount];
+		for ( int item : items ) {
+			int node = (itemNode == null) ? item : itemNode[item];
+			int b = nodeBasin[node];
+			grouped[start[b] + fill[b]] = item;
+			++fill[b];
+		}
+	}
+
+	/**
+	 * Join the sub-basins of two nodes.
+	 */
+	private static void union ( int [] parent, int n1, int n2 ) {
+		int root1 = find(parent, n1);
+		int root2 = find(parent, n2);
+		if ( root1 != root2 ) {
+			parent[root2] = root1;
+		}
+	}
+}
@@ -0,0 +1,330 @@
+// StateModTimeSeriesCache - memory-budgeted cache of time series blocks backed by a spill file
+
+/* NoticeStart
+
+StateMod Java
+StateMod Java is a part of Colorado's Decision Support Systems (CDSS)
+Copyright (C) 2019 Colorado Department of Natural Resources
+
+StateMod Java is free software:  you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+StateMod Java is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+    along with StateMod Java.  If not, see <https://www.gnu.org/licenses/>.
+
+NoticeEnd */
+
+package cdss.statemod.app;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Cache of time series store blocks that keeps at most a fixed number of bytes of values in memory.
+ * Each block is a range of time steps of a StateModTimeSeriesColumn, for all stations of the column.
+ * All blocks are written to a memory-mapped spill file, and the least recently used blocks are dropped
+ * from memory when the budget is exceeded, to be read from the spill file the next time they are used.
+ * This allows datasets with time series larger than the heap to be run at a predictable I/O cost.
+ * <p>
+ * Blocks are written when the column is created or modified, so blocks in memory are never newer than the spill file
+ * and eviction does not write.  Blocks of columns that are released (StateModTimeSeriesColumn.release(), for example
+ * when a scenario run is done) are freed and their spill file space is used for the next block of the same length,
+ * so that copies of columns for scenarios do not grow the spill file.
+ * The spill file is deleted when the cache is closed or the program exits.
+ * The cache is safe for use by more than one thread.
+ */
+public class StateModTimeSeriesCache implements Closeable {
+
+	/**
+	 * Size of each memory-mapped region of the spill file.  Blocks do not span regions.
+	 */
+	private static final long REGION_BYTES = 1L << 28;
+
+	/**
+	 * Largest block size, bytes, so that the budget holds a number of blocks.
+	 */
+	private static final long MAX_BLOCK_BYTES = 4L*1024*1024;
+
+	/**
+	 * Maximum bytes of block values to keep in memory.
+	 */
+	private final long maxBytes;
+
+	/**
+	 * Spill file.
+	 */
+	private final File spillFile;
+
+	/**
+	 * Spill file, open for reading and writing.
+	 */
+	private final RandomAccessFile spillAccess;
+
+	/**
+	 * Memory-mapped regions of the spill file, mapped as needed.
+	 */
+	private final List<MappedByteBuffer> regions = new ArrayList<>();
+
+	/**
+	 * Spill file position of each block.
+	 */
+	private long [] blockPositions = new long[64];
+
+	/**
+	 * Number of values in each block.
+	 */
+	private int [] blockLengths = new int[64];
+
+	/**
+	 * Blocks that have been written to the spill file.  Blocks that have not been written contain missing values.
+	 */
+	private final BitSet blockWritten = new BitSet();
+
+	/**
+	 * Number of blocks.
+	 */
+	private int blockCount = 0;
+
+	/**
+	 * Freed blocks that can be used again, by number of values.
+	 */
+	private final Map<Integer,ArrayDeque<Integer>> freeBlocks = new HashMap<>();
+
+	/**
+	 * Next free spill file position.
+	 */
+	private long spillBytes = 0;
+
+	/**
+	 * Blocks in memory, in least recently used order.
+	 */
+	private final LinkedHashMap<Integer,double[]> cachedBlocks = new LinkedHashMap<>(64, 0.75f, true);
+
+	/**
+	 * Bytes of values in memory.
+	 */
+	private long cachedBytes = 0;
+
+	/**
+	 * Metrics for cache loads and evictions, or null to not record.
+	 */
+	private final StateModMetrics metrics;
+
+	/**
+	 * Constructor.
+	 * @param maxBytes maximum bytes of time series values to keep in memory
+	 * @param spillFile spill file to create, which is replaced if it exists
+	 * @param metrics metrics of the run that creates the cache, which also include the loads and evictions
+	 * of runs that share the cache (for example batch scenarios), or null to not record
+	 * @exception IOException if the spill file cannot be created
+	 */
+	public StateModTimeSeriesCache ( long maxBytes, File spillFile, StateModMetrics metrics ) throws IOException {
+		String routine = getClass().getSimpleName();
+		this.maxBytes = maxBytes;
+		this.spillFile = spillFile;
+		this.metrics = metrics;
+		this.spillAccess = new RandomAccessFile(spillFile, "rw");
+		this.spillAccess.setLength(0);
+		spillFile.deleteOnExit();
+		StateModLogger.printStatus(2, routine, "Keeping at most " + maxBytes + " bytes of time series in memory, spilling to \"" +
+			spillFile + "\".");
+	}
+
+	/**
+	 * Add a block to the cache, reserving space in the spill file.  The block contains missing values until set.
+	 * @param length number of values in the block
+	 * @return block number
+	 */
+	public synchronized int addBlock ( int length ) {
+		ArrayDeque<Integer> free = this.freeBlocks.get(length);
+		if ( (free != null) && !free.isEmpty() ) {
+			// Use the spill file space of a freed block
+			return free.pop();
+		}
+		long bytes = 8L*length;
+		if ( bytes > REGION_BYTES ) {
+			throw new IllegalArgumentException("Block size (" + bytes + " bytes) is larger than the spill file region.");
+		}
+		if ( (this.spillBytes % REGION_BYTES) + bytes > REGION_BYTES ) {
+			// Start the next region
+			this.spillBytes = (this.spillBytes/REGION_BYTES + 1)*REGION_BYTES;
+		}
+		if ( this.blockCount == this.blockPositions.length ) {
+			this.blockPositions = Arrays.copyOf(this.blockPositions, 2*this.blockCount);
+			this.blockLengths = Arrays.copyOf(this.blockLengths, 2*this.blockCount);
+		}
+		this.blockPositions[this.blockCount] = this.spillBytes;
+		this.blockLengths[this.blockCount] = length;
+		this.spillBytes += bytes;
+		return this.blockCount++;
+	}
+
+	/**
+	 * Add a block to the memory cache, dropping least recently used blocks to stay within the budget.
+	 * The block being added is always kept, even if it is larger than the budget.
+	 */
+	private void cacheBlock ( int block, double [] values ) {
+		double [] old = this.cachedBlocks.put(block, values);
+		if ( old != null ) {
+			this.cachedBytes -= 8L*old.length;
+		}
+		this.cachedBytes += 8L*values.length;
+		Iterator<Map.Entry<Integer,double[]>> it = this.cachedBlocks.entrySet().iterator();
+		long evictCount = 0;
+		while ( (this.cachedBytes > this.maxBytes) && it.hasNext() ) {
+			Map.Entry<Integer,double[]> entry = it.next();
+			if ( entry.getKey() == block ) {
+				continue;
+			}
+			this.cachedBytes -= 8L*entry.getValue().length;
+			it.remove();
+			++evictCount;
+		}
+		if ( (evictCount > 0) && (this.metrics != null) ) {
+			this.metrics.addCount("TimeSeriesCacheEvictions", evictCount);
+		}
+	}
+
+	/**
+	 * Close the cache and delete the spill file.
+	 */
+	@Override
+	public synchronized void close () throws IOException {
+		this.cachedBlocks.clear();
+		this.cachedBytes = 0;
+		this.regions.clear();
+		this.spillAccess.close();
+		if ( !this.spillFile.delete() ) {
+			// Mapped regions may prevent the delete on some systems - deleted at exit instead
+			StateModLogger.printStatus(2, getClass().getSimpleName() + ".close", "Spill file \"" + this.spillFile +
+				"\" will be deleted when the program exits.");
+		}
+	}
+
+	/**
+	 * Free a block so that its spill file space is used by a later block of the same length.
+	 * The block number must not be used after the call, until it is returned by addBlock() again.
+	 * @param block block number
+	 */
+	public synchronized void freeBlock ( int block ) {
+		double [] values = this.cachedBlocks.remove(block);
+		if ( values != null ) {
+			this.cachedBytes -= 8L*values.length;
+		}
+		this.blockWritten.clear(block);
+		ArrayDeque<Integer> free = this.freeBlocks.get(this.blockLengths[block]);
+		if ( free == null ) {
+			free = new ArrayDeque<>();
+			this.freeBlocks.put(this.blockLengths[block], free);
+		}
+		free.push(block);
+	}
+
+	/**
+	 * Return the values of a block, reading the block from the spill file if it is not in memory.
+	 * The returned array must not be modified - use setBlock() to change values.
+	 * @param block block number
+	 */
+	public synchronized double [] getBlock ( int block ) {
+		double [] values = this.cachedBlocks.get(block);
+		if ( values != null ) {
+			return values;
+		}
+		values = new double[this.blockLengths[block]];
+		if ( this.blockWritten.get(block) ) {
+			getRegionBuffer(this.blockPositions[block]).asDoubleBuffer().get(values);
+			if ( this.metrics != null ) {
+				this.metrics.addCount("TimeSeriesCacheLoads", 1);
+			}
+		}
+		else {
+			Arrays.fill(values, Double.NaN);
+		}
+		cacheBlock(block, values);
+		return values;
+	}
+
+	/**
+	 * Return the number of time steps to store in each block of a column, so that blocks are small relative
+	 * to the budget and the largest block size, with at least one time step per block.
+	 * @param stationCount number of stations in the column
+	 * @param stepCount number of time steps in the column
+	 */
+	public int getBlockSteps ( int stationCount, int stepCount ) {
+		long blockBytes = Math.min(MAX_BLOCK_BYTES, this.maxBytes/16);
+		long steps = blockBytes/(8L*Math.max(1, stationCount));
+		return (int)Math.max(1, Math.min(stepCount, steps));
+	}
+
+	/**
+	 * Return the maximum bytes of time series values kept in memory.
+	 */
+	public long getMaxBytes () {
+		return this.maxBytes;
+	}
+
+	/**
+	 * Return the bytes of the spill file used by blocks, including freed blocks.
+	 */
+	public synchronized long getSpillBytes () {
+		return this.spillBytes;
+	}
+
+	/**
+	 * Return a native byte order buffer positioned at a spill file position, mapping the region if necessary.
+	 */
+	private ByteBuffer getRegionBuffer ( long position ) {
+		int region = (int)(position/REGION_BYTES);
+		try {
+			while ( this.regions.size() <= region ) {
+				this.regions.add(this.spillAccess.getChannel().map(FileChannel.MapMode.READ_WRITE,
+					this.regions.size()*REGION_BYTES, REGION_BYTES));
+			}
+		}
+		catch ( IOException e ) {
+			throw new UncheckedIOException("Error mapping spill file \"" + this.spillFile + "\".", e);
+		}
+		ByteBuffer buffer = this.regions.get(region).duplicate();
+		buffer.position((int)(position % REGION_BYTES));
+		return buffer.order(ByteOrder.nativeOrder());
+	}
+
+	/**
+	 * Set the values of a block, writing them to the spill file.
+	 * The array is kept in memory and must not be modified after the call.
+	 * @param block block number
+	 * @param values values for the block
+	 */
+	public synchronized void setBlock ( int block, double [] values ) {
+		if ( values.length != this.blockLengths[block] ) {
+			throw new IllegalArgumentException("Block " + block + " has " + this.blockLengths[block] +
+				" values, not " + values.length + ".");
+		}
+		getRegionBuffer(this.blockPositions[block]).asDoubleBuffer().put(values);
+		this.blockWritten.set(block);
+		cacheBlock(block, values);
+	}
+}
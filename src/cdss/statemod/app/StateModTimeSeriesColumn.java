@@ -0,0 +1,346 @@
+// StateModTimeSeriesColumn - contiguous primitive array of values for one time series data type
+
+/* NoticeStart
+
+StateMod Java
+StateMod Java is a part of Colorado's Decision Support Systems (CDSS)
+Copyright (C) 2019 Colorado Department of Natural Resources
+
+StateMod Java is free software:  you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+StateMod Java is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+    along with StateMod Java.  If not, see <https://www.gnu.org/licenses/>.
+
+NoticeEnd */
+
+package cdss.statemod.app;
+
+import java.util.Arrays;
+
+/**
+ * Values for all stations of one time series data type.
+ * Values are stored time step major, values[step*stationCount + station],
+ * so that the values for all stations in a time step are adjacent,
+ * which is the order that the time step loop of a run mode accesses the data.
+ * Missing values are stored as Double.NaN.
+ * <p>
+ * Values are stored in blocks of consecutive time steps, see getBlock().
+ * A column in memory has one block for all time steps.
+ * A column created with a StateModTimeSeriesCache has blocks of a few time steps that are read from the
+ * cache's spill file when used, so that the column does not need to fit in memory.
+ */
+public class StateModTimeSeriesColumn {
+
+	/**
+	 * Empty block, used by run modes in place of the block of a column that is not available
+	 * so that the time step loop does not allocate.  Must not be modified.
+	 */
+	public static final double [] EMPTY_BLOCK = new double[0];
+
+	/**
+	 * Data type for the column.
+	 */
+	private final StateModTimeSeriesType type;
+
+	/**
+	 * Station identifier to station position.
+	 */
+	private final StateModStationIndex stationIndex;
+
+	/**
+	 * Number of time steps.
+	 */
+	private final int stepCount;
+
+	/**
+	 * Values, time step major, or null if the values are in the cache.
+	 */
+	private final double [] values;
+
+	/**
+	 * Cache for the values, or null if the values are in memory.
+	 */
+	private final StateModTimeSeriesCache cache;
+
+	/**
+	 * Cache block number for each block, or null if the values are in memory.
+	 */
+	private final int [] blocks;
+
+	/**
+	 * Number of time steps in each block (the last block may have fewer).
+	 */
+	private final int blockSteps;
+
+	/**
+	 * Whether the column has been released (see release()).
+	 */
+	private boolean released = false;
+
+	/**
+	 * Constructor for a column in memory.
+	 * @param type data type for the column
+	 * @param stationIndex station identifier to station position
+	 * @param stepCount number of time steps
+	 */
+	public StateModTimeSeriesColumn ( StateModTimeSeriesType type, StateModStationIndex stationIndex, int stepCount ) {
+		this(type, stationIndex, stepCount, null);
+	}
+
+	/**
+	 * Constructor.
+	 * @param type data type for the column
+	 * @param stationIndex station identifier to station position
+	 * @param stepCount number of time steps
+	 * @param cache cache for the values, or null to keep the values in memory
+	 */
+	public StateModTimeSeriesColumn ( StateModTimeSeriesType type, StateModStationIndex stationIndex, int stepCount,
+		StateModTimeSeriesCache cache ) {
+		this.type = type;
+		this.stationIndex = stationIndex;
+		this.stepCount = stepCount;
+		this.cache = cache;
+		int stationCount = stationIndex.size();
+		if ( cache == null ) {
+			this.values = new double[stationCount*stepCount];
+			Arrays.fill(this.values, Double.NaN);
+			this.blocks = null;
+			this.blockSteps = Math.max(1, stepCount);
+		}
+		else {
+			this.values = null;
+			this.blockSteps = cache.getBlockSteps(stationCount, stepCount);
+			this.blocks = new int[(stepCount + this.blockSteps - 1)/this.blockSteps];
+			for ( int block = 0; block < this.blocks.length; block++ ) {
+				this.blocks[block] = cache.addBlock(getBlockLength(block));
+			}
+		}
+	}
+
+	/**
+	 * Constructor used by copy(), which shares the station index.
+	 */
+	private StateModTimeSeriesColumn ( StateModTimeSeriesColumn column ) {
+		this.type = column.type;
+		this.stationIndex = column.stationIndex;
+		this.stepCount = column.stepCount;
+		this.cache = column.cache;
+		this.blockSteps = column.blockSteps;
+		if ( column.cache == null ) {
+			this.values = column.values.clone();
+			this.blocks = null;
+		}
+		else {
+			this.values = null;
+			this.blocks = new int[column.blocks.length];
+			for ( int block = 0; block < this.blocks.length; block++ ) {
+				this.blocks[block] = this.cache.addBlock(getBlockLength(block));
+				this.cache.setBlock(this.blocks[block], column.getBlock(block*this.blockSteps).clone());
+			}
+		}
+	}
+
+	/**
+	 * Return a copy of the column, with a copy of the values that can be modified without changing this column.
+	 * The station index is shared because it is not modified after the column is created.
+	 */
+	public StateModTimeSeriesColumn copy () {
+		return new StateModTimeSeriesColumn(this);
+	}
+
+	/**
+	 * Return a new array for the values of a block, initialized to missing, to be filled and then passed to setBlock().
+	 * For a column in memory, this is the column values array.
+	 * @param block block number, 0 to getBlockCount()-1
+	 */
+	public double [] createBlock ( int block ) {
+		if ( this.cache == null ) {
+			return this.values;
+		}
+		double [] blockValues = new double[getBlockLength(block)];
+		Arrays.fill(blockValues, Double.NaN);
+		return blockValues;
+	}
+
+	/**
+	 * Return a value.
+	 * @param station station position from the station index
+	 * @param step time step, 0 for the start of the store period
+	 */
+	public double get ( int station, int step ) {
+		if ( this.cache == null ) {
+			return this.values[step*this.stationIndex.size() + station];
+		}
+		return getBlock(step)[getBlockOffset(step) + station];
+	}
+
+	/**
+	 * Return the values of the block that contains a time step, time step major.
+	 * The values for the time step start at getBlockOffset(step).
+	 * The array is not copied and must not be modified - use setBlock() to change values.
+	 * For a column in memory, this is the array of values for all time steps.
+	 * @param step time step, 0 for the start of the store period
+	 */
+	public double [] getBlock ( int step ) {
+		if ( this.cache == null ) {
+			return this.values;
+		}
+		return this.cache.getBlock(this.blocks[step/this.blockSteps]);
+	}
+
+	/**
+	 * Return the number of blocks.
+	 */
+	public int getBlockCount () {
+		return (this.blocks == null) ? 1 : this.blocks.length;
+	}
+
+	/**
+	 * Return the number of values in a block.
+	 * @param block block number, 0 to getBlockCount()-1
+	 */
+	private int getBlockLength ( int block ) {
+		return Math.min(this.blockSteps, this.stepCount - block*this.blockSteps)*this.stationIndex.size();
+	}
+
+	/**
+	 * Return the position of a time step's first value in the block returned by getBlock().
+	 * @param step time step, 0 for the start of the store period
+	 */
+	public int getBlockOffset ( int step ) {
+		return (step % this.blockSteps)*this.stationIndex.size();
+	}
+
+	/**
+	 * Return the number of time steps in each block.  The last block may have fewer time steps.
+	 */
+	public int getBlockSteps () {
+		return this.blockSteps;
+	}
+
+	/**
+	 * Return the size of the values in bytes, whether in memory or in the cache.
+	 */
+	public long getSizeBytes () {
+		return 8L*this.stationIndex.size()*this.stepCount;
+	}
+
+	/**
+	 * Return the station index.
+	 */
+	public StateModStationIndex getStationIndex () {
+		return this.stationIndex;
+	}
+
+	/**
+	 * Return the number of stations.
+	 */
+	public int getStationCount () {
+		return this.stationIndex.size();
+	}
+
+	/**
+	 * Return the number of time steps.
+	 */
+	public int getStepCount () {
+		return this.stepCount;
+	}
+
+	/**
+	 * Return the data type.
+	 */
+	public StateModTimeSeriesType getType () {
+		return this.type;
+	}
+
+	/**
+	 * Return whether the values are stored in a cache rather than in memory.
+	 */
+	public boolean isCached () {
+		return this.cache != null;
+	}
+
+	/**
+	 * Multiply the values of one station or all stations by a factor.  Missing values remain missing.
+	 * @param station station position from the station index, or -1 for all stations
+	 * @param factor factor to multiply by
+	 */
+	public void multiply ( int station, double factor ) {
+		int stationCount = this.stationIndex.size();
+		for ( int block = 0; block < getBlockCount(); block++ ) {
+			double [] blockValues = getBlock(block*this.blockSteps);
+			if ( this.cache != null ) {
+				blockValues = blockValues.clone();
+			}
+			if ( station < 0 ) {
+				for ( int i = 0; i < blockValues.length; i++ ) {
+					blockValues[i] *= factor;
+				}
+			}
+			else {
+				for ( int pos = station; pos < blockValues.length; pos += stationCount ) {
+					blockValues[pos] *= factor;
+				}
+			}
+			setBlock(block, blockValues);
+		}
+	}
+
+	/**
+	 * Release the column's values when the column is no longer used, for example a scenario copy when the scenario
+	 * run is done.  The blocks of a cached column are freed so that the cache uses their spill file space for later columns.
+	 * A column in memory is reclaimed by garbage collection.  The column must not be used after it is released.
+	 */
+	public synchronized void release () {
+		if ( this.released ) {
+			return;
+		}
+		this.released = true;
+		if ( this.cache != null ) {
+			for ( int block : this.blocks ) {
+				this.cache.freeBlock(block);
+			}
+		}
+	}
+
+	/**
+	 * Set a value.
+	 * For a cached column this writes the block, so set values a block at a time with setBlock() where possible.
+	 * @param station station position from the station index
+	 * @param step time step, 0 for the start of the store period
+	 * @param value value to set, Double.NaN if missing
+	 */
+	public void set ( int station, int step, double value ) {
+		if ( this.cache == null ) {
+			this.values[step*this.stationIndex.size() + station] = value;
+			return;
+		}
+		double [] blockValues = getBlock(step).clone();
+		blockValues[getBlockOffset(step) + station] = value;
+		setBlock(step/this.blockSteps, blockValues);
+	}
+
+	/**
+	 * Set the values of a block, typically an array from createBlock().
+	 * For a cached column the values are written to the cache and the array must not be modified after the call.
+	 * @param block block number, 0 to getBlockCount()-1
+	 * @param blockValues values for the block, time step major
+	 */
+	public void setBlock ( int block, double [] blockValues ) {
+		if ( this.cache == null ) {
+			if ( blockValues != this.values ) {
+				System.arraycopy(blockValues, 0, this.values, 0, this.values.length);
+			}
+			return;
+		}
+		this.cache.setBlock(this.blocks[block], blockValues);
+	}
+}
@@ -0,0 +1,147 @@
+// StateModTimeSeriesCoverageCheckRule - check that stations have time series for the full period
+
+/* NoticeStart
+
+StateMod Java
+StateMod Java is a part of Colorado's Decision Support Systems (CDSS)
+Copyright (C) 2019 Colorado Department of Natural Resources
+
+StateMod Java is free software:  you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+StateMod Java is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+    along with StateMod Java.  If not, see <https://www.gnu.org/licenses/>.
+
+NoticeEnd */
+
+package cdss.statemod.app;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import DWR.StateMod.StateMod_Data;
+import DWR.StateMod.StateMod_DataSet;
+
+/**
+ * Check that each station in a station component has a time series of the requested type,
+ * and that the time series has values for every time step in the store period (the control file period).
+ * The check uses the time series store, so it can be run after the dataset time series have been released.
+ */
+public class StateModTimeSeriesCoverageCheckRule implements StateModCheckRule {
+
+	/**
+	 * Time series type to check.
+	 */
+	private final StateModTimeSeriesType type;
+
+	/**
+	 * Station component type, StateMod_DataSet.COMP_*_STATIONS.
+	 */
+	private final int stationCompType;
+
+	/**
+	 * Severity for stations without a time series.
+	 */
+	private final String missingSeverity;
+
+	/**
+	 * Rule name.
+	 */
+	private final String name;
+
+	/**
+	 * Constructor.
+	 * @param name rule name
+	 * @param type time series type to check
+	 * @param stationCompType station component type, StateMod_DataSet.COMP_*_STATIONS
+	 * @param missingSeverity severity for stations that do not have a time series, StateModCheckMessage.SEVERITY_*
+	 */
+	public StateModTimeSeriesCoverageCheckRule ( String name, StateModTimeSeriesType type, int stationCompType,
+		String missingSeverity ) {
+		this.name = name;
+		this.type = type;
+		this.stationCompType = stationCompType;
+		this.missingSeverity = missingSeverity;
+	}
+
+	/**
+	 * Check the dataset.
+	 */
+	@Override
+	public List<StateModCheckMessage> check ( StateMod_DataSet dataset, StateModTimeSeriesStore store ) {
+		List<StateModCheckMessage> messages = new ArrayList<>();
+		List<?> stations = StateModDataSetLoader.getComponentData(dataset, this.stationCompType);
+		if ( (stations == null) || stations.isEmpty() ) {
+			return messages;
+		}
+		String component = StateModCheckEngine.getComponentName(dataset, this.type.getComponentTypes()[0]);
+		StateModTimeSeriesColumn column = store.getColumn(this.type);
+		if ( column == null ) {
+			messages.add(new StateModCheckMessage(this.name, this.missingSeverity, component, "",
+				"No " + this.type + " time series are available for " + stations.size() + " stations."));
+			return messages;
+		}
+		StateModStationIndex stationIndex = column.getStationIndex();
+		int stationCount = column.getStationCount();
+		int stepCount = column.getStepCount();
+		// Count missing values for all stations a time step at a time, which reads each block of a cached column once
+		int [] missingCounts = new int[stationCount];
+		int [] firstMissing = new int[stationCount];
+		for ( int step = 0; step < stepCount; step++ ) {
+			double [] values = column.getBlock(step);
+			int offset = column.getBlockOffset(step);
+			for ( int station = 0; station < stationCount; station++ ) {
+				if ( Double.isNaN(values[offset + station]) ) {
+					if ( missingCounts[station] == 0 ) {
+						firstMissing[station] = step;
+					}
+					++missingCounts[station];
+				}
+			}
+		}
+		for ( Object o : stations ) {
+			String id = ((StateMod_Data)o).getID();
+			int station = stationIndex.getIndex(id);
+			if ( station < 0 ) {
+				messages.add(new StateModCheckMessage(this.name, this.missingSeverity, component, id,
+					"Station does not have a " + this.type + " time series."));
+				continue;
+			}
+			if ( missingCounts[station] > 0 ) {
+				messages.add(new StateModCheckMessage(this.name, StateModCheckMessage.SEVERITY_ERROR, component, id,
+					missingCounts[station] + " of " + stepCount + " time steps are missing, starting at time step " +
+					(firstMissing[station] + 1) + "."));
+			}
+		}
+		return messages;
+	}
+
+	/**
+	 * Return the component types that are read.
+	 * The control file is included because it defines the period.
+	 */
+	@Override
+	public int [] getComponentTypes () {
+		int [] tsCompTypes = this.type.getComponentTypes();
+		int [] compTypes = new int[tsCompTypes.length + 2];
+		System.arraycopy(tsCompTypes, 0, compTypes, 0, tsCompTypes.length);
+		compTypes[tsCompTypes.length] = this.stationCompType;
+		compTypes[tsCompTypes.length + 1] = StateMod_DataSet.COMP_CONTROL;
+		return compTypes;
+	}
+
+	/**
+	 * Return the rule name.
+	 */
+	@Override
+	public String getName () {
+		return this.name;
+	}
+}
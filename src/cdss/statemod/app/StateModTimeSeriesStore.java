@@ -0,0 +1,667 @@
+// StateModTimeSeriesStore - columnar primitive storage for dataset time series
+
+/* NoticeStart
+
+StateMod Java
+StateMod Java is a part of Colorado's Decision Support Systems (CDSS)
+Copyright (C) 2019 Colorado Department of Natural Resources
+
+StateMod Java is free software:  you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+StateMod Java is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+    along with StateMod Java.  If not, see <https://www.gnu.org/licenses/>.
+
+NoticeEnd */
+
+package cdss.statemod.app;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import DWR.StateMod.StateMod_DataSet;
+import RTi.TS.TS;
+import RTi.Util.IO.DataSetComponent;
+import RTi.Util.Time.DateTime;
+import RTi.Util.Time.TimeInterval;
+
+/**
+ * Columnar storage for the dataset time series, used by the run modes instead of time series objects.
+ * Each data type is stored in a StateModTimeSeriesColumn, which is one contiguous array for all stations
+ * of the type (or blocks of time steps, see below), with a station index to map station identifiers to positions.
+ * All monthly columns share the same period, as do all daily columns, so a time step index can be used
+ * across data types.  The period is the control file period if available, or otherwise the overall
+ * period of the time series.
+ * <p>
+ * If the dataset is a StateModLazyDataSet and the control file period is available, each column is created
+ * the first time it is requested, which reads the time series components for the data type at that time.
+ * Once the owner of the dataset calls releaseDataSetTimeSeries(), the time series objects for a component are
+ * released when all data types that use the component have columns.  A dataset that is shared by runs,
+ * for example the dataset of a StateModRunRequest, is not released and so is not modified by the store.
+ * <p>
+ * If the store is created with a StateModTimeSeriesCache, column values are kept in blocks of time steps
+ * in the cache, so that only the budgeted amount of values is in memory.
+ */
+public class StateModTimeSeriesStore {
+
+	/**
+	 * Columns for each data type that has time series in the dataset.
+	 */
+	private final EnumMap<StateModTimeSeriesType,StateModTimeSeriesColumn> columns = new EnumMap<>(StateModTimeSeriesType.class);
+
+	/**
+	 * First month of monthly data, or null if no monthly data.
+	 */
+	private DateTime monthlyStart = null;
+
+	/**
+	 * Number of monthly time steps.
+	 */
+	private int monthlyStepCount = 0;
+
+	/**
+	 * First day of daily data, or null if no daily data.
+	 */
+	private DateTime dailyStart = null;
+
+	/**
+	 * Number of daily time steps.
+	 */
+	private int dailyStepCount = 0;
+
+	/**
+	 * Store that creates columns when first requested, or null if all columns are created with the store.
+	 * This is the store itself for a lazy store created from a dataset, and is shared by copies.
+	 */
+	private StateModTimeSeriesStore lazyStore = null;
+
+	/**
+	 * Dataset used to create columns for a lazy store.
+	 */
+	private StateMod_DataSet lazyDataSet = null;
+
+	/**
+	 * Columns created when first requested, null if the dataset does not have the data type.
+	 * Guarded by synchronizing on the map, since columns may be requested by more than one thread.
+	 */
+	private final EnumMap<StateModTimeSeriesType,StateModTimeSeriesColumn> lazyColumns = new EnumMap<>(StateModTimeSeriesType.class);
+
+	/**
+	 * Whether a lazy store releases the time series objects of the dataset as columns are created,
+	 * set by releaseDataSetTimeSeries().  Guarded by synchronizing on lazyColumns.
+	 */
+	private boolean releaseLazyComponents = false;
+
+	/**
+	 * Identifier registry used for the column station indexes.
+	 */
+	private StateModIdRegistry registry = null;
+
+	/**
+	 * Cache for column values under a memory budget, or null to keep columns in memory.
+	 */
+	private StateModTimeSeriesCache cache = null;
+
+	/**
+	 * Daily columns disaggregated from monthly columns, by monthly data type, null if the monthly column does not exist.
+	 * Copies of the store share the columns for data types that are not changed.
+	 * Guarded by synchronizing on the map.
+	 */
+	private final EnumMap<StateModTimeSeriesType,StateModTimeSeriesColumn> disaggregatedColumns =
+		new EnumMap<>(StateModTimeSeriesType.class);
+
+	/**
+	 * Constructor, used by createFromDataSet().
+	 */
+	private StateModTimeSeriesStore () {
+	}
+
+	/**
+	 * Return a copy of the store that uses the given column in place of the column for the same data type.
+	 * All other columns are shared with this store, so only the replaced column uses additional memory.
+	 * This is used to apply scenario changes without modifying a store that is shared by other runs.
+	 * @param column column to use in the copy, typically a modified copy of a column in this store
+	 * @return new store
+	 */
+	public StateModTimeSeriesStore copyWithColumn ( StateModTimeSeriesColumn column ) {
+		StateModTimeSeriesStore store = new StateModTimeSeriesStore();
+		store.columns.putAll(this.columns);
+		store.columns.put(column.getType(), column);
+		store.monthlyStart = this.monthlyStart;
+		store.monthlyStepCount = this.monthlyStepCount;
+		store.dailyStart = this.dailyStart;
+		store.dailyStepCount = this.dailyStepCount;
+		store.lazyStore = this.lazyStore;
+		store.registry = this.registry;
+		store.cache = this.cache;
+		store.copyDisaggregatedColumns(this, EnumSet.of(column.getType()));
+		return store;
+	}
+
+	/**
+	 * Return a copy of the store for a dataset in which some time series components were read again,
+	 * re-creating only the columns for the changed data types and sharing all other columns.
+	 * The time series components of the changed data types must be complete in the dataset.
+	 * @param dataset dataset with the changed time series
+	 * @param changedTypes data types that use a changed component
+	 * @return new store, or null if the period is not from the control file and the store must be created again
+	 */
+	public StateModTimeSeriesStore copyWithDataSetChanges ( StateMod_DataSet dataset, Set<StateModTimeSeriesType> changedTypes ) {
+		if ( (StateModDataSetLoader.getReadPeriod(dataset, DateTime.PRECISION_MONTH) == null) ||
+			(StateModDataSetLoader.getReadPeriod(dataset, DateTime.PRECISION_DAY) == null) ) {
+			// Period depends on all time series so it may change
+			return null;
+		}
+		StateModTimeSeriesStore store = new StateModTimeSeriesStore();
+		store.monthlyStart = this.monthlyStart;
+		store.monthlyStepCount = this.monthlyStepCount;
+		store.dailyStart = this.dailyStart;
+		store.dailyStepCount = this.dailyStepCount;
+		store.registry = this.registry;
+		store.cache = this.cache;
+		store.copyDisaggregatedColumns(this, changedTypes);
+		for ( Map.Entry<StateModTimeSeriesType,StateModTimeSeriesColumn> entry : this.columns.entrySet() ) {
+			if ( !changedTypes.contains(entry.getKey()) ) {
+				store.columns.put(entry.getKey(), entry.getValue());
+			}
+		}
+		if ( this.lazyStore != null ) {
+			// Changed columns are created from the new dataset when requested
+			store.lazyStore = store;
+			store.lazyDataSet = dataset;
+			synchronized ( this.lazyStore.lazyColumns ) {
+				for ( Map.Entry<StateModTimeSeriesType,StateModTimeSeriesColumn> entry : this.lazyStore.lazyColumns.entrySet() ) {
+					if ( !changedTypes.contains(entry.getKey()) ) {
+						store.lazyColumns.put(entry.getKey(), entry.getValue());
+					}
+				}
+			}
+			return store;
+		}
+		for ( StateModTimeSeriesType type : changedTypes ) {
+			List<TS> tslist = getTimeSeriesForType ( dataset, type );
+			if ( tslist.isEmpty() ) {
+				continue;
+			}
+			if ( store.getStart(type.getIntervalBase()) == null ) {
+				// First time series for the interval - the period must be determined again
+				return null;
+			}
+			store.columns.put(type, store.createColumn(type, tslist));
+		}
+		return store;
+	}
+
+	/**
+	 * Copy the disaggregated columns from another store, except those that use a changed data type.
+	 * @param store store to copy from
+	 * @param changedTypes data types that are changed in this store
+	 */
+	private void copyDisaggregatedColumns ( StateModTimeSeriesStore store, Set<StateModTimeSeriesType> changedTypes ) {
+		synchronized ( store.disaggregatedColumns ) {
+			for ( Map.Entry<StateModTimeSeriesType,StateModTimeSeriesColumn> entry : store.disaggregatedColumns.entrySet() ) {
+				StateModTimeSeriesType monthlyType = entry.getKey();
+				if ( !changedTypes.contains(monthlyType) && !changedTypes.contains(StateModDisaggregator.getDailyType(monthlyType)) ) {
+					this.disaggregatedColumns.put(monthlyType, entry.getValue());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Disaggregate all monthly columns that can be disaggregated to daily (see StateModDisaggregator),
+	 * if the store has a daily period.
+	 * This is done once before a run mode's time loop so that the daily columns are computed once
+	 * and shared by copies of the store, such as the stores of batch scenarios that do not change the data type.
+	 * @param metrics metrics for the run that disaggregates, or null to not record
+	 */
+	public void disaggregate ( StateModMetrics metrics ) {
+		String routine = getClass().getSimpleName() + ".disaggregate";
+		if ( getStepCount(TimeInterval.DAY) == 0 ) {
+			return;
+		}
+		int count = 0;
+		for ( StateModTimeSeriesType monthlyType : StateModDisaggregator.getMonthlyTypes() ) {
+			if ( getDisaggregatedColumn(monthlyType, metrics) != null ) {
+				++count;
+			}
+		}
+		StateModLogger.printStatus(2, routine, "Disaggregated " + count + " monthly data types to daily.");
+	}
+
+	/**
+	 * Return the data types that use any of the components.
+	 * @param compTypes StateMod_DataSet.COMP_* component types
+	 */
+	public static Set<StateModTimeSeriesType> getTypesForComponents ( Set<Integer> compTypes ) {
+		Set<StateModTimeSeriesType> types = EnumSet.noneOf(StateModTimeSeriesType.class);
+		for ( StateModTimeSeriesType type : StateModTimeSeriesType.values() ) {
+			for ( int compType : type.getComponentTypes() ) {
+				if ( compTypes.contains(compType) ) {
+					types.add(type);
+					break;
+				}
+			}
+		}
+		return types;
+	}
+
+	/**
+	 * Create a column from the time series for a data type, using the store cache.
+	 * @param type data type
+	 * @param tslist time series for the data type, one per station
+	 */
+	private StateModTimeSeriesColumn createColumn ( StateModTimeSeriesType type, List<TS> tslist ) {
+		return createColumn(type, tslist, this.cache);
+	}
+
+	/**
+	 * Create a column from the time series for a data type.
+	 * @param type data type
+	 * @param tslist time series for the data type, one per station
+	 * @param cache cache for the column values, or null to keep the values in memory
+	 */
+	private StateModTimeSeriesColumn createColumn ( StateModTimeSeriesType type, List<TS> tslist, StateModTimeSeriesCache cache ) {
+		StateModStationIndex stationIndex = new StateModStationIndex(this.registry, tslist.size());
+		for ( TS ts : tslist ) {
+			stationIndex.add(ts.getLocation());
+		}
+		int intervalBase = type.getIntervalBase();
+		StateModTimeSeriesColumn column = new StateModTimeSeriesColumn(type, stationIndex, getStepCount(intervalBase), cache);
+		// Fill a block at a time so that each block of a cached column is written once
+		DateTime blockStart = getStart(intervalBase);
+		int stationCount = stationIndex.size();
+		int stepCount = column.getStepCount();
+		int blockSteps = column.getBlockSteps();
+		for ( int block = 0; block < column.getBlockCount(); block++ ) {
+			int steps = Math.min(blockSteps, stepCount - block*blockSteps);
+			double [] values = column.createBlock(block);
+			for ( int station = 0; station < stationCount; station++ ) {
+				TS ts = tslist.get(station);
+				DateTime dt = new DateTime(blockStart);
+				for ( int step = 0, pos = station; step < steps; step++, pos += stationCount ) {
+					double value = ts.getDataValue(dt);
+					if ( !ts.isDataMissing(value) ) {
+						values[pos] = value;
+					}
+					StateModTimeSeriesUtil.addStep(dt, intervalBase);
+				}
+			}
+			column.setBlock(block, values);
+			for ( int step = 0; step < steps; step++ ) {
+				StateModTimeSeriesUtil.addStep(blockStart, intervalBase);
+			}
+		}
+		return column;
+	}
+
+	/**
+	 * Create the store from a dataset that has been read.
+	 * @param dataset the dataset containing time series components
+	 * @param registry identifier registry for the dataset, used for the column station indexes
+	 * @param cache cache for column values under a memory budget, or null to keep columns in memory
+	 * @return new store
+	 */
+	public static StateModTimeSeriesStore createFromDataSet ( StateMod_DataSet dataset, StateModIdRegistry registry,
+		StateModTimeSeriesCache cache ) {
+		String routine = StateModTimeSeriesStore.class.getSimpleName() + ".createFromDataSet";
+		StateModTimeSeriesStore store = new StateModTimeSeriesStore();
+		store.registry = registry;
+		store.cache = cache;
+		if ( dataset instanceof StateModLazyDataSet ) {
+			DateTime [] monthlyPeriod = StateModDataSetLoader.getReadPeriod(dataset, DateTime.PRECISION_MONTH);
+			DateTime [] dailyPeriod = StateModDataSetLoader.getReadPeriod(dataset, DateTime.PRECISION_DAY);
+			if ( (monthlyPeriod != null) && (dailyPeriod != null) ) {
+				// The period is known without reading time series so columns can be created when requested
+				store.monthlyStart = monthlyPeriod[0];
+				store.monthlyStepCount = StateModTimeSeriesUtil.countSteps(monthlyPeriod[0], monthlyPeriod[1], TimeInterval.MONTH);
+				store.dailyStart = dailyPeriod[0];
+				store.dailyStepCount = StateModTimeSeriesUtil.countSteps(dailyPeriod[0], dailyPeriod[1], TimeInterval.DAY);
+				store.lazyStore = store;
+				store.lazyDataSet = dataset;
+				StateModLogger.printStatus(2, routine, "Created time series store - columns will be created when first used.");
+				return store;
+			}
+			// Otherwise the period depends on all time series so they are read now
+		}
+		// Determine the time series for each type
+		EnumMap<StateModTimeSeriesType,List<TS>> tsForType = new EnumMap<>(StateModTimeSeriesType.class);
+		for ( StateModTimeSeriesType type : StateModTimeSeriesType.values() ) {
+			List<TS> tslist = getTimeSeriesForType ( dataset, type );
+			if ( !tslist.isEmpty() ) {
+				tsForType.put(type, tslist);
+			}
+		}
+		// Determine the period for each interval
+		DateTime [] monthlyPeriod = determinePeriod ( dataset, tsForType, TimeInterval.MONTH );
+		if ( monthlyPeriod != null ) {
+			store.monthlyStart = monthlyPeriod[0];
+			store.monthlyStepCount = StateModTimeSeriesUtil.countSteps(monthlyPeriod[0], monthlyPeriod[1], TimeInterval.MONTH);
+		}
+		DateTime [] dailyPeriod = determinePeriod ( dataset, tsForType, TimeInterval.DAY );
+		if ( dailyPeriod != null ) {
+			store.dailyStart = dailyPeriod[0];
+			store.dailyStepCount = StateModTimeSeriesUtil.countSteps(dailyPeriod[0], dailyPeriod[1], TimeInterval.DAY);
+		}
+		// Fill the columns
+		for ( Map.Entry<StateModTimeSeriesType,List<TS>> entry : tsForType.entrySet() ) {
+			store.columns.put(entry.getKey(), store.createColumn(entry.getKey(), entry.getValue()));
+		}
+		StateModLogger.printStatus(2, routine, "Created time series store with " + store.columns.size() + " data types, " +
+			store.getSizeBytes() + " bytes.");
+		return store;
+	}
+
+	/**
+	 * Determine the period for an interval, using the control file period if available,
+	 * and otherwise the overall period of the time series.
+	 * @return the start and end date/time, or null if there are no time series for the interval
+	 */
+	private static DateTime [] determinePeriod ( StateMod_DataSet dataset,
+		EnumMap<StateModTimeSeriesType,List<TS>> tsForType, int intervalBase ) {
+		DateTime start = null;
+		DateTime end = null;
+		for ( Map.Entry<StateModTimeSeriesType,List<TS>> entry : tsForType.entrySet() ) {
+			if ( entry.getKey().getIntervalBase() != intervalBase ) {
+				continue;
+			}
+			for ( TS ts : entry.getValue() ) {
+				if ( (ts.getDate1() != null) && ((start == null) || ts.getDate1().lessThan(start)) ) {
+					start = new DateTime(ts.getDate1());
+				}
+				if ( (ts.getDate2() != null) && ((end == null) || ts.getDate2().greaterThan(end)) ) {
+					end = new DateTime(ts.getDate2());
+				}
+			}
+		}
+		if ( start == null ) {
+			// No time series for the interval
+			return null;
+		}
+		DateTime [] controlPeriod = StateModDataSetLoader.getReadPeriod(dataset, StateModTimeSeriesUtil.getPrecision(intervalBase));
+		if ( controlPeriod != null ) {
+			return controlPeriod;
+		}
+		return new DateTime[] { start, end };
+	}
+
+	/**
+	 * Create a column in memory from time series that are not in the dataset, for example hydrology traces,
+	 * for the store period and identifier registry.  The column can be used with copyWithColumn().
+	 * The column is not added to the store or the cache, so it is released when no longer used.
+	 * @param type data type
+	 * @param tslist time series for the data type, one per station
+	 * @return new column
+	 */
+	public StateModTimeSeriesColumn createMemoryColumn ( StateModTimeSeriesType type, List<TS> tslist ) {
+		return createColumn(type, tslist, null);
+	}
+
+	/**
+	 * Return the cache for column values, or null if columns are kept in memory.
+	 * The cache is shared by copies of the store.
+	 */
+	public StateModTimeSeriesCache getCache () {
+		return this.cache;
+	}
+
+	/**
+	 * Return the column for a data type, or null if the dataset does not have the data type.
+	 * @param type data type
+	 */
+	public StateModTimeSeriesColumn getColumn ( StateModTimeSeriesType type ) {
+		StateModTimeSeriesColumn column = this.columns.get(type);
+		if ( (column == null) && (this.lazyStore != null) ) {
+			column = this.lazyStore.getLazyColumn(type);
+		}
+		return column;
+	}
+
+	/**
+	 * Return a column for a lazy store, creating it if it has not been requested.
+	 * @param type data type
+	 * @return the column, or null if the dataset does not have the data type
+	 */
+	private StateModTimeSeriesColumn getLazyColumn ( StateModTimeSeriesType type ) {
+		synchronized ( this.lazyColumns ) {
+			if ( this.lazyColumns.containsKey(type) ) {
+				return this.lazyColumns.get(type);
+			}
+			List<TS> tslist = getTimeSeriesForType ( this.lazyDataSet, type );
+			StateModTimeSeriesColumn column = tslist.isEmpty() ? null : createColumn(type, tslist);
+			this.lazyColumns.put(type, column);
+			if ( this.releaseLazyComponents ) {
+				releaseLazyComponents(type);
+			}
+			return column;
+		}
+	}
+
+	/**
+	 * Release the columns of a copy of a store that are not shared with the store it was copied from
+	 * (see StateModTimeSeriesColumn.release()), for example when a scenario run is done,
+	 * so that a cache can use the space of the columns for later copies.
+	 * The disaggregated columns computed for the copy are also released.  The copy must not be used after the call.
+	 * @param baseStore store that this store was copied from, which is not modified
+	 */
+	public void releaseColumns ( StateModTimeSeriesStore baseStore ) {
+		if ( baseStore == this ) {
+			return;
+		}
+		for ( Map.Entry<StateModTimeSeriesType,StateModTimeSeriesColumn> entry : this.columns.entrySet() ) {
+			if ( baseStore.findColumn(entry.getKey()) != entry.getValue() ) {
+				entry.getValue().release();
+			}
+		}
+		synchronized ( this.disaggregatedColumns ) {
+			for ( Map.Entry<StateModTimeSeriesType,StateModTimeSeriesColumn> entry : this.disaggregatedColumns.entrySet() ) {
+				StateModTimeSeriesColumn baseColumn;
+				synchronized ( baseStore.disaggregatedColumns ) {
+					baseColumn = baseStore.disaggregatedColumns.get(entry.getKey());
+				}
+				if ( (entry.getValue() != null) && (baseColumn != entry.getValue()) ) {
+					entry.getValue().release();
+				}
+			}
+			this.disaggregatedColumns.clear();
+		}
+		this.columns.clear();
+	}
+
+	/**
+	 * Return the column for a data type if it has been created, without creating a column of a lazy store.
+	 * @param type data type
+	 */
+	private StateModTimeSeriesColumn findColumn ( StateModTimeSeriesType type ) {
+		StateModTimeSeriesColumn column = this.columns.get(type);
+		if ( (column == null) && (this.lazyStore != null) ) {
+			synchronized ( this.lazyStore.lazyColumns ) {
+				column = this.lazyStore.lazyColumns.get(type);
+			}
+		}
+		return column;
+	}
+
+	/**
+	 * Release the components of a data type that has a column in a lazy store,
+	 * if they are not needed for data types that do not have a column yet.
+	 * Must be called while synchronized on lazyColumns.
+	 * @param type data type that has a column
+	 */
+	private void releaseLazyComponents ( StateModTimeSeriesType type ) {
+		for ( int compType : type.getComponentTypes() ) {
+			boolean needed = false;
+			for ( StateModTimeSeriesType otherType : StateModTimeSeriesType.values() ) {
+				if ( !this.lazyColumns.containsKey(otherType) && usesComponent(otherType, compType) ) {
+					needed = true;
+					break;
+				}
+			}
+			if ( !needed ) {
+				releaseComponent(this.lazyDataSet, compType);
+			}
+		}
+	}
+
+	/**
+	 * Return the size of the column values in bytes.
+	 */
+	public long getSizeBytes () {
+		long size = 0;
+		for ( StateModTimeSeriesColumn column : this.columns.values() ) {
+			size += column.getSizeBytes();
+		}
+		if ( this.lazyStore != null ) {
+			synchronized ( this.lazyStore.lazyColumns ) {
+				for ( Map.Entry<StateModTimeSeriesType,StateModTimeSeriesColumn> entry : this.lazyStore.lazyColumns.entrySet() ) {
+					if ( (entry.getValue() != null) && !this.columns.containsKey(entry.getKey()) ) {
+						size += entry.getValue().getSizeBytes();
+					}
+				}
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * Return the daily column disaggregated from a monthly column, computing it if it has not been computed.
+	 * @param monthlyType monthly data type, one of StateModDisaggregator.getMonthlyTypes()
+	 * @param metrics metrics for the run, in which the time to disaggregate is recorded if the column is computed,
+	 * or null to not record
+	 * @return daily column with the stations of the monthly column,
+	 * or null if the store does not have the monthly column or a daily period
+	 */
+	@SuppressWarnings("try")
+	public StateModTimeSeriesColumn getDisaggregatedColumn ( StateModTimeSeriesType monthlyType, StateModMetrics metrics ) {
+		synchronized ( this.disaggregatedColumns ) {
+			if ( this.disaggregatedColumns.containsKey(monthlyType) ) {
+				return this.disaggregatedColumns.get(monthlyType);
+			}
+			StateModTimeSeriesColumn monthlyColumn = getColumn(monthlyType);
+			StateModTimeSeriesColumn dailyColumn = null;
+			if ( (monthlyColumn != null) && (getStepCount(TimeInterval.DAY) > 0) ) {
+				try ( StateModMetrics.Timer timer = StateModMetrics.startPhase(metrics, "Disaggregate " + monthlyType) ) {
+					dailyColumn = StateModDisaggregator.disaggregate(monthlyColumn, getStart(TimeInterval.MONTH),
+						getColumn(StateModDisaggregator.getDailyType(monthlyType)), getStart(TimeInterval.DAY),
+						getStepCount(TimeInterval.DAY), this.cache);
+				}
+			}
+			this.disaggregatedColumns.put(monthlyType, dailyColumn);
+			return dailyColumn;
+		}
+	}
+
+	/**
+	 * Return the first date/time of the store for an interval, or null if no data for the interval.
+	 * A copy is returned so that the caller can increment it.
+	 * @param intervalBase TimeInterval.MONTH or TimeInterval.DAY
+	 */
+	public DateTime getStart ( int intervalBase ) {
+		DateTime start = (intervalBase == TimeInterval.DAY) ? this.dailyStart : this.monthlyStart;
+		if ( start == null ) {
+			return null;
+		}
+		return new DateTime(start);
+	}
+
+	/**
+	 * Return the number of time steps for an interval.
+	 * @param intervalBase TimeInterval.MONTH or TimeInterval.DAY
+	 */
+	public int getStepCount ( int intervalBase ) {
+		return (intervalBase == TimeInterval.DAY) ? this.dailyStepCount : this.monthlyStepCount;
+	}
+
+	/**
+	 * Return the time series from the dataset for a data type, one per station.
+	 * @param dataset dataset to process
+	 * @param type data type
+	 * @return list of time series, guaranteed to be non-null
+	 */
+	private static List<TS> getTimeSeriesForType ( StateMod_DataSet dataset, StateModTimeSeriesType type ) {
+		List<TS> tslist = new ArrayList<>();
+		// Count of time series for each location, used to handle files with more than one time series per station
+		Map<String,Integer> occurrences = new HashMap<>();
+		Map<String,Boolean> added = new HashMap<>();
+		for ( int compType : type.getComponentTypes() ) {
+			List<?> data = StateModDataSetLoader.getComponentData(dataset, compType);
+			if ( data == null ) {
+				continue;
+			}
+			occurrences.clear();
+			for ( Object o : data ) {
+				TS ts = (TS)o;
+				String id = ts.getLocation();
+				Integer occurrence = occurrences.get(id);
+				occurrence = (occurrence == null) ? 0 : (occurrence + 1);
+				occurrences.put(id, occurrence);
+				if ( (occurrence == type.getOccurrence()) && (added.get(id) == null) ) {
+					// Components that share a file (gage and estimate baseflows) only add a station once
+					tslist.add(ts);
+					added.put(id, Boolean.TRUE);
+				}
+			}
+		}
+		return tslist;
+	}
+
+	/**
+	 * Release the time series objects in the dataset components that are held in the store,
+	 * so that the memory for time series objects can be reclaimed.  The components are emptied and the
+	 * stations are disconnected from the time series, so the store is the only copy of the data.
+	 * This should only be called by the owner of the dataset, since other users of the dataset will no longer
+	 * find the time series.  For a lazy store, the components of columns that are created later are also released.
+	 * @param dataset dataset to process
+	 */
+	public void releaseDataSetTimeSeries ( StateMod_DataSet dataset ) {
+		for ( StateModTimeSeriesType type : this.columns.keySet() ) {
+			for ( int compType : type.getComponentTypes() ) {
+				releaseComponent(dataset, compType);
+			}
+		}
+		if ( (this.lazyStore != null) && (this.lazyStore.lazyDataSet == dataset) ) {
+			synchronized ( this.lazyStore.lazyColumns ) {
+				this.lazyStore.releaseLazyComponents = true;
+				for ( StateModTimeSeriesType type : this.lazyStore.lazyColumns.keySet() ) {
+					this.lazyStore.releaseLazyComponents(type);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Release the time series objects for a component, removing them from the component and disconnecting
+	 * them from the stations, so that nothing in the dataset refers to them.
+	 */
+	private static void releaseComponent ( StateMod_DataSet dataset, int compType ) {
+		DataSetComponent comp = dataset.getComponentForComponentType(compType);
+		if ( comp != null ) {
+			comp.setData(new ArrayList<TS>());
+		}
+		StateModDataSetLoader.disconnectTimeSeries(dataset, compType);
+	}
+
+	/**
+	 * Return whether a data type uses a component.
+	 */
+	private static boolean usesComponent ( StateModTimeSeriesType type, int compType ) {
+		for ( int typeCompType : type.getComponentTypes() ) {
+			if ( typeCompType == compType ) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
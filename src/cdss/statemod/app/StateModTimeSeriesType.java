@@ -0,0 +1,225 @@
+// StateModTimeSeriesType - dataset time series data types held in the columnar time series store
+
+/* NoticeStart
+
+StateMod Java
+StateMod Java is a part of Colorado's Decision Support Systems (CDSS)
+Copyright (C) 2019 Colorado Department of Natural Resources
+
+StateMod Java is free software:  you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+StateMod Java is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+    along with StateMod Java.  If not, see <https://www.gnu.org/licenses/>.
+
+NoticeEnd */
+
+package cdss.statemod.app;
+
+import DWR.StateMod.StateMod_DataSet;
+import RTi.Util.Time.TimeInterval;
+
+/**
+This enumeration stores the dataset time series data types that are held in the time series store.
+Each type is filled from one or more dataset components.
+*/
+public enum StateModTimeSeriesType
+{
+	/**
+	 * Historical streamflow, monthly.
+	 */
+	STREAMFLOW_HISTORICAL_MONTHLY ( "StreamflowHistoricalMonthly", TimeInterval.MONTH, 0,
+		StateMod_DataSet.COMP_STREAMGAGE_HISTORICAL_TS_MONTHLY ),
+	/**
+	 * Historical streamflow, daily.
+	 */
+	STREAMFLOW_HISTORICAL_DAILY ( "StreamflowHistoricalDaily", TimeInterval.DAY, 0,
+		StateMod_DataSet.COMP_STREAMGAGE_HISTORICAL_TS_DAILY ),
+	/**
+	 * Baseflow (natural flow) at stream gages and stream estimate stations, monthly.
+	 */
+	BASEFLOW_MONTHLY ( "BaseflowMonthly", TimeInterval.MONTH, 0,
+		StateMod_DataSet.COMP_STREAMGAGE_NATURAL_FLOW_TS_MONTHLY,
+		StateMod_DataSet.COMP_STREAMESTIMATE_NATURAL_FLOW_TS_MONTHLY ),
+	/**
+	 * Baseflow (natural flow) at stream gages and stream estimate stations, daily.
+	 */
+	BASEFLOW_DAILY ( "BaseflowDaily", TimeInterval.DAY, 0,
+		StateMod_DataSet.COMP_STREAMGAGE_NATURAL_FLOW_TS_DAILY,
+		StateMod_DataSet.COMP_STREAMESTIMATE_NATURAL_FLOW_TS_DAILY ),
+	/**
+	 * Historical diversions, monthly.
+	 */
+	DIVERSION_HISTORICAL_MONTHLY ( "DiversionHistoricalMonthly", TimeInterval.MONTH, 0,
+		StateMod_DataSet.COMP_DIVERSION_TS_MONTHLY ),
+	/**
+	 * Historical diversions, daily.
+	 */
+	DIVERSION_HISTORICAL_DAILY ( "DiversionHistoricalDaily", TimeInterval.DAY, 0,
+		StateMod_DataSet.COMP_DIVERSION_TS_DAILY ),
+	/**
+	 * Diversion demand, monthly.
+	 */
+	DEMAND_MONTHLY ( "DemandMonthly", TimeInterval.MONTH, 0,
+		StateMod_DataSet.COMP_DEMAND_TS_MONTHLY ),
+	/**
+	 * Diversion demand, daily.
+	 */
+	DEMAND_DAILY ( "DemandDaily", TimeInterval.DAY, 0,
+		StateMod_DataSet.COMP_DEMAND_TS_DAILY ),
+	/**
+	 * Instream flow demand, monthly.
+	 */
+	INSTREAM_DEMAND_MONTHLY ( "InstreamDemandMonthly", TimeInterval.MONTH, 0,
+		StateMod_DataSet.COMP_INSTREAM_DEMAND_TS_MONTHLY ),
+	/**
+	 * Instream flow demand, daily.
+	 */
+	INSTREAM_DEMAND_DAILY ( "InstreamDemandDaily", TimeInterval.DAY, 0,
+		StateMod_DataSet.COMP_INSTREAM_DEMAND_TS_DAILY ),
+	/**
+	 * Historical reservoir content, monthly.
+	 */
+	RESERVOIR_CONTENT_MONTHLY ( "ReservoirContentMonthly", TimeInterval.MONTH, 0,
+		StateMod_DataSet.COMP_RESERVOIR_CONTENT_TS_MONTHLY ),
+	/**
+	 * Historical reservoir content, daily.
+	 */
+	RESERVOIR_CONTENT_DAILY ( "ReservoirContentDaily", TimeInterval.DAY, 0,
+		StateMod_DataSet.COMP_RESERVOIR_CONTENT_TS_DAILY ),
+	/**
+	 * Reservoir minimum target, monthly (first time series for a reservoir in the target file).
+	 */
+	RESERVOIR_TARGET_MIN_MONTHLY ( "ReservoirTargetMinMonthly", TimeInterval.MONTH, 0,
+		StateMod_DataSet.COMP_RESERVOIR_TARGET_TS_MONTHLY ),
+	/**
+	 * Reservoir maximum target, monthly (second time series for a reservoir in the target file).
+	 */
+	RESERVOIR_TARGET_MAX_MONTHLY ( "ReservoirTargetMaxMonthly", TimeInterval.MONTH, 1,
+		StateMod_DataSet.COMP_RESERVOIR_TARGET_TS_MONTHLY ),
+	/**
+	 * Reservoir minimum target, daily.
+	 */
+	RESERVOIR_TARGET_MIN_DAILY ( "ReservoirTargetMinDaily", TimeInterval.DAY, 0,
+		StateMod_DataSet.COMP_RESERVOIR_TARGET_TS_DAILY ),
+	/**
+	 * Reservoir maximum target, daily.
+	 */
+	RESERVOIR_TARGET_MAX_DAILY ( "ReservoirTargetMaxDaily", TimeInterval.DAY, 1,
+		StateMod_DataSet.COMP_RESERVOIR_TARGET_TS_DAILY ),
+	/**
+	 * Well demand, monthly.
+	 */
+	WELL_DEMAND_MONTHLY ( "WellDemandMonthly", TimeInterval.MONTH, 0,
+		StateMod_DataSet.COMP_WELL_DEMAND_TS_MONTHLY ),
+	/**
+	 * Well demand, daily.
+	 */
+	WELL_DEMAND_DAILY ( "WellDemandDaily", TimeInterval.DAY, 0,
+		StateMod_DataSet.COMP_WELL_DEMAND_TS_DAILY ),
+	/**
+	 * Historical well pumping, monthly.
+	 */
+	WELL_PUMPING_MONTHLY ( "WellPumpingMonthly", TimeInterval.MONTH, 0,
+		StateMod_DataSet.COMP_WELL_PUMPING_TS_MONTHLY ),
+	/**
+	 * Historical well pumping, daily.
+	 */
+	WELL_PUMPING_DAILY ( "WellPumpingDaily", TimeInterval.DAY, 0,
+		StateMod_DataSet.COMP_WELL_PUMPING_TS_DAILY );
+
+	/**
+	 * The name that should be displayed in reports.
+	 */
+	private final String displayName;
+
+	/**
+	 * Time series interval base, TimeInterval.MONTH or TimeInterval.DAY.
+	 */
+	private final int intervalBase;
+
+	/**
+	 * Which time series to use when a component has more than one time series for a station (0 = first).
+	 */
+	private final int occurrence;
+
+	/**
+	 * Dataset component types that provide the time series, in order of precedence.
+	 */
+	private final int [] compTypes;
+
+	/**
+	 * Constructor.
+	 * @param displayName name that should be displayed in reports.
+	 * @param intervalBase TimeInterval.MONTH or TimeInterval.DAY.
+	 * @param occurrence which time series to use for a station, 0 for the first.
+	 * @param compTypes dataset component types that provide the time series.
+	 */
+	private StateModTimeSeriesType ( String displayName, int intervalBase, int occurrence, int ... compTypes ) {
+		this.displayName = displayName;
+		this.intervalBase = intervalBase;
+		this.occurrence = occurrence;
+		this.compTypes = compTypes;
+	}
+
+	/**
+	 * Return the dataset component types that provide the time series.
+	 */
+	public int [] getComponentTypes () {
+		return this.compTypes.clone();
+	}
+
+	/**
+	 * Return the interval base, TimeInterval.MONTH or TimeInterval.DAY.
+	 */
+	public int getIntervalBase () {
+		return this.intervalBase;
+	}
+
+	/**
+	 * Return which time series to use when a component has more than one time series for a station.
+	 */
+	public int getOccurrence () {
+		return this.occurrence;
+	}
+
+	/**
+	 * Return whether the type is daily.
+	 */
+	public boolean isDaily () {
+		return this.intervalBase == TimeInterval.DAY;
+	}
+
+	/**
+	 * Return the display name.
+	 * @return the display name.
+	 */
+	@Override
+	public String toString() {
+		return displayName;
+	}
+
+	/**
+	 * Return the enumeration value given a string name (case-independent).
+	 * @return the enumeration value given a string name (case-independent), or null if not matched.
+	 */
+	public static StateModTimeSeriesType valueOfIgnoreCase(String name)
+	{
+		if ( name == null ) {
+			return null;
+		}
+		for ( StateModTimeSeriesType t : values() ) {
+			if ( name.equalsIgnoreCase(t.toString()) ) {
+				return t;
+			}
+		}
+		return null;
+	}
+}
@@ -0,0 +1,147 @@
+// StateModTimeSeriesUtil - utility methods to move time series data to and from primitive arrays
+
+/* NoticeStart
+
+StateMod Java
+StateMod Java is a part of Colorado's Decision Support Systems (CDSS)
+Copyright (C) 2019 Colorado Department of Natural Resources
+
+StateMod Java is free software:  you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+StateMod Java is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+    along with StateMod Java.  If not, see <https://www.gnu.org/licenses/>.
+
+NoticeEnd */
+
+package cdss.statemod.app;
+
+import java.nio.DoubleBuffer;
+
+import RTi.TS.DayTS;
+import RTi.TS.MonthTS;
+import RTi.TS.TS;
+import RTi.Util.Time.DateTime;
+import RTi.Util.Time.TimeInterval;
+
+/**
+ * Utility methods to move time series data to and from primitive arrays.
+ * Only monthly and daily time series are handled, which are the intervals used by StateMod.
+ */
+public class StateModTimeSeriesUtil {
+
+	/**
+	 * Add one time step to a date/time.
+	 * @param dt date/time to increment
+	 * @param intervalBase TimeInterval.MONTH or TimeInterval.DAY
+	 */
+	public static void addStep ( DateTime dt, int intervalBase ) {
+		if ( intervalBase == TimeInterval.DAY ) {
+			dt.addDay(1);
+		}
+		else {
+			dt.addMonth(1);
+		}
+	}
+
+	/**
+	 * Return the number of time steps from date1 to date2, inclusive.
+	 * @param date1 first date/time
+	 * @param date2 last date/time
+	 * @param intervalBase TimeInterval.MONTH or TimeInterval.DAY
+	 */
+	public static int countSteps ( DateTime date1, DateTime date2, int intervalBase ) {
+		if ( (date1 == null) || (date2 == null) ) {
+			return 0;
+		}
+		if ( intervalBase == TimeInterval.MONTH ) {
+			// Can compute directly
+			int count = (date2.getYear() - date1.getYear())*12 + (date2.getMonth() - date1.getMonth()) + 1;
+			return count < 0 ? 0 : count;
+		}
+		int count = 0;
+		DateTime dt = new DateTime(date1);
+		while ( dt.lessThanOrEqualTo(date2) ) {
+			++count;
+			addStep(dt, intervalBase);
+		}
+		return count;
+	}
+
+	/**
+	 * Create an empty time series with the same interval as the requested interval base.
+	 * @param intervalBase TimeInterval.MONTH or TimeInterval.DAY
+	 * @return new time series
+	 */
+	public static TS newTimeSeries ( int intervalBase ) {
+		if ( intervalBase == TimeInterval.DAY ) {
+			return new DayTS();
+		}
+		else {
+			return new MonthTS();
+		}
+	}
+
+	/**
+	 * Return the DateTime precision for an interval base.
+	 * @param intervalBase TimeInterval.MONTH or TimeInterval.DAY
+	 */
+	public static int getPrecision ( int intervalBase ) {
+		if ( intervalBase == TimeInterval.DAY ) {
+			return DateTime.PRECISION_DAY;
+		}
+		else {
+			return DateTime.PRECISION_MONTH;
+		}
+	}
+
+	/**
+	 * Copy time series values into an array.
+	 * Missing values are copied as is so that the array can be converted back to an identical time series.
+	 * @param ts time series to copy
+	 * @param date1 first date/time to copy
+	 * @param values array to fill, starting at offset
+	 * @param offset position in the array for date1
+	 * @param count number of values to copy
+	 */
+	public static void copyToArray ( TS ts, DateTime date1, double [] values, int offset, int count ) {
+		int intervalBase = ts.getDataIntervalBase();
+		DateTime dt = new DateTime(date1);
+		for ( int i = 0; i < count; i++ ) {
+			values[offset + i] = ts.getDataValue(dt);
+			addStep(dt, intervalBase);
+		}
+	}
+
+	/**
+	 * Allocate the data space of a time series and fill it from a buffer with one value per time step of its period.
+	 * The data space is allocated with the missing value, so only the values that are not missing are set.
+	 * @param values buffer positioned at the value for date1, which is positioned after the value for date2 on return
+	 * @param ts time series to fill, which must have its period and missing value set,
+	 * and is not allocated if it does not have a period
+	 */
+	public static void fillFromBuffer ( DoubleBuffer values, TS ts ) {
+		int intervalBase = ts.getDataIntervalBase();
+		DateTime date1 = ts.getDate1();
+		int count = countSteps(date1, ts.getDate2(), intervalBase);
+		if ( count == 0 ) {
+			return;
+		}
+		ts.allocateDataSpace(ts.getMissing());
+		DateTime dt = new DateTime(date1);
+		for ( int i = 0; i < count; i++ ) {
+			double value = values.get();
+			if ( !ts.isDataMissing(value) ) {
+				ts.setDataValue(dt, value);
+			}
+			addStep(dt, intervalBase);
+		}
+	}
+}
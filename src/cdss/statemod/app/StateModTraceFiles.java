@@ -0,0 +1,152 @@
+// StateModTraceFiles - hydrology traces read from baseflow files
+
+
+/* NoticeStart
+
+StateMod Java
+StateMod Java is a part of Colorado's Decision Support Systems (CDSS)
+Copyright (C) 2019 Colorado Department of Natural Resources
+
+StateMod Java is free software:  you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+StateMod Java is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+    along with StateMod Java.  If not, see <https://www.gnu.org/licenses/>.
+
+NoticeEnd */
+
+package cdss.statemod.app;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import DWR.StateMod.StateMod_TS;
+import RTi.TS.TS;
+import RTi.Util.Time.DateTime;
+import RTi.Util.Time.TimeInterval;
+
+/**
+ * Hydrology traces read from StateMod monthly baseflow files (*.xbm), for example synthetic streamflow traces
+ * generated by a stochastic hydrology model.  Each file is read when its member starts, for the dataset period.
+ * <p>
+ * Trace files are listed in a manifest file with one file per line:
+ * <pre>
+ * # Lines starting with # are comments.
+ * # Relative paths are relative to the folder of the manifest.
+ * traces/trace001.xbm
+ * traces/trace002.xbm
+ * </pre>
+ */
+public class StateModTraceFiles implements StateModEnsembleTraces {
+
+	/**
+	 * Trace files, as absolute paths.
+	 */
+	private final List<String> files;
+
+	/**
+	 * Constructor.
+	 * @param files trace files, as absolute paths or relative to the current folder
+	 */
+	public StateModTraceFiles ( List<String> files ) {
+		if ( files.isEmpty() ) {
+			throw new IllegalArgumentException("No trace files are listed.");
+		}
+		this.files = new ArrayList<>(files);
+	}
+
+	/**
+	 * Create the monthly baseflow column for a trace by reading the trace file.
+	 * @param trace trace number, 0 to getTraceCount()-1
+	 * @param store base time series store for the dataset, which must not be modified
+	 * @return baseflow column for the trace, in memory
+	 * @exception IOException if the trace file cannot be read
+	 */
+	@Override
+	public StateModTimeSeriesColumn createTrace ( int trace, StateModTimeSeriesStore store ) throws IOException {
+		String file = this.files.get(trace);
+		DateTime start = store.getStart(TimeInterval.MONTH);
+		if ( start == null ) {
+			throw new IllegalArgumentException("Dataset does not have a monthly period for trace \"" + file + "\".");
+		}
+		DateTime end = new DateTime(start);
+		for ( int step = 1; step < store.getStepCount(TimeInterval.MONTH); step++ ) {
+			StateModTimeSeriesUtil.addStep(end, TimeInterval.MONTH);
+		}
+		List<TS> tslist;
+		try {
+			tslist = StateMod_TS.readTimeSeriesList(file, start, end, null, true);
+		}
+		catch ( Exception e ) {
+			throw new IOException("Error reading trace file \"" + file + "\".", e);
+		}
+		if ( (tslist == null) || tslist.isEmpty() ) {
+			throw new IOException("Trace file \"" + file + "\" does not have any time series.");
+		}
+		return store.createMemoryColumn(StateModTimeSeriesType.BASEFLOW_MONTHLY, tslist);
+	}
+
+	/**
+	 * Return the trace files.
+	 */
+	public List<String> getFiles () {
+		return new ArrayList<>(this.files);
+	}
+
+	/**
+	 * Return the number of traces.
+	 */
+	@Override
+	public int getTraceCount () {
+		return this.files.size();
+	}
+
+	/**
+	 * Read the trace files from a manifest file.
+	 * @param manifestFile manifest file listing the trace files
+	 * @return trace files
+	 * @exception IOException if the manifest cannot be read
+	 * @exception IllegalArgumentException if the manifest does not list any trace files
+	 */
+	public static StateModTraceFiles readManifest ( String manifestFile ) throws IOException {
+		File manifestFolder = new File(manifestFile).getAbsoluteFile().getParentFile();
+		List<String> files = new ArrayList<>();
+		try ( BufferedReader in = new BufferedReader(new FileReader(manifestFile)) ) {
+			String line;
+			while ( (line = in.readLine()) != null ) {
+				line = line.trim();
+				if ( line.isEmpty() || line.startsWith("#") ) {
+					continue;
+				}
+				File file = new File(line);
+				if ( !file.isAbsolute() ) {
+					file = new File(manifestFolder, line);
+				}
+				files.add(file.getPath());
+			}
+		}
+		if ( files.isEmpty() ) {
+			throw new IllegalArgumentException("Manifest \"" + manifestFile + "\" does not list any trace files.");
+		}
+		return new StateModTraceFiles(files);
+	}
+
+	/**
+	 * Return a description of the traces, for logging.
+	 */
+	@Override
+	public String toString () {
+		return this.files.size() + " traces read from baseflow files";
+	}
+}
@@ -0,0 +1,118 @@
+// StateModCheckEngineTest - test the check engine result cache
+
+/* NoticeStart
+
+StateMod Java
+StateMod Java is a part of Colorado's Decision Support Systems (CDSS)
+Copyright (C) 2019 Colorado Department of Natural Resources
+
+StateMod Java is free software:  you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+StateMod Java is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+    along with StateMod Java.  If not, see <https://www.gnu.org/licenses/>.
+
+NoticeEnd */
+
+package cdss.statemod.app;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import DWR.StateMod.StateMod_DataSet;
+
+/**
+ * Test StateModCheckEngine.
+ */
+public class StateModCheckEngineTest {
+
+	/**
+	 * Folder for the dataset and cache files, deleted after each test.
+	 */
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	/**
+	 * Return the number of default rules that read a component.
+	 */
+	private static int countRulesReading ( int compType ) {
+		int count = 0;
+		for ( StateModCheckRule rule : StateModCheckEngine.getDefaultRules() ) {
+			for ( int ruleCompType : rule.getComponentTypes() ) {
+				if ( ruleCompType == compType ) {
+					++count;
+					break;
+				}
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Run the default rules with a new engine and return the number of rules whose results were from the cache.
+	 */
+	private int runCheck ( StateMod_DataSet dataset, StateModTimeSeriesStore store ) {
+		StateModCheckEngine engine = new StateModCheckEngine(dataset, store);
+		engine.setThreads(2);
+		engine.setCacheFile(new File(this.folder.getRoot(), "dataset.chk.cache").getPath());
+		engine.run(StateModCheckEngine.getDefaultRules());
+		return engine.getCachedRuleCount();
+	}
+
+	/**
+	 * Test that the results are cached with the fingerprints taken before the dataset was read,
+	 * so that a file edited after it was read is checked again, and that no temporary files are left.
+	 */
+	@Test
+	public void testCacheUsesFingerprintsFromBeforeRead () throws Exception {
+		StateMod_DataSet dataset = StateModTestDataSet.fillSimulationDataSet(new StateMod_DataSet(), 1);
+		File networkFile = this.folder.newFile("dataset.rin");
+		Files.write(networkFile.toPath(), "A C\n".getBytes(StandardCharsets.UTF_8));
+		dataset.getComponentForComponentType(StateMod_DataSet.COMP_RIVER_NETWORK).setDataFileName(networkFile.getPath());
+		// The loader fingerprints the files and then reads them, and the file is edited after it was read
+		StateModDataSetLoader.setFingerprints(dataset,
+			Collections.singletonList(StateModFileFingerprint.create(networkFile.getPath())));
+		Files.write(networkFile.toPath(), "B C\n".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+		StateModTimeSeriesStore store = StateModTimeSeriesStore.createFromDataSet(dataset,
+			StateModIdRegistry.createFromDataSet(dataset), null);
+		int ruleCount = StateModCheckEngine.getDefaultRules().size();
+		int networkRuleCount = countRulesReading(StateMod_DataSet.COMP_RIVER_NETWORK);
+		assertTrue(networkRuleCount > 0);
+
+		assertEquals(0, runCheck(dataset, store));
+		// The network rules checked the dataset before the edit, so they must not be reused for the edited file
+		assertEquals(ruleCount - networkRuleCount, runCheck(dataset, store));
+
+		// Without fingerprints from before the read, rules that read a file are not cached
+		StateModDataSetLoader.setFingerprints(dataset, null);
+		assertEquals(ruleCount - networkRuleCount, runCheck(dataset, store));
+		assertEquals(ruleCount - networkRuleCount, runCheck(dataset, store));
+
+		// The cache was moved into place and no temporary files are left
+		List<String> names = new ArrayList<>();
+		for ( File file : this.folder.getRoot().listFiles() ) {
+			names.add(file.getName());
+			assertTrue(file.getName(), !file.getName().endsWith(".tmp"));
+		}
+		assertTrue(names.toString(), names.contains("dataset.chk.cache"));
+	}
+}
@@ -0,0 +1,110 @@
+// StateModDataSetSnapshotTest - test writing and restoring the time series of the binary dataset snapshot
+
+/* NoticeStart
+
+StateMod Java
+StateMod Java is a part of Colorado's Decision Support Systems (CDSS)
+Copyright (C) 2019 Colorado Department of Natural Resources
+
+StateMod Java is free software:  you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+StateMod Java is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+    along with StateMod Java.  If not, see <https://www.gnu.org/licenses/>.
+
+NoticeEnd */
+
+package cdss.statemod.app;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import DWR.StateMod.StateMod_DataSet;
+import RTi.TS.MonthTS;
+import RTi.TS.TS;
+import RTi.Util.IO.DataSetComponent;
+import RTi.Util.Time.DateTime;
+
+/**
+ * Test StateModDataSetSnapshot.
+ */
+public class StateModDataSetSnapshotTest {
+
+	/**
+	 * Set the file name of each component that has data, as reading the response file would.
+	 */
+	private static void setFileNames ( StateMod_DataSet dataset ) {
+		for ( DataSetComponent comp : dataset.getComponents() ) {
+			if ( comp.getData() != null ) {
+				comp.setDataFileName("comp" + comp.getComponentType() + ".txt");
+			}
+		}
+	}
+
+	/**
+	 * Test that the restored time series are the same as those written, including the missing value,
+	 * units, description, original period, and missing values.
+	 */
+	@Test
+	public void testTimeSeriesRoundTrip () throws Exception {
+		StateMod_DataSet dataset = StateModTestDataSet.fillSimulationDataSet(new StateMod_DataSet(), 1);
+		List<MonthTS> demands = new ArrayList<>();
+		MonthTS demand = StateModTestDataSet.createMonthTS("A", 1.5, -1.0, Double.NaN, 4.25);
+		demand.setMissing(-1.0);
+		demand.setDataUnits("ACFT");
+		demand.setDescription("Demand at A");
+		DateTime date1Original = new DateTime(demand.getDate1());
+		date1Original.addMonth(-12);
+		demand.setDate1Original(date1Original);
+		demand.setDate2Original(demand.getDate2());
+		demands.add(demand);
+		// A time series without a period
+		MonthTS empty = new MonthTS();
+		empty.setIdentifier("C.StateMod.Data.Month");
+		demands.add(empty);
+		StateModTestDataSet.setData(dataset, StateMod_DataSet.COMP_DEMAND_TS_MONTHLY, demands);
+		setFileNames(dataset);
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try ( DataOutputStream out = new DataOutputStream(bytes) ) {
+			StateModDataSetSnapshot.writeComponents(out, dataset);
+		}
+		// The restored dataset has the components other than time series as read from the response file
+		StateMod_DataSet restored = new StateMod_DataSet();
+		for ( DataSetComponent comp : dataset.getComponents() ) {
+			DataSetComponent restoredComp = restored.getComponentForComponentType(comp.getComponentType());
+			restoredComp.setDataFileName(comp.getDataFileName());
+			if ( !StateModDataSetLoader.isTimeSeriesComponent(comp.getComponentType()) ) {
+				restoredComp.setData(comp.getData());
+			}
+		}
+		int compCount = StateModDataSetSnapshot.readComponents(ByteBuffer.wrap(bytes.toByteArray()), restored);
+
+		assertEquals(2, compCount);
+		List<String> differences = StateModDataSetComparator.compare(dataset, restored);
+		assertTrue(differences.toString(), differences.isEmpty());
+		TS restoredDemand = (TS)StateModDataSetLoader.getComponentData(restored, StateMod_DataSet.COMP_DEMAND_TS_MONTHLY).get(0);
+		assertEquals(-1.0, restoredDemand.getMissing(), 0.0);
+		assertEquals("ACFT", restoredDemand.getDataUnits());
+		assertEquals(date1Original.toString(), restoredDemand.getDate1Original().toString());
+		DateTime date = new DateTime(demand.getDate1());
+		assertEquals(1.5, restoredDemand.getDataValue(date), 0.0);
+		date.addMonth(3);
+		assertEquals(4.25, restoredDemand.getDataValue(date), 0.0);
+	}
+}
@@ -0,0 +1,191 @@
+// StateModOutputComparatorTest - test comparing Java output with Fortran StateMod output
+
+
+/* NoticeStart
+
+StateMod Java
+StateMod Java is a part of Colorado's Decision Support Systems (CDSS)
+Copyright (C) 2019 Colorado Department of Natural Resources
+
+StateMod Java is free software:  you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+StateMod Java is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+    along with StateMod Java.  If not, see <https://www.gnu.org/licenses/>.
+
+NoticeEnd */
+
+package cdss.statemod.app;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import RTi.TS.MonthTS;
+import RTi.TS.TS;
+import RTi.Util.Time.DateTime;
+import RTi.Util.Time.TimeInterval;
+
+/**
+ * Test StateModOutputComparator with a Fortran StateMod reference.
+ * The reference is the time series that StateMod_BTS reads from a Fortran *.b43 file,
+ * with the station as the location and the Fortran parameter as the data type.
+ */
+public class StateModOutputComparatorTest {
+
+	/**
+	 * Folder for output files, deleted after each test.
+	 */
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	/**
+	 * Variables in the Java river node output file.
+	 */
+	private static final String [] NODE_VARIABLES = { "RiverFlow", "Demand", "Diverted", "Shortage" };
+
+	/**
+	 * Add a monthly time series starting in January 2000, as read by StateMod_BTS.
+	 */
+	private static void addTimeSeries ( List<TS> tslist, String station, String parameter, double ... values )
+		throws Exception {
+		MonthTS ts = new MonthTS();
+		ts.setIdentifier(station + ".StateMod." + parameter + ".Month");
+		DateTime date = new DateTime(DateTime.PRECISION_MONTH);
+		date.setYear(2000);
+		date.setMonth(1);
+		ts.setDate1(date);
+		DateTime date2 = new DateTime(date);
+		date2.addMonth(values.length - 1);
+		ts.setDate2(date2);
+		ts.allocateDataSpace();
+		for ( double value : values ) {
+			ts.setDataValue(date, value);
+			date.addMonth(1);
+		}
+		tslist.add(ts);
+	}
+
+	/**
+	 * Write a Java river node output file for stations A and B, three months starting in January 2000.
+	 */
+	private String writeOutput () throws IOException {
+		String file = new File(this.folder.getRoot(), "output" + StateModBinaryOutputWriter.NODE_EXTENSION).getPath();
+		try ( StateModBinaryOutputWriter writer = new StateModBinaryOutputWriter(file, new String [] { "A", "B" },
+			NODE_VARIABLES, TimeInterval.MONTH, 2000, 1, 1) ) {
+			writer.writeStep(0, new double [] { 100, 50 }, new double [] { 10, 20 }, new double [] { 10, 15 }, new double [] { 0, 5 });
+			writer.writeStep(1, new double [] { 90, 40 }, new double [] { 10, 20 }, new double [] { 10, 20 }, new double [] { 0, 0 });
+			writer.writeStep(2, new double [] { 80, 30 }, new double [] { 10, 20 }, new double [] { 5, 20 }, new double [] { 5, 0 });
+		}
+		return file;
+	}
+
+	/**
+	 * Return the Fortran reference time series, which match the output except for station B river flow
+	 * in February 2000, and have station C, which is not in the output.
+	 */
+	private static List<TS> createReference () throws Exception {
+		List<TS> tslist = new ArrayList<>();
+		addTimeSeries(tslist, "A", "River_Outflow", 100, 90, 80);
+		addTimeSeries(tslist, "A", "Total_Demand", 10, 10, 10);
+		addTimeSeries(tslist, "A", "Total_Supply", 10, 10, 5);
+		addTimeSeries(tslist, "A", "Total_Short", 0, 0, 5);
+		addTimeSeries(tslist, "B", "River_Outflow", 50, 45, 30);
+		addTimeSeries(tslist, "B", "Total_Demand", 20, 20, 20);
+		addTimeSeries(tslist, "B", "Total_Supply", 15, 20, 20);
+		addTimeSeries(tslist, "B", "Total_Short", 5, 0, 0);
+		addTimeSeries(tslist, "B", "Avail_Flow", 1, 2, 3);
+		addTimeSeries(tslist, "C", "River_Outflow", 7, 7, 7);
+		return tslist;
+	}
+
+	/**
+	 * Compare Java output with a Fortran reference, matching stations and mapping parameters onto variables.
+	 */
+	@Test
+	public void testCompareWithFortranReference () throws Exception {
+		String outputFile = writeOutput();
+		String referenceFile = new File(this.folder.getRoot(), "reference.b43").getPath();
+		StateModOutputComparator comparator = new StateModOutputComparator(outputFile, referenceFile);
+		List<StateModStationComparison> results;
+		try ( StateModOutputReader output = new StateModBinaryOutputReader(outputFile);
+			StateModOutputReader reference = new StateModFortranOutputReader(referenceFile,
+				StateModFortranOutputReader.getDefaultParameters(), createReference()) ) {
+			results = comparator.compare(output, reference);
+		}
+		assertEquals(3, results.size());
+		assertEquals("A", results.get(0).getStationId());
+		assertEquals(StateModStationComparison.STATUS_SAME, results.get(0).getStatus());
+		assertEquals(12, results.get(0).getValueCount());
+		StateModStationComparison b = results.get(1);
+		assertEquals(StateModStationComparison.STATUS_DIFFERENT, b.getStatus());
+		assertEquals(1, b.getDifferenceCount());
+		assertEquals(1, b.getFirstStep());
+		assertEquals(0, b.getFirstVariable());
+		assertEquals(40.0, b.getFirstValue(), 0.0);
+		assertEquals(45.0, b.getFirstReference(), 0.0);
+		assertEquals("C", results.get(2).getStationId());
+		assertEquals(StateModStationComparison.STATUS_NOT_IN_OUTPUT, results.get(2).getStatus());
+		assertTrue(comparator.getUncomparedVariables().isEmpty());
+	}
+
+	/**
+	 * Fortran parameters are read as the Java variable names, with NaN for time series that a station does not have.
+	 */
+	@Test
+	public void testFortranReaderMapsParameters () throws Exception {
+		try ( StateModOutputReader reference = new StateModFortranOutputReader("reference.b43",
+			StateModFortranOutputReader.getDefaultParameters(), createReference()) ) {
+			assertArrayEquals(NODE_VARIABLES, reference.getVariableNames());
+			assertEquals(3, reference.getStepCount());
+			assertEquals(2000, reference.getStartYear());
+			assertEquals(1, reference.getStartMonth());
+			StateModStationIndex stations = reference.getStationIndex();
+			assertEquals(3, stations.size());
+			float [] values = new float[2*3*NODE_VARIABLES.length];
+			reference.readSteps(1, 2, values);
+			int c = stations.getIndex("C");
+			assertEquals(7.0f, values[c*NODE_VARIABLES.length], 0.0f);
+			assertTrue(Float.isNaN(values[c*NODE_VARIABLES.length + 1]));
+			int b = stations.getIndex("B");
+			assertEquals(45.0f, values[b*NODE_VARIABLES.length], 0.0f);
+		}
+	}
+
+	/**
+	 * A reference file that is not a Java output file is read as a Fortran file, and an error names the file.
+	 */
+	@Test
+	public void testCompareReadsOtherFilesAsFortran () throws Exception {
+		String outputFile = writeOutput();
+		File referenceFile = new File(this.folder.getRoot(), "reference.b43");
+		try ( FileOutputStream out = new FileOutputStream(referenceFile) ) {
+			out.write(new byte[] { 1, 2, 3 });
+		}
+		try {
+			new StateModOutputComparator(outputFile, referenceFile.getPath()).compare();
+			fail("Expected an error reading an invalid Fortran output file.");
+		}
+		catch ( IOException e ) {
+			assertTrue(e.getMessage(), e.getMessage().contains("Fortran StateMod binary output file"));
+		}
+	}
+}
@@ -0,0 +1,82 @@
+// StateModRunServiceTest - test running requests with StateModRunService
+
+/* NoticeStart
+
+StateMod Java
+StateMod Java is a part of Colorado's Decision Support Systems (CDSS)
+Copyright (C) 2019 Colorado Department of Natural Resources
+
+StateMod Java is free software:  you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+StateMod Java is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+    along with StateMod Java.  If not, see <https://www.gnu.org/licenses/>.
+
+NoticeEnd */
+
+package cdss.statemod.app;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import DWR.StateMod.StateMod_DataSet;
+
+/**
+ * Test StateModRunService.
+ */
+public class StateModRunServiceTest {
+
+	/**
+	 * Folder for output files, deleted after each test.
+	 */
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	/**
+	 * Run a simulation of a dataset that has already been read.
+	 */
+	private StateModRunResult simulate ( StateMod_DataSet dataset, String name ) throws Exception {
+		String outputFileBase = new File(this.folder.getRoot(), name).getPath();
+		StateModRunRequest request = new StateModRunRequest(dataset, outputFileBase, StateModRunModeType.SIMULATE);
+		return StateModRunService.run(request, new StateModRunControl(), new StateModMetrics());
+	}
+
+	/**
+	 * Test that a lazy dataset shared by requests gives the same results for each run,
+	 * so the first run's time series store does not release the time series that later runs read.
+	 */
+	@Test
+	public void testSharedLazyDataSetRunsTwice () throws Exception {
+		StateModLazyDataSet dataset = StateModTestDataSet.fillSimulationDataSet(new StateModLazyDataSet(), 1);
+		StateModRunResult first = simulate(dataset, "first");
+		StateModRunResult second = simulate(dataset, "second");
+
+		assertTrue(first.getSimulationSummary().getTotalDemand() > 0.0);
+		assertEquals(first.getSimulationSummary().getTotalDemand(), second.getSimulationSummary().getTotalDemand(), 0.0);
+		assertEquals(first.getSimulationSummary().getTotalDiverted(), second.getSimulationSummary().getTotalDiverted(), 0.0);
+		// The shared dataset still has its time series
+		assertEquals(2, StateModDataSetLoader.getComponentData(dataset, StateMod_DataSet.COMP_DEMAND_TS_MONTHLY).size());
+		for ( int i = 0; i < first.getOutputFiles().size(); i++ ) {
+			byte [] firstBytes = Files.readAllBytes(Paths.get(first.getOutputFiles().get(i)));
+			byte [] secondBytes = Files.readAllBytes(Paths.get(second.getOutputFiles().get(i)));
+			assertTrue(firstBytes.length > 0);
+			assertTrue(Arrays.equals(firstBytes, secondBytes));
+		}
+	}
+}
@@ -0,0 +1,216 @@
+// StateModSimulatorTest - test the monthly simulation engine
+
+/* NoticeStart
+
+StateMod Java
+StateMod Java is a part of Colorado's Decision Support Systems (CDSS)
+Copyright (C) 2019 Colorado Department of Natural Resources
+
+StateMod Java is free software:  you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+StateMod Java is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+    along with StateMod Java.  If not, see <https://www.gnu.org/licenses/>.
+
+NoticeEnd */
+
+package cdss.statemod.app;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import DWR.StateMod.StateMod_DataSet;
+import DWR.StateMod.StateMod_DiversionRight;
+import DWR.StateMod.StateMod_Reservoir;
+import DWR.StateMod.StateMod_ReservoirRight;
+import DWR.StateMod.StateMod_RiverNetworkNode;
+import RTi.TS.MonthTS;
+import RTi.Util.Time.YearType;
+
+/**
+ * Test StateModSimulator.
+ */
+public class StateModSimulatorTest {
+
+	/**
+	 * Create a simulator for a dataset.
+	 */
+	private static StateModSimulator createSimulator ( StateMod_DataSet dataset ) {
+		StateModIdRegistry registry = StateModIdRegistry.createFromDataSet(dataset);
+		StateModNetwork network = StateModNetwork.createFromDataSet(dataset, registry);
+		StateModRightList rights = StateModRightList.createFromDataSet(dataset, network, registry);
+		StateModTimeSeriesStore store = StateModTimeSeriesStore.createFromDataSet(dataset, registry, null);
+		return new StateModSimulator(dataset, store, network, rights);
+	}
+
+	/**
+	 * Create a dataset with two outlets, each with more than one confluence:
+	 * A and B join at C, which joins D at E, which flows to F and the outlet; G and H join at I, which flows to J and
+	 * the outlet.  Headwaters have baseflows that vary by month, and diversions and a reservoir have rights with
+	 * priorities that alternate between tributaries and sub-basins.
+	 * @param years number of years
+	 */
+	private static StateMod_DataSet createMultipleConfluenceDataSet ( int years ) throws Exception {
+		StateMod_DataSet dataset = new StateMod_DataSet();
+		dataset.setIystr(StateModTestDataSet.START_YEAR);
+		dataset.setIyend(StateModTestDataSet.START_YEAR + years - 1);
+		List<StateMod_RiverNetworkNode> nodes = new ArrayList<>();
+		StateModTestDataSet.addNode(nodes, "A", "C");
+		StateModTestDataSet.addNode(nodes, "B", "C");
+		StateModTestDataSet.addNode(nodes, "C", "E");
+		StateModTestDataSet.addNode(nodes, "D", "E");
+		StateModTestDataSet.addNode(nodes, "E", "F");
+		StateModTestDataSet.addNode(nodes, "F", "END");
+		StateModTestDataSet.addNode(nodes, "G", "I");
+		StateModTestDataSet.addNode(nodes, "H", "I");
+		StateModTestDataSet.addNode(nodes, "I", "J");
+		StateModTestDataSet.addNode(nodes, "J", "END");
+		StateModTestDataSet.setData(dataset, StateMod_DataSet.COMP_RIVER_NETWORK, nodes);
+		List<MonthTS> baseflows = new ArrayList<>();
+		String [] headwaters = { "A", "B", "D", "G", "H" };
+		for ( int i = 0; i < headwaters.length; i++ ) {
+			baseflows.add(StateModTestDataSet.createMonthTS(headwaters[i], varying(31.7 + 13.1*i, years)));
+		}
+		StateModTestDataSet.setData(dataset, StateMod_DataSet.COMP_STREAMGAGE_NATURAL_FLOW_TS_MONTHLY, baseflows);
+		List<MonthTS> demands = new ArrayList<>();
+		String [] diversions = { "A", "C", "E", "F", "G", "I", "J" };
+		for ( int i = 0; i < diversions.length; i++ ) {
+			demands.add(StateModTestDataSet.createMonthTS(diversions[i], varying(17.3 + 7.9*i, years)));
+		}
+		StateModTestDataSet.setData(dataset, StateMod_DataSet.COMP_DEMAND_TS_MONTHLY, demands);
+		List<StateMod_DiversionRight> rights = new ArrayList<>();
+		StateModTestDataSet.addDiversionRight(rights, "F.01", "F", "1.00000", 0.9);
+		StateModTestDataSet.addDiversionRight(rights, "G.01", "G", "1.50000", 0.4);
+		StateModTestDataSet.addDiversionRight(rights, "A.01", "A", "2.00000", 0.7);
+		StateModTestDataSet.addDiversionRight(rights, "I.01", "I", "2.50000", 1.1);
+		StateModTestDataSet.addDiversionRight(rights, "E.01", "E", "3.00000", 0.6);
+		StateModTestDataSet.addDiversionRight(rights, "J.01", "J", "3.50000", 0.5);
+		StateModTestDataSet.addDiversionRight(rights, "C.01", "C", "4.00000", 1.3);
+		StateModTestDataSet.setData(dataset, StateMod_DataSet.COMP_DIVERSION_RIGHTS, rights);
+		List<StateMod_Reservoir> reservoirs = new ArrayList<>();
+		StateModTestDataSet.addReservoir(reservoirs, "D", 500.0, -1);
+		StateModTestDataSet.setData(dataset, StateMod_DataSet.COMP_RESERVOIR_STATIONS, reservoirs);
+		List<StateMod_ReservoirRight> reservoirRights = new ArrayList<>();
+		StateModTestDataSet.addReservoirRight(reservoirRights, "D.01", "D", "2.20000", 150.0);
+		StateModTestDataSet.setData(dataset, StateMod_DataSet.COMP_RESERVOIR_RIGHTS, reservoirRights);
+		return dataset;
+	}
+
+	/**
+	 * Run a simulation and return the flow, diversion, and reservoir results of each time step, one after the other.
+	 * @param dataset dataset to simulate
+	 * @param threads number of threads
+	 */
+	private static List<double[]> simulate ( StateMod_DataSet dataset, int threads ) {
+		StateModSimulator simulator = createSimulator(dataset);
+		simulator.setThreads(threads);
+		final List<double[]> results = new ArrayList<>();
+		simulator.addListener(new StateModSimulationListener() {
+			@Override
+			public void timeStepCompleted ( StateModSimulator simulator, int step ) {
+				results.add(simulator.getFlow().clone());
+				results.add(simulator.getDiverted().clone());
+				results.add(simulator.getReservoirStored().clone());
+				results.add(simulator.getReservoirContent().clone());
+			}
+		});
+		simulator.run();
+		return results;
+	}
+
+	/**
+	 * Return monthly values that vary from month to month and are not exact in binary,
+	 * so that results depend on the order of the arithmetic.
+	 */
+	private static double [] varying ( double value, int years ) {
+		double [] values = new double[12*years];
+		for ( int i = 0; i < values.length; i++ ) {
+			values[i] = value*(1.0 + 0.37*Math.sin(0.5*i)) + 0.1*(i % 7);
+		}
+		return values;
+	}
+
+	/**
+	 * Test that simulating tributary reaches and sub-basins on more than one thread gives results that are
+	 * bit-identical to a single-threaded run, for a network with two outlets and more than one confluence in each.
+	 */
+	@Test
+	public void testThreadsGiveIdenticalResults () throws Exception {
+		StateMod_DataSet dataset = createMultipleConfluenceDataSet(3);
+		StateModSubBasins subBasins = createSimulator(dataset).getSubBasins();
+		assertEquals(2, subBasins.getBasinCount());
+		assertTrue(subBasins.getReachCount() > 4);
+
+		List<double[]> expected = simulate(dataset, 1);
+		assertTrue(expected.size() > 0);
+		for ( int threads : new int[] { 2, 4 } ) {
+			for ( int run = 0; run < 5; run++ ) {
+				List<double[]> results = simulate(dataset, threads);
+				assertEquals(expected.size(), results.size());
+				for ( int i = 0; i < expected.size(); i++ ) {
+					assertTrue("result " + i + " differs with " + threads + " threads",
+						Arrays.equals(expected.get(i), results.get(i)));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Test that each reservoir's annual decree starts over in its own administration month,
+	 * or in the first month of the control file year type if it does not have one.
+	 */
+	@Test
+	public void testReservoirDecreeStartsInAdministrationMonth () throws Exception {
+		StateMod_DataSet dataset = StateModTestDataSet.fillSimulationDataSet(new StateMod_DataSet(), 3);
+		// Water years, October START_YEAR to September START_YEAR + 2, which are in the period of the time series
+		dataset.setCyrl(YearType.WATER);
+		dataset.setIystr(StateModTestDataSet.START_YEAR + 1);
+		dataset.setIyend(StateModTestDataSet.START_YEAR + 2);
+		// A senior reservoir at headwater B, with the capacity to store more than its decree each month
+		List<StateMod_Reservoir> reservoirs = new ArrayList<>();
+		StateModTestDataSet.addReservoir(reservoirs, "B", 100000.0, 4);
+		StateModTestDataSet.setData(dataset, StateMod_DataSet.COMP_RESERVOIR_STATIONS, reservoirs);
+		List<StateMod_ReservoirRight> rights = new ArrayList<>();
+		StateModTestDataSet.addReservoirRight(rights, "B.01", "B", "0.50000", 20.0);
+		StateModTestDataSet.setData(dataset, StateMod_DataSet.COMP_RESERVOIR_RIGHTS, rights);
+
+		StateModSimulator simulator = createSimulator(dataset);
+		int reservoir = simulator.getReservoirStored().length - 1;
+		simulator.initialize();
+		double [] stored = new double[simulator.getStepCount()];
+		for ( int step = 0; step < stored.length; step++ ) {
+			simulator.runSteps(step, step + 1);
+			stored[step] = simulator.getReservoirStored()[reservoir];
+		}
+		// The decree is available in the first month and each April, not in November or October
+		for ( int step = 0; step < stored.length; step++ ) {
+			int month = simulator.getStepMonth(step);
+			double expected = ((step == 0) || (month == 4)) ? 20.0 : 0.0;
+			assertEquals("month " + month + " of step " + step, expected, stored[step], 1.0e-6);
+		}
+
+		// Without an administration date the water year starts in October
+		reservoirs.get(0).setRdate(-1);
+		simulator = createSimulator(dataset);
+		simulator.initialize();
+		for ( int step = 0; step < stored.length; step++ ) {
+			simulator.runSteps(step, step + 1);
+			int month = simulator.getStepMonth(step);
+			double expected = ((step == 0) || (month == 10)) ? 20.0 : 0.0;
+			assertEquals("month " + month + " of step " + step, expected, simulator.getReservoirStored()[reservoir], 1.0e-6);
+		}
+	}
+}
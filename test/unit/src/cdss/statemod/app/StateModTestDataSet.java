@@ -0,0 +1,184 @@
+// StateModTestDataSet - small in-memory datasets for tests
+
+/* NoticeStart
+
+StateMod Java
+StateMod Java is a part of Colorado's Decision Support Systems (CDSS)
+Copyright (C) 2019 Colorado Department of Natural Resources
+
+StateMod Java is free software:  you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+StateMod Java is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+    along with StateMod Java.  If not, see <https://www.gnu.org/licenses/>.
+
+NoticeEnd */
+
+package cdss.statemod.app;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import DWR.StateMod.StateMod_DataSet;
+import DWR.StateMod.StateMod_DiversionRight;
+import DWR.StateMod.StateMod_Reservoir;
+import DWR.StateMod.StateMod_ReservoirRight;
+import DWR.StateMod.StateMod_RiverNetworkNode;
+import RTi.TS.MonthTS;
+import RTi.Util.Time.DateTime;
+
+/**
+ * Build small in-memory datasets for tests, with the components set as StateMod_DataSet.readStateModFile() would.
+ * Time series are monthly and start in January of START_YEAR.
+ */
+public class StateModTestDataSet {
+
+	/**
+	 * First year of the time series and control period.
+	 */
+	public static final int START_YEAR = 2000;
+
+	/**
+	 * Add a diversion right.
+	 * @param rights list to add to
+	 * @param id right identifier
+	 * @param node node of the diversion structure
+	 * @param admin administration number
+	 * @param decree decree, CFS
+	 */
+	public static void addDiversionRight ( List<StateMod_DiversionRight> rights, String id, String node,
+		String admin, double decree ) {
+		StateMod_DiversionRight right = new StateMod_DiversionRight();
+		right.setID(id);
+		right.setCgoto(node);
+		right.setIrtem(admin);
+		right.setDcrdiv(decree);
+		rights.add(right);
+	}
+
+	/**
+	 * Add a river network node.
+	 * @param nodes list to add to
+	 * @param id node identifier
+	 * @param downstream downstream node identifier, "END" for an outlet
+	 */
+	public static void addNode ( List<StateMod_RiverNetworkNode> nodes, String id, String downstream ) {
+		StateMod_RiverNetworkNode node = new StateMod_RiverNetworkNode();
+		node.setID(id);
+		node.setCstadn(downstream);
+		nodes.add(node);
+	}
+
+	/**
+	 * Add a reservoir station.
+	 * @param reservoirs list to add to
+	 * @param id reservoir identifier, which is also its river network node
+	 * @param capacity maximum content, ACFT
+	 * @param rdate month (1-12) in which the annual decrees start over, -1 to use the control file year type
+	 */
+	public static void addReservoir ( List<StateMod_Reservoir> reservoirs, String id, double capacity, int rdate ) {
+		StateMod_Reservoir reservoir = new StateMod_Reservoir();
+		reservoir.setID(id);
+		reservoir.setCgoto(id);
+		reservoir.setVolmax(capacity);
+		reservoir.setRdate(rdate);
+		reservoirs.add(reservoir);
+	}
+
+	/**
+	 * Add a reservoir right.
+	 * @param rights list to add to
+	 * @param id right identifier
+	 * @param node node of the reservoir
+	 * @param admin administration number
+	 * @param decree annual decree, ACFT
+	 */
+	public static void addReservoirRight ( List<StateMod_ReservoirRight> rights, String id, String node,
+		String admin, double decree ) {
+		StateMod_ReservoirRight right = new StateMod_ReservoirRight();
+		right.setID(id);
+		right.setCgoto(node);
+		right.setIrtem(admin);
+		right.setDcrres(decree);
+		rights.add(right);
+	}
+
+	/**
+	 * Create a monthly time series starting in January of START_YEAR.
+	 * @param id station identifier
+	 * @param values monthly values
+	 */
+	public static MonthTS createMonthTS ( String id, double ... values ) throws Exception {
+		MonthTS ts = new MonthTS();
+		ts.setIdentifier(id + ".StateMod.Data.Month");
+		DateTime date = new DateTime(DateTime.PRECISION_MONTH);
+		date.setYear(START_YEAR);
+		date.setMonth(1);
+		ts.setDate1(date);
+		DateTime date2 = new DateTime(date);
+		date2.addMonth(values.length - 1);
+		ts.setDate2(date2);
+		ts.allocateDataSpace();
+		for ( double value : values ) {
+			ts.setDataValue(date, value);
+			date.addMonth(1);
+		}
+		return ts;
+	}
+
+	/**
+	 * Return monthly values that repeat a value for each month of a number of years.
+	 */
+	public static double [] repeat ( double value, int years ) {
+		double [] values = new double[12*years];
+		Arrays.fill(values, value);
+		return values;
+	}
+
+	/**
+	 * Fill a dataset with a small network for simulation, for the calendar years START_YEAR to START_YEAR + years - 1:
+	 * headwater nodes A and B join at C, which flows to the outlet D.  A and B have baseflows, and diversions at A and C
+	 * have demands and rights, with the senior right at C.
+	 * @param dataset dataset to fill, for example a new StateMod_DataSet or StateModLazyDataSet
+	 * @param years number of years
+	 * @return the dataset
+	 */
+	public static <T extends StateMod_DataSet> T fillSimulationDataSet ( T dataset, int years ) throws Exception {
+		dataset.setIystr(START_YEAR);
+		dataset.setIyend(START_YEAR + years - 1);
+		List<StateMod_RiverNetworkNode> nodes = new ArrayList<>();
+		addNode(nodes, "A", "C");
+		addNode(nodes, "B", "C");
+		addNode(nodes, "C", "D");
+		addNode(nodes, "D", "END");
+		setData(dataset, StateMod_DataSet.COMP_RIVER_NETWORK, nodes);
+		List<MonthTS> baseflows = new ArrayList<>();
+		baseflows.add(createMonthTS("A", repeat(100.0, years)));
+		baseflows.add(createMonthTS("B", repeat(50.0, years)));
+		setData(dataset, StateMod_DataSet.COMP_STREAMGAGE_NATURAL_FLOW_TS_MONTHLY, baseflows);
+		List<MonthTS> demands = new ArrayList<>();
+		demands.add(createMonthTS("A", repeat(80.0, years)));
+		demands.add(createMonthTS("C", repeat(120.0, years)));
+		setData(dataset, StateMod_DataSet.COMP_DEMAND_TS_MONTHLY, demands);
+		List<StateMod_DiversionRight> rights = new ArrayList<>();
+		addDiversionRight(rights, "A.01", "A", "2.00000", 60.0);
+		addDiversionRight(rights, "C.01", "C", "1.00000", 100.0);
+		setData(dataset, StateMod_DataSet.COMP_DIVERSION_RIGHTS, rights);
+		return dataset;
+	}
+
+	/**
+	 * Set the data for a component.
+	 */
+	public static void setData ( StateMod_DataSet dataset, int compType, List<?> data ) {
+		dataset.getComponentForComponentType(compType).setData(data);
+	}
+}
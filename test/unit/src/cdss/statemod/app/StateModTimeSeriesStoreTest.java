@@ -0,0 +1,157 @@
+// StateModTimeSeriesStoreTest - test the columnar time series store
+
+/* NoticeStart
+
+StateMod Java
+StateMod Java is a part of Colorado's Decision Support Systems (CDSS)
+Copyright (C) 2019 Colorado Department of Natural Resources
+
+StateMod Java is free software:  you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+StateMod Java is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+    along with StateMod Java.  If not, see <https://www.gnu.org/licenses/>.
+
+NoticeEnd */
+
+package cdss.statemod.app;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import DWR.StateMod.StateMod_DataSet;
+import DWR.StateMod.StateMod_Diversion;
+import RTi.TS.MonthTS;
+import RTi.Util.Time.DateTime;
+
+/**
+ * Test StateModTimeSeriesStore.
+ */
+public class StateModTimeSeriesStoreTest {
+
+	/**
+	 * Folder for spill files, deleted after each test.
+	 */
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	/**
+	 * Create a monthly time series starting in January 2000.
+	 */
+	private static MonthTS createTimeSeries ( String id, double ... values ) throws Exception {
+		MonthTS ts = new MonthTS();
+		ts.setIdentifier(id + ".StateMod.Demand.Month");
+		DateTime date = new DateTime(DateTime.PRECISION_MONTH);
+		date.setYear(2000);
+		date.setMonth(1);
+		ts.setDate1(date);
+		DateTime date2 = new DateTime(date);
+		date2.addMonth(values.length - 1);
+		ts.setDate2(date2);
+		ts.allocateDataSpace();
+		for ( double value : values ) {
+			ts.setDataValue(date, value);
+			date.addMonth(1);
+		}
+		return ts;
+	}
+
+	/**
+	 * Wait for a reference to be cleared by garbage collection.
+	 * @return true if the reference was cleared
+	 */
+	private static boolean isCollected ( WeakReference<?> ref ) throws InterruptedException {
+		for ( int i = 0; (i < 50) && (ref.get() != null); i++ ) {
+			System.gc();
+			Thread.sleep(20);
+		}
+		return ref.get() == null;
+	}
+
+	/**
+	 * Test that once the store is created and the dataset time series are released, the time series objects
+	 * are not referenced by the dataset components or the stations and can be reclaimed.
+	 */
+	@Test
+	public void testReleasedTimeSeriesAreUnreachable () throws Exception {
+		StateMod_DataSet dataset = new StateMod_DataSet();
+		StateMod_Diversion diversion = new StateMod_Diversion();
+		diversion.setID("D1");
+		List<StateMod_Diversion> diversions = new ArrayList<>();
+		diversions.add(diversion);
+		dataset.getComponentForComponentType(StateMod_DataSet.COMP_DIVERSION_STATIONS).setData(diversions);
+		List<MonthTS> demands = new ArrayList<>();
+		demands.add(createTimeSeries("D1", 10.0, 20.0, 30.0));
+		dataset.getComponentForComponentType(StateMod_DataSet.COMP_DEMAND_TS_MONTHLY).setData(demands);
+		StateModDataSetLoader.connectTimeSeries(dataset);
+		assertSame(demands.get(0), diversion.getDemandMonthTS());
+		WeakReference<MonthTS> ref = new WeakReference<>(demands.get(0));
+		demands = null;
+
+		StateModTimeSeriesStore store = StateModTimeSeriesStore.createFromDataSet(dataset,
+			StateModIdRegistry.createFromDataSet(dataset), null);
+		store.releaseDataSetTimeSeries(dataset);
+
+		assertNull(diversion.getDemandMonthTS());
+		assertEquals(0, StateModDataSetLoader.getComponentData(dataset, StateMod_DataSet.COMP_DEMAND_TS_MONTHLY).size());
+		assertTrue("time series object is still reachable after release", isCollected(ref));
+		// The store holds the only copy of the values
+		StateModTimeSeriesColumn column = store.getColumn(StateModTimeSeriesType.DEMAND_MONTHLY);
+		assertNotNull(column);
+		int station = column.getStationIndex().getIndex("D1");
+		assertEquals(10.0, column.get(station, 0), 0.0);
+		assertEquals(30.0, column.get(station, 2), 0.0);
+	}
+
+	/**
+	 * Test that the cache blocks of a scenario copy of a column are freed when the copy is released,
+	 * so that the next copy uses the same spill file space.
+	 */
+	@Test
+	public void testReleasedCopyReusesCacheBlocks () throws Exception {
+		StateMod_DataSet dataset = new StateMod_DataSet();
+		List<MonthTS> demands = new ArrayList<>();
+		demands.add(createTimeSeries("D1", 10.0, 20.0, 30.0));
+		demands.add(createTimeSeries("D2", 1.0, 2.0, 3.0));
+		dataset.getComponentForComponentType(StateMod_DataSet.COMP_DEMAND_TS_MONTHLY).setData(demands);
+		try ( StateModTimeSeriesCache cache = new StateModTimeSeriesCache(64, this.folder.newFile("spill.bin"), null) ) {
+			StateModTimeSeriesStore store = StateModTimeSeriesStore.createFromDataSet(dataset,
+				StateModIdRegistry.createFromDataSet(dataset), cache);
+			StateModTimeSeriesColumn column = store.getColumn(StateModTimeSeriesType.DEMAND_MONTHLY);
+			long baseBytes = cache.getSpillBytes();
+
+			StateModTimeSeriesStore copy = store.copyWithColumn(column.copy());
+			long copyBytes = cache.getSpillBytes();
+			assertTrue(copyBytes > baseBytes);
+			copy.releaseColumns(store);
+			StateModTimeSeriesColumn copyColumn = column.copy();
+			copyColumn.multiply(-1, 2.0);
+
+			assertEquals(copyBytes, cache.getSpillBytes());
+			int station = column.getStationIndex().getIndex("D1");
+			for ( int step = 0; step < 3; step++ ) {
+				assertEquals(2.0*column.get(station, step), copyColumn.get(station, step), 0.0);
+			}
+			// The base column is not changed by the reuse
+			assertEquals(30.0, column.get(station, 2), 0.0);
+		}
+	}
+}